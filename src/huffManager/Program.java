@@ -1,15 +1,19 @@
 package huffManager;
 
+import huffManager.cli.CommandLine;
 import huffManager.ui.*;
 
 /**
- * The class that serves as an entry point to the whole Program. It invokes the {@link ArchiveExplorerFrame}.
+ * The class that serves as an entry point to the whole Program. Without arguments it invokes the
+ * {@link ArchiveExplorerFrame}, with arguments it runs the headless {@link CommandLine}, which does not load AWT.
  *
  * @author Jan Bryda
  */
 public class Program {
 
     public static void main(String[] args) throws Exception {
+        if (args.length > 0)
+            System.exit(new CommandLine(System.out, System.err).run(args));
 
         new ArchiveExplorerFrame();
     }
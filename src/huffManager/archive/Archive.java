@@ -1,5 +1,7 @@
 package huffManager.archive;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -7,8 +9,14 @@ import java.util.List;
  * subdirectories and files.
  * @author Jan Bryda
  */
-public class Archive {
+public class Archive implements Closeable {
     ArchiveDirectory rootDirectory = new ArchiveDirectory("root_directory");
+    /** shared channel of the archive file this archive was loaded from, or null */
+    ArchiveChannel archiveChannel;
+    /** index of files built from the directory structure, rebuilt when the structure changes */
+    private MemoryArchiveIndex index;
+    private ArchiveDirectory indexedRoot;
+    private long indexedModificationCount;
 
     /**
      * Gets the root directory of the archive.
@@ -34,6 +42,59 @@ public class Archive {
         return rootDirectory.getAllFiles();
     }
 
+    /**
+     * Finds the file with given full path (names of its directories and its name separated by '/').
+     * @param path full path of the file
+     * @return file with that path, or null if there is none
+     */
+    public ArchiveFile lookup(String path) {
+        return getIndex().lookup(path);
+    }
+
+    /**
+     * Lists the sorted full paths of files that start with given prefix.
+     * @param prefix path prefix
+     * @return sorted list of matching paths
+     */
+    public List<String> list(String prefix) {
+        return getIndex().list(prefix);
+    }
+
+    /**
+     * Lists the sorted full paths of files that match given glob pattern.
+     * @param pattern glob pattern, see {@link ArchiveIndex#glob(String)}
+     * @return sorted list of matching paths
+     */
+    public List<String> glob(String pattern) {
+        return getIndex().glob(pattern);
+    }
+
+    /**
+     * Gets the index of files of this archive. Index is built when it is first needed and rebuilt after the
+     * directory structure changes.
+     * @return index of files
+     */
+    public synchronized ArchiveIndex getIndex() {
+        if (index == null || indexedRoot != rootDirectory
+                || indexedModificationCount != rootDirectory.modificationCount) {
+            index = new MemoryArchiveIndex(rootDirectory);
+            indexedRoot = rootDirectory;
+            indexedModificationCount = rootDirectory.modificationCount;
+        }
+        return index;
+    }
+
+    /**
+     * Closes the archive file this archive was loaded from (if it is kept open). Files of the archive that
+     * are stored in the archive file can't be read after closing.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (archiveChannel != null)
+            archiveChannel.close();
+    }
+
     // static properties of archives that are used by ArchiveLoader/Saver classes
 
     /**
@@ -64,12 +125,122 @@ public class Archive {
     static final byte FILE = (byte)'F';
 
     /**
-     * This value in the beginning of file
+     * This byte in archive description (header) marks the definition of solid block. Solid blocks are numbered
+     * in the order of their definitions, which precede the definitions of files stored in them.
+     */
+    static final byte SOLID_BLOCK = (byte)'B';
+
+    /**
+     * This byte in archive description (header) marks the definition of file stored in a solid block.
+     */
+    static final byte SOLID_FILE = (byte)'S';
+
+    /**
+     * This byte in archive description (header) marks the definition of chunk in the chunk store. Chunks are
+     * numbered in the order of their definitions, which precede the definitions of files made of them.
+     */
+    static final byte CHUNK = (byte)'C';
+
+    /**
+     * This byte in archive description (header) marks the definition of file stored as a list of chunks.
+     */
+    static final byte CHUNKED_FILE = (byte)'K';
+
+    /**
+     * This byte in archive description (header) marks the definition of file with its full path. These flat
+     * records are written by {@link ArchiveWriter}, directories of the path are created when loading.
+     */
+    static final byte PATH_FILE = (byte)'P';
+
+    /**
+     * This byte in archive description (header) marks the attributes of the file defined right after them:
+     * time of last modification of its source and the checksum of its contents.
+     */
+    static final byte FILE_ATTRIBUTES = (byte)'T';
+
+    /**
+     * Length of the fingerprint of chunk contents (in bytes).
+     */
+    static final int FINGERPRINT_LENGTH = 16;
+
+    /**
+     * This value in the beginning of file identifies the legacy (version 1) archive format, where the header is
+     * found by scanning for the {@link Archive#START_OF_HEADER} marker.
      */
     static final long ARCHIVE_IDENTIFIER = 0x4152434849564500L;
 
     /**
-     * Buffer size used when loading / saving archive.
+     * This value in the beginning of file identifies the indexed (version 2) archive format, where the header is
+     * located through the footer at the end of the file.
+     */
+    static final long ARCHIVE_IDENTIFIER_V2 = 0x4152434849563200L;
+
+    /**
+     * This value closes the footer of indexed archive. It is used to check that the footer was found.
+     */
+    static final long FOOTER_IDENTIFIER = 0x464F4F5445520000L;
+
+    /**
+     * Size of the footer of indexed archive (in bytes). Footer consists of physical offset of the header, length
+     * of the header, format flags and the {@link Archive#FOOTER_IDENTIFIER}.
+     */
+    static final int FOOTER_SIZE = 4 * 8;
+
+    /**
+     * Footer flag of indexed archive, which says that the data of files are stored verbatim (no bytes are
+     * escaped) and that offsets stored in header are physical offsets in the archive file.
+     */
+    static final long FLAG_RAW_FRAMING = 0x1L;
+
+    /**
+     * Footer flag of indexed archive, which says that the index of files by their full paths (see
+     * {@link PersistedArchiveIndex}) is stored between the header and the footer.
+     */
+    static final long FLAG_PATH_INDEX = 0x2L;
+
+    /**
+     * Footer flag of indexed archive, which says that the data of every file are preceded by a local header,
+     * so the archive can be read in one forward pass (see {@link ArchiveReader}).
+     */
+    static final long FLAG_LOCAL_HEADERS = 0x4L;
+
+    /**
+     * This value starts the local header of file, which precedes its data. Local header consists of this
+     * identifier, codec ID, size of file, length of the data and the full path of file.
+     */
+    static final long LOCAL_HEADER_IDENTIFIER = 0x454E545259000000L;
+
+    /**
+     * This value marks the end of files with local headers, the header of the archive follows it.
+     */
+    static final long LOCAL_END_IDENTIFIER = 0x454E445300000000L;
+
+    /**
+     * Footer flag of indexed archive, which says that the archive is a volume set (see {@link ArchiveVolumes}),
+     * so offsets stored in header are positions in the concatenated data of its volumes.
+     */
+    static final long FLAG_VOLUMES = 0x8L;
+
+    /**
+     * Footer flag of indexed archive, which says that the header is written in the compact encoding (see
+     * {@link CompactHeader}) instead of the records of fixed length numbers.
+     */
+    static final long FLAG_COMPACT_HEADER = 0x10L;
+
+    /**
+     * This value starts the volume header at the beginning of every volume of volume set.
+     */
+    static final long VOLUME_IDENTIFIER = 0x564F4C554D450000L;
+
+    /**
+     * Size of the volume header (in bytes). Volume header consists of the {@link Archive#VOLUME_IDENTIFIER},
+     * ID of the volume set, number of the volume, number of volumes in the set and the maximal size of volume.
+     */
+    static final int VOLUME_HEADER_SIZE = 4 * 8;
+
+    /**
+     * Maximal buffer size used when loading / saving archive. Buffers are taken from the shared
+     * {@link huffManager.memory.BufferPool} and sized by the length of data they buffer.
      */
-    static final int BUFFER_SIZE = 10*1024*1024;
+    static final int BUFFER_SIZE = 1024 * 1024;
 }
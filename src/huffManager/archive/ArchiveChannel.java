@@ -0,0 +1,368 @@
+package huffManager.archive;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.Arrays;
+
+/**
+ * Read-only access to the archive file that is shared by all files of the loaded archive. Data are read with
+ * positional reads of {@link FileChannel}, so no stream has to be reopened and skipped to get to the data of
+ * a file, and many threads can read different files at once.
+ * <p>
+ * The channel reads volume sets (see {@link ArchiveVolumes}) too, it is then opened from any volume of the set.
+ * Every volume is read through its own file channel, offsets are positions in the concatenated data of volumes
+ * and each read is directed to the volume that holds the position, so reads of different volumes run
+ * concurrently on separate channels.
+ * @author Jan Bryda
+ */
+public class ArchiveChannel implements Closeable {
+    /** size of buffer used by streams reading segments of the archive */
+    static final int SEGMENT_BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    /** volume files, the archive file alone if it is not a volume set */
+    private final File[] volumeFiles;
+    private final FileChannel[] channels;
+    /** offsets where the data of volumes start */
+    private final long[] volumeStarts;
+    /** physical offset of the data in every volume */
+    private final long dataOffset;
+    /** tells whether the channel is closed, it is set before the decoded data are removed from the cache */
+    private volatile boolean closed = false;
+
+    /**
+     * Opens the archive file, or all volumes of the volume set, for reading.
+     * @param file archive file, or any volume of volume set
+     * @throws IOException
+     */
+    public ArchiveChannel(File file) throws IOException {
+        this.file = file;
+        File[] volumes = ArchiveVolumes.find(file);
+        this.volumeFiles = volumes != null ? volumes : new File[]{file};
+        this.dataOffset = volumes != null ? Archive.VOLUME_HEADER_SIZE : 0;
+        this.channels = new FileChannel[volumeFiles.length];
+        this.volumeStarts = new long[volumeFiles.length];
+
+        boolean opened = false;
+        try {
+            long start = 0;
+            for (int i = 0; i < channels.length; i++) {
+                channels[i] = FileChannel.open(volumeFiles[i].toPath(), StandardOpenOption.READ);
+                volumeStarts[i] = start;
+                start += channels[i].size() - dataOffset;
+            }
+            opened = true;
+        } finally {
+            if (!opened)
+                close();
+        }
+    }
+
+    /**
+     * Gets the archive file this channel reads.
+     * @return archive file, or the volume the volume set was opened from
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Tells whether this channel reads a volume set.
+     * @return true if the archive is a volume set
+     */
+    public boolean isVolumeSet() {
+        return dataOffset != 0;
+    }
+
+    /**
+     * Gets the number of volumes read by this channel.
+     * @return number of volumes, 1 if the archive is not a volume set
+     */
+    public int getVolumeCount() {
+        return channels.length;
+    }
+
+    /**
+     * Tells whether this channel reads given archive file. A volume set is read if the file is any of its
+     * volumes or the name of the set.
+     * @param archiveFile archive file
+     * @return true if the data of the archive file are read through this channel
+     * @throws IOException
+     */
+    boolean reads(File archiveFile) throws IOException {
+        if (!isVolumeSet())
+            return archiveFile.exists() && Files.isSameFile(file.toPath(), archiveFile.toPath());
+
+        File setFile = ArchiveVolumes.getArchiveFile(volumeFiles[0]);
+        File otherSetFile = archiveFile.isFile() ? ArchiveVolumes.getArchiveFile(archiveFile) : archiveFile;
+        return otherSetFile != null && setFile.getCanonicalFile().equals(otherSetFile.getCanonicalFile());
+    }
+
+    /**
+     * Gets the current size of the archive file.
+     * @return size of archive file (in bytes), the size of data of all volumes for volume set
+     * @throws IOException
+     */
+    public long size() throws IOException {
+        int last = channels.length - 1;
+        return volumeStarts[last] + channels[last].size() - dataOffset;
+    }
+
+    /**
+     * Opens the stream that reads given segment of the archive. Streams are independent of each other, so
+     * they can be used from different threads.
+     * @param offset physical offset of the segment
+     * @param length length of the segment (in bytes)
+     * @return stream of segment data
+     */
+    public InputStream openSegment(long offset, long length) {
+        return new ChannelSegmentInputStream(this::read, offset, length);
+    }
+
+    /**
+     * Reads the archive at given position into the buffer. At most the bytes up to the end of the volume that
+     * holds the position are read.
+     * @param target target buffer
+     * @param position position in the archive
+     * @return number of bytes read, -1 at the end of archive
+     * @throws IOException
+     */
+    int read(ByteBuffer target, long position) throws IOException {
+        int volume = findVolume(position);
+        long physicalPosition = position - volumeStarts[volume] + dataOffset;
+        long available = volume == channels.length - 1 ? Long.MAX_VALUE : volumeStarts[volume + 1] - position;
+        if (target.remaining() <= available)
+            return channels[volume].read(target, physicalPosition);
+
+        int limit = target.limit();
+        target.limit(target.position() + (int) available);
+        try {
+            return channels[volume].read(target, physicalPosition);
+        } finally {
+            target.limit(limit);
+        }
+    }
+
+    /**
+     * Finds the volume that holds given position.
+     * @param position position in the archive
+     * @return index of the volume
+     */
+    private int findVolume(long position) {
+        int volume = Arrays.binarySearch(volumeStarts, position);
+        if (volume < 0)
+            volume = Math.max(0, -volume - 2);
+        while (volume < channels.length - 1 && volumeStarts[volume + 1] <= position)
+            volume++;
+        return volume;
+    }
+
+    /**
+     * Reads the whole segment of the archive into a byte array.
+     * @param offset physical offset of the segment
+     * @param length length of the segment (in bytes)
+     * @return segment data
+     * @throws IOException when the archive ends before the end of segment
+     */
+    public byte[] readSegment(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (read(buffer, offset + buffer.position()) == -1)
+                throw new EOFException("Archive ended before the end of segment!");
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Maps given segment of the archive into memory for reading. Segment of volume set that spans more volumes
+     * is read into a buffer instead.
+     * @param offset physical offset of the segment
+     * @param length length of the segment (in bytes)
+     * @return buffer with the segment data
+     * @throws IOException when the segment is too large to be mapped
+     */
+    public ByteBuffer map(long offset, long length) throws IOException {
+        if (length > Integer.MAX_VALUE)
+            throw new IOException("Archive segment is too large to be mapped!");
+
+        int volume = findVolume(offset);
+        if (volume < channels.length - 1 && offset + length > volumeStarts[volume + 1])
+            return ByteBuffer.wrap(readSegment(offset, (int) length)).asReadOnlyBuffer();
+
+        return channels[volume].map(FileChannel.MapMode.READ_ONLY, offset - volumeStarts[volume] + dataOffset, length);
+    }
+
+    /**
+     * Transfers given segment of the archive into target channel without copying it through user space, if
+     * the operating system is able to do so.
+     * @param offset physical offset of the segment
+     * @param length length of the segment (in bytes)
+     * @param target target channel
+     * @throws IOException
+     */
+    public void transferTo(long offset, long length, WritableByteChannel target) throws IOException {
+        while (length > 0) {
+            int volume = findVolume(offset);
+            long count = volume == channels.length - 1
+                    ? length : Math.min(length, volumeStarts[volume + 1] - offset);
+            ArchiveFile.transfer(channels[volume], offset - volumeStarts[volume] + dataOffset, count, target);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Tells whether the channel is open.
+     * @return true if the channel was not closed
+     */
+    public boolean isOpen() {
+        return !closed && channels[0] != null && channels[0].isOpen();
+    }
+
+    /**
+     * Closes the files of the archive. Decoded data of the archive are removed from the shared cache
+     * (see {@link DecodedBlockCache}).
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        DecodedBlockCache.getShared().invalidate(this);
+        IOException exception = null;
+        for (FileChannel channel : channels) {
+            try {
+                if (channel != null)
+                    channel.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        if (exception != null)
+            throw exception;
+    }
+}
+
+/**
+ * Stream that reads a segment of archive channel using positional reads. It does not change the position of
+ * the channel, so several such streams can read the same channel at once.
+ * @author Jan Bryda
+ */
+class ChannelSegmentInputStream extends InputStream {
+
+    /**
+     * Channel read by positional reads, that is an archive channel or a file channel.
+     */
+    interface PositionalChannel {
+        /**
+         * Reads the channel at given position into the buffer, without changing the position of the channel.
+         * @param target target buffer
+         * @param position position in the channel
+         * @return number of bytes read, -1 at the end of channel
+         * @throws IOException
+         */
+        int read(ByteBuffer target, long position) throws IOException;
+    }
+
+    private final PositionalChannel channel;
+    private long position;
+    private long remainingBytes;
+    private final ByteBuffer buffer;
+
+    /**
+     * Creates new ChannelSegmentInputStream.
+     * @param channel channel read by positional reads
+     * @param offset offset of the segment in the channel
+     * @param length length of the segment
+     */
+    ChannelSegmentInputStream(PositionalChannel channel, long offset, long length) {
+        this.channel = channel;
+        this.position = offset;
+        this.remainingBytes = length;
+        this.buffer = ByteBuffer.allocate((int) Math.max(1, Math.min(length, ArchiveChannel.SEGMENT_BUFFER_SIZE)));
+        buffer.limit(0);
+    }
+
+    public int read() throws IOException {
+        if (!buffer.hasRemaining() && !fillBuffer())
+            return -1;
+
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0)
+            return 0;
+
+        if (buffer.hasRemaining()) {
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        if (length >= buffer.capacity()) {
+            // large reads go directly into the target array
+            int count = readChannel(ByteBuffer.wrap(bytes, offset, (int) Math.min(length, remainingBytes)));
+            return count == 0 ? -1 : count;
+        }
+
+        if (!fillBuffer())
+            return -1;
+
+        int count = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long count) {
+        long skipped = Math.min(count, buffer.remaining() + remainingBytes);
+        if (skipped <= 0)
+            return 0;
+
+        int fromBuffer = (int) Math.min(skipped, buffer.remaining());
+        buffer.position(buffer.position() + fromBuffer);
+        position += skipped - fromBuffer;
+        remainingBytes -= skipped - fromBuffer;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, buffer.remaining() + remainingBytes);
+    }
+
+    /**
+     * Fills the buffer with the next data of the segment.
+     * @return false if the end of the segment was reached
+     * @throws IOException
+     */
+    private boolean fillBuffer() throws IOException {
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), remainingBytes));
+        int count = readChannel(buffer);
+        buffer.flip();
+        return count > 0;
+    }
+
+    /**
+     * Reads from the channel at current position until the target buffer is full.
+     * @param target target buffer
+     * @return number of bytes read
+     * @throws IOException when the channel ends before the end of the segment
+     */
+    private int readChannel(ByteBuffer target) throws IOException {
+        int count = 0;
+        while (target.hasRemaining()) {
+            int read = channel.read(target, position);
+            if (read == -1)
+                throw new EOFException("Archive ended before the end of file segment!");
+            position += read;
+            remainingBytes -= read;
+            count += read;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,439 @@
+package huffManager.archive;
+
+import huffManager.archive.exceptions.*;
+import huffManager.generator.*;
+import static huffManager.archive.Archive.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * This class provides the ability to compact an archive file, which means to reclaim the space of dead bytes
+ * (data of removed files, headers superseded by updates). Only the live ranges of coded data are moved, with
+ * large sequential copies and without decoding anything, and the header is rewritten with the new offsets.
+ * @author Jan Bryda
+ */
+public class ArchiveCompactor {
+
+    /**
+     * Result of the compaction.
+     */
+    public static class Result {
+        /** size of archive file before compaction (in bytes) */
+        public final long originalSize;
+        /** size of archive file after compaction (in bytes) */
+        public final long compactedSize;
+        /** number of bytes of file data that were kept */
+        public final long liveBytes;
+
+        Result(long originalSize, long compactedSize, long liveBytes) {
+            this.originalSize = originalSize;
+            this.compactedSize = compactedSize;
+            this.liveBytes = liveBytes;
+        }
+
+        /**
+         * Gets the number of bytes the archive file shrank by.
+         * @return number of reclaimed bytes
+         */
+        public long getReclaimedBytes() {
+            return originalSize - compactedSize;
+        }
+    }
+
+    /** minimal size of the buffer that moves the data of archive compacted in place */
+    public static final int MIN_BUFFER_SIZE = 4 * 1024;
+
+    private ArchiveLoader archiveLoader = new ArchiveLoader();
+
+    /**
+     * Gets the map of live and dead space of the archive file.
+     * @param archiveFile archive file
+     * @return space map of the archive file
+     * @throws ArchiveLoadingException
+     * @throws BadArchiveFormatException
+     */
+    public ArchiveSpaceMap analyze(File archiveFile) throws ArchiveLoadingException, BadArchiveFormatException {
+        try (Archive archive = archiveLoader.load(archiveFile)) {
+            return ArchiveSpaceMap.of(archive, archiveFile);
+        } catch (IOException e) {
+            throw new ArchiveLoadingException("Archive compaction : IO exception occurred!", e);
+        }
+    }
+
+    /**
+     * Writes the compacted copy of the archive file into the target file. Live ranges are transferred into
+     * a temporary file next to the target file in their original order, which then replaces the target file.
+     * Archives whose data are not stored verbatim are saved whole.
+     * @param archiveFile archive file
+     * @param targetFile target file, it must not be the archive file or any of its volumes
+     * @return result of the compaction
+     * @throws ArchiveLoadingException
+     * @throws BadArchiveFormatException
+     * @throws ArchiveSavingException when the target file is the archive file, or when writing fails
+     */
+    public Result compact(File archiveFile, File targetFile)
+            throws ArchiveLoadingException, BadArchiveFormatException, ArchiveSavingException {
+        checkTarget(archiveFile, targetFile);
+        long originalSize = getLength(archiveFile);
+        try (Archive archive = archiveLoader.load(archiveFile)) {
+            return compactReplacing(archive, archiveFile, targetFile, originalSize);
+        } catch (IOException e) {
+            throw new ArchiveSavingException("Archive compaction : IO exception occurred!", e);
+        }
+    }
+
+    /**
+     * Compacts the archive file in place. Live ranges are moved towards the start of the file through a buffer
+     * of at most given size, so no copy of the archive is needed, then the new trailer is written after them
+     * and the file is truncated. Only single file indexed archives with verbatim stored data can be compacted
+     * in place, other archives have to be compacted into another file (see
+     * {@link ArchiveCompactor#compact(File, File)}).
+     * <p>
+     * The moves are journaled in a file next to the archive file (see {@link CompactionJournal}), which holds
+     * the new trailer and at most two buffers of data, so the compaction interrupted by a crash is finished by
+     * {@link ArchiveCompactor#recover(File)}, which the loader calls before it loads the archive. Every move of
+     * a buffer syncs the journal and the archive file, so larger buffer means fewer syncs.
+     * <p>
+     * Concurrent readers of the archive file are not supported: archives, channels and file systems opened on
+     * the archive file before compaction keep the old offsets and have to be opened again.
+     * @param archiveFile archive file
+     * @param bufferBudget maximal size of the buffer used to move the data (in bytes), at least
+     * {@link ArchiveCompactor#MIN_BUFFER_SIZE}
+     * @return result of the compaction
+     * @throws ArchiveLoadingException
+     * @throws BadArchiveFormatException
+     * @throws ArchiveSavingException when the archive can't be compacted in place (the archive file is left
+     * untouched then), or when writing fails
+     * @throws IllegalArgumentException when the buffer budget is too small
+     */
+    public Result compactInPlace(File archiveFile, int bufferBudget)
+            throws ArchiveLoadingException, BadArchiveFormatException, ArchiveSavingException {
+        if (bufferBudget < MIN_BUFFER_SIZE)
+            throw new IllegalArgumentException("Buffer budget has to be at least 4KB!");
+
+        CompactionJournal journal = plan(archiveFile, bufferBudget);
+        try {
+            finish(archiveFile, journal, -1);
+        } catch (IOException e) {
+            throw new ArchiveSavingException("Archive compaction : IO exception occurred, compaction will be "
+                    + "finished when the archive is loaded!", e);
+        } finally {
+            ArchiveLoader.closeQuietly(journal);
+        }
+        return new Result(journal.originalSize, archiveFile.length(), journal.getTrailerOffset() - 8);
+    }
+
+    /**
+     * Plans the compaction in place of the archive file: finds the live ranges and their new starts, writes
+     * the relocated trailer into memory and creates the journal with this plan. The archive file is not
+     * changed. An earlier compaction that was interrupted is finished by loading the archive.
+     * @param archiveFile archive file
+     * @param bufferSize size of the buffer used to move the data
+     * @return journal of the compaction
+     * @throws ArchiveLoadingException
+     * @throws BadArchiveFormatException
+     * @throws ArchiveSavingException when the archive can't be compacted in place
+     */
+    CompactionJournal plan(File archiveFile, int bufferSize)
+            throws ArchiveLoadingException, BadArchiveFormatException, ArchiveSavingException {
+        try (Archive archive = archiveLoader.load(archiveFile)) {
+            if (archive.archiveChannel == null || archive.archiveChannel.isVolumeSet())
+                throw new ArchiveSavingException(
+                        "Archive compaction : only single file indexed archives can be compacted in place!");
+
+            ArchiveSpaceMap spaceMap = ArchiveSpaceMap.of(archive, archiveFile);
+            long[] starts = new long[spaceMap.getRangeCount()];
+            long[] ends = new long[spaceMap.getRangeCount()];
+            long[] newStarts = new long[spaceMap.getRangeCount()];
+            long position = 8;
+            for (int range = 0; range < starts.length; range++) {
+                starts[range] = spaceMap.getRangeStart(range);
+                ends[range] = spaceMap.getRangeEnd(range);
+                newStarts[range] = position;
+                position += ends[range] - starts[range];
+            }
+
+            ByteArrayOutputStream trailer = new ByteArrayOutputStream();
+            CountingOutputStream output = new CountingOutputStream(trailer);
+            output.addCount(position);
+            writeRelocatedTrailer(archive, archiveFile, spaceMap, newStarts, output);
+
+            return CompactionJournal.create(archiveFile, archive.archiveChannel.size(), bufferSize, starts, ends,
+                    newStarts, trailer.toByteArray());
+        } catch (IOException e) {
+            throw new ArchiveSavingException("Archive compaction : IO exception occurred!", e);
+        } catch (UnableToGetStreamException e) {
+            throw new ArchiveSavingException("Archive compaction : Unable to get stream for coded file!", e);
+        }
+    }
+
+    /**
+     * Finishes the compaction in place of the archive file, that was interrupted, if there is its journal.
+     * @param archiveFile archive file
+     * @return true if interrupted compaction was finished
+     * @throws ArchiveSavingException when the journal does not belong to the archive file, or when writing fails
+     */
+    public static boolean recover(File archiveFile) throws ArchiveSavingException {
+        if (!CompactionJournal.getFile(archiveFile).exists())
+            return false;
+
+        CompactionJournal journal = null;
+        try {
+            journal = CompactionJournal.open(archiveFile);
+            if (journal == null)
+                return false;
+
+            long size = archiveFile.length();
+            if (size != journal.originalSize && size != journal.getTrailerOffset() + journal.trailer.length)
+                throw new ArchiveSavingException("Archive compaction : journal does not belong to the archive!");
+            finish(archiveFile, journal, -1);
+            return true;
+        } catch (IOException e) {
+            throw new ArchiveSavingException("Archive compaction : unable to finish interrupted compaction!", e);
+        } finally {
+            if (journal != null)
+                ArchiveLoader.closeQuietly(journal);
+        }
+    }
+
+    /**
+     * Moves the live ranges planned in the journal, starting with the last recorded step, writes the relocated
+     * trailer, truncates the archive file and deletes the journal. A step moves the parts of live ranges that
+     * fill the buffer, steps are numbered in the order of the ranges, and the step after the last one writes the
+     * trailer. Every write goes below the sources of all following steps, so only the last recorded step may
+     * have been overwritten, and it is restored from the data saved in the journal.
+     * @param archiveFile archive file
+     * @param journal journal of the compaction
+     * @param crashStep number of the step, which is left unfinished as if the process crashed, after its record
+     * and a part of its data are written; -1 to finish all steps (used by tests)
+     * @throws IOException when writing fails, or when the step to leave unfinished is reached
+     */
+    static void finish(File archiveFile, CompactionJournal journal, long crashStep) throws IOException {
+        long firstStep = Math.max(0, journal.lastStep);
+        byte[] firstData = journal.lastStepData;
+
+        try (FileChannel channel = FileChannel.open(archiveFile.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(journal.bufferSize);
+            List<long[]> moves = new ArrayList<>();
+            int range = 0;
+            long moved = 0;
+            long step = 0;
+            while (true) {
+                // a move is the source, the target and the length of a part of live range
+                moves.clear();
+                int filled = 0;
+                while (filled < journal.bufferSize && range < journal.starts.length) {
+                    long remaining = journal.ends[range] - journal.starts[range] - moved;
+                    if (remaining == 0 || journal.starts[range] == journal.newStarts[range]) {
+                        range++;
+                        moved = 0;
+                        continue;
+                    }
+                    int length = (int) Math.min(remaining, journal.bufferSize - filled);
+                    moves.add(new long[] { journal.starts[range] + moved, journal.newStarts[range] + moved, length });
+                    filled += length;
+                    moved += length;
+                }
+                if (moves.isEmpty())
+                    break;
+
+                if (step >= firstStep) {
+                    buffer.clear();
+                    if (step == firstStep && firstData != null) {
+                        if (firstData.length != filled)
+                            throw new IOException("Archive compaction : journaled data do not match the step!");
+                        buffer.put(firstData);
+                    } else {
+                        for (long[] move : moves) {
+                            buffer.limit(buffer.position() + (int) move[2]);
+                            CompactionJournal.readFully(channel, buffer, move[0]);
+                        }
+                    }
+                    buffer.flip();
+
+                    boolean overwritesSource = moves.get(moves.size() - 1)[1] + moves.get(moves.size() - 1)[2]
+                            > moves.get(0)[0];
+                    journal.writeStep(step, overwritesSource ? buffer : null);
+                    if (step == crashStep) {
+                        moves.subList(1, moves.size()).clear();
+                        moves.get(0)[2] /= 2;
+                    }
+                    for (long[] move : moves) {
+                        buffer.limit(buffer.position() + (int) move[2]);
+                        CompactionJournal.writeFully(channel, buffer, move[1]);
+                    }
+                    channel.force(false);
+                    if (step == crashStep)
+                        throw new IOException("Archive compaction : compaction crashed on purpose!");
+                }
+                step++;
+            }
+
+            journal.writeStep(step, null);
+            if (step == crashStep)
+                throw new IOException("Archive compaction : compaction crashed on purpose!");
+            long trailerOffset = journal.getTrailerOffset();
+            CompactionJournal.writeFully(channel, ByteBuffer.wrap(journal.trailer), trailerOffset);
+            channel.truncate(trailerOffset + journal.trailer.length);
+            channel.force(true);
+        }
+        journal.delete();
+    }
+
+    /**
+     * Checks that the target of compaction is not the archive file, nor any of its volumes, nor a link to them.
+     * Writing the target would destroy the archive file then.
+     * @param archiveFile archive file
+     * @param targetFile target file
+     * @throws ArchiveSavingException when the target file is the archive file
+     * @throws ArchiveLoadingException
+     */
+    private static void checkTarget(File archiveFile, File targetFile)
+            throws ArchiveSavingException, ArchiveLoadingException {
+        if (!targetFile.exists())
+            return;
+
+        File[] volumes;
+        try {
+            volumes = ArchiveVolumes.find(archiveFile);
+        } catch (IOException e) {
+            throw new ArchiveLoadingException("Archive compaction : unable to read archive volumes!", e);
+        }
+        if (volumes == null)
+            volumes = new File[] { archiveFile };
+
+        for (File volume : volumes) {
+            try {
+                if (Files.isSameFile(volume.toPath(), targetFile.toPath()))
+                    throw new ArchiveSavingException("Archive compaction : target file is the archive file!");
+            } catch (IOException e) {
+                throw new ArchiveSavingException("Archive compaction : unable to compare target and archive file!", e);
+            }
+        }
+    }
+
+    /**
+     * Writes the compacted archive into a temporary file next to the target file, and then replaces the target
+     * file with it. The temporary file is deleted when writing fails.
+     * @param archive archive loaded from the archive file
+     * @param archiveFile archive file
+     * @param targetFile target file
+     * @param originalSize size of the archive file
+     * @return result of the compaction
+     * @throws ArchiveSavingException
+     * @throws BadArchiveFormatException
+     */
+    private Result compactReplacing(Archive archive, File archiveFile, File targetFile, long originalSize)
+            throws ArchiveSavingException, BadArchiveFormatException {
+        File temporaryFile = new File(targetFile.getAbsoluteFile().getParentFile(), targetFile.getName() + ".tmp");
+        Result result;
+        boolean written = false;
+        try {
+            if (archive.archiveChannel == null) {
+                new ArchiveSaver().save(archive, new FileOutputStreamGenerator(temporaryFile));
+                result = new Result(originalSize, temporaryFile.length(), -1);
+            } else {
+                result = compactInto(archive, archiveFile, temporaryFile, originalSize);
+            }
+            Files.move(temporaryFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            written = true;
+            return result;
+        } catch (IOException e) {
+            throw new ArchiveSavingException("Archive compaction : IO exception occurred!", e);
+        } catch (UnableToGetStreamException e) {
+            throw new ArchiveSavingException("Archive compaction : Unable to get stream for coded file!", e);
+        } finally {
+            if (!written)
+                temporaryFile.delete();
+        }
+    }
+
+    /**
+     * Writes the compacted archive into the output file. Live ranges are transferred into it in their original
+     * order, followed by the relocated trailer.
+     * @param archive archive loaded from the archive file, with verbatim stored data
+     * @param archiveFile archive file
+     * @param outputFile output file
+     * @param originalSize size of the archive file
+     * @return result of the compaction
+     * @throws IOException
+     * @throws UnableToGetStreamException
+     * @throws BadArchiveFormatException
+     */
+    private Result compactInto(Archive archive, File archiveFile, File outputFile, long originalSize)
+            throws IOException, UnableToGetStreamException, BadArchiveFormatException {
+        ArchiveSpaceMap spaceMap = ArchiveSpaceMap.of(archive, archiveFile);
+
+        try (FileOutputStream rawOutput = new FileOutputStream(outputFile);
+             CountingOutputStream output = new CountingOutputStream(new BufferedOutputStream(rawOutput))) {
+            new DataOutputStream(output).writeLong(ARCHIVE_IDENTIFIER_V2);
+            output.flush();
+
+            long[] newStarts = new long[spaceMap.getRangeCount()];
+            for (int range = 0; range < spaceMap.getRangeCount(); range++) {
+                long start = spaceMap.getRangeStart(range);
+                long length = spaceMap.getRangeEnd(range) - start;
+                newStarts[range] = output.getCount();
+                archive.archiveChannel.transferTo(start, length, rawOutput.getChannel());
+                output.addCount(length);
+            }
+
+            writeRelocatedTrailer(archive, archiveFile, spaceMap, newStarts, output);
+            output.flush();
+            rawOutput.getChannel().force(true);
+            return new Result(originalSize, output.getCount(), spaceMap.getLiveBytes());
+        }
+    }
+
+    /**
+     * Gets the size of the archive file, or of all volumes of the volume set.
+     * @param archiveFile archive file
+     * @return size (in bytes)
+     * @throws ArchiveLoadingException
+     */
+    private static long getLength(File archiveFile) throws ArchiveLoadingException {
+        try {
+            return ArchiveVolumes.getLength(archiveFile);
+        } catch (IOException e) {
+            throw new ArchiveLoadingException("Archive compaction : unable to read archive volumes!", e);
+        }
+    }
+
+    /**
+     * Writes the header, index and footer of the compacted archive, with offsets of files moved together with
+     * their live ranges. The header is encoded and coded as the header of the archive file, and the index of
+     * files is written if the archive file has one.
+     * @param archive archive loaded from the archive file
+     * @param archiveFile archive file
+     * @param spaceMap space map of the archive file
+     * @param newStarts new starts of the live ranges
+     * @param output output stream positioned after the moved live ranges
+     * @throws IOException
+     * @throws UnableToGetStreamException
+     * @throws BadArchiveFormatException
+     */
+    private void writeRelocatedTrailer(Archive archive, File archiveFile, ArchiveSpaceMap spaceMap, long[] newStarts,
+                                       CountingOutputStream output)
+            throws IOException, UnableToGetStreamException, BadArchiveFormatException {
+        ArchiveSaver saver = new ArchiveSaver();
+        ArchiveFooter footer = ArchiveFooter.read(archive.archiveChannel);
+        if (footer != null) {
+            saver.setCompactHeader(footer.hasFlag(FLAG_COMPACT_HEADER));
+            if (footer.hasFlag(FLAG_COMPACT_HEADER))
+                saver.setHeaderCodec(CompactHeader.readCodec(archive.archiveChannel, footer));
+            saver.setPathIndex(footer.hasFlag(FLAG_PATH_INDEX));
+        }
+        saver.planFiles(archive.getAllFiles(), archiveFile, offset -> {
+            int range = spaceMap.findRange(offset);
+            if (range < 0)
+                return 8; // empty file, its offset does not matter
+            return offset - spaceMap.getRangeStart(range) + newStarts[range];
+        });
+        saver.writeTrailer(archive, output);
+    }
+}
@@ -15,6 +15,8 @@ public class ArchiveDirectory {
     List<ArchiveFile> files = new ArrayList<>();
     /** subdirectories in this directory */
     List<ArchiveDirectory> subdirectories = new ArrayList<>();
+    /** number of changes of this directory and its subdirectories, used to know when indexes are stale */
+    long modificationCount = 0;
 
     /**
      * Crates a new archive directory with specified name and unspecified parent directory.
@@ -38,6 +40,7 @@ public class ArchiveDirectory {
      */
     public void setName(String value) {
         this.name = value;
+        modified();
     }
 
     /**
@@ -46,6 +49,7 @@ public class ArchiveDirectory {
      */
     public void addFile(ArchiveFile file) {
         files.add(file);
+        modified();
     }
 
     /**
@@ -54,6 +58,7 @@ public class ArchiveDirectory {
      */
     public void removeFile(ArchiveFile file) {
         files.remove(file);
+        modified();
     }
 
     /**
@@ -64,6 +69,7 @@ public class ArchiveDirectory {
     public void addSubdirectory(ArchiveDirectory directory) {
         subdirectories.add(directory);
         directory.parent = this;
+        modified();
     }
 
     /**
@@ -72,6 +78,15 @@ public class ArchiveDirectory {
      */
     public void removeSubdirectory(ArchiveDirectory directory) {
         subdirectories.remove(directory);
+        modified();
+    }
+
+    /**
+     * Records the change of this directory into its modification count and the counts of its parents.
+     */
+    void modified() {
+        for (ArchiveDirectory directory = this; directory != null; directory = directory.parent)
+            directory.modificationCount++;
     }
 
     /**
@@ -0,0 +1,704 @@
+package huffManager.archive;
+
+import huffManager.archive.exceptions.UnableToGetStreamException;
+import huffManager.codecs.exceptions.UnknownCodecException;
+import huffManager.memory.MemoryBudget;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class extracts directories and files of an archive into a directory on disk in parallel. At first the list
+ * of all extraction jobs is built and the whole directory skeleton is created in one pass, then the jobs are run
+ * on a work-stealing {@link ForkJoinPool}: the list is split in halves until the parts are small, and idle
+ * threads steal the parts of busy ones.
+ * <p>
+ * Large files are split where the format allows it: verbatim stored files into segments and chunked files
+ * into runs of chunks, which are written at their positions in the target file by different threads. Files of
+ * one solid block are extracted by one job, which decodes the block once.
+ * <p>
+ * Jobs are run in the order of their data in the archive, so every thread reads the archive in one forward
+ * sweep. Small files whose coded data lie next to each other are extracted by one job, which reads their data
+ * at once. Files can be selected by glob patterns and paths (see
+ * {@link ArchiveExtractor#extract(ArchiveIndex, Collection, File)}), so a few files of a large archive are
+ * extracted without walking its directory structure.
+ * <p>
+ * Every job reserves its working memory from the {@link MemoryBudget} before it starts, so the threads wait
+ * instead of decoding more data at once than the budget allows. The number of threads is only a target, see
+ * {@link ArchiveExtractor#setConcurrency(int)}.
+ * @author Jan Bryda
+ */
+public class ArchiveExtractor {
+    /** files larger than this size are split into jobs of about this size */
+    static final long SPLIT_SIZE = 8 * 1024 * 1024;
+    /** parts of the job list with at most this number of jobs and size are not split further */
+    private static final int BATCH_COUNT = 32;
+    private static final long BATCH_SIZE = 4 * 1024 * 1024;
+    /** coded data of files next to each other are read at once up to this length */
+    static final int COALESCE_SIZE = 1024 * 1024;
+    /** coded data of files at most this far apart are still read at once, the gap is read too */
+    private static final int COALESCE_GAP = 64 * 1024;
+    /** name of the extraction jobs as the consumer of memory budget */
+    private static final String BUDGET_CONSUMER = "extraction";
+
+    /** number of extracting threads */
+    private int concurrency = Runtime.getRuntime().availableProcessors();
+    /** memory budget the jobs reserve their memory from */
+    private MemoryBudget memoryBudget = MemoryBudget.getShared();
+
+    /**
+     * Sets the number of threads that extract files at once. It is the target parallelism of the pool: while
+     * some threads wait for memory, the pool may start compensating threads, so more threads can extract files
+     * and keep targets open for a time. Their memory is still bounded by the memory budget.
+     * @param concurrency number of threads
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1)
+            throw new IllegalArgumentException("Concurrency has to be at least one!");
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Gets the number of threads that extract files at once.
+     * @return number of threads
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Sets the memory budget, which the extraction jobs reserve their working memory from.
+     * @param memoryBudget memory budget
+     */
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Extracts the whole archive into the target directory.
+     * @param archive archive to be extracted
+     * @param targetDirectory directory, which the archive will be extracted into
+     * @return number of extracted files
+     * @throws IOException
+     * @throws UnableToGetStreamException
+     */
+    public long extract(Archive archive, File targetDirectory) throws IOException, UnableToGetStreamException {
+        ArchiveDirectory rootDirectory = archive.getRootDirectory();
+        return extract(rootDirectory.getSubdirectories(), rootDirectory.getFiles(), targetDirectory);
+    }
+
+    /**
+     * Extracts given directories (with all their contents) and files into the target directory.
+     * @param directories directories to be extracted
+     * @param files files to be extracted
+     * @param targetDirectory directory, which the directories and files will be extracted into
+     * @return number of extracted files
+     * @throws IOException
+     * @throws UnableToGetStreamException
+     */
+    public long extract(List<ArchiveDirectory> directories, List<ArchiveFile> files, File targetDirectory)
+            throws IOException, UnableToGetStreamException {
+        List<File> skeleton = new ArrayList<>();
+        Map<ArchiveFile, File> targets = new LinkedHashMap<>();
+        skeleton.add(targetDirectory);
+        for (ArchiveDirectory directory : directories)
+            collect(directory, new File(targetDirectory, directory.getName()), skeleton, targets);
+        for (ArchiveFile file : files)
+            targets.put(file, new File(targetDirectory, file.getName()));
+
+        return extract(targetDirectory, skeleton, targets);
+    }
+
+    /**
+     * Extracts the files of the archive selected by glob patterns and paths into the target directory, see
+     * {@link ArchiveExtractor#extract(ArchiveIndex, Collection, File)}.
+     * @param archive archive
+     * @param selection glob patterns and paths of files and directories
+     * @param targetDirectory directory, which the files will be extracted into
+     * @return number of extracted files
+     * @throws IOException
+     * @throws UnableToGetStreamException
+     */
+    public long extract(Archive archive, Collection<String> selection, File targetDirectory)
+            throws IOException, UnableToGetStreamException {
+        return extract(archive.getIndex(), selection, targetDirectory);
+    }
+
+    /**
+     * Extracts the files selected by glob patterns and paths into the target directory. Files keep their full
+     * paths under the target directory. See {@link ArchiveExtractor#select(ArchiveIndex, Collection)} for
+     * the selection.
+     * @param index index of files of the archive
+     * @param selection glob patterns and paths of files and directories
+     * @param targetDirectory directory, which the files will be extracted into
+     * @return number of extracted files
+     * @throws IOException
+     * @throws UnableToGetStreamException
+     */
+    public long extract(ArchiveIndex index, Collection<String> selection, File targetDirectory)
+            throws IOException, UnableToGetStreamException {
+        Set<File> skeleton = new LinkedHashSet<>();
+        Map<ArchiveFile, File> targets = new LinkedHashMap<>();
+        skeleton.add(targetDirectory);
+        for (String path : select(index, selection)) {
+            File target = new File(targetDirectory, path.replace(ArchiveIndex.SEPARATOR, File.separatorChar));
+            skeleton.add(target.getParentFile());
+            targets.put(index.lookup(path), target);
+        }
+        return extract(targetDirectory, skeleton, targets);
+    }
+
+    /**
+     * Resolves the glob patterns and paths against the index. Entry that contains a wildcard is a glob pattern
+     * (see {@link ArchiveIndex#glob(String)}), other entry is the full path of a file or a directory, whose
+     * files are all selected. Entries that match nothing are ignored.
+     * @param index index of files of the archive
+     * @param selection glob patterns and paths of files and directories
+     * @return sorted full paths of the selected files, without duplicates
+     */
+    public static SortedSet<String> select(ArchiveIndex index, Collection<String> selection) {
+        SortedSet<String> paths = new TreeSet<>();
+        for (String entry : selection) {
+            if (ArchiveIndex.literalPrefix(entry).length() < entry.length()) {
+                paths.addAll(index.glob(entry));
+                continue;
+            }
+
+            while (!entry.isEmpty() && entry.charAt(entry.length() - 1) == ArchiveIndex.SEPARATOR)
+                entry = entry.substring(0, entry.length() - 1);
+            if (!entry.isEmpty() && index.lookup(entry) != null)
+                paths.add(entry);
+            else
+                paths.addAll(index.list(entry.isEmpty() ? entry : entry + ArchiveIndex.SEPARATOR));
+        }
+        return paths;
+    }
+
+    /**
+     * Creates the directory skeleton and extracts the files. Nothing is written when some directory or file
+     * leads out of the target directory (names of files of a damaged or malicious archive may contain "..").
+     * @param targetDirectory directory, which the files are extracted into
+     * @param skeleton directories to be created
+     * @param targets target files of the archive files
+     * @return number of extracted files
+     * @throws IOException when some directory or file leads out of the target directory
+     * @throws UnableToGetStreamException
+     */
+    private long extract(File targetDirectory, Collection<File> skeleton, Map<ArchiveFile, File> targets)
+            throws IOException, UnableToGetStreamException {
+        String targetPath = targetDirectory.getCanonicalPath() + File.separator;
+        for (File directory : skeleton)
+            checkContained(directory, targetDirectory, targetPath);
+        for (File target : targets.values())
+            checkContained(target, targetDirectory, targetPath);
+
+        for (File directory : skeleton) {
+            if (!directory.isDirectory() && !directory.mkdirs())
+                throw new IOException("Unable to create directory " + directory);
+        }
+
+        List<ExtractionJob> jobs = createJobs(targets);
+        runJobs(jobs);
+
+        // parts of split files are checked by their jobs, the file may still miss a part or have extra data
+        for (Map.Entry<ArchiveFile, File> entry : targets.entrySet()) {
+            if (isSplit(entry.getKey()))
+                entry.getKey().checkExtractedSize(entry.getValue().length());
+        }
+        return targets.size();
+    }
+
+    /**
+     * Checks that the file on disk lies in the target directory, or is the target directory itself.
+     * @param file file or directory on disk
+     * @param targetDirectory target directory
+     * @param targetPath canonical path of the target directory followed by the separator
+     * @throws IOException when the file leads out of the target directory
+     */
+    private static void checkContained(File file, File targetDirectory, String targetPath) throws IOException {
+        String path = file.getCanonicalPath();
+        if (!path.startsWith(targetPath) && !(path + File.separator).equals(targetPath))
+            throw new IOException("Extracted file leads out of target directory " + targetDirectory + " : " + file);
+    }
+
+    /**
+     * Collects the directories and files of the archive directory, directories before their contents.
+     * @param directory archive directory
+     * @param target directory on disk it is extracted into
+     * @param skeleton directories to be created
+     * @param targets target files of the archive files
+     */
+    private void collect(ArchiveDirectory directory, File target, List<File> skeleton, Map<ArchiveFile, File> targets) {
+        skeleton.add(target);
+        for (ArchiveDirectory subdirectory : directory.getSubdirectories())
+            collect(subdirectory, new File(target, subdirectory.getName()), skeleton, targets);
+        for (ArchiveFile file : directory.getFiles())
+            targets.put(file, new File(target, file.getName()));
+    }
+
+    /**
+     * Creates the extraction jobs of files sorted by the offset of their data in the archive. Target files of
+     * split files are created empty right away, so their jobs only write their parts.
+     * @param targets target files of the archive files
+     * @return extraction jobs
+     * @throws IOException
+     * @throws UnableToGetStreamException
+     */
+    private List<ExtractionJob> createJobs(Map<ArchiveFile, File> targets) throws IOException, UnableToGetStreamException {
+        List<ExtractionJob> jobs = new ArrayList<>();
+        Map<Object, List<FileInSolidBlock>> blockMembers = new LinkedHashMap<>();
+        List<FileInArchive> adjacentFiles = new ArrayList<>();
+
+        for (Map.Entry<ArchiveFile, File> entry : targets.entrySet()) {
+            ArchiveFile file = entry.getKey();
+            File target = entry.getValue();
+
+            if (file instanceof FileInSolidBlock) {
+                FileInSolidBlock member = (FileInSolidBlock) file;
+                blockMembers.computeIfAbsent(getBlockKey(member.getBlock()), key -> new ArrayList<>()).add(member);
+            } else if (isSplit(file) && file instanceof FileInChunks) {
+                createEmpty(target);
+                addChunkJobs(jobs, (FileInChunks) file, target);
+            } else if (isSplit(file)) {
+                createEmpty(target);
+                FileInArchive stored = (FileInArchive) file;
+                for (long start = 0; start < stored.getLength(); start += SPLIT_SIZE) {
+                    long position = start;
+                    long length = Math.min(SPLIT_SIZE, stored.getLength() - start);
+                    jobs.add(new ExtractionJob(stored.getOffset() + position, length, () -> writePartAt(file, target,
+                            position, length, stored.getArchiveChannel().openSegment(stored.getOffset() + position, length))));
+                }
+            } else if (isCoalescible(file)) {
+                adjacentFiles.add((FileInArchive) file);
+            } else {
+                jobs.add(new ExtractionJob(getOffset(file), file.getSize(), () -> file.extractTo(target)));
+            }
+        }
+
+        for (List<FileInSolidBlock> members : blockMembers.values()) {
+            FileInArchive block = members.get(0).getBlock();
+            long size = 0;
+            for (FileInSolidBlock member : members)
+                size = Math.max(size, member.getOffsetInBlock() + member.getSize());
+            jobs.add(new ExtractionJob(block.getOffset(), size, () -> extractBlock(block, members, targets)));
+        }
+
+        addCoalescedJobs(jobs, adjacentFiles, targets);
+        jobs.sort(Comparator.comparingLong(job -> job.offset));
+        return jobs;
+    }
+
+    /**
+     * Gets the key that identifies the solid block. Files of the same block read from the index of files may
+     * have their own copies of the block, so the block read through the shared channel is identified by its
+     * channel and offset.
+     * @param block solid block
+     * @return key of the block
+     */
+    private static Object getBlockKey(FileInArchive block) {
+        if (block.getArchiveChannel() == null)
+            return block;
+        return Arrays.asList(block.getArchiveChannel(), block.getOffset());
+    }
+
+    /**
+     * Gets the offset of the data of the file in the archive, which the jobs are sorted by.
+     * @param file archive file
+     * @return offset of the data, or {@link Long#MAX_VALUE} if the file has no data in the archive
+     */
+    private static long getOffset(ArchiveFile file) {
+        if (file instanceof FileInArchive)
+            return ((FileInArchive) file).getOffset();
+        if (file instanceof FileInSolidBlock)
+            return ((FileInSolidBlock) file).getBlock().getOffset();
+        if (file instanceof FileInChunks && !((FileInChunks) file).getChunks().isEmpty())
+            return ((FileInChunks) file).getChunks().get(0).getOffset();
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Tells whether the coded data of the file can be read at once with the data of files next to it: the file
+     * is read through the shared channel and its data are small.
+     * @param file archive file
+     * @return true if the file can be extracted together with other files
+     */
+    private static boolean isCoalescible(ArchiveFile file) {
+        return file instanceof FileInArchive && ((FileInArchive) file).getArchiveChannel() != null
+                && ((FileInArchive) file).getLength() <= COALESCE_SIZE;
+    }
+
+    /**
+     * Adds the jobs that extract runs of files whose coded data lie next to each other in the archive. Every
+     * run is at most {@link ArchiveExtractor#COALESCE_SIZE} bytes long and its data are read at once.
+     * @param jobs extraction jobs
+     * @param files files that can be extracted together with other files
+     * @param targets target files of the archive files
+     */
+    private void addCoalescedJobs(List<ExtractionJob> jobs, List<FileInArchive> files, Map<ArchiveFile, File> targets) {
+        files.sort(Comparator.comparingLong(FileInArchive::getOffset));
+        List<FileInArchive> run = new ArrayList<>();
+        long runEnd = 0;
+        for (FileInArchive file : files) {
+            if (!run.isEmpty() && !continuesRun(run.get(0), runEnd, file)) {
+                addRunJob(jobs, run, runEnd, targets);
+                run = new ArrayList<>();
+                runEnd = 0;
+            }
+            run.add(file);
+            runEnd = Math.max(runEnd, file.getOffset() + file.getLength());
+        }
+        if (!run.isEmpty())
+            addRunJob(jobs, run, runEnd, targets);
+    }
+
+    /**
+     * Tells whether the file can be added to the run of files.
+     * @param first first file of the run
+     * @param runEnd end of the coded data of the run
+     * @param file file following the run
+     * @return true if the file continues the run
+     */
+    private static boolean continuesRun(FileInArchive first, long runEnd, FileInArchive file) {
+        return file.getArchiveChannel() == first.getArchiveChannel()
+                && file.getOffset() <= runEnd + COALESCE_GAP
+                && Math.max(runEnd, file.getOffset() + file.getLength()) - first.getOffset() <= COALESCE_SIZE;
+    }
+
+    /**
+     * Adds the job that extracts the run of files. A run of one file is extracted as usual.
+     * @param jobs extraction jobs
+     * @param run files of the run sorted by their offsets
+     * @param runEnd end of the coded data of the run
+     * @param targets target files of the archive files
+     */
+    private void addRunJob(List<ExtractionJob> jobs, List<FileInArchive> run, long runEnd,
+                           Map<ArchiveFile, File> targets) {
+        FileInArchive first = run.get(0);
+        if (run.size() == 1) {
+            File target = targets.get(first);
+            jobs.add(new ExtractionJob(first.getOffset(), first.getSize(), () -> first.extractTo(target)));
+            return;
+        }
+
+        int length = (int) (runEnd - first.getOffset());
+        long size = length;
+        for (FileInArchive file : run)
+            size += file.getSize();
+        jobs.add(new ExtractionJob(first.getOffset(), size, () -> extractRun(run, length, targets)));
+    }
+
+    /**
+     * Extracts the run of files by reading their coded data at once and decoding the files from memory.
+     * Every file is checked to be extracted whole.
+     * @param run files of the run sorted by their offsets
+     * @param length length of the coded data of the run
+     * @param targets target files of the archive files
+     * @throws IOException
+     * @throws UnableToGetStreamException
+     */
+    private void extractRun(List<FileInArchive> run, int length, Map<ArchiveFile, File> targets)
+            throws IOException, UnableToGetStreamException {
+        long offset = run.get(0).getOffset();
+        byte[] coded = run.get(0).getArchiveChannel().readSegment(offset, length);
+        for (FileInArchive file : run) {
+            try (InputStream decodedStream = file.decodeFrom(coded, (int) (file.getOffset() - offset))) {
+                file.checkExtractedSize(AsyncFileOutput.copy(decodedStream, targets.get(file)));
+            }
+        }
+    }
+
+    /**
+     * Tells whether the file is extracted by several jobs that write its parts at their positions in the target
+     * file: large chunked files and large files stored verbatim.
+     * @param file archive file
+     * @return true if the file is split
+     * @throws UnableToGetStreamException
+     */
+    private boolean isSplit(ArchiveFile file) throws UnableToGetStreamException {
+        return file.getSize() > SPLIT_SIZE && (file instanceof FileInChunks || isVerbatim(file));
+    }
+
+    /**
+     * Adds the jobs that write runs of chunks of about {@link ArchiveExtractor#SPLIT_SIZE} bytes of the chunked file.
+     * @param jobs extraction jobs
+     * @param file chunked file
+     * @param target target file
+     */
+    private void addChunkJobs(List<ExtractionJob> jobs, FileInChunks file, File target) {
+        List<FileInArchive> chunks = file.getChunks();
+        long position = 0;
+        int first = 0;
+        long runSize = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            runSize += chunks.get(i).getSize();
+            if (runSize >= SPLIT_SIZE || i == chunks.size() - 1) {
+                List<FileInArchive> run = chunks.subList(first, i + 1);
+                long runPosition = position;
+                long size = runSize;
+                jobs.add(new ExtractionJob(run.get(0).getOffset(), runSize,
+                        () -> writePartAt(file, target, runPosition, size, new ChunksInputStream(run))));
+                position += runSize;
+                first = i + 1;
+                runSize = 0;
+            }
+        }
+    }
+
+    /**
+     * Tells whether the file is stored verbatim in the archive file read through the shared channel, so its
+     * segments can be read at their positions.
+     * @param file archive file
+     * @return true if the data of file can be read by segments
+     * @throws UnableToGetStreamException
+     */
+    private boolean isVerbatim(ArchiveFile file) throws UnableToGetStreamException {
+        if (!(file instanceof FileInArchive) || ((FileInArchive) file).getArchiveChannel() == null)
+            return false;
+
+        try {
+            return file.getCodec().isIdentity();
+        } catch (UnknownCodecException e) {
+            throw new UnableToGetStreamException("Unable to extract file : unknown codec!", e);
+        }
+    }
+
+    /**
+     * Extracts the files of one solid block by decoding the block once. Files are extracted in the order of
+     * their data in the block, a file whose data were already passed (it shares them with another file) is
+     * extracted on its own.
+     * @param block solid block
+     * @param members extracted files of the block
+     * @param targets target files of the archive files
+     * @throws IOException
+     * @throws UnableToGetStreamException
+     */
+    private void extractBlock(FileInArchive block, List<FileInSolidBlock> members, Map<ArchiveFile, File> targets)
+            throws IOException, UnableToGetStreamException {
+        members.sort(Comparator.comparingLong(FileInSolidBlock::getOffsetInBlock));
+        try (InputStream blockInput = block.getDecodedStream()) {
+            long position = 0;
+            for (FileInSolidBlock member : members) {
+                File target = targets.get(member);
+                if (member.getOffsetInBlock() < position) {
+                    member.extractTo(target);
+                    continue;
+                }
+
+                SegmentInputStream.skipFully(blockInput, member.getOffsetInBlock() - position);
+                if (AsyncFileOutput.copy(new SegmentInputStream(blockInput, 0, member.getSize()), target) != member.getSize())
+                    throw new EOFException("Solid block ended before the end of file " + member.getName() + "!");
+                position = member.getOffsetInBlock() + member.getSize();
+            }
+        }
+    }
+
+    /**
+     * Writes the part of the split file into the target file and checks its size.
+     * @param file split file
+     * @param target target file
+     * @param position position of the part in the target file
+     * @param size expected size of the part
+     * @param input data of the part, it is closed
+     * @throws IOException when the part has other size than expected
+     */
+    private static void writePartAt(ArchiveFile file, File target, long position, long size, InputStream input)
+            throws IOException {
+        long written = writeAt(target, position, size, input);
+        if (written != size)
+            throw new IOException("Extracted " + written + "B of part of file " + file.getName() + " at " + position
+                    + " instead of " + size + "B!");
+    }
+
+    /**
+     * Writes the whole input stream into the existing target file at given position. At most given length plus
+     * one byte is written, so longer data do not overwrite much of the next part, but are still noticed.
+     * @param target target file
+     * @param position position in the target file
+     * @param length expected length of the data
+     * @param input input stream, it is closed
+     * @return number of written bytes
+     * @throws IOException
+     */
+    private static long writeAt(File target, long position, long length, InputStream input) throws IOException {
+        long written = 0;
+        try (InputStream dataInput = input;
+             FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE)) {
+            byte[] bytes = new byte[ArchiveFile.TRANSFER_BUFFER_SIZE];
+            int read;
+            while (written <= length
+                    && (read = dataInput.read(bytes, 0, (int) Math.min(bytes.length, length + 1 - written))) != -1) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, read);
+                while (buffer.hasRemaining())
+                    written += channel.write(buffer, position + written);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Creates an empty target file, an existing file is truncated.
+     * @param target target file
+     * @throws IOException
+     */
+    private static void createEmpty(File target) throws IOException {
+        FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE).close();
+    }
+
+    /**
+     * Runs the jobs on a work-stealing pool and waits for them. When a job fails, the jobs that did not start
+     * yet are skipped and the first exception is thrown.
+     * @param jobs extraction jobs
+     * @throws IOException
+     * @throws UnableToGetStreamException
+     */
+    private void runJobs(List<ExtractionJob> jobs) throws IOException, UnableToGetStreamException {
+        long[] sizeSums = new long[jobs.size() + 1];
+        for (int i = 0; i < jobs.size(); i++)
+            sizeSums[i + 1] = sizeSums[i] + jobs.get(i).size;
+
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        ForkJoinPool pool = new ForkJoinPool(concurrency);
+        try {
+            pool.invoke(new ExtractionTask(jobs, sizeSums, 0, jobs.size(), failure, memoryBudget));
+        } finally {
+            pool.shutdown();
+        }
+
+        Exception exception = failure.get();
+        if (exception instanceof IOException)
+            throw (IOException) exception;
+        if (exception instanceof UnableToGetStreamException)
+            throw (UnableToGetStreamException) exception;
+    }
+
+    /**
+     * Part of the list of extraction jobs run by the pool. Large parts are split in halves, which can be stolen
+     * by other threads.
+     */
+    private static class ExtractionTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<ExtractionJob> jobs;
+        /** sums of sizes of the jobs before every job */
+        private final long[] sizeSums;
+        private final int from, to;
+        private final AtomicReference<Exception> failure;
+        private final MemoryBudget memoryBudget;
+
+        ExtractionTask(List<ExtractionJob> jobs, long[] sizeSums, int from, int to, AtomicReference<Exception> failure,
+                       MemoryBudget memoryBudget) {
+            this.jobs = jobs;
+            this.sizeSums = sizeSums;
+            this.from = from;
+            this.to = to;
+            this.failure = failure;
+            this.memoryBudget = memoryBudget;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1 && (to - from > BATCH_COUNT || sizeSums[to] - sizeSums[from] > BATCH_SIZE)) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ExtractionTask(jobs, sizeSums, from, middle, failure, memoryBudget),
+                        new ExtractionTask(jobs, sizeSums, middle, to, failure, memoryBudget));
+                return;
+            }
+
+            for (int i = from; i < to && failure.get() == null; i++) {
+                ExtractionJob job = jobs.get(i);
+                try {
+                    ForkJoinPool.managedBlock(new MemoryReservation(memoryBudget, job.getWorkingMemory()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failure.compareAndSet(null,
+                            new InterruptedIOException("Archive extraction : interrupted while waiting for memory!"));
+                    return;
+                }
+
+                try {
+                    job.action.run();
+                } catch (IOException | UnableToGetStreamException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    memoryBudget.release(BUDGET_CONSUMER, job.getWorkingMemory());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reservation of the working memory of a job from the memory budget. Memory that is available is reserved
+     * without blocking, so the pool does not start compensating threads then. Otherwise it waits for the memory
+     * as a managed blocker, so the pool can start compensating threads while its workers wait, instead of
+     * stalling when all of them are parked.
+     */
+    private static class MemoryReservation implements ForkJoinPool.ManagedBlocker {
+        private final MemoryBudget memoryBudget;
+        private final long bytes;
+        private boolean reserved = false;
+
+        MemoryReservation(MemoryBudget memoryBudget, long bytes) {
+            this.memoryBudget = memoryBudget;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            if (!reserved) {
+                memoryBudget.reserve(BUDGET_CONSUMER, bytes);
+                reserved = true;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            // reserved as if by waiting, so the budget knows it is held by a consumer that waits
+            if (!reserved)
+                reserved = memoryBudget.reserveIfFits(BUDGET_CONSUMER, bytes);
+            return reserved;
+        }
+    }
+}
+
+/**
+ * One job of the extraction: a whole file, a part of a split file, the files of one solid block or a run of
+ * small files next to each other.
+ * @author Jan Bryda
+ */
+class ExtractionJob {
+
+    /**
+     * Action of the job.
+     */
+    interface Action {
+        void run() throws IOException, UnableToGetStreamException;
+    }
+
+    /** offset of the data of the job in the archive, which the jobs are run in the order of */
+    final long offset;
+    /** number of bytes extracted by the job, used to balance the work */
+    final long size;
+    final Action action;
+
+    ExtractionJob(long offset, long size, Action action) {
+        this.offset = offset;
+        this.size = size;
+        this.action = action;
+    }
+
+    /**
+     * Gets the memory used by the job: decoding of its data and the buffers of asynchronous output.
+     * @return number of bytes
+     */
+    long getWorkingMemory() {
+        return ArchiveFile.estimateWorkingMemory(size)
+                + (long) AsyncFileOutput.BUFFER_SIZE * AsyncFileOutput.DEFAULT_OUTSTANDING_WRITES;
+    }
+}
@@ -3,8 +3,11 @@ package huffManager.archive;
 import huffManager.archive.exceptions.UnableToGetStreamException;
 import huffManager.codecs.exceptions.UnknownCodecException;
 import huffManager.codecs.*;
+import huffManager.memory.BufferPool;
 
-import java.io.InputStream;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
 
 /**
  * Abstract class that describes file in an archive. File has to have specified these properties:
@@ -12,9 +15,16 @@ import java.io.InputStream;
  * @author Jan Bryda
  */
 public abstract class ArchiveFile {
+    /** value of checksum of file, whose checksum is unknown */
+    public static final long NO_CHECKSUM = -1;
+
     String name;
     long size;
     long codecID;
+    /** time of last modification of the source of file (in milliseconds since the epoch), 0 if unknown */
+    long modifiedTime = 0;
+    /** CRC-32 checksum of the decoded contents, {@link ArchiveFile#NO_CHECKSUM} if unknown */
+    long checksum = NO_CHECKSUM;
 
     /**
      * Default constructor that initializes the file with name, size and codec ID.
@@ -44,6 +54,38 @@ public abstract class ArchiveFile {
         return size;
     }
 
+    /**
+     * Gets the time of last modification of the source of file, from which the file was added into the archive.
+     * @return modification time (in milliseconds since the epoch), 0 if unknown
+     */
+    public long getModifiedTime() {
+        return modifiedTime;
+    }
+
+    /**
+     * Sets the time of last modification of the source of file.
+     * @param modifiedTime modification time (in milliseconds since the epoch), 0 if unknown
+     */
+    public void setModifiedTime(long modifiedTime) {
+        this.modifiedTime = modifiedTime;
+    }
+
+    /**
+     * Gets the checksum of the decoded contents of file.
+     * @return CRC-32 checksum, {@link ArchiveFile#NO_CHECKSUM} if unknown
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Sets the checksum of the decoded contents of file.
+     * @param checksum CRC-32 checksum, {@link ArchiveFile#NO_CHECKSUM} if unknown
+     */
+    public void setChecksum(long checksum) {
+        this.checksum = checksum;
+    }
+
     /**
      * Gets the codec ID of codec that is tied to this file.
      * @return codec ID
@@ -76,6 +118,155 @@ public abstract class ArchiveFile {
      */
     public abstract InputStream getDecodedStream() throws UnableToGetStreamException;
 
+    /**
+     * Opens the read-only channel of the decoded data, which can be read from any position. Decoding starts at
+     * the nearest restart point before the read position, see {@link DecodedByteChannel}. By default the only
+     * restart point is the beginning of the file, files that are stored in restart blocks or chunks (see
+     * {@link ArchiveSaver#setRestartInterval(int)}) or verbatim have more of them.
+     * @return channel of decoded data
+     * @throws UnableToGetStreamException
+     */
+    public SeekableByteChannel openChannel() throws UnableToGetStreamException {
+        return new DecodedByteChannel(size) {
+            @Override
+            long getRestartPoint(long position) {
+                return 0;
+            }
+
+            @Override
+            InputStream openAt(long restartPoint) throws IOException {
+                return openDecodedStream();
+            }
+        };
+    }
+
+    /**
+     * Gets the stream of decoded data for reading through channel.
+     * @return decoded stream
+     * @throws IOException when the stream can't be got
+     */
+    InputStream openDecodedStream() throws IOException {
+        try {
+            return getDecodedStream();
+        } catch (UnableToGetStreamException e) {
+            throw new IOException("Unable to get decoded stream!", e);
+        }
+    }
+
+    /**
+     * Tells whether the coded data of this file are available without running a coder, so they can be just
+     * copied when saving the archive.
+     * @return true if getting the coded data does not require coding
+     */
+    public boolean hasCodedData() {
+        return false;
+    }
+
+    /**
+     * Tells whether the data of this file are stored verbatim in given archive file, so they can be referenced
+     * by their physical position in that file instead of being written again.
+     * @param file archive file
+     * @return true if the data of this file are stored in given archive file
+     * @throws IOException
+     */
+    boolean isStoredIn(File file) throws IOException {
+        return false;
+    }
+
+    /**
+     * Writes the coded data of this file into given channel. This is used when saving the archive. By default
+     * the coded stream is copied, but files that have their coded data already stored in a file may transfer
+     * them without copying them through the user space.
+     * @param channel channel, which the coded data will be written into
+     * @return number of bytes written
+     * @throws UnableToGetStreamException
+     * @throws IOException
+     */
+    public long transferCodedTo(WritableByteChannel channel) throws UnableToGetStreamException, IOException {
+        try (InputStream codedStream = getCodedStream()) {
+            return copy(codedStream, channel);
+        }
+    }
+
+    /**
+     * Extracts the decoded data of this file into given target file. Existing target file is replaced.
+     * Decoded data are written asynchronously (see {@link AsyncFileOutput}), so decoding of the data goes on
+     * while the previous data are being written.
+     * @param target file that the decoded data will be written into
+     * @throws UnableToGetStreamException
+     * @throws IOException when the decoded data do not match the size of file
+     */
+    public void extractTo(File target) throws UnableToGetStreamException, IOException {
+        try (InputStream decodedStream = getDecodedStream()) {
+            checkExtractedSize(AsyncFileOutput.copy(decodedStream, target));
+        }
+    }
+
+    /**
+     * Checks that the whole file was extracted, so a file whose decoding failed is not left truncated.
+     * @param extractedSize number of bytes written into the target file
+     * @throws IOException when the number of bytes does not match the size of file
+     */
+    void checkExtractedSize(long extractedSize) throws IOException {
+        if (extractedSize != size)
+            throw new IOException("Extracted " + extractedSize + "B of file " + name + " instead of " + size + "B!");
+    }
+
+    /**
+     * Copies whole input stream into the channel.
+     * @param input input stream
+     * @param channel output channel
+     * @return number of bytes copied
+     * @throws IOException
+     */
+    static long copy(InputStream input, WritableByteChannel channel) throws IOException {
+        byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+        long count = 0;
+
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            byteBuffer.clear().limit(read);
+            while (byteBuffer.hasRemaining())
+                channel.write(byteBuffer);
+            count += read;
+        }
+
+        return count;
+    }
+
+    /**
+     * Transfers given segment of the file channel into target channel. Transfer is done by the operating
+     * system, if it is able to do so.
+     * @param source source file channel
+     * @param position position of the segment in the source channel
+     * @param count length of the segment
+     * @param target target channel
+     * @throws IOException when the source ends before the whole segment is transferred
+     */
+    static void transfer(FileChannel source, long position, long count, WritableByteChannel target) throws IOException {
+        while (count > 0) {
+            long transferred = source.transferTo(position, count, target);
+            if (transferred <= 0)
+                throw new EOFException("Source channel ended before the whole segment was transferred!");
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
+    /** size of buffer used to copy streams into channels */
+    static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Estimates the memory used while the data of given size are coded or decoded: the read and pipe buffers
+     * of the codec and the transfer buffer. It is reserved from the memory budget by parallel work.
+     * @param size size of decoded data (in bytes)
+     * @return estimated number of bytes
+     */
+    static long estimateWorkingMemory(long size) {
+        return 2L * BufferPool.sizeFor(size, Archive.BUFFER_SIZE) + TRANSFER_BUFFER_SIZE;
+    }
+
     @Override
     public String toString() {
         String codecName;
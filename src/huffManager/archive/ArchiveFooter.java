@@ -0,0 +1,96 @@
+package huffManager.archive;
+
+import huffManager.archive.exceptions.BadArchiveFormatException;
+import static huffManager.archive.Archive.*;
+
+import java.io.*;
+
+/**
+ * Footer of the indexed archive. Footer is stored at the very end of archive file and has fixed size of
+ * {@link Archive#FOOTER_SIZE} bytes. It points to the header of the archive and holds the format flags.
+ * @author Jan Bryda
+ */
+class ArchiveFooter {
+    /** physical offset of the archive header */
+    long headerOffset;
+    /** length of the archive header (in bytes) */
+    long headerLength;
+    /** format flags of the archive */
+    long flags;
+
+    /**
+     * Creates new footer.
+     * @param headerOffset physical offset of the archive header
+     * @param headerLength length of the archive header (in bytes)
+     * @param flags format flags
+     */
+    ArchiveFooter(long headerOffset, long headerLength, long flags) {
+        this.headerOffset = headerOffset;
+        this.headerLength = headerLength;
+        this.flags = flags;
+    }
+
+    /**
+     * Tells whether given format flag is set.
+     * @param flag format flag
+     * @return true if the flag is set
+     */
+    boolean hasFlag(long flag) {
+        return (flags & flag) != 0;
+    }
+
+    /**
+     * Writes the footer into output stream.
+     * @param dataOutput output stream
+     * @throws IOException
+     */
+    void write(DataOutputStream dataOutput) throws IOException {
+        dataOutput.writeLong(headerOffset);
+        dataOutput.writeLong(headerLength);
+        dataOutput.writeLong(flags);
+        dataOutput.writeLong(FOOTER_IDENTIFIER);
+    }
+
+    /**
+     * Reads the footer of archive file through its channel.
+     * @param channel channel of the archive file
+     * @return read footer, or null if the file is not an indexed archive
+     * @throws IOException
+     * @throws BadArchiveFormatException
+     */
+    static ArchiveFooter read(ArchiveChannel channel) throws IOException, BadArchiveFormatException {
+        long archiveLength = channel.size();
+        if (archiveLength < 8 + FOOTER_SIZE)
+            return null;
+
+        try (DataInputStream identifierInput = new DataInputStream(channel.openSegment(0, 8))) {
+            if (identifierInput.readLong() != ARCHIVE_IDENTIFIER_V2)
+                return null;
+        }
+
+        try (DataInputStream footerInput = new DataInputStream(
+                channel.openSegment(archiveLength - FOOTER_SIZE, FOOTER_SIZE))) {
+            return read(footerInput, archiveLength);
+        }
+    }
+
+    /**
+     * Reads the footer from input stream and checks that it points inside the archive.
+     * @param dataInput input stream positioned at the start of the footer
+     * @param archiveLength length of the whole archive file (in bytes)
+     * @return read footer
+     * @throws IOException
+     * @throws BadArchiveFormatException
+     */
+    static ArchiveFooter read(DataInputStream dataInput, long archiveLength) throws IOException, BadArchiveFormatException {
+        ArchiveFooter footer = new ArchiveFooter(dataInput.readLong(), dataInput.readLong(), dataInput.readLong());
+        if (dataInput.readLong() != FOOTER_IDENTIFIER)
+            throw new BadArchiveFormatException("Archive load : archive footer is damaged!");
+
+        if (footer.headerOffset < 8 || footer.headerLength < 0
+                || footer.headerOffset + footer.headerLength > archiveLength - FOOTER_SIZE)
+            throw new BadArchiveFormatException("Archive load : header position in footer is out of archive!");
+
+        return footer;
+    }
+}
@@ -0,0 +1,121 @@
+package huffManager.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Index of files in an archive by their full paths. Full path of a file consists of names of its directories
+ * (root directory excluded) and its name, separated by '/'. Index allows finding a file without walking the
+ * directory structure and listing the paths with given prefix or matching given glob pattern.
+ * @author Jan Bryda
+ */
+public abstract class ArchiveIndex implements Closeable {
+    /** separator of names in full path */
+    public static final char SEPARATOR = '/';
+
+    /**
+     * Finds the file with given full path.
+     * @param path full path of the file
+     * @return file with that path, or null if there is none
+     */
+    public abstract ArchiveFile lookup(String path);
+
+    /**
+     * Lists the full paths of files that start with given prefix. Paths are sorted.
+     * @param prefix path prefix, empty prefix lists all files
+     * @return sorted list of matching paths
+     */
+    public abstract List<String> list(String prefix);
+
+    /**
+     * Gets the number of files in the index.
+     * @return number of files
+     */
+    public abstract int size();
+
+    /**
+     * Lists the full paths of files matching given glob pattern. Pattern may contain '?' (matches one
+     * character of name), '*' (matches any part of name) and '**' (matches any part of path, directories
+     * included). '**' followed by '/' matches any number of whole directories, none included. Paths are sorted.
+     * @param pattern glob pattern
+     * @return sorted list of matching paths
+     */
+    public List<String> glob(String pattern) {
+        Pattern regex = globToRegex(pattern);
+        List<String> result = new ArrayList<>();
+        for (String path : list(literalPrefix(pattern))) {
+            if (regex.matcher(path).matches())
+                result.add(path);
+        }
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    /**
+     * Gets the part of the glob pattern before the first wildcard.
+     * @param pattern glob pattern
+     * @return literal prefix of the pattern
+     */
+    static String literalPrefix(String pattern) {
+        int end = 0;
+        while (end < pattern.length() && pattern.charAt(end) != '*' && pattern.charAt(end) != '?')
+            end++;
+        return pattern.substring(0, end);
+    }
+
+    /**
+     * Converts the glob pattern into regular expression, see {@link ArchiveIndex#glob(String)}.
+     * @param pattern glob pattern
+     * @return regular expression matching the same paths
+     */
+    public static Pattern globToRegex(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c != '*' && c != '?') {
+                literal.append(c);
+                continue;
+            }
+
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+                literal.setLength(0);
+            }
+
+            if (c == '?') {
+                regex.append("[^/]");
+            } else if (i + 2 < pattern.length() && pattern.charAt(i + 1) == '*' && pattern.charAt(i + 2) == SEPARATOR) {
+                // "**/" matches no directory too, so "**/name" matches the name at the top level
+                regex.append("(?:.*/)?");
+                i += 2;
+            } else if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else {
+                regex.append("[^/]*");
+            }
+        }
+
+        if (literal.length() > 0)
+            regex.append(Pattern.quote(literal.toString()));
+
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * Gets the full path of file in given directory. The root directory does not appear in paths.
+     * @param directoryPath full path of the directory (empty for root directory)
+     * @param name name of the file or directory
+     * @return full path
+     */
+    static String childPath(String directoryPath, String name) {
+        return directoryPath.isEmpty() ? name : directoryPath + SEPARATOR + name;
+    }
+}
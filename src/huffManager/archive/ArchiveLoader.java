@@ -2,9 +2,11 @@ package huffManager.archive;
 
 import huffManager.archive.exceptions.*;
 import huffManager.generator.*;
+import huffManager.memory.*;
 import static huffManager.archive.Archive.*;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -12,39 +14,248 @@ import java.util.*;
  * @author Jan Bryda
  */
 public class ArchiveLoader {
+    /** buffer size used when reading the header of indexed archive */
+    private static final int HEADER_BUFFER_SIZE = ArchiveChannel.SEGMENT_BUFFER_SIZE;
+
     private Generator<InputStream> inputGenerator;
+    /** shared channel of loaded archive file, or null if the archive is read through the input generator */
+    private ArchiveChannel archiveChannel;
+    /** tells whether the data of files in loaded archive are stored verbatim */
+    private boolean rawFraming;
+    /** solid blocks of the archive being loaded, in the order of their definitions */
+    private List<FileInArchive> solidBlocks;
+    /** chunks of the archive being loaded and their fingerprints, in the order of their definitions */
+    private List<FileInArchive> chunks;
+    private List<byte[]> chunkFingerprints;
+    /** directories created for the flat records of files, by their full paths */
+    private Map<String, ArchiveDirectory> pathDirectories;
+    /** attributes read for the next file: modification time and checksum, null if there are none */
+    private long[] fileAttributes;
+    /** tells whether the index of archive without stored index is cached in a sidecar file */
+    private boolean indexSidecar = false;
+
+    /**
+     * Sets whether the index of files of archive, that has no index stored in it, is cached in a sidecar file
+     * next to the archive (see {@link ArchiveLoader#loadIndex(File)}). Sidecar is checked against the size,
+     * modification time and checksum of the end of the archive, and rebuilt when the archive changes. Only
+     * indexed archive files have sidecars, legacy archives and volume sets are loaded (see {@link IndexSidecar}).
+     * @param indexSidecar true to use the sidecar files
+     */
+    public void setIndexSidecar(boolean indexSidecar) {
+        this.indexSidecar = indexSidecar;
+    }
+
+    /**
+     * Tells whether the index of files of archive without stored index is cached in a sidecar file.
+     * @return true if the sidecar files are used
+     */
+    public boolean isIndexSidecar() {
+        return indexSidecar;
+    }
 
     /**
-     * Takes the generator of input stream and loads an archive from this stream.
+     * Loads an archive from the archive file. Files of indexed archive with verbatim stored data are read
+     * through one shared {@link ArchiveChannel}, so getting the data of any file costs only reading of its data.
+     * The channel is closed when the returned archive is closed. Other archives are loaded through the
+     * generator of file input stream. Compaction in place of the archive file that was interrupted is finished
+     * first (see {@link ArchiveCompactor#recover(File)}).
+     * @param archiveFile archive file
+     * @return loaded archive
+     * @throws BadArchiveFormatException
+     * @throws ArchiveLoadingException
+     */
+    public Archive load(File archiveFile) throws BadArchiveFormatException, ArchiveLoadingException {
+        finishCompaction(archiveFile);
+        ArchiveChannel channel;
+        try {
+            channel = new ArchiveChannel(archiveFile);
+        } catch (IOException e) {
+            throw new ArchiveLoadingException("Archive load : unable to open archive file!", e);
+        }
+
+        boolean loaded = false;
+        try {
+            ArchiveFooter footer = ArchiveFooter.read(channel);
+            if (footer == null || !footer.hasFlag(FLAG_RAW_FRAMING))
+                return load(new FileInputStreamGenerator(archiveFile));
+
+            this.inputGenerator = null;
+            this.archiveChannel = channel;
+            this.rawFraming = true;
+
+            Archive archive;
+            try (DataInputStream dataInput = new DataInputStream(
+                    channel.openSegment(footer.headerOffset, footer.headerLength))) {
+                archive = loadHeader(dataInput, footer);
+            }
+            archive.archiveChannel = channel;
+            loaded = true;
+            return archive;
+        } catch (IOException e) {
+            throw new ArchiveLoadingException("Archive load : IO exception occurred!", e);
+        } finally {
+            archiveChannel = null;
+            if (!loaded)
+                closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Opens the index of files of the archive file. If the archive has the index of files stored in it, only
+     * the index is read (by memory mapping) and the directory structure is not loaded at all. Otherwise the
+     * archive is loaded and the index is built from its directory structure. When the sidecar files are on
+     * (see {@link ArchiveLoader#setIndexSidecar(boolean)}), the built index is written into the sidecar file
+     * and the next opening of unchanged archive maps the sidecar instead of loading the archive. The returned
+     * index has to be closed, when it is no longer used. Compaction in place of the archive file that was
+     * interrupted is finished first.
+     * @param archiveFile archive file
+     * @return index of files of the archive
+     * @throws BadArchiveFormatException
+     * @throws ArchiveLoadingException
+     */
+    public ArchiveIndex loadIndex(File archiveFile) throws BadArchiveFormatException, ArchiveLoadingException {
+        finishCompaction(archiveFile);
+        ArchiveChannel channel;
+        try {
+            channel = new ArchiveChannel(archiveFile);
+        } catch (IOException e) {
+            throw new ArchiveLoadingException("Archive load : unable to open archive file!", e);
+        }
+
+        IndexSidecar.Stamp stamp = null;
+        try {
+            ArchiveFooter footer = ArchiveFooter.read(channel);
+            if (footer != null && footer.hasFlag(FLAG_RAW_FRAMING) && footer.hasFlag(FLAG_PATH_INDEX)) {
+                long indexOffset = footer.headerOffset + footer.headerLength;
+                long indexLength = channel.size() - FOOTER_SIZE - indexOffset;
+                if (indexLength <= PersistedArchiveIndex.MAX_LENGTH)
+                    return PersistedArchiveIndex.open(channel, indexOffset, indexLength);
+            }
+            if (indexSidecar && footer != null && footer.hasFlag(FLAG_RAW_FRAMING) && archiveFile.isFile()) {
+                stamp = IndexSidecar.Stamp.of(archiveFile, channel);
+                ArchiveIndex index = IndexSidecar.open(archiveFile, channel, stamp);
+                if (index != null)
+                    return index;
+            }
+            closeQuietly(channel);
+        } catch (IOException e) {
+            closeQuietly(channel);
+            throw new ArchiveLoadingException("Archive load : IO exception occurred!", e);
+        } catch (BadArchiveFormatException e) {
+            closeQuietly(channel);
+            throw e;
+        }
+
+        Archive archive = load(archiveFile);
+        if (stamp != null) {
+            try {
+                IndexSidecar.write(archiveFile, archive, stamp);
+            } catch (IOException e) {
+                // sidecar is only a cache, the archive is read without it
+            }
+        }
+        return new MemoryArchiveIndex(archive.getRootDirectory()) {
+            @Override
+            public void close() throws IOException {
+                archive.close();
+            }
+        };
+    }
+
+    /**
+     * Tells whether the file is an archive (of any version) or a volume set, by its identifier. Archive is not
+     * loaded, so it may still be damaged.
+     * @param file archive file, volume or name of volume set
+     * @return true if the file looks like an archive
+     */
+    public static boolean isArchive(File file) {
+        try {
+            if (ArchiveVolumes.find(file) != null)
+                return true;
+            if (!file.isFile())
+                return false;
+
+            try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+                long identifier = input.readLong();
+                return identifier == ARCHIVE_IDENTIFIER || identifier == ARCHIVE_IDENTIFIER_V2;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Finishes the compaction in place of the archive file, if it was interrupted, so the archive is loaded with
+     * its data in the places its header refers to.
+     * @param archiveFile archive file
+     * @throws ArchiveLoadingException when the compaction can't be finished
+     */
+    private static void finishCompaction(File archiveFile) throws ArchiveLoadingException {
+        try {
+            ArchiveCompactor.recover(archiveFile);
+        } catch (ArchiveSavingException e) {
+            throw new ArchiveLoadingException("Archive load : unable to finish interrupted compaction!", e);
+        }
+    }
+
+    /**
+     * Closes the channel (or stream), ignoring the exception that may occur.
+     * @param channel channel to close
+     */
+    static void closeQuietly(Closeable channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // the channel was used for reading only, nothing is lost
+        }
+    }
+
+    /**
+     * Takes the generator of input stream and loads an archive from this stream. Both the indexed archives and
+     * the legacy archives (that have the header found by the marker) can be loaded. The length of indexed
+     * archive is needed to find its footer: it is taken from the file of file input stream, other streams are
+     * read whole to count it, use {@link ArchiveLoader#load(Generator, long)} when the length is known.
      * @param inputGenerator generator of input stream
      * @return loaded archive
      * @throws BadArchiveFormatException
      * @throws ArchiveLoadingException
      */
     public Archive load(Generator<InputStream> inputGenerator) throws BadArchiveFormatException, ArchiveLoadingException {
+        return load(inputGenerator, -1);
+    }
+
+    /**
+     * Takes the generator of input stream of known length and loads an archive from this stream, see
+     * {@link ArchiveLoader#load(Generator)}. Indexed archive is then opened by skipping to its footer and to its
+     * header, so only streams that skip without reading (like file input streams) open it in O(header size);
+     * other streams are read up to the header.
+     * @param inputGenerator generator of input stream
+     * @param archiveLength length of the archive (in bytes), or -1 if it is not known
+     * @return loaded archive
+     * @throws BadArchiveFormatException
+     * @throws ArchiveLoadingException
+     */
+    public Archive load(Generator<InputStream> inputGenerator, long archiveLength)
+            throws BadArchiveFormatException, ArchiveLoadingException {
         this.inputGenerator = inputGenerator;
+        this.archiveChannel = null;
+        this.rawFraming = false;
 
         try {
-            DataInputStream input = new DataInputStream(inputGenerator.generate());
-            if (input.readLong() != ARCHIVE_IDENTIFIER)
-                throw new ArchiveLoadingException("Archive loading : file is not an archive!");
+            InputStream input = inputGenerator.generate();
+            long identifier = new DataInputStream(input).readLong();
 
-            Archive archive = null;
-            FlagInputStream flagInput =
-                    new FlagInputStream(
-                            new BufferedInputStream(input, BUFFER_SIZE),
-                            START_OF_HEADER, ESCAPE);
+            if (identifier == ARCHIVE_IDENTIFIER)
+                return loadLegacy(input);
 
-            flagInput.skipAfterMarker();
+            try {
+                if (identifier != ARCHIVE_IDENTIFIER_V2)
+                    throw new ArchiveLoadingException("Archive loading : file is not an archive!");
 
-            try (DataInputStream dataInput = new DataInputStream(flagInput)) {
-                archive = loadArchive(dataInput);
+                return loadIndexed(input, archiveLength);
+            } finally {
+                input.close();
             }
-
-            if (archive == null)
-                throw new BadArchiveFormatException("Archive load : archive seems to have no header!");
-
-            return archive;
         } catch (UnableToGenerateException e) {
             throw new ArchiveLoadingException("Archive load : unable to generate stream!", e);
         } catch (IOException e) {
@@ -52,6 +263,107 @@ public class ArchiveLoader {
         }
     }
 
+    /**
+     * Loads the legacy archive, whose header is placed after the marker. All the data part of the archive has
+     * to be read to get to the header.
+     * @param input input stream positioned right after the archive identifier
+     * @return loaded archive
+     * @throws IOException
+     * @throws BadArchiveFormatException
+     */
+    private Archive loadLegacy(InputStream input) throws IOException, BadArchiveFormatException {
+        Archive archive = null;
+        FlagInputStream flagInput =
+                new FlagInputStream(
+                        new PooledBufferedInputStream(input, BufferPool.DEFAULT_BUFFER_SIZE),
+                        START_OF_HEADER, ESCAPE);
+
+        flagInput.skipAfterMarker();
+
+        try (DataInputStream dataInput = new DataInputStream(flagInput)) {
+            archive = loadArchive(dataInput);
+        }
+
+        if (archive == null)
+            throw new BadArchiveFormatException("Archive load : archive seems to have no header!");
+
+        return archive;
+    }
+
+    /**
+     * Loads the indexed archive. The footer at the end of archive is read first, and then the header is read
+     * from the physical offset stored in the footer. The data part of the archive is only skipped.
+     * @param input input stream positioned right after the archive identifier
+     * @param archiveLength length of the archive (in bytes), or -1 if it has to be found from the stream
+     * @return loaded archive
+     * @throws IOException
+     * @throws BadArchiveFormatException
+     * @throws UnableToGenerateException
+     */
+    private Archive loadIndexed(InputStream input, long archiveLength)
+            throws IOException, BadArchiveFormatException, UnableToGenerateException {
+        if (archiveLength < 0)
+            archiveLength = 8 + getRemainingLength(input);
+        if (archiveLength < 8 + FOOTER_SIZE)
+            throw new BadArchiveFormatException("Archive load : archive is too short to contain footer!");
+
+        ArchiveFooter footer;
+        try (DataInputStream footerInput = new DataInputStream(
+                new SegmentInputStream(inputGenerator.generate(), archiveLength - FOOTER_SIZE, FOOTER_SIZE))) {
+            footer = ArchiveFooter.read(footerInput, archiveLength);
+        }
+        rawFraming = footer.hasFlag(FLAG_RAW_FRAMING);
+
+        try (DataInputStream dataInput = new DataInputStream(
+                new SegmentInputStream(
+                        new BufferedInputStream(inputGenerator.generate(), HEADER_BUFFER_SIZE),
+                        footer.headerOffset, footer.headerLength))) {
+            return loadHeader(dataInput, footer);
+        }
+    }
+
+    /**
+     * Loads the archive from the header of indexed archive, in the encoding given by the footer flags. The
+     * compact header is read whole and parsed from memory.
+     * @param dataInput input stream of the header
+     * @param footer footer of the archive
+     * @return loaded archive
+     * @throws IOException
+     * @throws BadArchiveFormatException
+     */
+    private Archive loadHeader(DataInputStream dataInput, ArchiveFooter footer) throws IOException, BadArchiveFormatException {
+        if (!footer.hasFlag(FLAG_COMPACT_HEADER))
+            return loadArchive(dataInput);
+
+        if (footer.headerLength > Integer.MAX_VALUE - 8)
+            throw new BadArchiveFormatException("Archive loader : compact header is too long!");
+        byte[] header = new byte[(int) footer.headerLength];
+        dataInput.readFully(header);
+        return CompactHeader.read(header, this);
+    }
+
+    /**
+     * Gets the number of bytes that remain in the stream. For file streams the size of file is used, so the
+     * stream does not have to be read, other streams are read to their end.
+     * @param input input stream
+     * @return number of remaining bytes in the stream
+     * @throws IOException
+     */
+    private long getRemainingLength(InputStream input) throws IOException {
+        if (input instanceof FileInputStream) {
+            FileChannel channel = ((FileInputStream) input).getChannel();
+            return channel.size() - channel.position();
+        }
+
+        long length = 0;
+        byte[] buffer = new byte[HEADER_BUFFER_SIZE];
+        int read;
+        while ((read = input.read(buffer)) != -1)
+            length += read;
+
+        return length;
+    }
+
     /**
      * Loads the archive from stream, supposing that the data that will be read from input stream is just
      * the archive header. Thus supposing that data part of archive was skipped.
@@ -63,13 +375,36 @@ public class ArchiveLoader {
     private Archive loadArchive(DataInputStream dataInput) throws IOException, BadArchiveFormatException {
         List<ArchiveFile> fileList = new ArrayList<>();
         Archive archive = new Archive();
+        solidBlocks = new ArrayList<>();
+        chunks = new ArrayList<>();
+        chunkFingerprints = new ArrayList<>();
+        pathDirectories = new HashMap<>();
+        fileAttributes = null;
         ArchiveDirectory currentDirectory = archive.getRootDirectory();
 
         int myByte;
         while ((myByte = dataInput.read()) != -1) {
             switch (myByte) {
                 case FILE:
-                    currentDirectory.addFile(loadArchiveFile(dataInput));
+                    currentDirectory.addFile(withAttributes(loadArchiveFile(dataInput)));
+                    break;
+                case SOLID_BLOCK:
+                    solidBlocks.add(loadSolidBlock(dataInput));
+                    break;
+                case SOLID_FILE:
+                    currentDirectory.addFile(withAttributes(loadSolidFile(dataInput)));
+                    break;
+                case CHUNK:
+                    loadChunk(dataInput);
+                    break;
+                case CHUNKED_FILE:
+                    currentDirectory.addFile(withAttributes(loadChunkedFile(dataInput)));
+                    break;
+                case FILE_ATTRIBUTES:
+                    fileAttributes = new long[]{dataInput.readLong(), dataInput.readLong()};
+                    break;
+                case PATH_FILE:
+                    loadPathFile(dataInput, archive.getRootDirectory());
                     break;
                 case DIR_START:
                     String directoryName = dataInput.readUTF();
@@ -94,6 +429,20 @@ public class ArchiveLoader {
         return archive;
     }
 
+    /**
+     * Gives the attributes read before the file definition to the file.
+     * @param file loaded file
+     * @return the file
+     */
+    private ArchiveFile withAttributes(ArchiveFile file) {
+        if (fileAttributes != null) {
+            file.setModifiedTime(fileAttributes[0]);
+            file.setChecksum(fileAttributes[1]);
+            fileAttributes = null;
+        }
+        return file;
+    }
+
     /**
      * Loads the file from stream, supposing that the file description is the next thing that will be read
      * from the stream.
@@ -108,7 +457,164 @@ public class ArchiveLoader {
         long length = input.readLong();
         String name = input.readUTF();
 
-        FileInArchive file = new FileInArchive(inputGenerator, name, size, codecID, offset, length);
-        return file;
+        return createFileInArchive(name, size, codecID, offset, length);
+    }
+
+    /**
+     * Loads the solid block from stream, supposing that the block description is the next thing that will be
+     * read from the stream.
+     * @param input input stream
+     * @return solid block that was read
+     * @throws IOException
+     */
+    private FileInArchive loadSolidBlock(DataInputStream input) throws IOException {
+        long codecID = input.readLong();
+        long size = input.readLong();
+        long offset = input.readLong();
+        long length = input.readLong();
+
+        return createFileInArchive("solid block", size, codecID, offset, length);
+    }
+
+    /**
+     * Loads the file stored in a solid block from stream, supposing that the file description is the next thing
+     * that will be read from the stream.
+     * @param input input stream
+     * @return archive file that was read
+     * @throws IOException
+     * @throws BadArchiveFormatException
+     */
+    private ArchiveFile loadSolidFile(DataInputStream input) throws IOException, BadArchiveFormatException {
+        int blockNumber = input.readInt();
+        long offsetInBlock = input.readLong();
+        long size = input.readLong();
+        String name = input.readUTF();
+
+        if (blockNumber < 0 || blockNumber >= solidBlocks.size())
+            throw new BadArchiveFormatException("Archive loader : archive has bad format : undefined solid block!");
+        FileInArchive block = solidBlocks.get(blockNumber);
+        if (offsetInBlock < 0 || size < 0 || offsetInBlock + size > block.getSize())
+            throw new BadArchiveFormatException("Archive loader : archive has bad format : file out of solid block!");
+
+        return new FileInSolidBlock(block, name, size, offsetInBlock);
+    }
+
+    /**
+     * Loads the chunk from stream, supposing that the chunk description is the next thing that will be read
+     * from the stream.
+     * @param input input stream
+     * @throws IOException
+     */
+    private void loadChunk(DataInputStream input) throws IOException {
+        long codecID = input.readLong();
+        long size = input.readLong();
+        long offset = input.readLong();
+        long length = input.readLong();
+        byte[] fingerprint = new byte[FINGERPRINT_LENGTH];
+        input.readFully(fingerprint);
+
+        chunks.add(createFileInArchive("chunk", size, codecID, offset, length));
+        chunkFingerprints.add(fingerprint);
+    }
+
+    /**
+     * Loads the file stored as a list of chunks from stream, supposing that the file description is the next
+     * thing that will be read from the stream.
+     * @param input input stream
+     * @return archive file that was read
+     * @throws IOException
+     * @throws BadArchiveFormatException
+     */
+    private ArchiveFile loadChunkedFile(DataInputStream input) throws IOException, BadArchiveFormatException {
+        long codecID = input.readLong();
+        long size = input.readLong();
+        int chunkCount = input.readInt();
+        if (chunkCount < 0)
+            throw new BadArchiveFormatException("Archive loader : archive has bad format : negative chunk count!");
+
+        List<FileInArchive> fileChunks = new ArrayList<>(chunkCount);
+        List<byte[]> fingerprints = new ArrayList<>(chunkCount);
+        long chunksSize = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            int number = input.readInt();
+            if (number < 0 || number >= chunks.size())
+                throw new BadArchiveFormatException("Archive loader : archive has bad format : undefined chunk!");
+            fileChunks.add(chunks.get(number));
+            fingerprints.add(chunkFingerprints.get(number));
+            chunksSize += chunks.get(number).getSize();
+        }
+        String name = input.readUTF();
+
+        if (chunksSize != size)
+            throw new BadArchiveFormatException("Archive loader : archive has bad format : chunks do not match file size!");
+
+        return new FileInChunks(name, size, codecID, fileChunks, fingerprints);
+    }
+
+    /**
+     * Loads the file with its full path from stream, supposing that the file description is the next thing
+     * that will be read from the stream. The file is added into the directory given by its path, directories
+     * that do not exist yet are created. Paths with empty, "." or ".." names are refused, so the files can't be
+     * extracted out of the target directory.
+     * @param input input stream
+     * @param rootDirectory root directory of the loaded archive
+     * @throws IOException
+     * @throws BadArchiveFormatException
+     */
+    private void loadPathFile(DataInputStream input, ArchiveDirectory rootDirectory)
+            throws IOException, BadArchiveFormatException {
+        long codecID = input.readLong();
+        long size = input.readLong();
+        long offset = input.readLong();
+        long length = input.readLong();
+        String path = input.readUTF();
+
+        for (String name : path.split(String.valueOf(ArchiveIndex.SEPARATOR), -1)) {
+            if (name.isEmpty() || name.equals(".") || name.equals(".."))
+                throw new BadArchiveFormatException("Archive loader : archive has bad format : bad file path " + path + "!");
+        }
+
+        int separator = path.lastIndexOf(ArchiveIndex.SEPARATOR);
+
+        ArchiveDirectory directory = separator < 0
+                ? rootDirectory
+                : getPathDirectory(rootDirectory, path.substring(0, separator));
+        directory.addFile(withAttributes(createFileInArchive(path.substring(separator + 1), size, codecID, offset, length)));
+    }
+
+    /**
+     * Gets the directory with given full path, creating it and its parents if they do not exist yet.
+     * @param rootDirectory root directory of the loaded archive
+     * @param path full path of the directory
+     * @return directory
+     */
+    private ArchiveDirectory getPathDirectory(ArchiveDirectory rootDirectory, String path) {
+        ArchiveDirectory directory = pathDirectories.get(path);
+        if (directory != null)
+            return directory;
+
+        int separator = path.lastIndexOf(ArchiveIndex.SEPARATOR);
+        ArchiveDirectory parent = separator < 0
+                ? rootDirectory
+                : getPathDirectory(rootDirectory, path.substring(0, separator));
+        directory = new ArchiveDirectory(path.substring(separator + 1));
+        parent.addSubdirectory(directory);
+        pathDirectories.put(path, directory);
+        return directory;
+    }
+
+    /**
+     * Creates the file whose data are stored in the loaded archive.
+     * @param name file name
+     * @param size file size
+     * @param codecID codec ID
+     * @param offset offset of the data in the archive
+     * @param length length of the data in the archive
+     * @return archive file
+     */
+    FileInArchive createFileInArchive(String name, long size, long codecID, long offset, long length) {
+        if (archiveChannel != null)
+            return new FileInArchive(archiveChannel, name, size, codecID, offset, length);
+        return new FileInArchive(inputGenerator, name, size, codecID, offset, length, rawFraming);
     }
 }
@@ -0,0 +1,221 @@
+package huffManager.archive;
+
+import huffManager.archive.exceptions.*;
+import huffManager.codecs.exceptions.*;
+import huffManager.generator.*;
+import static huffManager.archive.Archive.*;
+
+import java.io.*;
+import java.nio.channels.*;
+
+/**
+ * This class reads an archive with local headers (written by {@link ArchiveWriter}) in one forward pass from
+ * any input stream or channel, which does not have to be seekable or reopenable. Entries are read from their
+ * local headers in the order they were written, the header and the footer at the end of the archive are not
+ * needed. Data of an entry can be read only until the next entry is requested.
+ * @author Jan Bryda
+ */
+public class ArchiveReader implements Closeable {
+
+    /**
+     * Entry of the archive read from its local header. Its data are read from the archive stream, so its coded
+     * or decoded stream can be got only once.
+     */
+    public static class Entry extends ArchiveFile {
+        private final String path;
+        private final EntryDataInputStream data;
+
+        Entry(String path, long size, long codecID, EntryDataInputStream data) {
+            super(path.substring(path.lastIndexOf(ArchiveIndex.SEPARATOR) + 1), size, codecID);
+            this.path = path;
+            this.data = data;
+        }
+
+        /**
+         * Gets the full path of the entry.
+         * @return full path, names separated by '/'
+         */
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public InputStream getCodedStream() throws UnableToGetStreamException {
+            return data;
+        }
+
+        @Override
+        public InputStream getDecodedStream() throws UnableToGetStreamException {
+            try {
+                return getCodec().getDecoder().decode(new Generator<>(() -> data));
+            } catch (UnknownCodecException e) {
+                throw new UnableToGetStreamException("Unable to get decoded stream : unknown codec!", e);
+            } catch (DecoderException e) {
+                throw new UnableToGetStreamException("Unable to get decoded stream : decoder exception occurred!", e);
+            }
+        }
+    }
+
+    private DataInputStream input;
+    /** data of the current entry, the rest of them is skipped when the next entry is read */
+    private EntryDataInputStream currentData;
+    private boolean started = false;
+    private boolean finished = false;
+
+    /**
+     * Creates new ArchiveReader that reads from given input stream.
+     * @param input input stream positioned at the start of the archive, it is closed when the reader is closed
+     */
+    public ArchiveReader(InputStream input) {
+        this.input = new DataInputStream(new BufferedInputStream(input, ArchiveFile.TRANSFER_BUFFER_SIZE));
+    }
+
+    /**
+     * Creates new ArchiveReader that reads from given channel.
+     * @param channel input channel positioned at the start of the archive, it is closed when the reader is closed
+     */
+    public ArchiveReader(ReadableByteChannel channel) {
+        this(Channels.newInputStream(channel));
+    }
+
+    /**
+     * Reads the local header of the next entry. Unread data of the previous entry are skipped.
+     * @return next entry, or null if there are no more entries
+     * @throws BadArchiveFormatException
+     * @throws ArchiveLoadingException
+     */
+    public Entry nextEntry() throws BadArchiveFormatException, ArchiveLoadingException {
+        if (finished)
+            return null;
+
+        try {
+            if (currentData != null) {
+                currentData.skipRest();
+                currentData = null;
+            }
+
+            if (!started) {
+                if (input.readLong() != ARCHIVE_IDENTIFIER_V2)
+                    throw new BadArchiveFormatException("Archive reader : file is not an indexed archive!");
+                started = true;
+            }
+
+            long identifier = input.readLong();
+            if (identifier == LOCAL_END_IDENTIFIER) {
+                finished = true;
+                return null;
+            }
+            if (identifier != LOCAL_HEADER_IDENTIFIER)
+                throw new BadArchiveFormatException("Archive reader : archive has no local headers!");
+
+            long codecID = input.readLong();
+            long size = input.readLong();
+            long length = input.readLong();
+            String path = input.readUTF();
+            if (size < 0 || length < 0)
+                throw new BadArchiveFormatException("Archive reader : local header is damaged!");
+
+            currentData = new EntryDataInputStream(input, length);
+            return new Entry(path, size, codecID, currentData);
+        } catch (EOFException e) {
+            throw new BadArchiveFormatException("Archive reader : archive ended unexpectedly!");
+        } catch (IOException e) {
+            throw new ArchiveLoadingException("Archive reader : IO exception occurred!", e);
+        }
+    }
+
+    /**
+     * Extracts all entries into the target directory, creating the directories of their paths. Entries are
+     * decoded and written as they are read, so the extraction needs no temporary space.
+     * @param targetDirectory directory, which the entries will be extracted into
+     * @return number of extracted entries
+     * @throws BadArchiveFormatException
+     * @throws ArchiveLoadingException
+     */
+    public long extractAll(File targetDirectory) throws BadArchiveFormatException, ArchiveLoadingException {
+        long count = 0;
+        try {
+            String targetPath = targetDirectory.getCanonicalPath() + File.separator;
+            Entry entry;
+            while ((entry = nextEntry()) != null) {
+                File target = new File(targetDirectory, entry.getPath().replace(ArchiveIndex.SEPARATOR, File.separatorChar));
+                if (!target.getCanonicalPath().startsWith(targetPath))
+                    throw new BadArchiveFormatException("Archive reader : entry path leads out of target directory : "
+                            + entry.getPath());
+
+                File parent = target.getParentFile();
+                if (!parent.isDirectory() && !parent.mkdirs())
+                    throw new IOException("Unable to create directory " + parent);
+                entry.extractTo(target);
+                count++;
+            }
+        } catch (IOException e) {
+            throw new ArchiveLoadingException("Archive reader : IO exception occurred!", e);
+        } catch (UnableToGetStreamException e) {
+            throw new ArchiveLoadingException("Archive reader : unable to get stream of entry!", e);
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
+
+/**
+ * Stream of the data of one entry, which reads given number of bytes of the archive stream. The decoder may read
+ * it from its own thread, so its methods are synchronized, and when the reader moves to the next entry, the rest
+ * of the data is skipped and the stream ends.
+ */
+class EntryDataInputStream extends InputStream {
+    private final InputStream input;
+    private long remainingBytes;
+
+    public EntryDataInputStream(InputStream input, long length) {
+        this.input = input;
+        this.remainingBytes = length;
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        if (remainingBytes == 0)
+            return -1;
+
+        int myByte = input.read();
+        if (myByte == -1)
+            throw new EOFException("Archive ended inside entry data!");
+        remainingBytes--;
+        return myByte;
+    }
+
+    @Override
+    public synchronized int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0)
+            return 0;
+        if (remainingBytes == 0)
+            return -1;
+
+        int read = input.read(buffer, offset, (int) Math.min(length, remainingBytes));
+        if (read == -1)
+            throw new EOFException("Archive ended inside entry data!");
+        remainingBytes -= read;
+        return read;
+    }
+
+    /**
+     * Skips the unread data of the entry, so the archive stream is positioned after them. Data are read,
+     * because streams of pipes can't skip.
+     * @throws IOException
+     */
+    synchronized void skipRest() throws IOException {
+        byte[] buffer = new byte[(int) Math.min(ArchiveFile.TRANSFER_BUFFER_SIZE, Math.max(1, remainingBytes))];
+        while (remainingBytes > 0)
+            read(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public void close() {
+        // the archive stream stays open for the next entries
+    }
+}
@@ -1,57 +1,336 @@
 package huffManager.archive;
 
 import huffManager.archive.exceptions.*;
+import huffManager.codecs.Codec;
+import huffManager.codecs.exceptions.*;
+import huffManager.codecs.none.NoneCodec;
 import huffManager.generator.*;
+import huffManager.memory.*;
 import static huffManager.archive.Archive.*;
 
 import java.io.*;
-import java.util.Map;
-import java.util.HashMap;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.LongUnaryOperator;
 
 /**
  * This class provides ability to save archive to output stream.
  * @author Jan Bryda
  */
 public class ArchiveSaver {
+    /** name of the coding task of the written file as the consumer of memory budget */
+    private static final String CODING_CONSUMER = "coding";
+    /** name of the coding tasks of files ahead of the written one as the consumer of memory budget */
+    private static final String CODING_AHEAD_CONSUMER = "coding ahead";
+    /** the largest average size of chunks, the chunker then holds chunks of up to 4MB in its buffer */
+    public static final int MAX_CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * Summary of one saving of archive.
+     */
+    public static class SaveSummary {
+        /** number of files in the saved archive */
+        public final int fileCount;
+        /** number of bytes written into the archive file */
+        public final long writtenBytes;
+        /** number of files that are stored only as references to the data of identical files */
+        public final int duplicateCount;
+        /** size of the decoded data of duplicate files, which were not coded (in bytes) */
+        public final long duplicateBytes;
+        /** estimated number of bytes of coded data that were not written thanks to deduplication */
+        public final long savedBytes;
+        /** time spent by hashing the contents of files (in nanoseconds) */
+        public final long hashTime;
+        /** time spent by coding and writing the data of files (in nanoseconds) */
+        public final long writeTime;
+        /** estimated time that coding and writing of duplicate files would take (in nanoseconds) */
+        public final long savedTime;
+
+        SaveSummary(int fileCount, long writtenBytes, int duplicateCount, long duplicateBytes, long savedBytes,
+                    long hashTime, long writeTime, long savedTime) {
+            this.fileCount = fileCount;
+            this.writtenBytes = writtenBytes;
+            this.duplicateCount = duplicateCount;
+            this.duplicateBytes = duplicateBytes;
+            this.savedBytes = savedBytes;
+            this.hashTime = hashTime;
+            this.writeTime = writeTime;
+            this.savedTime = savedTime;
+        }
+
+        @Override
+        public String toString() {
+            return fileCount + " files, " + writtenBytes + "B written, " + duplicateCount + " duplicates ("
+                    + duplicateBytes + "B), saved about " + savedBytes + "B and "
+                    + TimeUnit.NANOSECONDS.toMillis(savedTime) + "ms of coding, hashing took "
+                    + TimeUnit.NANOSECONDS.toMillis(hashTime) + "ms";
+        }
+    }
+
     Map<ArchiveFile, FileInArchiveInfo> fileInfos;
+    /** solid blocks of the saved archive, in the order of their numbers */
+    List<ArchiveFile> solidBlocks;
+    /** numbers of the solid blocks */
+    Map<ArchiveFile, Integer> solidBlockNumbers;
+    /** positions of files that are stored in solid blocks */
+    Map<ArchiveFile, SolidMember> solidMembers;
+    /** chunks in the chunk store of the saved archive, in the order of their numbers */
+    List<ArchiveFile> chunks;
+    /** fingerprints of the chunks contents */
+    List<byte[]> chunkFingerprints;
+    /** numbers of the chunks */
+    private Map<ArchiveFile, Integer> chunkNumbers;
+    /** numbers of chunks by their fingerprints */
+    private ChunkFingerprintIndex chunkIndex;
+    /** numbers of chunks of files that are stored as chunk lists */
+    Map<ArchiveFile, int[]> chunkedFiles;
+    /** channels of the chunked source files, shared by their new chunks until the saving ends */
+    private final List<FileChannel> sourceChannels = new ArrayList<>();
+    /** files whose contents are identical to the contents of earlier files, mapped to those files */
+    private Map<ArchiveFile, ArchiveFile> duplicates;
+    /** time spent by hashing the contents of files in last planning (in nanoseconds) */
+    private long hashTime;
+    /** number of files that are coded at once */
+    private int concurrency = Runtime.getRuntime().availableProcessors();
+    /** maximal number of bytes of coded data kept in memory while saving in parallel */
+    private long memoryLimit = 64 * 1024 * 1024;
+    /** directory for temporary files of spilled coded data, null for the default temporary directory */
+    private File spillDirectory = null;
+    /** memory budget the parallel coding reserves its memory from */
+    private MemoryBudget memoryBudget = MemoryBudget.getShared();
+    /** maximal size of decoded data of one solid block, 0 if the solid mode is off */
+    private long solidBlockSize = 0;
+    /** maximal size of file that is stored in a solid block */
+    private long solidFileSizeLimit = 64 * 1024;
+    /** splits the files into chunks, null if the chunking is off */
+    private ContentChunker chunker = null;
+    /** splits the large coded files into blocks at fixed restart points, null if restart points are off */
+    private ContentChunker restartChunker = null;
+    /** tells whether the files with identical contents are stored only once */
+    private boolean deduplication = false;
+    /** maximal size of one volume when the archive is saved as a volume set, 0 for an ordinary archive file */
+    private long volumeSize = 0;
+    /** tells whether the header is written in the compact encoding, see {@link CompactHeader} */
+    private boolean compactHeader = true;
+    /** codec of the compact header */
+    private Codec headerCodec = new NoneCodec();
+    /** tells whether the index of files is written after the header, see {@link PersistedArchiveIndex} */
+    private boolean pathIndex = false;
+
+    /**
+     * Sets the number of files that are coded at once when saving. With concurrency of one, files are coded
+     * one after another directly into the output.
+     * @param concurrency number of coding threads
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1)
+            throw new IllegalArgumentException("Concurrency has to be at least one!");
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Gets the number of files that are coded at once when saving.
+     * @return number of coding threads
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Sets the maximal number of bytes of coded data that are kept in memory while waiting to be written,
+     * when saving in parallel. Coded data above this limit are spilled into temporary files.
+     * @param memoryLimit memory limit (in bytes)
+     */
+    public void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * Gets the maximal number of bytes of coded data that are kept in memory when saving in parallel.
+     * @return memory limit (in bytes)
+     */
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * Sets the memory budget, which the parallel coding reserves its memory from. Files are not coded ahead of
+     * the file being written while the budget is short, and the coded data are spilled early.
+     * @param memoryBudget memory budget
+     */
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Sets the directory, where temporary files with spilled coded data are created.
+     * @param spillDirectory directory, or null for the default temporary directory
+     */
+    public void setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Sets the maximal size of decoded data of one solid block. In solid mode the new small files, which would
+     * be coded by the same codec, are concatenated into solid blocks that are coded as a whole, so they share
+     * one model (Huffman tree) and one run of the coder. Extraction of one file has to decode its block up to
+     * the end of the file, so the block size bounds the cost of extraction.
+     * @param solidBlockSize size of solid block (in bytes), 0 turns the solid mode off
+     */
+    public void setSolidBlockSize(long solidBlockSize) {
+        if (solidBlockSize < 0 || solidBlockSize > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Solid block size has to be between 0 and 2GB!");
+        this.solidBlockSize = solidBlockSize;
+    }
+
+    /**
+     * Gets the maximal size of decoded data of one solid block.
+     * @return size of solid block (in bytes), 0 if the solid mode is off
+     */
+    public long getSolidBlockSize() {
+        return solidBlockSize;
+    }
+
+    /**
+     * Sets the maximal size of file that is stored in a solid block in solid mode. Larger files are stored
+     * on their own.
+     * @param solidFileSizeLimit size limit (in bytes)
+     */
+    public void setSolidFileSizeLimit(long solidFileSizeLimit) {
+        this.solidFileSizeLimit = solidFileSizeLimit;
+    }
+
+    /**
+     * Sets the average size of chunks. With chunking, the contents of new files larger than the average chunk
+     * are split into chunks by a content defined chunker, so the same data produce the same chunks even when
+     * they are shifted. Each unique chunk is coded and stored once in the chunk store of the archive and files
+     * are stored as lists of chunks. Chunks of the updated archive are reused by the new files.
+     * @param averageChunkSize average size of chunk (in bytes), rounded down to a power of two, at most
+     * {@link ArchiveSaver#MAX_CHUNK_SIZE}, 0 turns the chunking off
+     */
+    public void setChunkSize(int averageChunkSize) {
+        if (averageChunkSize < 0 || averageChunkSize > MAX_CHUNK_SIZE)
+            throw new IllegalArgumentException("Chunk size has to be between 0 and 1MB!");
+        chunker = averageChunkSize == 0 ? null : new ContentChunker(averageChunkSize);
+    }
+
+    /**
+     * Sets the distance of restart points of large coded files. New files larger than the interval, which are
+     * not split by content defined chunking, are split into blocks of this size, that are coded independently
+     * and stored in the chunk store. The header then records the decoded and coded position of every block,
+     * so reading the file at any position (see {@link ArchiveFile#openChannel()}) decodes at most one block.
+     * Smaller interval makes seeking cheaper, but every block starts a new model of the codec.
+     * @param restartInterval distance of restart points (in bytes), 0 turns the restart points off
+     */
+    public void setRestartInterval(int restartInterval) {
+        if (restartInterval != 0 && (restartInterval < 64 * 1024 || restartInterval > 64 * 1024 * 1024))
+            throw new IllegalArgumentException("Restart interval has to be between 64KB and 64MB!");
+        restartChunker = restartInterval == 0 ? null : ContentChunker.fixedSize(restartInterval);
+    }
+
+    /**
+     * Sets whether the files with identical contents are stored only once. With deduplication the contents
+     * of new files that have the same size and codec are hashed before saving, and the files whose contents
+     * were already seen point at the coded data of the first such file, which are coded only once.
+     * <p>
+     * Hashing is a separate pass over the data, before the files are coded, so every new file that shares its
+     * size and codec with another new file is read twice, even when it turns out to be unique. Deduplication
+     * is therefore off by default, it pays off when identical files are expected.
+     * @param deduplication true to store identical files only once
+     */
+    public void setDeduplication(boolean deduplication) {
+        this.deduplication = deduplication;
+    }
+
+    /**
+     * Sets the maximal size of one volume. When it is set, archive files are updated (see
+     * {@link ArchiveSaver#update(Archive, File)}) by saving them whole as volume sets, see {@link ArchiveVolumes}.
+     * Large files are split between volumes.
+     * @param volumeSize maximal size of volume including its header (in bytes), 0 to save ordinary archive files
+     */
+    public void setVolumeSize(long volumeSize) {
+        if (volumeSize != 0 && volumeSize < 64 * 1024)
+            throw new IllegalArgumentException("Volume size has to be at least 64KB!");
+        this.volumeSize = volumeSize;
+    }
+
+    /**
+     * Gets the maximal size of one volume.
+     * @return maximal size of volume (in bytes), 0 if ordinary archive files are saved
+     */
+    public long getVolumeSize() {
+        return volumeSize;
+    }
+
+    /**
+     * Sets whether the header (description of directories and files) is written in the compact encoding, where
+     * numbers are variable length, offsets are relative and names are front coded (see {@link CompactHeader}).
+     * Headers of archives with many files are then several times smaller and are loaded faster. Archives with
+     * compact header can't be loaded by the older versions of the program.
+     * @param compactHeader true to write compact headers
+     */
+    public void setCompactHeader(boolean compactHeader) {
+        this.compactHeader = compactHeader;
+    }
+
+    /**
+     * Sets the codec that codes the compact header as a whole.
+     * @param headerCodec codec of the header, null to write the header as it is
+     */
+    public void setHeaderCodec(Codec headerCodec) {
+        this.headerCodec = headerCodec == null ? new NoneCodec() : headerCodec;
+    }
+
+    /**
+     * Sets whether the index of files by their full paths (see {@link PersistedArchiveIndex}) is written after
+     * the header. Files of such archive are listed and looked up without loading the header, but the index
+     * stores the full paths and the positions of data of all files uncompressed, so it is much bigger than
+     * the compact header, and it is written again by every update of the archive. Archives without the index
+     * can use the sidecar index files instead, see {@link ArchiveLoader#setIndexSidecar(boolean)}.
+     * @param pathIndex true to write the index of files
+     */
+    public void setPathIndex(boolean pathIndex) {
+        this.pathIndex = pathIndex;
+    }
 
     /**
-     * Saves the given archive into given output stream.
+     * Saves the given archive into given output stream. The archive is saved in the indexed format, so the
+     * header is written after the data of files and its physical position is stored in the footer at the end.
+     * Data of files are stored verbatim, so when saving into a file they are transferred into it through
+     * its channel. The index of files by their full paths is stored after the header only when it is turned
+     * on, see {@link ArchiveSaver#setPathIndex(boolean)}.
      * @param archive archive to be saved
      * @param outputGenerator output stream, which the archive will be saved into
+     * @return summary of the saving
      * @throws ArchiveSavingException
      */
-    public void save(Archive archive, Generator<OutputStream> outputGenerator) throws ArchiveSavingException {
+    public SaveSummary save(Archive archive, Generator<OutputStream> outputGenerator) throws ArchiveSavingException {
         try {
-            try (FlagOutputStream output =
-                         new FlagOutputStream(
-                                 new BufferedOutputStream(outputGenerator.generate(), BUFFER_SIZE),
-                                 START_OF_HEADER, ESCAPE)) {
-                List<ArchiveFile> allFiles = archive.getAllFiles();
-
-                new DataOutputStream(output).writeLong(ARCHIVE_IDENTIFIER);
-
-                fileInfos = new HashMap<>();
-                long position = 8;
-                for (ArchiveFile file : allFiles) {
-                    InputStream fileStream = file.getCodedStream();
-                    long offset = position;
-                    long length = 0;
-
-                    int c;
-                    while ((c = fileStream.read()) != -1) {
-                        output.write(c);
-                        position++;
-                        length++;
-                    }
-
-                    fileInfos.put(file, new FileInArchiveInfo(offset, length));
-                }
+            OutputStream rawOutput = outputGenerator.generate();
+            try (CountingOutputStream output =
+                         new CountingOutputStream(
+                                 new PooledBufferedOutputStream(rawOutput, BUFFER_SIZE))) {
+                new DataOutputStream(output).writeLong(ARCHIVE_IDENTIFIER_V2);
 
-                output.writeMarker();
+                // when saving into a file, data are written directly into its channel, bypassing the buffer
+                boolean directChannel = rawOutput instanceof FileOutputStream;
+                WritableByteChannel channel = directChannel
+                        ? ((FileOutputStream) rawOutput).getChannel()
+                        : Channels.newChannel(output);
 
-                writeArchiveDescription(new DataOutputStream(output), archive);
+                List<ArchiveFile> files = planFiles(archive.getAllFiles(), null, LongUnaryOperator.identity());
+                long writeStart = System.nanoTime();
+                writeFiles(files, output, channel, directChannel);
+                long writeTime = System.nanoTime() - writeStart;
+                resolveDuplicates();
+                writeTrailer(archive, output, rawOutput instanceof VolumeSetOutputStream ? FLAG_VOLUMES : 0);
+                return createSummary(archive, files, output.getCount(), writeTime);
+            } finally {
+                closeSourceChannels();
             }
         } catch (IOException e) {
             throw new ArchiveSavingException("Archive saving : IO exception occurred!", e);
@@ -63,7 +342,733 @@ public class ArchiveSaver {
     }
 
     /**
-     * Writes the description of whole archive (directories, files) into output stream.
+     * Updates the archive file, so it contains given archive. Files that are already stored in the archive file
+     * are left in place, only the data of new files are appended to the end of archive file, followed by the
+     * new header, index (if it is on) and footer, which supersede the old ones. The cost of update thus depends
+     * only on the size of new files. If writing fails, the archive file is truncated back to its original state.
+     * <p>
+     * If the archive file does not exist or it is not an indexed archive with verbatim stored data, the whole
+     * archive is saved into a temporary file, which then replaces the archive file. When the volume size is set
+     * or the archive file is a volume set, the whole archive is saved as a volume set instead, see
+     * {@link ArchiveSaver#saveVolumes(Archive, File)}. Volume set keeps its volume size unless a new one is set.
+     * @param archive archive to be saved
+     * @param archiveFile archive file to be updated, or any volume of volume set
+     * @return summary of the saving
+     * @throws ArchiveSavingException
+     */
+    public SaveSummary update(Archive archive, File archiveFile) throws ArchiveSavingException {
+        long setVolumeSize;
+        try {
+            setVolumeSize = ArchiveVolumes.getVolumeSize(archiveFile);
+        } catch (IOException e) {
+            throw new ArchiveSavingException("Archive saving : Unable to read the archive volumes!", e);
+        }
+        if (volumeSize > 0 || setVolumeSize > 0)
+            return saveVolumes(archive, archiveFile, volumeSize > 0 ? volumeSize : setVolumeSize);
+
+        if (!isAppendable(archiveFile))
+            return saveReplacing(archive, archiveFile);
+
+        try (FileChannel channel = FileChannel.open(archiveFile.toPath(), StandardOpenOption.WRITE)) {
+            long originalSize = channel.size();
+            boolean updated = false;
+            try {
+                channel.position(originalSize);
+                CountingOutputStream output =
+                        new CountingOutputStream(
+                                new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+                output.addCount(originalSize);
+
+                List<ArchiveFile> newFiles =
+                        planFiles(archive.getAllFiles(), archiveFile, LongUnaryOperator.identity());
+                long writeStart = System.nanoTime();
+                writeFiles(newFiles, output, channel, true);
+                long writeTime = System.nanoTime() - writeStart;
+                resolveDuplicates();
+                writeTrailer(archive, output);
+                output.flush();
+                channel.force(true);
+                updated = true;
+                return createSummary(archive, newFiles, output.getCount() - originalSize, writeTime);
+            } finally {
+                closeSourceChannels();
+                if (!updated)
+                    channel.truncate(originalSize);
+            }
+        } catch (IOException e) {
+            throw new ArchiveSavingException("Archive saving : IO exception occurred!", e);
+        } catch (UnableToGetStreamException e) {
+            throw new ArchiveSavingException("Archive saving : Unable to get stream for coded file!", e);
+        }
+    }
+
+    /**
+     * Saves the whole archive into a temporary file next to the target file, and then replaces the target file
+     * with it. Files of the archive can thus be read from the target file while saving.
+     * @param archive archive to be saved
+     * @param archiveFile target file
+     * @return summary of the saving
+     * @throws ArchiveSavingException
+     */
+    private SaveSummary saveReplacing(Archive archive, File archiveFile) throws ArchiveSavingException {
+        File temporaryFile = new File(archiveFile.getAbsoluteFile().getParentFile(), archiveFile.getName() + ".tmp");
+        SaveSummary summary = save(archive, new FileOutputStreamGenerator(temporaryFile));
+        try {
+            Files.move(temporaryFile.toPath(), archiveFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return summary;
+        } catch (IOException e) {
+            temporaryFile.delete();
+            throw new ArchiveSavingException("Archive saving : Unable to replace the archive file!", e);
+        }
+    }
+
+    /**
+     * Saves the archive as a volume set, each volume has at most the volume size bytes, see
+     * {@link ArchiveVolumes}. The volumes are written concurrently by {@link ArchiveSaver#concurrency} writer
+     * threads. They are saved as a temporary volume set next to the archive file first, which then replaces
+     * the volumes of the archive file, or the archive file itself if it is an ordinary archive.
+     * @param archive archive to be saved
+     * @param archiveFile archive file (name of the volume set), or any volume of existing volume set
+     * @return summary of the saving
+     * @throws ArchiveSavingException
+     */
+    public SaveSummary saveVolumes(Archive archive, File archiveFile) throws ArchiveSavingException {
+        if (volumeSize <= 0)
+            throw new IllegalStateException("Volume size is not set!");
+        return saveVolumes(archive, archiveFile, volumeSize);
+    }
+
+    private SaveSummary saveVolumes(Archive archive, File archiveFile, long volumeSize) throws ArchiveSavingException {
+        File setFile;
+        try {
+            setFile = ArchiveVolumes.getSetFile(archiveFile);
+        } catch (IOException e) {
+            throw new ArchiveSavingException("Archive saving : Unable to read the archive volumes!", e);
+        }
+        File temporaryFile = new File(setFile.getAbsoluteFile().getParentFile(), setFile.getName() + ".tmp");
+
+        List<VolumeSetOutputStream> outputs = new ArrayList<>();
+        SaveSummary summary;
+        try {
+            summary = save(archive, new Generator<>(() -> {
+                VolumeSetOutputStream output = new VolumeSetOutputStream(temporaryFile, volumeSize, concurrency);
+                outputs.add(output);
+                return output;
+            }));
+        } catch (ArchiveSavingException e) {
+            ArchiveVolumes.delete(temporaryFile, 1);
+            throw e;
+        }
+
+        try {
+            ArchiveVolumes.move(temporaryFile, outputs.get(0).getVolumeCount(), setFile);
+            Files.deleteIfExists(setFile.toPath());
+            return summary;
+        } catch (IOException e) {
+            ArchiveVolumes.delete(temporaryFile, 1);
+            throw new ArchiveSavingException("Archive saving : Unable to replace the archive volumes!", e);
+        }
+    }
+
+    /**
+     * Tells whether new data can be appended to the archive file.
+     * @param archiveFile archive file
+     * @return true if the file is an indexed archive with verbatim stored data
+     */
+    private boolean isAppendable(File archiveFile) {
+        if (!archiveFile.isFile())
+            return false;
+
+        try (ArchiveChannel channel = new ArchiveChannel(archiveFile)) {
+            ArchiveFooter footer = ArchiveFooter.read(channel);
+            return footer != null && footer.hasFlag(FLAG_RAW_FRAMING);
+        } catch (IOException | BadArchiveFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Plans the writing of files of the saved archive. Files whose data are already stored in the archive
+     * file are kept in place, their positions are recorded right away. Files of existing solid blocks keep
+     * their blocks, which are written whole. In solid mode the new small files are assigned to new solid
+     * blocks, one sequence of blocks per codec. New files that duplicate earlier files are not written at all,
+     * see {@link ArchiveSaver#findDuplicates(List)}.
+     * @param files all files of the saved archive
+     * @param archiveFile archive file being updated, or null if the archive is saved whole
+     * @param relocation maps the offsets of kept data to their offsets in the saved archive
+     * @return files and solid blocks whose data have to be written, in the order of writing
+     * @throws IOException
+     * @throws UnableToGetStreamException
+     */
+    List<ArchiveFile> planFiles(List<ArchiveFile> files, File archiveFile, LongUnaryOperator relocation)
+            throws IOException, UnableToGetStreamException {
+        fileInfos = new HashMap<>();
+        solidBlocks = new ArrayList<>();
+        solidBlockNumbers = new HashMap<>();
+        solidMembers = new HashMap<>();
+        chunks = new ArrayList<>();
+        chunkFingerprints = new ArrayList<>();
+        chunkNumbers = new HashMap<>();
+        chunkIndex = new ChunkFingerprintIndex();
+        chunkedFiles = new HashMap<>();
+
+        List<ArchiveFile> filesToWrite = new ArrayList<>();
+        List<ArchiveFile> newFiles = new ArrayList<>();
+        for (ArchiveFile file : files) {
+            if (file instanceof FileInSolidBlock) {
+                FileInSolidBlock member = (FileInSolidBlock) file;
+                FileInArchive block = member.getBlock();
+                if (addSolidBlock(block)) {
+                    if (archiveFile != null && block.isStoredIn(archiveFile))
+                        keepStoredFile(block, relocation);
+                    else
+                        filesToWrite.add(block);
+                }
+                solidMembers.put(file, new SolidMember(block, member.getOffsetInBlock()));
+            } else if (file instanceof FileInChunks) {
+                FileInChunks chunkedFile = (FileInChunks) file;
+                int[] numbers = new int[chunkedFile.getChunks().size()];
+                for (int i = 0; i < numbers.length; i++) {
+                    FileInArchive chunk = chunkedFile.getChunks().get(i);
+                    Integer number = chunkNumbers.get(chunk);
+                    if (number == null) {
+                        number = addChunk(chunk, chunkedFile.getFingerprints().get(i));
+                        if (archiveFile != null && chunk.isStoredIn(archiveFile))
+                            keepStoredFile(chunk, relocation);
+                        else
+                            filesToWrite.add(chunk);
+                    }
+                    numbers[i] = number;
+                }
+                chunkedFiles.put(file, numbers);
+            } else if (archiveFile != null && file.isStoredIn(archiveFile)) {
+                keepStoredFile((FileInArchive) file, relocation);
+            } else {
+                newFiles.add(file);
+            }
+        }
+
+        duplicates = findDuplicates(newFiles);
+        Map<Long, SolidBlockToCode> openBlocks = new HashMap<>();
+        for (ArchiveFile file : newFiles) {
+            if (duplicates.containsKey(file))
+                continue;
+
+            if (chunker != null && file instanceof FileToCode && file.getSize() > chunker.getAverageSize()) {
+                chunkFile(file, chunker, filesToWrite);
+            } else if (isRestartCandidate(file)) {
+                chunkFile(file, restartChunker, filesToWrite);
+            } else if (isSolidCandidate(file)) {
+                SolidBlockToCode block = openBlocks.get(file.getCodecID());
+                if (block == null || block.getSize() + file.getSize() > solidBlockSize) {
+                    block = new SolidBlockToCode(file.getCodecID());
+                    openBlocks.put(file.getCodecID(), block);
+                    addSolidBlock(block);
+                    filesToWrite.add(block);
+                }
+                solidMembers.put(file, new SolidMember(block, block.getSize()));
+                block.addMember(file);
+            } else {
+                filesToWrite.add(file);
+            }
+        }
+        return filesToWrite;
+    }
+
+    /**
+     * Finds the files whose contents are identical to the contents of earlier files. Only the files that
+     * share the size and codec with another file are hashed. Files whose coded data are available are compared
+     * by the hash of their coded data, so they do not have to be decoded, other files by the hash of their
+     * decoded data.
+     * @param files new files of the saved archive
+     * @return duplicate files mapped to the first files with the same contents
+     * @throws IOException
+     * @throws UnableToGetStreamException
+     */
+    private Map<ArchiveFile, ArchiveFile> findDuplicates(List<ArchiveFile> files)
+            throws IOException, UnableToGetStreamException {
+        Map<ArchiveFile, ArchiveFile> found = new HashMap<>();
+        long start = System.nanoTime();
+        if (deduplication) {
+            Map<String, List<ArchiveFile>> candidates = new LinkedHashMap<>();
+            for (ArchiveFile file : files) {
+                if (file.getSize() > 0)
+                    candidates.computeIfAbsent(file.getCodecID() + ":" + file.getSize() + ":" + file.hasCodedData(),
+                            key -> new ArrayList<>()).add(file);
+            }
+
+            for (List<ArchiveFile> sameSizeFiles : candidates.values()) {
+                if (sameSizeFiles.size() < 2)
+                    continue;
+
+                Map<ByteBuffer, ArchiveFile> firstFiles = new HashMap<>();
+                for (ArchiveFile file : sameSizeFiles) {
+                    ArchiveFile firstFile = firstFiles.putIfAbsent(ByteBuffer.wrap(hashContent(file)), file);
+                    if (firstFile != null)
+                        found.put(file, firstFile);
+                }
+            }
+        }
+        hashTime = System.nanoTime() - start;
+        return found;
+    }
+
+    /**
+     * Computes the hash of the contents of file.
+     * @param file hashed file
+     * @return SHA-256 hash of the coded data, if they are available, otherwise of the decoded data
+     * @throws IOException
+     * @throws UnableToGetStreamException
+     */
+    private byte[] hashContent(ArchiveFile file) throws IOException, UnableToGetStreamException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Archive saving : SHA-256 is not available!", e);
+        }
+
+        byte[] buffer = BufferPool.getShared().acquire(ArchiveFile.TRANSFER_BUFFER_SIZE);
+        try (InputStream input = file.hasCodedData() ? file.getCodedStream() : file.getDecodedStream()) {
+            int read;
+            while ((read = input.read(buffer)) != -1)
+                digest.update(buffer, 0, read);
+        } finally {
+            BufferPool.getShared().release(buffer);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Points the duplicate files at the data of the files they duplicate, after those were written.
+     */
+    private void resolveDuplicates() {
+        for (Map.Entry<ArchiveFile, ArchiveFile> duplicate : duplicates.entrySet()) {
+            SolidMember member = solidMembers.get(duplicate.getValue());
+            int[] chunkList = chunkedFiles.get(duplicate.getValue());
+            if (member != null)
+                solidMembers.put(duplicate.getKey(), member);
+            else if (chunkList != null)
+                chunkedFiles.put(duplicate.getKey(), chunkList);
+            else
+                fileInfos.put(duplicate.getKey(), fileInfos.get(duplicate.getValue()));
+        }
+    }
+
+    /**
+     * Creates the summary of saving, after the data of files were written and duplicates were resolved.
+     * Space saved by deduplication is the length of the coded data of duplicated files (estimated by the
+     * coding ratio of the block for files in solid blocks), time saved is estimated by the average speed
+     * of coding and writing.
+     * @param archive saved archive
+     * @param writtenFiles files and solid blocks whose data were written
+     * @param writtenBytes number of bytes written into the archive file
+     * @param writeTime time spent by writing the data of files (in nanoseconds)
+     * @return summary of saving
+     */
+    private SaveSummary createSummary(Archive archive, List<ArchiveFile> writtenFiles, long writtenBytes,
+                                      long writeTime) {
+        long duplicateBytes = 0;
+        long savedBytes = 0;
+        for (Map.Entry<ArchiveFile, ArchiveFile> duplicate : duplicates.entrySet()) {
+            ArchiveFile file = duplicate.getKey();
+            duplicateBytes += file.getSize();
+
+            SolidMember member = solidMembers.get(file);
+            int[] chunkList = chunkedFiles.get(file);
+            if (member != null) {
+                savedBytes += file.getSize() * fileInfos.get(member.block).length / Math.max(1, member.block.getSize());
+            } else if (chunkList != null) {
+                for (int number : chunkList)
+                    savedBytes += fileInfos.get(chunks.get(number)).length;
+            } else {
+                savedBytes += fileInfos.get(file).length;
+            }
+        }
+
+        long decodedBytes = 0;
+        for (ArchiveFile file : writtenFiles)
+            decodedBytes += file.getSize();
+        long savedTime = decodedBytes == 0 ? 0 : (long) ((double) writeTime * duplicateBytes / decodedBytes);
+
+        return new SaveSummary(archive.getAllFiles().size(), writtenBytes, duplicates.size(), duplicateBytes,
+                savedBytes, hashTime, writeTime, savedTime);
+    }
+
+    /**
+     * Records the position of file whose data are kept in place.
+     * @param file file stored in the archive file
+     * @param relocation maps the offset of the data to their offset in the saved archive
+     */
+    private void keepStoredFile(FileInArchive file, LongUnaryOperator relocation) {
+        fileInfos.put(file, new FileInArchiveInfo(relocation.applyAsLong(file.getOffset()), file.getLength()));
+    }
+
+    /**
+     * Splits the new file into chunks. Chunks that are not in the chunk store yet are added into it and planned
+     * for writing.
+     * @param file new file
+     * @param chunker chunker that finds the boundaries of chunks
+     * @param filesToWrite files and chunks whose data have to be written
+     * @throws IOException
+     * @throws UnableToGetStreamException
+     */
+    private void chunkFile(ArchiveFile file, ContentChunker chunker, List<ArchiveFile> filesToWrite)
+            throws IOException, UnableToGetStreamException {
+        FileToCode source = (FileToCode) file;
+        FileChannel sourceChannel = null;
+        if (source.sourceFile != null) {
+            sourceChannel = FileChannel.open(source.sourceFile.toPath(), StandardOpenOption.READ);
+            sourceChannels.add(sourceChannel);
+        }
+
+        List<Integer> numbers = new ArrayList<>();
+        FileChannel chunkChannel = sourceChannel;
+        long length;
+        try (InputStream input = file.getDecodedStream()) {
+            length = chunker.split(input, file.getCodecID(), (offset, chunkLength, fingerprint) -> {
+                int number = chunkIndex.get(fingerprint);
+                if (number < 0) {
+                    ChunkToCode chunk = new ChunkToCode(source, chunkChannel, offset, chunkLength);
+                    number = addChunk(chunk, fingerprint);
+                    filesToWrite.add(chunk);
+                }
+                numbers.add(number);
+            });
+        }
+
+        if (length != file.getSize())
+            throw new IOException("Archive saving : size of file " + file.getName() + " has changed!");
+
+        int[] chunkList = new int[numbers.size()];
+        for (int i = 0; i < chunkList.length; i++)
+            chunkList[i] = numbers.get(i);
+        chunkedFiles.put(file, chunkList);
+    }
+
+    /**
+     * Closes the channels of chunked source files, once their chunks are written.
+     * @throws IOException
+     */
+    private void closeSourceChannels() throws IOException {
+        IOException exception = null;
+        for (FileChannel channel : sourceChannels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        sourceChannels.clear();
+        if (exception != null)
+            throw exception;
+    }
+
+    /**
+     * Adds the chunk into the chunk store of the saved archive.
+     * @param chunk chunk
+     * @param fingerprint fingerprint of the chunk contents
+     * @return number of the chunk
+     */
+    private int addChunk(ArchiveFile chunk, byte[] fingerprint) {
+        int number = chunks.size();
+        chunks.add(chunk);
+        chunkFingerprints.add(fingerprint);
+        chunkNumbers.put(chunk, number);
+        chunkIndex.put(fingerprint, number);
+        return number;
+    }
+
+    /**
+     * Adds the solid block into the saved archive, unless it was already added.
+     * @param block solid block
+     * @return true if the block was added
+     */
+    private boolean addSolidBlock(ArchiveFile block) {
+        if (solidBlockNumbers.containsKey(block))
+            return false;
+        solidBlockNumbers.put(block, solidBlocks.size());
+        solidBlocks.add(block);
+        return true;
+    }
+
+    /**
+     * Tells whether the file should be split into blocks at restart points. Files stored verbatim can be read
+     * at any position anyway.
+     * @param file file of the saved archive
+     * @return true if the file is split into blocks
+     */
+    private boolean isRestartCandidate(ArchiveFile file) {
+        if (restartChunker == null || !(file instanceof FileToCode)
+                || file.getSize() <= restartChunker.getAverageSize())
+            return false;
+
+        try {
+            return !file.getCodec().isIdentity();
+        } catch (UnknownCodecException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Tells whether the file should be stored in a solid block. Files that are already coded or that are
+     * stored verbatim gain nothing from sharing the model, so they are stored on their own.
+     * @param file file of the saved archive
+     * @return true if the file goes into a solid block
+     */
+    private boolean isSolidCandidate(ArchiveFile file) {
+        if (solidBlockSize == 0 || file.hasCodedData() || file.getSize() == 0
+                || file.getSize() > Math.min(solidFileSizeLimit, solidBlockSize))
+            return false;
+
+        try {
+            return !file.getCodec().isIdentity();
+        } catch (UnknownCodecException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the coded data of given files into the output, and records their positions. When the concurrency
+     * is greater than one, the files that have to be coded are coded in parallel, see
+     * {@link ArchiveSaver#writeFilesParallel(List, CountingOutputStream, WritableByteChannel, boolean)}.
+     * @param files files to write
+     * @param output counting output stream
+     * @param channel channel the coded data are written into
+     * @param directChannel true if the channel writes past the output stream, false if it writes into it
+     * @throws IOException
+     * @throws UnableToGetStreamException
+     */
+    private void writeFiles(List<ArchiveFile> files, CountingOutputStream output, WritableByteChannel channel,
+                            boolean directChannel) throws IOException, UnableToGetStreamException {
+        if (concurrency > 1 && files.size() > 1) {
+            writeFilesParallel(files, output, channel, directChannel);
+            return;
+        }
+
+        for (ArchiveFile file : files)
+            writeFile(file, null, output, channel, directChannel);
+    }
+
+    /**
+     * Writes the coded data of given files, while the files that have to be coded are coded concurrently by
+     * a pool of {@link ArchiveSaver#concurrency} threads into spill buffers. Coding runs at most
+     * 2 * concurrency files ahead of the file being written, and each spill buffer keeps at most its share of
+     * {@link ArchiveSaver#memoryLimit} in memory, the rest is spilled into a temporary file. Files are written
+     * in their order, so the output is the same as with sequential saving.
+     * <p>
+     * Every coding task reserves its working memory from the {@link ArchiveSaver#memoryBudget} until it
+     * finishes. Files ahead of the written one are coded only if the budget has the memory right away, the
+     * written file itself waits for it, when nothing else is being coded. The thread never waits for memory
+     * while it holds coded data that are not written yet, as their memory is released only by writing them.
+     * @param files files to write
+     * @param output counting output stream
+     * @param channel channel the coded data are written into
+     * @param directChannel true if the channel writes past the output stream, false if it writes into it
+     * @throws IOException
+     * @throws UnableToGetStreamException
+     */
+    private void writeFilesParallel(List<ArchiveFile> files, CountingOutputStream output, WritableByteChannel channel,
+                                    boolean directChannel) throws IOException, UnableToGetStreamException {
+        int window = 2 * concurrency;
+        long bufferMemoryLimit = Math.max(1, memoryLimit / window);
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "archive-saver");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        List<Future<SpillBuffer>> futures = new ArrayList<>(Collections.nCopies(files.size(), null));
+        // consumers the memory of coding tasks was reserved by
+        String[] consumers = new String[files.size()];
+        try {
+            int submitted = 0;
+            for (int i = 0; i < files.size(); i++) {
+                for (; submitted < files.size() && submitted < i + window; submitted++) {
+                    ArchiveFile file = files.get(submitted);
+                    if (file.hasCodedData())
+                        continue;
+
+                    long workingMemory = ArchiveFile.estimateWorkingMemory(file.getSize());
+                    String consumer = submitted > i ? CODING_AHEAD_CONSUMER : CODING_CONSUMER;
+                    if (submitted > i) {
+                        if (!memoryBudget.tryReserve(consumer, workingMemory))
+                            break;
+                    } else {
+                        reserveMemory(workingMemory);
+                    }
+                    consumers[submitted] = consumer;
+                    futures.set(submitted, executor.submit(() -> {
+                        try {
+                            return codeIntoBuffer(file, bufferMemoryLimit);
+                        } finally {
+                            memoryBudget.release(consumer, workingMemory);
+                        }
+                    }));
+                }
+
+                Future<SpillBuffer> future = futures.set(i, null);
+                SpillBuffer buffer = future == null ? null : getCodedBuffer(future);
+                try {
+                    writeFile(files.get(i), buffer, output, channel, directChannel);
+                } finally {
+                    if (buffer != null)
+                        buffer.delete();
+                }
+            }
+        } finally {
+            // tasks that did not start release their memory here, the started ones are interrupted and waited for
+            List<Runnable> notStarted = executor.shutdownNow();
+            for (int i = 0; i < futures.size(); i++) {
+                Future<SpillBuffer> future = futures.get(i);
+                if (future == null)
+                    continue;
+                if (notStarted.contains(future)) {
+                    memoryBudget.release(consumers[i], ArchiveFile.estimateWorkingMemory(files.get(i).getSize()));
+                    continue;
+                }
+                try {
+                    future.get().delete();
+                } catch (InterruptedException | ExecutionException e) {
+                    // buffer was not created
+                }
+            }
+        }
+    }
+
+    /**
+     * Reserves the memory of the written file from the memory budget, waiting for it. The saver itself keeps
+     * its output buffer reserved, so the memory is granted over the limit when no one else can release it.
+     * @param bytes number of bytes
+     * @throws InterruptedIOException when interrupted while waiting
+     */
+    private void reserveMemory(long bytes) throws InterruptedIOException {
+        try {
+            memoryBudget.reserveForProgress(CODING_CONSUMER, bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Archive saving : interrupted while waiting for memory!");
+        }
+    }
+
+    /**
+     * Codes the file into a new spill buffer.
+     * @param file file to code
+     * @param bufferMemoryLimit number of bytes the buffer may keep in memory
+     * @return buffer with coded data
+     * @throws IOException
+     * @throws UnableToGetStreamException
+     */
+    private SpillBuffer codeIntoBuffer(ArchiveFile file, long bufferMemoryLimit) throws IOException, UnableToGetStreamException {
+        SpillBuffer buffer = new SpillBuffer(bufferMemoryLimit, spillDirectory, memoryBudget);
+        boolean coded = false;
+        try (InputStream codedStream = file.getCodedStream()) {
+            byte[] bytes = new byte[ArchiveFile.TRANSFER_BUFFER_SIZE];
+            int read;
+            while ((read = codedStream.read(bytes)) != -1)
+                buffer.write(bytes, 0, read);
+            buffer.close();
+            coded = true;
+            return buffer;
+        } finally {
+            if (!coded)
+                buffer.delete();
+        }
+    }
+
+    /**
+     * Waits for the coding task and gets its buffer, passing on the exception of the task.
+     * @param future coding task
+     * @return buffer with coded data
+     * @throws IOException
+     * @throws UnableToGetStreamException
+     */
+    private SpillBuffer getCodedBuffer(Future<SpillBuffer> future) throws IOException, UnableToGetStreamException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Archive saving : interrupted while waiting for coded file!");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            if (e.getCause() instanceof UnableToGetStreamException)
+                throw (UnableToGetStreamException) e.getCause();
+            throw new IOException("Archive saving : coding of file failed!", e.getCause());
+        }
+    }
+
+    /**
+     * Writes the coded data of one file into the output and records its position.
+     * @param file file to write
+     * @param codedBuffer buffer with already coded data of the file, or null to get the coded data from the file
+     * @param output counting output stream
+     * @param channel channel the coded data are written into
+     * @param directChannel true if the channel writes past the output stream, false if it writes into it
+     * @throws IOException
+     * @throws UnableToGetStreamException
+     */
+    private void writeFile(ArchiveFile file, SpillBuffer codedBuffer, CountingOutputStream output,
+                           WritableByteChannel channel, boolean directChannel) throws IOException, UnableToGetStreamException {
+        if (directChannel)
+            output.flush();
+
+        long offset = output.getCount();
+        long length;
+        if (codedBuffer != null) {
+            codedBuffer.writeTo(channel);
+            length = codedBuffer.size();
+        } else {
+            length = file.transferCodedTo(channel);
+        }
+
+        if (directChannel)
+            output.addCount(length);
+
+        fileInfos.put(file, new FileInArchiveInfo(offset, length));
+    }
+
+    /**
+     * Writes the header, the index of files (if it is on) and the footer of the archive, after the data of all
+     * files were written and their positions were recorded in {@link ArchiveSaver#fileInfos}.
+     * @param archive archive being saved
+     * @param output counting output stream
+     * @throws IOException
+     */
+    void writeTrailer(Archive archive, CountingOutputStream output) throws IOException {
+        writeTrailer(archive, output, 0);
+    }
+
+    /**
+     * Writes the header, the index of files (if it is on) and the footer of the archive with additional footer
+     * flags.
+     * @param archive archive being saved
+     * @param output counting output stream
+     * @param flags footer flags added to the flags of saved archive
+     * @throws IOException
+     */
+    private void writeTrailer(Archive archive, CountingOutputStream output, long flags) throws IOException {
+        DataOutputStream dataOutput = new DataOutputStream(output);
+
+        long headerOffset = output.getCount();
+        if (compactHeader) {
+            CompactHeader.write(dataOutput, archive, this, headerCodec);
+            flags |= FLAG_COMPACT_HEADER;
+        } else {
+            writeArchiveDescription(dataOutput, archive);
+        }
+        long headerLength = output.getCount() - headerOffset;
+
+        // index that could not be mapped is not written, the archive is then listed by loading the header
+        if (pathIndex && PersistedArchiveIndex.write(dataOutput,
+                new MemoryArchiveIndex(archive.getRootDirectory()), this))
+            flags |= FLAG_PATH_INDEX;
+
+        new ArchiveFooter(headerOffset, headerLength, FLAG_RAW_FRAMING | flags).write(dataOutput);
+    }
+
+    /**
+     * Writes the description of whole archive (solid blocks, chunks, directories, files) into output stream.
      * @param dataOutput output stream, which the description will be written into
      * @param archive archive, that will be described
      * @throws IOException
@@ -71,6 +1076,24 @@ public class ArchiveSaver {
     private void writeArchiveDescription(DataOutputStream dataOutput, Archive archive) throws IOException {
         ArchiveDirectory rootDirectory = archive.getRootDirectory();
 
+        for (ArchiveFile block : solidBlocks) {
+            dataOutput.writeByte(SOLID_BLOCK);
+            dataOutput.writeLong(block.getCodecID());
+            dataOutput.writeLong(block.getSize());
+            dataOutput.writeLong(fileInfos.get(block).offset);
+            dataOutput.writeLong(fileInfos.get(block).length);
+        }
+
+        for (int i = 0; i < chunks.size(); i++) {
+            ArchiveFile chunk = chunks.get(i);
+            dataOutput.writeByte(CHUNK);
+            dataOutput.writeLong(chunk.getCodecID());
+            dataOutput.writeLong(chunk.getSize());
+            dataOutput.writeLong(fileInfos.get(chunk).offset);
+            dataOutput.writeLong(fileInfos.get(chunk).length);
+            dataOutput.write(chunkFingerprints.get(i));
+        }
+
         for (ArchiveDirectory subdirectory : rootDirectory.getSubdirectories()){
             writeArchiveDirectory(dataOutput, subdirectory);
         }
@@ -108,6 +1131,34 @@ public class ArchiveSaver {
      * @throws IOException
      */
     private void writeArchiveFile(DataOutputStream dataOutput, ArchiveFile file) throws IOException {
+        if (file.getModifiedTime() != 0 || file.getChecksum() != ArchiveFile.NO_CHECKSUM) {
+            dataOutput.writeByte(FILE_ATTRIBUTES);
+            dataOutput.writeLong(file.getModifiedTime());
+            dataOutput.writeLong(file.getChecksum());
+        }
+
+        SolidMember member = solidMembers.get(file);
+        if (member != null) {
+            dataOutput.writeByte(SOLID_FILE);
+            dataOutput.writeInt(solidBlockNumbers.get(member.block));
+            dataOutput.writeLong(member.offsetInBlock);
+            dataOutput.writeLong(file.getSize());
+            dataOutput.writeUTF(file.getName());
+            return;
+        }
+
+        int[] chunkList = chunkedFiles.get(file);
+        if (chunkList != null) {
+            dataOutput.writeByte(CHUNKED_FILE);
+            dataOutput.writeLong(file.getCodecID());
+            dataOutput.writeLong(file.getSize());
+            dataOutput.writeInt(chunkList.length);
+            for (int number : chunkList)
+                dataOutput.writeInt(number);
+            dataOutput.writeUTF(file.getName());
+            return;
+        }
+
         dataOutput.writeByte(FILE);
         dataOutput.writeLong(file.getCodecID());
         dataOutput.writeLong(file.getSize());
@@ -116,19 +1167,3 @@ public class ArchiveSaver {
         dataOutput.writeUTF(file.getName());
     }
 }
-
-/**
- * Class that describes file that is stored in archive. It captures properties of file in archive like
- * offset at which it is stored and length of file in archive.
- */
-class FileInArchiveInfo {
-    /** offset at which the file is stored in the archive (in bytes) */
-    public long offset;
-    /** length of actual file data in archive (in bytes) */
-    public long length;
-
-    public FileInArchiveInfo(long offset, long length) {
-        this.offset = offset;
-        this.length = length;
-    }
-}
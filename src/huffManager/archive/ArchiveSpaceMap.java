@@ -0,0 +1,152 @@
+package huffManager.archive;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Map of the space in an archive file. It tracks the byte ranges that hold data of files of the archive (live
+ * ranges). All other bytes of the data part of the archive file are dead: they belong to removed files or to
+ * headers superseded by updates.
+ * @author Jan Bryda
+ */
+public class ArchiveSpaceMap {
+    /** starts of the live ranges, sorted */
+    private final long[] starts;
+    /** ends (exclusive) of the live ranges */
+    private final long[] ends;
+    private final long archiveSize;
+    private final long liveBytes;
+
+    private ArchiveSpaceMap(long[] starts, long[] ends, long archiveSize) {
+        this.starts = starts;
+        this.ends = ends;
+        this.archiveSize = archiveSize;
+
+        long live = 0;
+        for (int i = 0; i < starts.length; i++)
+            live += ends[i] - starts[i];
+        this.liveBytes = live;
+    }
+
+    /**
+     * Creates the space map of the archive file from the files of the archive loaded from it. Solid block is
+     * live as a whole while at least one of its files is in the archive, and chunk is live while at least one
+     * file uses it. Ranges of files that overlap or touch each other are merged into one live range.
+     * @param archive archive loaded from the archive file
+     * @param archiveFile archive file
+     * @return space map of the archive file
+     * @throws IOException
+     */
+    public static ArchiveSpaceMap of(Archive archive, File archiveFile) throws IOException {
+        List<long[]> ranges = new ArrayList<>();
+        for (ArchiveFile file : archive.getAllFiles()) {
+            if (file instanceof FileInSolidBlock) {
+                addRange(ranges, ((FileInSolidBlock) file).getBlock(), archiveFile);
+            } else if (file instanceof FileInChunks) {
+                for (FileInArchive chunk : ((FileInChunks) file).getChunks())
+                    addRange(ranges, chunk, archiveFile);
+            } else {
+                addRange(ranges, file, archiveFile);
+            }
+        }
+
+        ranges.sort((range1, range2) -> Long.compare(range1[0], range2[0]));
+
+        long[] starts = new long[ranges.size()];
+        long[] ends = new long[ranges.size()];
+        int count = 0;
+        for (long[] range : ranges) {
+            if (count > 0 && range[0] <= ends[count - 1]) {
+                ends[count - 1] = Math.max(ends[count - 1], range[1]);
+            } else {
+                starts[count] = range[0];
+                ends[count] = range[1];
+                count++;
+            }
+        }
+
+        return new ArchiveSpaceMap(Arrays.copyOf(starts, count), Arrays.copyOf(ends, count),
+                archive.archiveChannel != null ? archive.archiveChannel.size() : archiveFile.length());
+    }
+
+    /**
+     * Adds the range of the file data, if the data are stored in the archive file.
+     * @param ranges list of ranges
+     * @param file file, solid block or chunk
+     * @param archiveFile archive file
+     * @throws IOException
+     */
+    private static void addRange(List<long[]> ranges, ArchiveFile file, File archiveFile) throws IOException {
+        if (file instanceof FileInArchive && file.isStoredIn(archiveFile)) {
+            FileInArchive storedFile = (FileInArchive) file;
+            if (storedFile.getLength() > 0)
+                ranges.add(new long[]{storedFile.getOffset(), storedFile.getOffset() + storedFile.getLength()});
+        }
+    }
+
+    /**
+     * Gets the number of live ranges.
+     * @return number of live ranges
+     */
+    public int getRangeCount() {
+        return starts.length;
+    }
+
+    /**
+     * Gets the start of the live range.
+     * @param range number of the range
+     * @return physical offset where the range starts
+     */
+    public long getRangeStart(int range) {
+        return starts[range];
+    }
+
+    /**
+     * Gets the end of the live range.
+     * @param range number of the range
+     * @return physical offset right after the range
+     */
+    public long getRangeEnd(int range) {
+        return ends[range];
+    }
+
+    /**
+     * Finds the live range that contains given position.
+     * @param position physical offset
+     * @return number of the range, or -1 if the position is not in a live range
+     */
+    public int findRange(long position) {
+        int range = Arrays.binarySearch(starts, position);
+        if (range < 0)
+            range = -range - 2;
+
+        if (range >= 0 && position < ends[range])
+            return range;
+        return -1;
+    }
+
+    /**
+     * Gets the number of bytes holding data of files of the archive.
+     * @return number of live bytes
+     */
+    public long getLiveBytes() {
+        return liveBytes;
+    }
+
+    /**
+     * Gets the number of bytes of the archive file that do not hold data of files. These are the dead bytes
+     * plus the current header, index and footer.
+     * @return number of bytes that are not live
+     */
+    public long getDeadBytes() {
+        return archiveSize - 8 - liveBytes;
+    }
+
+    /**
+     * Gets the size of the archive file.
+     * @return size of archive file (in bytes)
+     */
+    public long getArchiveSize() {
+        return archiveSize;
+    }
+}
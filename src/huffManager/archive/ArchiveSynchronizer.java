@@ -0,0 +1,234 @@
+package huffManager.archive;
+
+import huffManager.archive.exceptions.*;
+import huffManager.codecs.Codec;
+import huffManager.codecs.CodecPolicy;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * This class synchronizes a directory of archive with a directory on disk. Every source file is compared with
+ * the archive file of the same name by its size and modification time, and optionally by the checksum of its
+ * contents. Unchanged archive files are kept as they are, so when the archive is then updated by
+ * {@link ArchiveSaver#update(Archive, File)}, their data stay in place and only the new and modified files are
+ * coded and appended. The cost of synchronization thus depends on the amount of change.
+ * @author Jan Bryda
+ */
+public class ArchiveSynchronizer {
+
+    /**
+     * Summary of one synchronization.
+     */
+    public static class SyncSummary {
+        /** number of files added, because the archive did not have them */
+        public int addedCount;
+        /** number of archive files replaced, because their source changed */
+        public int changedCount;
+        /** number of archive files kept */
+        public int unchangedCount;
+        /** number of archive files (and directories) removed, because their source does not exist */
+        public int removedCount;
+
+        /**
+         * Tells whether the synchronization changed the archive.
+         * @return true if some file was added, changed or removed
+         */
+        public boolean hasChanges() {
+            return addedCount > 0 || changedCount > 0 || removedCount > 0;
+        }
+
+        @Override
+        public String toString() {
+            return addedCount + " added, " + changedCount + " changed, " + unchangedCount + " unchanged, "
+                    + removedCount + " removed";
+        }
+    }
+
+    /** tells whether the checksums of files with different modification time are compared */
+    private boolean checksumVerification = false;
+    /** tells whether the archive files whose source does not exist are removed */
+    private boolean removingMissing = true;
+
+    /**
+     * Sets whether the contents of files are compared too. Source files of the same size with different
+     * modification time are then compared with the archive files by CRC-32 checksum of their contents, and
+     * files whose contents did not change are kept. Checksums of the new files are recorded in the archive,
+     * archive files without recorded checksum are considered changed.
+     * @param checksumVerification true to compare the checksums of files
+     */
+    public void setChecksumVerification(boolean checksumVerification) {
+        this.checksumVerification = checksumVerification;
+    }
+
+    /**
+     * Sets whether the archive files and directories whose source does not exist are removed.
+     * @param removingMissing true to remove the missing files
+     */
+    public void setRemovingMissing(boolean removingMissing) {
+        this.removingMissing = removingMissing;
+    }
+
+    /**
+     * Synchronizes the archive directory with the source directory, including their subdirectories.
+     * @param archiveDirectory directory of the archive
+     * @param sourceDirectory directory on disk
+     * @param codec codec of the added and changed files
+     * @return summary of the synchronization
+     * @throws IOException when a source directory can't be listed or a source file can't be read
+     */
+    public SyncSummary sync(ArchiveDirectory archiveDirectory, File sourceDirectory, Codec codec) throws IOException {
+        return sync(archiveDirectory, sourceDirectory, CodecPolicy.always(codec));
+    }
+
+    /**
+     * Synchronizes the archive directory with the source directory, including their subdirectories.
+     * @param archiveDirectory directory of the archive
+     * @param sourceDirectory directory on disk
+     * @param codecPolicy policy that chooses the codec of every added and changed file
+     * @return summary of the synchronization
+     * @throws IOException when a source directory can't be listed or a source file can't be read
+     */
+    public SyncSummary sync(ArchiveDirectory archiveDirectory, File sourceDirectory, CodecPolicy codecPolicy)
+            throws IOException {
+        SyncSummary summary = new SyncSummary();
+        syncDirectory(archiveDirectory, sourceDirectory, codecPolicy, summary);
+        return summary;
+    }
+
+    /**
+     * Synchronizes the archive file with the source directory: the archive is loaded, its root directory is
+     * synchronized and the archive file is updated by given saver. A new archive file is created if it does
+     * not exist. Archive file that did not change is not updated at all, so repeated synchronizations of
+     * unchanged directory do not make the archive grow (modification times refreshed by checksum verification
+     * are then not stored, the checksums are compared again next time).
+     * @param archiveFile archive file
+     * @param sourceDirectory directory on disk
+     * @param codec codec of the added and changed files
+     * @param saver saver used to update the archive file
+     * @return summary of the synchronization
+     * @throws IOException
+     * @throws BadArchiveFormatException
+     * @throws ArchiveLoadingException
+     * @throws ArchiveSavingException
+     */
+    public SyncSummary sync(File archiveFile, File sourceDirectory, Codec codec, ArchiveSaver saver)
+            throws IOException, BadArchiveFormatException, ArchiveLoadingException, ArchiveSavingException {
+        return sync(archiveFile, sourceDirectory, CodecPolicy.always(codec), saver);
+    }
+
+    /**
+     * Synchronizes the archive file with the source directory, see
+     * {@link ArchiveSynchronizer#sync(File, File, Codec, ArchiveSaver)}.
+     * @param archiveFile archive file
+     * @param sourceDirectory directory on disk
+     * @param codecPolicy policy that chooses the codec of every added and changed file
+     * @param saver saver used to update the archive file
+     * @return summary of the synchronization
+     * @throws IOException
+     * @throws BadArchiveFormatException
+     * @throws ArchiveLoadingException
+     * @throws ArchiveSavingException
+     */
+    public SyncSummary sync(File archiveFile, File sourceDirectory, CodecPolicy codecPolicy, ArchiveSaver saver)
+            throws IOException, BadArchiveFormatException, ArchiveLoadingException, ArchiveSavingException {
+        boolean exists = archiveFile.exists() || ArchiveVolumes.getVolumeFile(archiveFile, 1).exists();
+        try (Archive archive = exists ? new ArchiveLoader().load(archiveFile) : new Archive()) {
+            SyncSummary summary = sync(archive.getRootDirectory(), sourceDirectory, codecPolicy);
+            if (exists && !summary.hasChanges())
+                return summary;
+            saver.update(archive, archiveFile);
+            return summary;
+        }
+    }
+
+    private void syncDirectory(ArchiveDirectory archiveDirectory, File sourceDirectory, CodecPolicy codecPolicy,
+                               SyncSummary summary) throws IOException {
+        File[] sources = sourceDirectory.listFiles();
+        if (sources == null)
+            throw new IOException("Unable to list directory " + sourceDirectory);
+
+        Map<String, ArchiveFile> files = new HashMap<>();
+        for (ArchiveFile file : archiveDirectory.getFiles())
+            files.put(file.getName(), file);
+        Map<String, ArchiveDirectory> subdirectories = new HashMap<>();
+        for (ArchiveDirectory subdirectory : archiveDirectory.getSubdirectories())
+            subdirectories.put(subdirectory.getName(), subdirectory);
+
+        for (File source : sources) {
+            if (source.isDirectory()) {
+                ArchiveDirectory subdirectory = subdirectories.remove(source.getName());
+                if (subdirectory == null) {
+                    subdirectory = new ArchiveDirectory(source.getName());
+                    archiveDirectory.addSubdirectory(subdirectory);
+                }
+                syncDirectory(subdirectory, source, codecPolicy, summary);
+            } else if (source.isFile()) {
+                ArchiveFile file = files.remove(source.getName());
+                if (file != null && isUnchanged(file, source)) {
+                    summary.unchangedCount++;
+                    continue;
+                }
+
+                if (file != null) {
+                    archiveDirectory.removeFile(file);
+                    summary.changedCount++;
+                } else {
+                    summary.addedCount++;
+                }
+                FileToCode newFile = new FileToCode(source.getPath(), codecPolicy.choose(source));
+                if (checksumVerification)
+                    newFile.setChecksum(checksum(source));
+                archiveDirectory.addFile(newFile);
+            }
+        }
+
+        if (removingMissing) {
+            for (ArchiveFile file : files.values())
+                archiveDirectory.removeFile(file);
+            for (ArchiveDirectory subdirectory : subdirectories.values())
+                archiveDirectory.removeSubdirectory(subdirectory);
+            summary.removedCount += files.size() + subdirectories.size();
+        }
+    }
+
+    /**
+     * Tells whether the archive file has the same contents as its source. Files of the same size and
+     * modification time are considered the same, with checksum verification the files of the same size and
+     * checksum too (the modification time of such archive file is updated).
+     * @param file archive file
+     * @param source source file
+     * @return true if the file did not change
+     * @throws IOException
+     */
+    private boolean isUnchanged(ArchiveFile file, File source) throws IOException {
+        if (file.getSize() != source.length())
+            return false;
+        if (file.getModifiedTime() != 0 && file.getModifiedTime() == source.lastModified())
+            return true;
+        if (!checksumVerification || file.getChecksum() == ArchiveFile.NO_CHECKSUM
+                || file.getChecksum() != checksum(source))
+            return false;
+
+        file.setModifiedTime(source.lastModified());
+        return true;
+    }
+
+    /**
+     * Computes the CRC-32 checksum of the contents of the file.
+     * @param source file on disk
+     * @return checksum
+     * @throws IOException
+     */
+    public static long checksum(File source) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream input = new FileInputStream(source)) {
+            byte[] buffer = new byte[ArchiveFile.TRANSFER_BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) != -1)
+                crc.update(buffer, 0, read);
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,141 @@
+package huffManager.archive;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.regex.*;
+
+/**
+ * Volume sets of archives. An archive that exceeds the size limit of a file system can be saved as a set of
+ * volumes of limited size (see {@link ArchiveSaver#setVolumeSize(long)}). Volumes are named by the archive file
+ * name followed by the number of the volume (archive.arc.001, archive.arc.002, ...), every volume starts with
+ * a volume header. The data of volumes after their headers, concatenated in the order of volumes, form
+ * an ordinary indexed archive, so offsets stored in the header of archive are positions in this concatenation.
+ * {@link ArchiveChannel} maps them to the volume and the physical offset in it.
+ * @author Jan Bryda
+ */
+class ArchiveVolumes {
+    /** name of volume: name of archive file and the number of volume */
+    private static final Pattern VOLUME_NAME = Pattern.compile("(.+)\\.(\\d{3,})");
+
+    /**
+     * Gets the file of given volume of the archive.
+     * @param archiveFile archive file (name of the volume set)
+     * @param number number of the volume, starting from 1
+     * @return volume file
+     */
+    static File getVolumeFile(File archiveFile, int number) {
+        return new File(archiveFile.getPath() + String.format(".%03d", number));
+    }
+
+    /**
+     * Gets the archive file (name of the volume set) from the name of its volume.
+     * @param volumeFile volume file
+     * @return archive file, or null if the name has no volume number
+     */
+    static File getArchiveFile(File volumeFile) {
+        Matcher matcher = VOLUME_NAME.matcher(volumeFile.getPath());
+        return matcher.matches() ? new File(matcher.group(1)) : null;
+    }
+
+    /**
+     * Gets the archive file (name of the volume set) of given file.
+     * @param file archive file, or any volume of volume set
+     * @return archive file of the volume set if the file is a volume, otherwise the file itself
+     * @throws IOException
+     */
+    static File getSetFile(File file) throws IOException {
+        File archiveFile = getArchiveFile(file);
+        return archiveFile != null && file.isFile() && VolumeHeader.read(file) != null ? archiveFile : file;
+    }
+
+    /**
+     * Gets the total size of the archive file, or of all volumes of the volume set.
+     * @param file archive file, or any volume of volume set
+     * @return size (in bytes)
+     * @throws IOException
+     */
+    static long getLength(File file) throws IOException {
+        File[] volumes = find(file);
+        if (volumes == null)
+            return file.length();
+
+        long length = 0;
+        for (File volume : volumes)
+            length += volume.length();
+        return length;
+    }
+
+    /**
+     * Finds all volumes of the volume set the file belongs to. The file can be any volume of the set, or
+     * the archive file itself when there is no such file but the first volume exists.
+     * @param file volume or archive file
+     * @return volume files in the order of volumes, or null if the file is not a volume set
+     * @throws IOException when a volume of the set is missing or belongs to another set
+     */
+    static File[] find(File file) throws IOException {
+        File archiveFile;
+        if (file.isFile()) {
+            if (VolumeHeader.read(file) == null)
+                return null;
+            archiveFile = getArchiveFile(file);
+            if (archiveFile == null)
+                throw new IOException("Volume has no number in its name : " + file);
+        } else if (getVolumeFile(file, 1).isFile()) {
+            archiveFile = file;
+        } else {
+            return null;
+        }
+
+        VolumeHeader firstHeader = VolumeHeader.read(getVolumeFile(archiveFile, 1));
+        if (firstHeader == null)
+            throw new IOException("First volume of archive is missing : " + getVolumeFile(archiveFile, 1));
+        if (firstHeader.count < 1)
+            throw new IOException("Volume set was not finished : " + archiveFile);
+
+        File[] volumes = new File[firstHeader.count];
+        for (int number = 1; number <= volumes.length; number++) {
+            volumes[number - 1] = getVolumeFile(archiveFile, number);
+            VolumeHeader header = volumes[number - 1].isFile() ? VolumeHeader.read(volumes[number - 1]) : null;
+            if (header == null || header.setID != firstHeader.setID || header.number != number)
+                throw new IOException("Volume is missing or it belongs to another volume set : " + volumes[number - 1]);
+        }
+        return volumes;
+    }
+
+    /**
+     * Gets the maximal size of volume of the volume set.
+     * @param archiveFile archive file (name of the volume set) or any of its volumes
+     * @return maximal size of volume (in bytes), or 0 if the file is not a volume set
+     * @throws IOException
+     */
+    static long getVolumeSize(File archiveFile) throws IOException {
+        File[] volumes = find(archiveFile);
+        return volumes == null ? 0 : VolumeHeader.read(volumes[0]).volumeSize;
+    }
+
+    /**
+     * Renames the volumes of one set to the volumes of another, replacing them. Volumes of the target set with
+     * greater numbers, left from its previous bigger version, are deleted.
+     * @param sourceFile archive file of the renamed set
+     * @param count number of volumes of the renamed set
+     * @param targetFile archive file of the target set
+     * @throws IOException
+     */
+    static void move(File sourceFile, int count, File targetFile) throws IOException {
+        for (int number = 1; number <= count; number++)
+            Files.move(getVolumeFile(sourceFile, number).toPath(), getVolumeFile(targetFile, number).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        delete(targetFile, count + 1);
+    }
+
+    /**
+     * Deletes the volumes of the set starting from given number, until a volume is missing.
+     * @param archiveFile archive file (name of the volume set)
+     * @param firstNumber number of the first deleted volume
+     */
+    static void delete(File archiveFile, int firstNumber) {
+        for (int number = firstNumber; getVolumeFile(archiveFile, number).delete(); number++) {
+            // deletes the next volume
+        }
+    }
+}
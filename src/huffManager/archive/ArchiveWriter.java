@@ -0,0 +1,239 @@
+package huffManager.archive;
+
+import huffManager.archive.exceptions.*;
+import huffManager.codecs.*;
+import huffManager.codecs.exceptions.*;
+import huffManager.codecs.none.NoneCodec;
+import huffManager.generator.*;
+import static huffManager.archive.Archive.*;
+
+import java.io.*;
+import java.nio.channels.*;
+
+/**
+ * This class writes an indexed archive incrementally into any output stream or channel, which does not have to
+ * be seekable. Every entry is coded and written as soon as it is put, and the description of the archive is
+ * written when the writer is closed. Unlike {@link ArchiveSaver}, no {@link Archive} is built in memory: the
+ * records of entries are kept in a temporary file, and entries are buffered in {@link SpillBuffer}s while they
+ * are coded, so the memory used does not depend on the number or size of entries.
+ * <p>
+ * The header consists of flat records of entries with their full paths, directories are created by loading.
+ * No index of files is written, see {@link ArchiveLoader#loadIndex(File)}. The data of every entry are
+ * preceded by its local header, so the archive can be extracted in one forward pass by {@link ArchiveReader}.
+ * @author Jan Bryda
+ */
+public class ArchiveWriter implements Closeable {
+    private CountingOutputStream output;
+    /** temporary file with records of written entries */
+    private File recordsFile;
+    private DataOutputStream records;
+    private long entryCount = 0;
+    private boolean started = false;
+    private boolean closed = false;
+    /** true when writing into the output failed, the output then ends with a partly written entry */
+    private boolean failed = false;
+
+    /** maximal number of bytes of one entry kept in memory, the rest is spilled into a temporary file */
+    private long memoryLimit = 1024 * 1024;
+    /** directory for temporary files, null for the default temporary directory */
+    private File spillDirectory = null;
+
+    /**
+     * Creates new ArchiveWriter that writes into given output stream.
+     * @param output output stream, it is closed when the writer is closed
+     */
+    public ArchiveWriter(OutputStream output) {
+        this.output = new CountingOutputStream(new BufferedOutputStream(output, ArchiveFile.TRANSFER_BUFFER_SIZE));
+    }
+
+    /**
+     * Creates new ArchiveWriter that writes into given channel.
+     * @param channel output channel, it is closed when the writer is closed
+     */
+    public ArchiveWriter(WritableByteChannel channel) {
+        this(Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Sets the maximal number of bytes of one entry kept in memory while it is coded. The rest of the entry
+     * is spilled into a temporary file.
+     * @param memoryLimit memory limit (in bytes)
+     */
+    public void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * Sets the directory where temporary files are created.
+     * @param spillDirectory directory, or null for the default temporary directory
+     */
+    public void setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Gets the number of entries written so far.
+     * @return number of entries
+     */
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Codes the entry and writes it into the archive. The input stream is read whole but it is not closed.
+     * Entries are buffered first, because the coder reads its input twice and the length of coded data has to
+     * be written in the local header before the data. Empty entries are stored without coding.
+     * <p>
+     * When writing of the entry into the output fails, the writer fails as a whole: no more entries can be put
+     * and closing it does not finish the archive, so the partly written entry does not look like a valid one.
+     * @param path full path of the entry, names of its directories and its name separated by '/'
+     * @param input data of the entry
+     * @param codec codec used to code the entry
+     * @throws ArchiveSavingException
+     * @throws IllegalStateException when the writer is closed or it failed before
+     */
+    public void putEntry(String path, InputStream input, Codec codec) throws ArchiveSavingException {
+        if (closed)
+            throw new IllegalStateException("Archive writer is closed!");
+        if (failed)
+            throw new IllegalStateException("Archive writer failed, the archive is incomplete!");
+        checkPath(path);
+
+        try {
+            start();
+            long codecID = codec.getID();
+            SpillBuffer buffer = new SpillBuffer(memoryLimit, spillDirectory);
+            SpillBuffer codedBuffer = null;
+            try {
+                long size = copy(input, buffer);
+                buffer.close();
+                if (size == 0) {
+                    codecID = new NoneCodec().getID();
+                } else if (!codec.isIdentity()) {
+                    codedBuffer = new SpillBuffer(memoryLimit, spillDirectory);
+                    try (InputStream codedStream = codec.getCoder().code(new Generator<>(buffer::openInputStream))) {
+                        copy(codedStream, codedBuffer);
+                    }
+                    codedBuffer.close();
+                }
+                SpillBuffer data = codedBuffer != null ? codedBuffer : buffer;
+
+                // cleared only when the whole entry and its record are written
+                failed = true;
+                DataOutputStream dataOutput = new DataOutputStream(output);
+                dataOutput.writeLong(LOCAL_HEADER_IDENTIFIER);
+                dataOutput.writeLong(codecID);
+                dataOutput.writeLong(size);
+                dataOutput.writeLong(data.size());
+                dataOutput.writeUTF(path);
+
+                long offset = output.getCount();
+                try (InputStream dataInput = data.openInputStream()) {
+                    copy(dataInput, output);
+                }
+
+                records.writeByte(PATH_FILE);
+                records.writeLong(codecID);
+                records.writeLong(size);
+                records.writeLong(offset);
+                records.writeLong(data.size());
+                records.writeUTF(path);
+                entryCount++;
+                failed = false;
+            } finally {
+                buffer.delete();
+                if (codedBuffer != null)
+                    codedBuffer.delete();
+            }
+        } catch (IOException e) {
+            throw new ArchiveSavingException("Archive saving : IO exception occurred!", e);
+        } catch (CoderException e) {
+            throw new ArchiveSavingException("Archive saving : Unable to code entry " + path + "!", e);
+        }
+    }
+
+    /**
+     * Checks that the path has no empty names.
+     * @param path full path of the entry
+     */
+    private void checkPath(String path) {
+        if (path.isEmpty() || path.charAt(0) == ArchiveIndex.SEPARATOR
+                || path.charAt(path.length() - 1) == ArchiveIndex.SEPARATOR
+                || path.contains("" + ArchiveIndex.SEPARATOR + ArchiveIndex.SEPARATOR))
+            throw new IllegalArgumentException("Entry path has empty name : " + path);
+    }
+
+    /**
+     * Writes the archive identifier and creates the temporary file for records, when the first entry is put.
+     * @throws IOException
+     */
+    private void start() throws IOException {
+        if (started)
+            return;
+
+        failed = true;
+        new DataOutputStream(output).writeLong(ARCHIVE_IDENTIFIER_V2);
+        recordsFile = File.createTempFile("huffmanager", ".records", spillDirectory);
+        recordsFile.deleteOnExit();
+        records = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(recordsFile),
+                ArchiveFile.TRANSFER_BUFFER_SIZE));
+        started = true;
+        failed = false;
+    }
+
+    /**
+     * Copies the whole input stream into the output stream.
+     * @param input input stream
+     * @param output output stream
+     * @return number of copied bytes
+     * @throws IOException
+     */
+    private static long copy(InputStream input, OutputStream output) throws IOException {
+        byte[] buffer = new byte[ArchiveFile.TRANSFER_BUFFER_SIZE];
+        long count = 0;
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+            count += read;
+        }
+        return count;
+    }
+
+    /**
+     * Writes the end of entries, the header made of the records of all entries and the footer, and closes
+     * the output. When the writer failed, the output is only closed, the archive is left incomplete.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+
+        try {
+            if (failed) {
+                if (records != null)
+                    records.close();
+                return;
+            }
+
+            start();
+            records.close();
+            new DataOutputStream(output).writeLong(LOCAL_END_IDENTIFIER);
+
+            long headerOffset = output.getCount();
+            try (InputStream recordsInput = new FileInputStream(recordsFile)) {
+                copy(recordsInput, output);
+            }
+            long headerLength = output.getCount() - headerOffset;
+
+            new ArchiveFooter(headerOffset, headerLength, FLAG_RAW_FRAMING | FLAG_LOCAL_HEADERS)
+                    .write(new DataOutputStream(output));
+            output.flush();
+        } finally {
+            output.close();
+            if (recordsFile != null)
+                recordsFile.delete();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package huffManager.archive;
+
+import huffManager.memory.BufferPool;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.*;
+
+/**
+ * Output into a file that overlaps producing of the data with writing them. Data are collected into direct
+ * buffers of the shared {@link BufferPool}, and every full buffer is written by {@link AsynchronousFileChannel}
+ * while the producer fills the next one. At most given number of writes are outstanding at once, and the
+ * producer waits when it would start another one, so the memory used by one target is bounded.
+ * @author Jan Bryda
+ */
+class AsyncFileOutput implements Closeable {
+    /** size of one buffer */
+    static final int BUFFER_SIZE = 256 * 1024;
+    /** default maximal number of outstanding writes of one target */
+    static final int DEFAULT_OUTSTANDING_WRITES = 4;
+
+    /** pool of the direct buffers, shared by all targets */
+    private static final BufferPool BUFFER_POOL = BufferPool.getShared();
+
+    private final AsynchronousFileChannel channel;
+    /** permits for outstanding writes */
+    private final Semaphore writePermits;
+    private final int maxOutstandingWrites;
+    /** first exception of a write */
+    private volatile Throwable writeException;
+    /** position of the next write */
+    private long position = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates the target file (an existing file is replaced) and opens it for asynchronous writing.
+     * @param target target file
+     * @param maxOutstandingWrites maximal number of outstanding writes
+     * @throws IOException
+     */
+    AsyncFileOutput(File target, int maxOutstandingWrites) throws IOException {
+        this.channel = AsynchronousFileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.maxOutstandingWrites = Math.max(1, maxOutstandingWrites);
+        this.writePermits = new Semaphore(this.maxOutstandingWrites);
+    }
+
+    /**
+     * Copies the whole input stream into the target file. Input is read into one buffer while the previous
+     * buffers are being written.
+     * @param input input stream, it is not closed
+     * @param target target file, an existing file is replaced
+     * @return number of bytes copied
+     * @throws IOException
+     */
+    static long copy(InputStream input, File target) throws IOException {
+        try (AsyncFileOutput output = new AsyncFileOutput(target, DEFAULT_OUTSTANDING_WRITES)) {
+            return output.writeAll(input);
+        }
+    }
+
+    /**
+     * Writes the whole input stream at the current end of the target.
+     * @param input input stream, it is not closed
+     * @return number of bytes written
+     * @throws IOException
+     */
+    long writeAll(InputStream input) throws IOException {
+        ReadableByteChannel inputChannel = Channels.newChannel(input);
+        long count = 0;
+        boolean endOfStream = false;
+        while (!endOfStream) {
+            ByteBuffer buffer = BUFFER_POOL.acquireDirect(BUFFER_SIZE);
+            try {
+                while (buffer.hasRemaining()) {
+                    if (inputChannel.read(buffer) == -1) {
+                        endOfStream = true;
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                BUFFER_POOL.releaseDirect(buffer);
+                throw e;
+            }
+
+            buffer.flip();
+            count += buffer.remaining();
+            write(buffer);
+        }
+        return count;
+    }
+
+    /**
+     * Starts the write of the buffer at the current end of the target. The buffer is given up, it is returned
+     * to the pool when it is written. Waits while the maximal number of writes is outstanding.
+     * @param buffer buffer taken from the pool, flipped for reading
+     * @throws IOException when a previous write failed
+     */
+    private void write(ByteBuffer buffer) throws IOException {
+        if (!buffer.hasRemaining() || closed) {
+            BUFFER_POOL.releaseDirect(buffer);
+            if (closed)
+                throw new IOException("Asynchronous output : output is closed!");
+            return;
+        }
+
+        try {
+            writePermits.acquire();
+        } catch (InterruptedException e) {
+            BUFFER_POOL.releaseDirect(buffer);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Asynchronous output : interrupted while waiting for write!");
+        }
+        if (writeException != null) {
+            writePermits.release();
+            BUFFER_POOL.releaseDirect(buffer);
+            checkWriteException();
+        }
+
+        long writePosition = position;
+        position += buffer.remaining();
+        try {
+            channel.write(buffer, writePosition, writePosition, new CompletionHandler<Integer, Long>() {
+                @Override
+                public void completed(Integer written, Long writtenPosition) {
+                    if (buffer.hasRemaining()) {
+                        try {
+                            channel.write(buffer, writtenPosition + written, writtenPosition + written, this);
+                        } catch (RuntimeException e) {
+                            failed(e, writtenPosition + written);
+                        }
+                        return;
+                    }
+                    finish();
+                }
+
+                @Override
+                public void failed(Throwable exception, Long writtenPosition) {
+                    if (writeException == null)
+                        writeException = exception;
+                    finish();
+                }
+
+                private void finish() {
+                    BUFFER_POOL.releaseDirect(buffer);
+                    writePermits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            // the write was not started (channel closed or not writable), so no handler will return the permit
+            writePermits.release();
+            BUFFER_POOL.releaseDirect(buffer);
+            throw new IOException("Asynchronous output : unable to start write!", e);
+        }
+    }
+
+    private void checkWriteException() throws IOException {
+        if (writeException != null)
+            throw new IOException("Asynchronous output : write failed!", writeException);
+    }
+
+    /**
+     * Waits until all writes are finished and closes the target.
+     * @throws IOException when a write failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+
+        try {
+            writePermits.acquireUninterruptibly(maxOutstandingWrites);
+            checkWriteException();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package huffManager.archive;
+
+import static huffManager.archive.Archive.*;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Index of chunks by the fingerprints of their contents. The index is an open addressing hash table with
+ * linear probing kept in a direct buffer outside of the Java heap, each slot holds the fingerprint and
+ * the number of chunk + 1 (0 marks an empty slot). Fingerprints are hashes, so their first bytes are used
+ * as the hash of the slot.
+ * @author Jan Bryda
+ */
+class ChunkFingerprintIndex {
+    /** size of one slot (in bytes) */
+    private static final int SLOT_SIZE = FINGERPRINT_LENGTH + 4;
+    /** initial number of slots */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private ByteBuffer table;
+    private int capacity;
+    private int count = 0;
+
+    /**
+     * Creates new empty ChunkFingerprintIndex.
+     */
+    ChunkFingerprintIndex() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        this.capacity = capacity;
+        this.table = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+    }
+
+    /**
+     * Finds the chunk with given fingerprint.
+     * @param fingerprint fingerprint of chunk contents
+     * @return number of the chunk, or -1 if there is no such chunk
+     */
+    int get(byte[] fingerprint) {
+        int slot = findSlot(fingerprint);
+        return table.getInt(slot * SLOT_SIZE + FINGERPRINT_LENGTH) - 1;
+    }
+
+    /**
+     * Adds the chunk with given fingerprint, unless the index already has one.
+     * @param fingerprint fingerprint of chunk contents
+     * @param number number of the chunk
+     */
+    void put(byte[] fingerprint, int number) {
+        if (2 * (count + 1) > capacity)
+            grow();
+
+        int slot = findSlot(fingerprint);
+        int position = slot * SLOT_SIZE;
+        if (table.getInt(position + FINGERPRINT_LENGTH) != 0)
+            return;
+
+        for (int i = 0; i < FINGERPRINT_LENGTH; i++)
+            table.put(position + i, fingerprint[i]);
+        table.putInt(position + FINGERPRINT_LENGTH, number + 1);
+        count++;
+    }
+
+    /**
+     * Gets the number of chunks in the index.
+     * @return number of chunks
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Finds the slot that holds given fingerprint, or the empty slot where it belongs.
+     * @param fingerprint fingerprint of chunk contents
+     * @return number of the slot
+     */
+    private int findSlot(byte[] fingerprint) {
+        int hash = ((fingerprint[0] & 0xff) << 24) | ((fingerprint[1] & 0xff) << 16)
+                | ((fingerprint[2] & 0xff) << 8) | (fingerprint[3] & 0xff);
+        int slot = hash & (capacity - 1);
+        while (true) {
+            int position = slot * SLOT_SIZE;
+            if (table.getInt(position + FINGERPRINT_LENGTH) == 0 || fingerprintEquals(position, fingerprint))
+                return slot;
+            slot = (slot + 1) & (capacity - 1);
+        }
+    }
+
+    private boolean fingerprintEquals(int position, byte[] fingerprint) {
+        for (int i = 0; i < FINGERPRINT_LENGTH; i++) {
+            if (table.get(position + i) != fingerprint[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Doubles the capacity of the table and moves all chunks into the new table.
+     */
+    private void grow() {
+        ByteBuffer oldTable = table;
+        int oldCapacity = capacity;
+        allocate(2 * capacity);
+
+        byte[] fingerprint = new byte[FINGERPRINT_LENGTH];
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            int position = slot * SLOT_SIZE;
+            int value = oldTable.getInt(position + FINGERPRINT_LENGTH);
+            if (value == 0)
+                continue;
+
+            for (int i = 0; i < FINGERPRINT_LENGTH; i++)
+                fingerprint[i] = oldTable.get(position + i);
+            int newPosition = findSlot(fingerprint) * SLOT_SIZE;
+            for (int i = 0; i < FINGERPRINT_LENGTH; i++)
+                table.put(newPosition + i, fingerprint[i]);
+            table.putInt(newPosition + FINGERPRINT_LENGTH, value);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package huffManager.archive;
+
+import huffManager.archive.exceptions.UnableToGetStreamException;
+import huffManager.codecs.exceptions.*;
+import huffManager.generator.*;
+import huffManager.memory.*;
+import static huffManager.archive.Archive.*;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+
+/**
+ * New chunk of a file, that is coded on its own. Its data are read from the file again when they are coded.
+ * Chunks of a file on disk read it by positional reads of one file channel shared by all chunks of the file,
+ * so the file is neither reopened nor read from its start for every chunk.
+ * @author Jan Bryda
+ */
+class ChunkToCode extends ArchiveFile {
+    private FileToCode source;
+    /** channel of the source file shared by its chunks, or null if the data are not read from a file */
+    private FileChannel sourceChannel;
+    private long offset;
+
+    ChunkToCode(FileToCode source, FileChannel sourceChannel, long offset, int length) {
+        super("chunk", length, source.getCodecID());
+        this.source = source;
+        this.sourceChannel = sourceChannel;
+        this.offset = offset;
+    }
+
+    @Override
+    public InputStream getCodedStream() throws UnableToGetStreamException {
+        try {
+            return new PooledBufferedInputStream(getCodec().getCoder().code(new Generator<>(this::getDecodedStream)),
+                    BufferPool.sizeFor(size, BUFFER_SIZE));
+        } catch (UnknownCodecException e) {
+            throw new UnableToGetStreamException("Unable to get coded stream : unknown codec!", e);
+        } catch (CoderException e) {
+            throw new UnableToGetStreamException("Unable to get coded stream : coder exception occurred!", e);
+        }
+    }
+
+    @Override
+    public InputStream getDecodedStream() throws UnableToGetStreamException {
+        if (sourceChannel != null)
+            return new ChannelSegmentInputStream(sourceChannel::read, offset, size);
+
+        try {
+            return new SegmentInputStream(
+                    new PooledBufferedInputStream(source.inputGenerator.generate(), BufferPool.sizeFor(size, BUFFER_SIZE)),
+                    offset, size);
+        } catch (UnableToGenerateException e) {
+            throw new UnableToGetStreamException("Unable to get decoded stream : failed to generate stream!", e);
+        } catch (IOException e) {
+            throw new UnableToGetStreamException("Unable to get decoded stream : IO exception occurred!", e);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package huffManager.archive;
+
+import huffManager.archive.exceptions.UnableToGetStreamException;
+
+import java.io.*;
+import java.util.List;
+
+/**
+ * Stream that reads the decoded data of chunks one after another. Decoded stream of chunk is opened when
+ * the previous chunk is read whole.
+ * @author Jan Bryda
+ */
+class ChunksInputStream extends InputStream {
+    private final List<FileInArchive> chunks;
+    private int nextChunk = 0;
+    private InputStream current;
+
+    public ChunksInputStream(List<FileInArchive> chunks) {
+        this.chunks = chunks;
+    }
+
+    /**
+     * Makes the stream of the next chunk the current one.
+     * @return false if there are no more chunks
+     * @throws IOException
+     */
+    private boolean nextStream() throws IOException {
+        if (current != null)
+            current.close();
+        current = null;
+        if (nextChunk == chunks.size())
+            return false;
+
+        try {
+            current = chunks.get(nextChunk++).getDecodedStream();
+        } catch (UnableToGetStreamException e) {
+            throw new IOException("Unable to get decoded stream of chunk!", e);
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] oneByte = new byte[1];
+        return read(oneByte, 0, 1) == -1 ? -1 : oneByte[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0)
+            return 0;
+
+        while (true) {
+            if (current == null && !nextStream())
+                return -1;
+
+            int read = current.read(buffer, offset, length);
+            if (read != -1)
+                return read;
+            if (!nextStream())
+                return -1;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null)
+            current.close();
+        current = null;
+        nextChunk = chunks.size();
+    }
+}
@@ -0,0 +1,542 @@
+package huffManager.archive;
+
+import huffManager.archive.exceptions.BadArchiveFormatException;
+import huffManager.codecs.*;
+import huffManager.codecs.exceptions.*;
+import huffManager.generator.*;
+import static huffManager.archive.Archive.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Compact binary encoding of the archive description (header), used by indexed archives with the footer flag
+ * {@link Archive#FLAG_COMPACT_HEADER}. Numbers are written as variable length integers (7 bits per byte),
+ * offsets as differences from the end of the previous data, codec IDs as indexes into the table of codecs and
+ * names are front coded: only the length of the prefix shared with the previous name and the rest of the name
+ * are written. The encoded description may be coded by a codec as a whole.
+ * <p>
+ * The header region consists of the ID of the codec of the description, the length of the encoded description
+ * and the (coded) description. The description is read whole into a byte array and parsed from it.
+ * Description: version, table of codecs, solid blocks, chunks, then the records of directories and files in
+ * the order of the directory tree, closed by the end record. Record starts with the record kind, which can
+ * carry the flags of file attributes.
+ * @author Jan Bryda
+ */
+class CompactHeader {
+    /** version of the description encoding */
+    private static final int VERSION = 1;
+
+    /** record kinds */
+    private static final int END = 0;
+    private static final int DIRECTORY_START = 1;
+    private static final int DIRECTORY_END = 2;
+    private static final int STORED_FILE = 3;
+    private static final int SOLID_MEMBER = 4;
+    private static final int CHUNKED = 5;
+    /** mask of the record kind */
+    private static final int KIND_MASK = 0x0F;
+    /** flag of file record that says the modification time follows the name */
+    private static final int HAS_MODIFIED_TIME = 0x10;
+    /** flag of file record that says the checksum follows the name */
+    private static final int HAS_CHECKSUM = 0x20;
+
+    private CompactHeader() {
+    }
+
+    /**
+     * Writes the description of the saved archive, whose data were already written and whose positions are
+     * recorded in the saver.
+     * @param dataOutput output stream
+     * @param archive saved archive
+     * @param saver saver of the archive
+     * @param codec codec used to code the description
+     * @throws IOException
+     */
+    static void write(DataOutputStream dataOutput, Archive archive, ArchiveSaver saver, Codec codec) throws IOException {
+        byte[] description = new CompactHeader.Writer(archive, saver).encode().toByteArray();
+        byte[] stored = description;
+
+        if (!codec.isIdentity()) {
+            try (InputStream coded = codec.getCoder().code(new Generator<>(() -> new ByteArrayInputStream(description)))) {
+                stored = readAll(coded);
+            } catch (CoderException e) {
+                throw new IOException("Compact header : unable to code the description!", e);
+            }
+        }
+
+        dataOutput.writeLong(codec.getID());
+        dataOutput.writeLong(description.length);
+        dataOutput.write(stored);
+    }
+
+    /**
+     * Reads the archive from the header region.
+     * @param header bytes of the header region
+     * @param loader loader that creates the files of the archive
+     * @return loaded archive
+     * @throws IOException
+     * @throws BadArchiveFormatException
+     */
+    static Archive read(byte[] header, ArchiveLoader loader) throws IOException, BadArchiveFormatException {
+        if (header.length < 16)
+            throw new BadArchiveFormatException("Archive loader : compact header is too short!");
+
+        VarintInput prefix = new VarintInput(header, 0, 16);
+        long codecID = prefix.readLong();
+        long descriptionLength = prefix.readLong();
+        if (descriptionLength < 0 || descriptionLength > Integer.MAX_VALUE - 8)
+            throw new BadArchiveFormatException("Archive loader : compact header has bad length!");
+
+        Codec codec;
+        try {
+            codec = Codecs.getCodecByID(codecID);
+        } catch (UnknownCodecException e) {
+            throw new BadArchiveFormatException("Archive loader : compact header is coded by unknown codec!");
+        }
+        if (codec.isIdentity()) {
+            if (descriptionLength != header.length - 16)
+                throw new BadArchiveFormatException("Archive loader : compact header has bad length!");
+            return new CompactHeader.Reader(new VarintInput(header, 16, header.length), loader).decode();
+        }
+
+        byte[] description;
+        try (InputStream decoded = codec.getDecoder()
+                .decode(new Generator<>(() -> new ByteArrayInputStream(header, 16, header.length - 16)))) {
+            description = readAll(decoded);
+        } catch (DecoderException e) {
+            throw new IOException("Archive loader : unable to decode compact header!", e);
+        }
+        if (description.length != descriptionLength)
+            throw new BadArchiveFormatException("Archive loader : compact header has bad length!");
+
+        return new CompactHeader.Reader(new VarintInput(description, 0, description.length), loader).decode();
+    }
+
+    /**
+     * Reads the codec that codes the compact header of the archive file, so the header written by the next
+     * save can be coded the same way.
+     * @param channel channel of the archive file
+     * @param footer footer of the archive file, with the flag of compact header
+     * @return codec of the header
+     * @throws IOException
+     * @throws BadArchiveFormatException
+     */
+    static Codec readCodec(ArchiveChannel channel, ArchiveFooter footer) throws IOException, BadArchiveFormatException {
+        if (footer.headerLength < 16)
+            throw new BadArchiveFormatException("Archive loader : compact header is too short!");
+
+        try (DataInputStream prefix = new DataInputStream(channel.openSegment(footer.headerOffset, 8))) {
+            return Codecs.getCodecByID(prefix.readLong());
+        } catch (UnknownCodecException e) {
+            throw new BadArchiveFormatException("Archive loader : compact header is coded by unknown codec!");
+        }
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[ArchiveFile.TRANSFER_BUFFER_SIZE];
+        int read;
+        while ((read = input.read(buffer)) != -1)
+            output.write(buffer, 0, read);
+        return output.toByteArray();
+    }
+
+    /**
+     * Encodes the description of one saved archive.
+     */
+    private static class Writer {
+        private final Archive archive;
+        private final ArchiveSaver saver;
+        private final VarintOutput output = new VarintOutput();
+        private final Map<Long, Integer> codecIndexes = new LinkedHashMap<>();
+        private byte[] previousName = new byte[0];
+        private long previousEnd = 0;
+        private long previousModifiedTime = 0;
+
+        Writer(Archive archive, ArchiveSaver saver) {
+            this.archive = archive;
+            this.saver = saver;
+        }
+
+        VarintOutput encode() throws IOException {
+            List<ArchiveFile> files = archive.getAllFiles();
+            for (ArchiveFile block : saver.solidBlocks)
+                addCodec(block.getCodecID());
+            for (ArchiveFile chunk : saver.chunks)
+                addCodec(chunk.getCodecID());
+            for (ArchiveFile file : files)
+                addCodec(file.getCodecID());
+
+            output.writeVarint(VERSION);
+            output.writeVarint(codecIndexes.size());
+            for (long codecID : codecIndexes.keySet())
+                output.writeLong(codecID);
+
+            output.writeVarint(saver.solidBlocks.size());
+            for (ArchiveFile block : saver.solidBlocks)
+                writeData(block);
+
+            output.writeVarint(saver.chunks.size());
+            for (int i = 0; i < saver.chunks.size(); i++) {
+                writeData(saver.chunks.get(i));
+                output.write(saver.chunkFingerprints.get(i));
+            }
+
+            ArchiveDirectory rootDirectory = archive.getRootDirectory();
+            for (ArchiveDirectory subdirectory : rootDirectory.getSubdirectories())
+                writeDirectory(subdirectory);
+            for (ArchiveFile file : rootDirectory.getFiles())
+                writeFile(file);
+            output.writeVarint(END);
+            return output;
+        }
+
+        private void addCodec(long codecID) {
+            if (!codecIndexes.containsKey(codecID))
+                codecIndexes.put(codecID, codecIndexes.size());
+        }
+
+        private void writeDirectory(ArchiveDirectory directory) {
+            output.writeVarint(DIRECTORY_START);
+            writeName(directory.getName());
+            for (ArchiveDirectory subdirectory : directory.getSubdirectories())
+                writeDirectory(subdirectory);
+            for (ArchiveFile file : directory.getFiles())
+                writeFile(file);
+            output.writeVarint(DIRECTORY_END);
+        }
+
+        private void writeFile(ArchiveFile file) {
+            int flags = (file.getModifiedTime() != 0 ? HAS_MODIFIED_TIME : 0)
+                    | (file.getChecksum() != ArchiveFile.NO_CHECKSUM ? HAS_CHECKSUM : 0);
+
+            SolidMember member = saver.solidMembers.get(file);
+            int[] chunkList = saver.chunkedFiles.get(file);
+            if (member != null) {
+                output.writeVarint(SOLID_MEMBER | flags);
+                writeName(file.getName());
+                output.writeVarint(saver.solidBlockNumbers.get(member.block));
+                output.writeVarint(member.offsetInBlock);
+                output.writeVarint(file.getSize());
+            } else if (chunkList != null) {
+                output.writeVarint(CHUNKED | flags);
+                writeName(file.getName());
+                output.writeVarint(codecIndexes.get(file.getCodecID()));
+                output.writeVarint(file.getSize());
+                output.writeVarint(chunkList.length);
+                int previousNumber = -1;
+                for (int number : chunkList) {
+                    output.writeSignedVarint(number - previousNumber - 1);
+                    previousNumber = number;
+                }
+            } else {
+                output.writeVarint(STORED_FILE | flags);
+                writeName(file.getName());
+                writeData(file);
+            }
+
+            if ((flags & HAS_MODIFIED_TIME) != 0) {
+                output.writeSignedVarint(file.getModifiedTime() - previousModifiedTime);
+                previousModifiedTime = file.getModifiedTime();
+            }
+            if ((flags & HAS_CHECKSUM) != 0)
+                output.writeVarint(file.getChecksum());
+        }
+
+        /**
+         * Writes the codec, size and position of file stored on its own.
+         * @param file file, solid block or chunk
+         */
+        private void writeData(ArchiveFile file) {
+            FileInArchiveInfo info = saver.fileInfos.get(file);
+            output.writeVarint(codecIndexes.get(file.getCodecID()));
+            output.writeVarint(file.getSize());
+            output.writeSignedVarint(info.offset - previousEnd);
+            output.writeVarint(info.length);
+            previousEnd = info.offset + info.length;
+        }
+
+        private void writeName(String name) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            int shared = 0;
+            int limit = Math.min(bytes.length, previousName.length);
+            while (shared < limit && bytes[shared] == previousName[shared])
+                shared++;
+
+            output.writeVarint(shared);
+            output.writeVarint(bytes.length - shared);
+            output.write(bytes, shared, bytes.length - shared);
+            previousName = bytes;
+        }
+    }
+
+    /**
+     * Decodes the description of one loaded archive.
+     */
+    private static class Reader {
+        private final VarintInput input;
+        private final ArchiveLoader loader;
+        private long[] codecIDs;
+        private List<FileInArchive> solidBlocks;
+        private List<FileInArchive> chunks;
+        private List<byte[]> chunkFingerprints;
+        private byte[] previousName = new byte[0];
+        private int previousNameLength = 0;
+        private long previousEnd = 0;
+        private long previousModifiedTime = 0;
+
+        Reader(VarintInput input, ArchiveLoader loader) {
+            this.input = input;
+            this.loader = loader;
+        }
+
+        Archive decode() throws BadArchiveFormatException {
+            if (input.readVarint() != VERSION)
+                throw new BadArchiveFormatException("Archive loader : unknown version of compact header!");
+
+            codecIDs = new long[readCount()];
+            for (int i = 0; i < codecIDs.length; i++)
+                codecIDs[i] = input.readLong();
+
+            int blockCount = readCount();
+            solidBlocks = new ArrayList<>(blockCount);
+            for (int i = 0; i < blockCount; i++)
+                solidBlocks.add(readData("solid block"));
+
+            int chunkCount = readCount();
+            chunks = new ArrayList<>(chunkCount);
+            chunkFingerprints = new ArrayList<>(chunkCount);
+            for (int i = 0; i < chunkCount; i++) {
+                chunks.add(readData("chunk"));
+                chunkFingerprints.add(input.readBytes(FINGERPRINT_LENGTH));
+            }
+
+            Archive archive = new Archive();
+            ArchiveDirectory currentDirectory = archive.getRootDirectory();
+            while (true) {
+                int record = (int) input.readVarint();
+                switch (record & KIND_MASK) {
+                    case END:
+                        if (currentDirectory != archive.getRootDirectory())
+                            throw new BadArchiveFormatException("Archive loader : archive has bad format : unclosed directories definitions!");
+                        return archive;
+                    case DIRECTORY_START:
+                        ArchiveDirectory newDirectory = new ArchiveDirectory(readName());
+                        currentDirectory.addSubdirectory(newDirectory);
+                        currentDirectory = newDirectory;
+                        break;
+                    case DIRECTORY_END:
+                        currentDirectory = currentDirectory.getParent();
+                        if (currentDirectory == null)
+                            throw new BadArchiveFormatException("Archive loader : archive has bad format : more directories closed than opened!");
+                        break;
+                    case STORED_FILE:
+                    case SOLID_MEMBER:
+                    case CHUNKED:
+                        currentDirectory.addFile(readFile(record));
+                        break;
+                    default:
+                        throw new BadArchiveFormatException("Archive loader : unknown record in compact header!");
+                }
+            }
+        }
+
+        private ArchiveFile readFile(int record) throws BadArchiveFormatException {
+            String name = readName();
+            ArchiveFile file;
+            switch (record & KIND_MASK) {
+                case SOLID_MEMBER: {
+                    long blockNumber = input.readVarint();
+                    long offsetInBlock = input.readVarint();
+                    long size = input.readVarint();
+                    if (blockNumber >= solidBlocks.size())
+                        throw new BadArchiveFormatException("Archive loader : archive has bad format : undefined solid block!");
+                    FileInArchive block = solidBlocks.get((int) blockNumber);
+                    if (offsetInBlock + size > block.getSize())
+                        throw new BadArchiveFormatException("Archive loader : archive has bad format : file out of solid block!");
+                    file = new FileInSolidBlock(block, name, size, offsetInBlock);
+                    break;
+                }
+                case CHUNKED: {
+                    long codecID = readCodecID();
+                    long size = input.readVarint();
+                    int count = readCount();
+                    List<FileInArchive> fileChunks = new ArrayList<>(count);
+                    List<byte[]> fingerprints = new ArrayList<>(count);
+                    long previousNumber = -1, chunksSize = 0;
+                    for (int i = 0; i < count; i++) {
+                        long number = previousNumber + 1 + input.readSignedVarint();
+                        if (number < 0 || number >= chunks.size())
+                            throw new BadArchiveFormatException("Archive loader : archive has bad format : undefined chunk!");
+                        fileChunks.add(chunks.get((int) number));
+                        fingerprints.add(chunkFingerprints.get((int) number));
+                        chunksSize += chunks.get((int) number).getSize();
+                        previousNumber = number;
+                    }
+                    if (chunksSize != size)
+                        throw new BadArchiveFormatException("Archive loader : archive has bad format : chunks do not match file size!");
+                    file = new FileInChunks(name, size, codecID, fileChunks, fingerprints);
+                    break;
+                }
+                default:
+                    file = readData(name);
+            }
+
+            if ((record & HAS_MODIFIED_TIME) != 0) {
+                previousModifiedTime += input.readSignedVarint();
+                file.setModifiedTime(previousModifiedTime);
+            }
+            if ((record & HAS_CHECKSUM) != 0)
+                file.setChecksum(input.readVarint());
+            return file;
+        }
+
+        private FileInArchive readData(String name) throws BadArchiveFormatException {
+            long codecID = readCodecID();
+            long size = input.readVarint();
+            long offset = previousEnd + input.readSignedVarint();
+            long length = input.readVarint();
+            previousEnd = offset + length;
+            return loader.createFileInArchive(name, size, codecID, offset, length);
+        }
+
+        private long readCodecID() throws BadArchiveFormatException {
+            long index = input.readVarint();
+            if (index >= codecIDs.length)
+                throw new BadArchiveFormatException("Archive loader : archive has bad format : undefined codec!");
+            return codecIDs[(int) index];
+        }
+
+        private int readCount() throws BadArchiveFormatException {
+            long count = input.readVarint();
+            if (count > input.remaining())
+                throw new BadArchiveFormatException("Archive loader : archive has bad format : count out of header!");
+            return (int) count;
+        }
+
+        private String readName() throws BadArchiveFormatException {
+            long shared = input.readVarint();
+            long rest = input.readVarint();
+            if (shared > previousNameLength || rest > input.remaining())
+                throw new BadArchiveFormatException("Archive loader : archive has bad format : bad name!");
+
+            int length = (int) (shared + rest);
+            if (length > previousName.length)
+                previousName = Arrays.copyOf(previousName, Math.max(length, 2 * previousName.length));
+            input.readBytes(previousName, (int) shared, (int) rest);
+            previousNameLength = length;
+            return new String(previousName, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
+
+/**
+ * Growing byte array that variable length integers are written into. Unsigned integers are written by 7 bits
+ * per byte starting from the lowest bits, the highest bit of byte says that more bytes follow. Signed integers
+ * are mapped to unsigned ones first (zigzag), so that small negative numbers are short too.
+ * @author Jan Bryda
+ */
+class VarintOutput {
+    private byte[] bytes = new byte[1024];
+    private int length = 0;
+
+    void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[length++] = (byte) value;
+    }
+
+    void writeSignedVarint(long value) {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    void writeLong(long value) {
+        ensureCapacity(8);
+        for (int i = 7; i >= 0; i--)
+            bytes[length++] = (byte) (value >>> (8 * i));
+    }
+
+    void write(byte[] source) {
+        write(source, 0, source.length);
+    }
+
+    void write(byte[] source, int offset, int count) {
+        ensureCapacity(count);
+        System.arraycopy(source, offset, bytes, length, count);
+        length += count;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, length);
+    }
+
+    private void ensureCapacity(int count) {
+        if (length + count > bytes.length)
+            bytes = Arrays.copyOf(bytes, Math.max(length + count, 2 * bytes.length));
+    }
+}
+
+/**
+ * Reads variable length integers written by {@link VarintOutput} from a byte array.
+ * @author Jan Bryda
+ */
+class VarintInput {
+    private final byte[] bytes;
+    private int position;
+    private final int end;
+
+    VarintInput(byte[] bytes, int start, int end) {
+        this.bytes = bytes;
+        this.position = start;
+        this.end = end;
+    }
+
+    int remaining() {
+        return end - position;
+    }
+
+    long readVarint() throws BadArchiveFormatException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position == end)
+                throw new BadArchiveFormatException("Archive loader : header ended unexpectedly!");
+            byte myByte = bytes[position++];
+            value |= (long) (myByte & 0x7F) << shift;
+            if (myByte >= 0)
+                return value;
+        }
+        throw new BadArchiveFormatException("Archive loader : header has too long number!");
+    }
+
+    long readSignedVarint() throws BadArchiveFormatException {
+        long value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    long readLong() throws BadArchiveFormatException {
+        if (end - position < 8)
+            throw new BadArchiveFormatException("Archive loader : header ended unexpectedly!");
+        long value = 0;
+        for (int i = 0; i < 8; i++)
+            value = (value << 8) | (bytes[position++] & 0xFF);
+        return value;
+    }
+
+    byte[] readBytes(int count) throws BadArchiveFormatException {
+        byte[] target = new byte[count];
+        readBytes(target, 0, count);
+        return target;
+    }
+
+    void readBytes(byte[] target, int offset, int count) throws BadArchiveFormatException {
+        if (end - position < count)
+            throw new BadArchiveFormatException("Archive loader : header ended unexpectedly!");
+        System.arraycopy(bytes, position, target, offset, count);
+        position += count;
+    }
+}
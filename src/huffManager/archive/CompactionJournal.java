@@ -0,0 +1,313 @@
+package huffManager.archive;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Journal of the compaction of archive file in place (see {@link ArchiveCompactor#compactInPlace(File, int)}).
+ * Journal is stored next to the archive file, its name is the name of archive followed by
+ * {@link CompactionJournal#SUFFIX}. It consists of:
+ * <ul>
+ *     <li>plan of the compaction: journal identifier, size of the archive file before compaction, size of the
+ *     buffer, live ranges with their new starts and the relocated trailer, followed by its checksum</li>
+ *     <li>two slots of step records, used by turns: number of the step, length of the saved data of the step
+ *     (or -1 if they are not saved), the data and the checksum of the record</li>
+ * </ul>
+ * The plan is synced before the archive file is changed, so the archive is whole while the plan is not
+ * valid. A record of the step is synced before the step is written into the archive and the step is synced
+ * before the record of the next step, so the record with the highest number is the only step that may have
+ * been left unfinished. Data of the step are saved in the record only when the step overwrites its own
+ * source, otherwise the step is read from the archive again.
+ * @author Jan Bryda
+ */
+class CompactionJournal implements Closeable {
+    /** suffix of the name of journal file */
+    static final String SUFFIX = ".compacting";
+    /** identifier of journal file */
+    private static final long IDENTIFIER = 0x434F4D50414354L;
+    /** size of the record without its data */
+    private static final int RECORD_OVERHEAD = 8 + 4 + 8;
+
+    /** size of the archive file before compaction */
+    final long originalSize;
+    /** size of the buffer, which moves the live ranges */
+    final int bufferSize;
+    /** starts of the live ranges */
+    final long[] starts;
+    /** ends (exclusive) of the live ranges */
+    final long[] ends;
+    /** new starts of the live ranges */
+    final long[] newStarts;
+    /** relocated trailer (header, index and footer) of the compacted archive */
+    final byte[] trailer;
+
+    /** number of the last step recorded in the journal, -1 if there is none */
+    long lastStep = -1;
+    /** saved data of the last step, or null if they are read from the archive */
+    byte[] lastStepData;
+
+    private final File file;
+    private FileChannel channel;
+    private long planSize;
+
+    private CompactionJournal(File file, long originalSize, int bufferSize, long[] starts, long[] ends,
+                              long[] newStarts, byte[] trailer) {
+        this.file = file;
+        this.originalSize = originalSize;
+        this.bufferSize = bufferSize;
+        this.starts = starts;
+        this.ends = ends;
+        this.newStarts = newStarts;
+        this.trailer = trailer;
+    }
+
+    /**
+     * Gets the journal file of the archive file.
+     * @param archiveFile archive file
+     * @return journal file, it may not exist
+     */
+    static File getFile(File archiveFile) {
+        return new File(archiveFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * Gets the size of the compacted archive without its trailer.
+     * @return physical offset of the relocated trailer
+     */
+    long getTrailerOffset() {
+        int last = starts.length - 1;
+        return last < 0 ? 8 : newStarts[last] + ends[last] - starts[last];
+    }
+
+    /**
+     * Creates the journal file of the archive with the plan of compaction, and syncs it.
+     * @param archiveFile archive file
+     * @param originalSize size of the archive file
+     * @param bufferSize size of the buffer, which moves the live ranges
+     * @param starts starts of the live ranges
+     * @param ends ends (exclusive) of the live ranges
+     * @param newStarts new starts of the live ranges
+     * @param trailer relocated trailer
+     * @return created journal
+     * @throws IOException
+     */
+    static CompactionJournal create(File archiveFile, long originalSize, int bufferSize, long[] starts, long[] ends,
+                                    long[] newStarts, byte[] trailer) throws IOException {
+        CompactionJournal journal =
+                new CompactionJournal(getFile(archiveFile), originalSize, bufferSize, starts, ends, newStarts, trailer);
+
+        ByteArrayOutputStream plan = new ByteArrayOutputStream();
+        DataOutputStream dataOutput = new DataOutputStream(plan);
+        dataOutput.writeLong(IDENTIFIER);
+        dataOutput.writeLong(originalSize);
+        dataOutput.writeInt(bufferSize);
+        dataOutput.writeInt(starts.length);
+        for (int i = 0; i < starts.length; i++) {
+            dataOutput.writeLong(starts[i]);
+            dataOutput.writeLong(ends[i]);
+            dataOutput.writeLong(newStarts[i]);
+        }
+        dataOutput.writeInt(trailer.length);
+        dataOutput.write(trailer);
+        CRC32 checksum = new CRC32();
+        checksum.update(plan.toByteArray());
+        dataOutput.writeLong(checksum.getValue());
+
+        journal.channel = FileChannel.open(journal.file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            writeFully(journal.channel, ByteBuffer.wrap(plan.toByteArray()), 0);
+            journal.channel.force(true);
+        } catch (IOException e) {
+            journal.close();
+            throw e;
+        }
+        journal.planSize = plan.size();
+        return journal;
+    }
+
+    /**
+     * Opens the journal file of the archive, if there is one, and reads the plan and the last recorded step.
+     * Journal with damaged plan was interrupted before the archive file was changed, so it is deleted.
+     * @param archiveFile archive file
+     * @return opened journal, or null if there is no valid journal
+     * @throws IOException
+     */
+    static CompactionJournal open(File archiveFile) throws IOException {
+        File file = getFile(archiveFile);
+        if (!file.isFile())
+            return null;
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        CompactionJournal journal;
+        try {
+            journal = readPlan(file, channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        if (journal == null) {
+            channel.close();
+            file.delete();
+            return null;
+        }
+
+        journal.channel = channel;
+        journal.readRecord(0);
+        journal.readRecord(1);
+        return journal;
+    }
+
+    private static CompactionJournal readPlan(File file, FileChannel channel) throws IOException {
+        DataInputStream dataInput = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel.position(0)), ArchiveFile.TRANSFER_BUFFER_SIZE));
+        CRC32 checksum = new CRC32();
+        try {
+            byte[] preamble = new byte[8 + 8 + 4 + 4];
+            dataInput.readFully(preamble);
+            ByteBuffer fields = ByteBuffer.wrap(preamble);
+            if (fields.getLong() != IDENTIFIER)
+                return null;
+            long originalSize = fields.getLong();
+            int bufferSize = fields.getInt();
+            int rangeCount = fields.getInt();
+            if (bufferSize <= 0 || rangeCount < 0 || rangeCount > (channel.size() - preamble.length) / 24)
+                return null;
+            checksum.update(preamble);
+
+            byte[] ranges = new byte[rangeCount * 24 + 4];
+            dataInput.readFully(ranges);
+            checksum.update(ranges);
+            ByteBuffer rangeFields = ByteBuffer.wrap(ranges);
+            long[] starts = new long[rangeCount];
+            long[] ends = new long[rangeCount];
+            long[] newStarts = new long[rangeCount];
+            for (int i = 0; i < rangeCount; i++) {
+                starts[i] = rangeFields.getLong();
+                ends[i] = rangeFields.getLong();
+                newStarts[i] = rangeFields.getLong();
+            }
+
+            int trailerLength = rangeFields.getInt();
+            if (trailerLength < 0 || trailerLength > channel.size())
+                return null;
+            byte[] trailer = new byte[trailerLength];
+            dataInput.readFully(trailer);
+            checksum.update(trailer);
+            if (dataInput.readLong() != checksum.getValue())
+                return null;
+
+            CompactionJournal journal =
+                    new CompactionJournal(file, originalSize, bufferSize, starts, ends, newStarts, trailer);
+            journal.planSize = preamble.length + ranges.length + trailerLength + 8;
+            return journal;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the record in the slot, and makes it the last step if it is valid and newer than the last step.
+     * @param slot number of the slot
+     * @throws IOException
+     */
+    private void readRecord(int slot) throws IOException {
+        long position = getSlotPosition(slot);
+        if (channel.size() < position + RECORD_OVERHEAD)
+            return;
+
+        ByteBuffer header = ByteBuffer.allocate(12);
+        readFully(channel, header, position);
+        long step = header.getLong(0);
+        int dataLength = header.getInt(8);
+        if (dataLength < -1 || dataLength > bufferSize || channel.size() < position + RECORD_OVERHEAD
+                + Math.max(0, dataLength))
+            return;
+
+        ByteBuffer rest = ByteBuffer.allocate(Math.max(0, dataLength) + 8);
+        readFully(channel, rest, position + 12);
+        CRC32 checksum = new CRC32();
+        checksum.update(header.array());
+        checksum.update(rest.array(), 0, Math.max(0, dataLength));
+        if (rest.getLong(Math.max(0, dataLength)) != checksum.getValue() || step <= lastStep)
+            return;
+
+        lastStep = step;
+        lastStepData = dataLength < 0 ? null : Arrays.copyOf(rest.array(), dataLength);
+    }
+
+    /**
+     * Records the step and syncs the journal, before the step is written into the archive.
+     * @param step number of the step
+     * @param data buffer with the data of the step, positioned at their start, or null if they are not saved
+     * @throws IOException
+     */
+    void writeStep(long step, ByteBuffer data) throws IOException {
+        int dataLength = data == null ? -1 : data.remaining();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + Math.max(0, dataLength));
+        record.putLong(step);
+        record.putInt(dataLength);
+        if (data != null)
+            record.put(data.duplicate());
+        CRC32 checksum = new CRC32();
+        checksum.update(record.array(), 0, record.position());
+        record.putLong(checksum.getValue());
+        record.flip();
+
+        writeFully(channel, record, getSlotPosition((int) (step % 2)));
+        channel.force(true);
+        lastStep = step;
+    }
+
+    private long getSlotPosition(int slot) {
+        return planSize + slot * ((long) RECORD_OVERHEAD + bufferSize);
+    }
+
+    /**
+     * Closes and deletes the journal file, once the compaction is finished.
+     * @throws IOException
+     */
+    void delete() throws IOException {
+        close();
+        if (!file.delete() && file.exists())
+            throw new IOException("Compaction journal : unable to delete journal file!");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null)
+            channel.close();
+    }
+
+    /**
+     * Reads the file channel into the remaining space of the buffer.
+     * @param channel file channel
+     * @param buffer buffer
+     * @param position position in the file, which is read into the current position of the buffer
+     * @throws IOException
+     */
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) == -1)
+                throw new EOFException("Compaction journal : file ended unexpectedly!");
+        }
+    }
+
+    /**
+     * Writes the remaining data of the buffer into the file channel.
+     * @param channel file channel
+     * @param buffer buffer
+     * @param position position in the file, which the current position of the buffer is written to
+     * @throws IOException
+     */
+    static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long start = position - buffer.position();
+        while (buffer.hasRemaining())
+            channel.write(buffer, start + buffer.position());
+    }
+}
@@ -0,0 +1,182 @@
+package huffManager.archive;
+
+import huffManager.memory.BufferPool;
+import static huffManager.archive.Archive.*;
+
+import java.io.*;
+import java.security.*;
+import java.util.Random;
+
+/**
+ * Splits the contents of files into chunks whose boundaries are defined by the contents, so an insertion or
+ * deletion inside a file changes only the chunks around it. Boundaries are found by the Gear rolling hash with
+ * normalized chunking (FastCDC): the first minimal size bytes of a chunk are skipped without hashing, then
+ * a harder condition is used up to the average size and an easier one up to the maximal size, where
+ * the chunk is cut anyway. Every chunk gets a fingerprint of its contents.
+ * @author Jan Bryda
+ */
+class ContentChunker {
+
+    /**
+     * Receives the chunks found in the file.
+     */
+    interface ChunkListener {
+        /**
+         * Is called for every chunk of the file, in the order of chunks.
+         * @param offset offset of the chunk in the file
+         * @param length length of the chunk
+         * @param fingerprint fingerprint of the chunk contents
+         * @throws IOException
+         */
+        void chunk(long offset, int length, byte[] fingerprint) throws IOException;
+    }
+
+    /** random values of bytes used by the Gear hash, they must never change, so the chunks stay the same */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x4745415248415348L);
+        for (int i = 0; i < GEAR.length; i++)
+            GEAR[i] = random.nextLong();
+    }
+
+    private final int minimalSize;
+    private final int averageSize;
+    private final int maximalSize;
+    /** mask of the condition used before the average size is reached */
+    private final long hardMask;
+    /** mask of the condition used after the average size is reached */
+    private final long easyMask;
+
+    /**
+     * Creates new ContentChunker. Chunks are at least a quarter and at most four times the average size.
+     * @param averageSize average size of chunk (in bytes), it is rounded down to a power of two
+     */
+    ContentChunker(int averageSize) {
+        int bits = 31 - Integer.numberOfLeadingZeros(Math.max(256, averageSize));
+        this.averageSize = 1 << bits;
+        this.minimalSize = this.averageSize / 4;
+        this.maximalSize = this.averageSize * 4;
+        this.hardMask = -1L << (64 - bits - 2);
+        this.easyMask = -1L << (64 - bits + 2);
+    }
+
+    /**
+     * Creates new ContentChunker, that splits the contents into chunks of fixed size (only the last chunk may
+     * be shorter). Its boundaries do not depend on the contents, they are restart points at fixed distances.
+     * @param blockSize size of chunk (in bytes)
+     * @return fixed size chunker
+     */
+    static ContentChunker fixedSize(int blockSize) {
+        return new ContentChunker(blockSize, blockSize, blockSize);
+    }
+
+    private ContentChunker(int minimalSize, int averageSize, int maximalSize) {
+        this.minimalSize = minimalSize;
+        this.averageSize = averageSize;
+        this.maximalSize = maximalSize;
+        this.hardMask = 0;
+        this.easyMask = 0;
+    }
+
+    /**
+     * Gets the average size of chunk.
+     * @return average size of chunk (in bytes)
+     */
+    int getAverageSize() {
+        return averageSize;
+    }
+
+    /**
+     * Splits the whole input stream into chunks. The fingerprint of chunk is the hash of given salt (codec ID)
+     * and the chunk contents. The chunks are found in a buffer of the shared {@link BufferPool}.
+     * @param input input stream
+     * @param salt value that makes the fingerprints of the same contents differ
+     * @param listener receiver of the chunks
+     * @return number of bytes read from the stream
+     * @throws IOException
+     */
+    long split(InputStream input, long salt, ChunkListener listener) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Content chunker : SHA-256 is not available!", e);
+        }
+
+        // the buffer holds two maximal chunks when the budget allows, at least one whole chunk is needed
+        BufferPool pool = BufferPool.getShared();
+        byte[] buffer = pool.acquire(2 * maximalSize, maximalSize);
+        try {
+            return split(input, salt, listener, digest, buffer);
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    private long split(InputStream input, long salt, ChunkListener listener, MessageDigest digest, byte[] buffer)
+            throws IOException {
+        int start = 0, end = 0;
+        long offset = 0;
+        boolean endOfStream = false;
+
+        while (true) {
+            if (!endOfStream && end - start < maximalSize) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+                while (end < buffer.length) {
+                    int read = input.read(buffer, end, buffer.length - end);
+                    if (read == -1) {
+                        endOfStream = true;
+                        break;
+                    }
+                    end += read;
+                }
+            }
+
+            if (start == end)
+                return offset;
+
+            int length = findBoundary(buffer, start, end - start);
+            for (int i = 7; i >= 0; i--)
+                digest.update((byte) (salt >>> (8 * i)));
+            digest.update(buffer, start, length);
+            byte[] fingerprint = new byte[FINGERPRINT_LENGTH];
+            System.arraycopy(digest.digest(), 0, fingerprint, 0, FINGERPRINT_LENGTH);
+
+            listener.chunk(offset, length, fingerprint);
+            start += length;
+            offset += length;
+        }
+    }
+
+    /**
+     * Finds the length of the chunk starting at given position.
+     * @param buffer buffer with data
+     * @param start start of the chunk
+     * @param available number of bytes available in the buffer from the start
+     * @return length of the chunk
+     */
+    private int findBoundary(byte[] buffer, int start, int available) {
+        if (available <= minimalSize)
+            return available;
+
+        int normalEnd = start + Math.min(available, averageSize);
+        int end = start + Math.min(available, maximalSize);
+        long hash = 0;
+
+        int i = start + minimalSize;
+        for (; i < normalEnd; i++) {
+            hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+            if ((hash & hardMask) == 0)
+                return i + 1 - start;
+        }
+        for (; i < end; i++) {
+            hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+            if ((hash & easyMask) == 0)
+                return i + 1 - start;
+        }
+        return end - start;
+    }
+}
@@ -0,0 +1,60 @@
+package huffManager.archive;
+
+import java.io.*;
+
+/**
+ * An {@link OutputStream} that counts the bytes written through it. It is used to know the physical position
+ * in archive file while the archive is being saved.
+ * @author Jan Bryda
+ */
+public class CountingOutputStream extends OutputStream {
+    OutputStream output;
+    /** number of bytes written so far */
+    long count = 0;
+
+    /**
+     * Creates new CountingOutputStream that writes into given output stream.
+     * @param output output stream
+     */
+    public CountingOutputStream(OutputStream output) {
+        this.output = output;
+    }
+
+    public void write(int myByte) throws IOException {
+        output.write(myByte);
+        count++;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        output.write(buffer, offset, length);
+        count += length;
+    }
+
+    /**
+     * Adds bytes that were written directly into the underlying destination (for example through its channel)
+     * to the count, so the count stays equal to the physical position in the destination.
+     * @param written number of bytes written past this stream
+     */
+    public void addCount(long written) {
+        count += written;
+    }
+
+    /**
+     * Gets the number of bytes written through this stream.
+     * @return number of written bytes
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+}
@@ -0,0 +1,405 @@
+package huffManager.archive;
+
+import huffManager.archive.exceptions.UnableToGetStreamException;
+import huffManager.memory.MemoryBudget;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of decoded data of archive files, shared by the whole process. Small coded files, solid blocks and
+ * chunks (including the restart blocks of large files) that are read through the shared channel of their archive
+ * are decoded once and their decoded data are kept, so reading the same files again does not read or decode
+ * the archive. Entries are identified by the channel of the archive and the offset of the coded data, they are
+ * dropped when the channel is closed.
+ * <p>
+ * Cache is bounded by the number of bytes of decoded data. It is split into stripes by the hash of the key,
+ * every stripe has its own lock and its own share of the capacity and evicts its least recently used entries,
+ * so concurrent readers of different entries rarely wait for each other. Decoding is done outside the lock.
+ * Decoded data may be kept in direct buffers, outside of the Java heap.
+ * <p>
+ * Cached data are reserved from the {@link MemoryBudget} of the cache. Data that the budget can't hold are not
+ * cached, and the shared cache gives up its least recently used entries when the shared budget runs out.
+ * @author Jan Bryda
+ */
+public class DecodedBlockCache {
+    /** default capacity of the shared cache */
+    private static final long DEFAULT_CAPACITY = 64L * 1024 * 1024;
+    /** default size limit of cached entry */
+    private static final int DEFAULT_MAX_ENTRY_SIZE = 1024 * 1024;
+    /** number of stripes, a power of two */
+    private static final int STRIPE_COUNT = 16;
+    /** name of the cache as the consumer of memory budget */
+    private static final String BUDGET_CONSUMER = "decoded cache";
+
+    private static final DecodedBlockCache SHARED =
+            new DecodedBlockCache(DEFAULT_CAPACITY, DEFAULT_MAX_ENTRY_SIZE, MemoryBudget.getShared());
+
+    static {
+        MemoryBudget.getShared().addReclaimer(SHARED::reclaim);
+    }
+
+    /**
+     * Statistics of the cache since its creation.
+     */
+    public static class Statistics {
+        /** number of reads served from the cache */
+        public final long hitCount;
+        /** number of reads that had to decode the data */
+        public final long missCount;
+        /** number of entries evicted to make space */
+        public final long evictionCount;
+        /** number of entries in the cache */
+        public final long entryCount;
+        /** number of bytes of decoded data in the cache */
+        public final long size;
+
+        Statistics(long hitCount, long missCount, long evictionCount, long entryCount, long size) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+            this.entryCount = entryCount;
+            this.size = size;
+        }
+
+        /**
+         * Gets the ratio of reads served from the cache.
+         * @return hit rate between 0 and 1
+         */
+        public double getHitRate() {
+            long requestCount = hitCount + missCount;
+            return requestCount == 0 ? 0 : (double) hitCount / requestCount;
+        }
+
+        @Override
+        public String toString() {
+            return hitCount + " hits, " + missCount + " misses, " + evictionCount + " evictions, "
+                    + entryCount + " entries, " + size + "B";
+        }
+    }
+
+    /**
+     * Decodes the data of cached entry.
+     */
+    interface Loader {
+        /**
+         * Reads the whole decoded data.
+         * @return decoded data
+         * @throws IOException
+         * @throws UnableToGetStreamException
+         */
+        byte[] load() throws IOException, UnableToGetStreamException;
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+    private final MemoryBudget budget;
+    private volatile long capacity;
+    private volatile int maxEntrySize;
+    private volatile boolean offHeap = false;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * Creates new DecodedBlockCache, which is not limited by any memory budget.
+     * @param capacity maximal number of bytes of decoded data, 0 turns the cache off
+     * @param maxEntrySize maximal size of cached entry (in bytes)
+     */
+    public DecodedBlockCache(long capacity, int maxEntrySize) {
+        this(capacity, maxEntrySize, new MemoryBudget(MemoryBudget.UNLIMITED));
+    }
+
+    /**
+     * Creates new DecodedBlockCache.
+     * @param capacity maximal number of bytes of decoded data, 0 turns the cache off
+     * @param maxEntrySize maximal size of cached entry (in bytes)
+     * @param budget memory budget the cached data are reserved from
+     */
+    public DecodedBlockCache(long capacity, int maxEntrySize, MemoryBudget budget) {
+        this.budget = budget;
+        for (int i = 0; i < stripes.length; i++)
+            stripes[i] = new Stripe();
+        setCapacity(capacity);
+        setMaxEntrySize(maxEntrySize);
+    }
+
+    /**
+     * Gets the cache shared by all archives of the process.
+     * @return shared cache
+     */
+    public static DecodedBlockCache getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Sets the maximal number of bytes of decoded data in the cache. Entries above the new capacity are evicted.
+     * @param capacity capacity (in bytes), 0 turns the cache off
+     */
+    public void setCapacity(long capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Capacity of cache can't be negative!");
+        this.capacity = capacity;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                evict(stripe, getStripeCapacity());
+            }
+        }
+    }
+
+    /**
+     * Gets the maximal number of bytes of decoded data in the cache.
+     * @return capacity (in bytes)
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the maximal size of cached entry. Larger files are decoded every time, they would evict too much.
+     * Entry is cached only if it fits into the share of capacity of one stripe (a sixteenth of capacity).
+     * @param maxEntrySize maximal size of entry (in bytes)
+     */
+    public void setMaxEntrySize(int maxEntrySize) {
+        if (maxEntrySize < 0)
+            throw new IllegalArgumentException("Maximal size of entry can't be negative!");
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    /**
+     * Sets whether the decoded data are kept in direct buffers, outside of the Java heap. Entries that are
+     * already cached are kept where they are.
+     * @param offHeap true to keep the data in direct buffers
+     */
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Gets the statistics of the cache.
+     * @return statistics
+     */
+    public Statistics getStatistics() {
+        long entryCount = 0, size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                entryCount += stripe.entries.size();
+                size += stripe.size;
+            }
+        }
+        return new Statistics(hitCount.sum(), missCount.sum(), evictionCount.sum(), entryCount, size);
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.entries.clear();
+                budget.release(BUDGET_CONSUMER, stripe.size);
+                stripe.size = 0;
+            }
+        }
+    }
+
+    private long getStripeCapacity() {
+        return capacity / STRIPE_COUNT;
+    }
+
+    /**
+     * Tells whether the entry of given size would be cached.
+     * @param size size of decoded data
+     * @return true if the entry can be cached
+     */
+    boolean accepts(long size) {
+        return size <= maxEntrySize && size <= getStripeCapacity();
+    }
+
+    /**
+     * Gets the stream of cached decoded data. If the data are not cached, they are decoded by the loader and
+     * cached.
+     * @param channel channel of the archive
+     * @param offset offset of the coded data in the archive
+     * @param loader decoder of the data
+     * @return stream of decoded data
+     * @throws IOException
+     * @throws UnableToGetStreamException
+     */
+    InputStream getStream(ArchiveChannel channel, long offset, Loader loader)
+            throws IOException, UnableToGetStreamException {
+        BlockKey key = new BlockKey(channel, offset);
+        Stripe stripe = stripes[key.hashCode() & (STRIPE_COUNT - 1)];
+
+        ByteBuffer data;
+        synchronized (stripe) {
+            data = stripe.entries.get(key);
+        }
+        if (data != null) {
+            hitCount.increment();
+            return new ByteBufferInputStream(data.duplicate());
+        }
+
+        missCount.increment();
+        byte[] decoded = loader.load();
+        if (offHeap) {
+            data = ByteBuffer.allocateDirect(decoded.length);
+            data.put(decoded).flip();
+        } else {
+            data = ByteBuffer.wrap(decoded);
+        }
+
+        if (channel.isOpen() && accepts(decoded.length)) {
+            synchronized (stripe) {
+                // channel closed meanwhile may be already invalidated, its entry would never be removed
+                if (!channel.isOpen() || stripe.entries.containsKey(key))
+                    return new ByteBufferInputStream(data.duplicate());
+                // entries of the stripe make space for the new one when the budget is short
+                if (!budget.tryReserve(BUDGET_CONSUMER, data.capacity())) {
+                    evict(stripe, stripe.size - data.capacity());
+                    if (!budget.tryReserve(BUDGET_CONSUMER, data.capacity()))
+                        return new ByteBufferInputStream(data.duplicate());
+                }
+                stripe.entries.put(key, data);
+                stripe.size += data.capacity();
+                evict(stripe, getStripeCapacity());
+            }
+        }
+        return new ByteBufferInputStream(data.duplicate());
+    }
+
+    /**
+     * Removes all entries of the archive channel. It is called when the channel is closed, after it is marked
+     * closed, so no entry of the channel is added after the stripe was invalidated.
+     * @param channel channel of the archive
+     */
+    void invalidate(ArchiveChannel channel) {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                Iterator<Map.Entry<BlockKey, ByteBuffer>> iterator = stripe.entries.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<BlockKey, ByteBuffer> entry = iterator.next();
+                    if (entry.getKey().channel == channel) {
+                        stripe.size -= entry.getValue().capacity();
+                        budget.release(BUDGET_CONSUMER, entry.getValue().capacity());
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries of the stripe, until its size fits into the capacity. The lock
+     * of the stripe has to be held.
+     * @param stripe stripe
+     * @param stripeCapacity capacity of the stripe (in bytes)
+     * @return number of bytes evicted
+     */
+    private long evict(Stripe stripe, long stripeCapacity) {
+        long evicted = 0;
+        Iterator<ByteBuffer> iterator = stripe.entries.values().iterator();
+        while (stripe.size > stripeCapacity && iterator.hasNext()) {
+            long entrySize = iterator.next().capacity();
+            stripe.size -= entrySize;
+            evicted += entrySize;
+            iterator.remove();
+            evictionCount.increment();
+        }
+        budget.release(BUDGET_CONSUMER, evicted);
+        return evicted;
+    }
+
+    /**
+     * Evicts the least recently used entries of all stripes, when the memory budget runs out.
+     * @param bytes number of bytes that should be freed
+     * @return number of bytes freed
+     */
+    private long reclaim(long bytes) {
+        long freed = 0;
+        for (int i = 0; i < STRIPE_COUNT && freed < bytes; i++) {
+            Stripe stripe = stripes[i];
+            synchronized (stripe) {
+                freed += evict(stripe, Math.max(0, stripe.size - (bytes - freed)));
+            }
+        }
+        return freed;
+    }
+
+    /**
+     * Part of the cache with its own lock. Entries are kept in the order of access, the least recently used
+     * first.
+     */
+    private static class Stripe {
+        final LinkedHashMap<BlockKey, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+        /** number of bytes of decoded data in the stripe */
+        long size = 0;
+    }
+}
+
+/**
+ * Key of the entry of {@link DecodedBlockCache}: channel of the archive and the offset of coded data in it.
+ * @author Jan Bryda
+ */
+class BlockKey {
+    final ArchiveChannel channel;
+    final long offset;
+
+    BlockKey(ArchiveChannel channel, long offset) {
+        this.channel = channel;
+        this.offset = offset;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof BlockKey && ((BlockKey) other).channel == channel && ((BlockKey) other).offset == offset;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 31 * System.identityHashCode(channel) + Long.hashCode(offset);
+        return hash ^ (hash >>> 16);
+    }
+}
+
+/**
+ * Stream that reads the remaining bytes of a byte buffer.
+ * @author Jan Bryda
+ */
+class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] target, int offset, int length) {
+        if (length == 0)
+            return 0;
+        if (!buffer.hasRemaining())
+            return -1;
+
+        int count = Math.min(length, buffer.remaining());
+        buffer.get(target, offset, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long count) {
+        int skipped = (int) Math.max(0, Math.min(count, buffer.remaining()));
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+}
@@ -0,0 +1,141 @@
+package huffManager.archive;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+
+/**
+ * Read-only {@link SeekableByteChannel} of the decoded data of archive file. Decoding can start only at
+ * restart points of the file: the beginning of the file, the beginning of its chunks (see {@link FileInChunks}),
+ * or any position, when the data are stored verbatim. Reading at given position opens the decoded stream at
+ * the nearest restart point before it and skips the rest, so it decodes at most the data between two restart
+ * points. Reading forward continues with the open stream as long as no restart point is passed.
+ * @author Jan Bryda
+ */
+abstract class DecodedByteChannel implements SeekableByteChannel {
+    /** size of the decoded data */
+    private final long size;
+    /** position of the next read */
+    private long position = 0;
+    /** open decoded stream, or null */
+    private InputStream current;
+    /** position of the next byte of the open stream */
+    private long currentPosition;
+    /** buffer for reading into direct buffers */
+    private byte[] transferBuffer;
+    private boolean open = true;
+
+    /**
+     * Creates new DecodedByteChannel.
+     * @param size size of the decoded data
+     */
+    DecodedByteChannel(long size) {
+        this.size = size;
+    }
+
+    /**
+     * Finds the restart point nearest before given position.
+     * @param position position in decoded data
+     * @return restart point, at most the position
+     */
+    abstract long getRestartPoint(long position);
+
+    /**
+     * Opens the decoded stream that starts at given restart point.
+     * @param restartPoint restart point
+     * @return decoded stream
+     * @throws IOException
+     */
+    abstract InputStream openAt(long restartPoint) throws IOException;
+
+    @Override
+    public int read(ByteBuffer target) throws IOException {
+        checkOpen();
+        if (position >= size)
+            return -1;
+        if (!target.hasRemaining())
+            return 0;
+
+        long restartPoint = getRestartPoint(position);
+        if (current == null || position < currentPosition || restartPoint > currentPosition) {
+            closeCurrent();
+            current = openAt(restartPoint);
+            currentPosition = restartPoint;
+        }
+        SegmentInputStream.skipFully(current, position - currentPosition);
+        currentPosition = position;
+
+        int length = (int) Math.min(target.remaining(), size - position);
+        int read;
+        if (target.hasArray()) {
+            read = current.read(target.array(), target.arrayOffset() + target.position(), length);
+            if (read > 0)
+                target.position(target.position() + read);
+        } else {
+            if (transferBuffer == null)
+                transferBuffer = new byte[ArchiveFile.TRANSFER_BUFFER_SIZE];
+            read = current.read(transferBuffer, 0, Math.min(length, transferBuffer.length));
+            if (read > 0)
+                target.put(transferBuffer, 0, read);
+        }
+
+        if (read == -1)
+            throw new EOFException("Decoded stream ended before the end of file!");
+        position += read;
+        currentPosition += read;
+        return read;
+    }
+
+    @Override
+    public int write(ByteBuffer source) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        checkOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        checkOpen();
+        if (newPosition < 0)
+            throw new IllegalArgumentException("Position can't be negative!");
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        checkOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        closeCurrent();
+    }
+
+    private void closeCurrent() throws IOException {
+        if (current != null)
+            current.close();
+        current = null;
+    }
+
+    private void checkOpen() throws ClosedChannelException {
+        if (!open)
+            throw new ClosedChannelException();
+    }
+}
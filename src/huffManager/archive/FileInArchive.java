@@ -4,9 +4,11 @@ import huffManager.archive.exceptions.UnableToGetStreamException;
 import huffManager.codecs.*;
 import huffManager.codecs.exceptions.*;
 import huffManager.generator.*;
+import huffManager.memory.*;
 import static huffManager.archive.Archive.*;
 
 import java.io.*;
+import java.nio.channels.*;
 
 /**
  * Describes file that is saved in an existing archive. It is therefore easy to get the coded stream, because
@@ -16,11 +18,15 @@ import java.io.*;
  */
 public class FileInArchive extends ArchiveFile {
     private Generator<InputStream> inputGenerator;
+    /** shared channel of the archive file, or null if the archive is read through the input generator */
+    private ArchiveChannel archiveChannel;
     private long offset;
     private long length;
+    /** tells whether the data are stored verbatim, or with escaped special bytes */
+    private boolean rawFraming;
 
     /**
-     * Crates new FileInArchive.
+     * Crates new FileInArchive, whose data are stored with escaped special bytes.
      * @param inputGenerator generator of input stream
      * @param name file name
      * @param size size of file
@@ -29,84 +35,292 @@ public class FileInArchive extends ArchiveFile {
      * @param length length of file data in archive
      */
     public FileInArchive(Generator<InputStream> inputGenerator, String name, long size, long codecID, long offset, long length) {
+        this(inputGenerator, name, size, codecID, offset, length, false);
+    }
+
+    /**
+     * Crates new FileInArchive.
+     * @param inputGenerator generator of input stream
+     * @param name file name
+     * @param size size of file
+     * @param codecID codec ID of codec that codes this file
+     * @param offset offset of file data in archive
+     * @param length length of file data in archive
+     * @param rawFraming true if the data are stored verbatim at physical offset, false if they are stored with
+     *                   escaped special bytes at logical offset
+     */
+    public FileInArchive(Generator<InputStream> inputGenerator, String name, long size, long codecID, long offset, long length,
+                         boolean rawFraming) {
         super(name, size, codecID);
         this.inputGenerator = inputGenerator;
         this.offset = offset;
         this.length = length;
+        this.rawFraming = rawFraming;
+    }
+
+    /**
+     * Crates new FileInArchive, whose data are stored verbatim in archive file read by given shared channel.
+     * @param archiveChannel channel of the archive file
+     * @param name file name
+     * @param size size of file
+     * @param codecID codec ID of codec that codes this file
+     * @param offset physical offset of file data in archive
+     * @param length length of file data in archive
+     */
+    public FileInArchive(ArchiveChannel archiveChannel, String name, long size, long codecID, long offset, long length) {
+        super(name, size, codecID);
+        this.archiveChannel = archiveChannel;
+        this.offset = offset;
+        this.length = length;
+        this.rawFraming = true;
     }
 
     @Override
     public InputStream getCodedStream() throws UnableToGetStreamException {
         try {
-            return new SegmentInputStream(
-                    new FlagInputStream(
-                            new BufferedInputStream(
-                                    inputGenerator.generate(),
-                                    BUFFER_SIZE),
-                            START_OF_HEADER, ESCAPE)
-                    , offset, length);
+            return getSegmentStream();
         } catch (UnableToGenerateException e) {
             throw new UnableToGetStreamException("Unable to get coded stream : could not generate stream!", e);
+        } catch (IOException e) {
+            throw new UnableToGetStreamException("Unable to get coded stream : IO exception occurred!", e);
         }
     }
 
+    /**
+     * Gets the stream of decoded data. Small coded files of archive read through the shared channel are decoded
+     * through the shared cache (see {@link DecodedBlockCache}), so they are decoded once while they stay cached.
+     * @return decoded stream
+     * @throws UnableToGetStreamException
+     */
     @Override
     public InputStream getDecodedStream() throws UnableToGetStreamException {
         try {
             Codec codec = getCodec();
-            Generator<InputStream> generator =
-                    new Generator<>(() ->
-                            new SegmentInputStream(
-                                new FlagInputStream(
-                                        new BufferedInputStream(
-                                                inputGenerator.generate(),
-                                                BUFFER_SIZE),
-                                        START_OF_HEADER, ESCAPE),
-                            offset, length));
+            DecodedBlockCache cache = DecodedBlockCache.getShared();
+            if (archiveChannel != null && !codec.isIdentity() && cache.accepts(size))
+                return cache.getStream(archiveChannel, offset, this::decodeAll);
+
+            return decode(codec);
+        } catch (UnknownCodecException e) {
+            throw new UnableToGetStreamException("Unable to get decoded stream : unknown codec!", e);
+        } catch (IOException e) {
+            throw new UnableToGetStreamException("Unable to get decoded stream : IO exception occurred!", e);
+        }
+    }
+
+    /**
+     * Decodes the whole data of this file into an array.
+     * @return decoded data
+     * @throws IOException when the decoded data do not match the size of file
+     * @throws UnableToGetStreamException
+     */
+    private byte[] decodeAll() throws IOException, UnableToGetStreamException {
+        byte[] decoded = new byte[(int) size];
+        try (DataInputStream input = new DataInputStream(decode(getCodec()))) {
+            input.readFully(decoded);
+            if (input.read() != -1)
+                throw new IOException("Decoded data are longer than file " + name + "!");
+        } catch (UnknownCodecException e) {
+            throw new UnableToGetStreamException("Unable to get decoded stream : unknown codec!", e);
+        }
+        return decoded;
+    }
+
+    /**
+     * Gets the stream that decodes the data stored in archive.
+     * @param codec codec of this file
+     * @return decoded stream
+     * @throws UnableToGetStreamException
+     */
+    private InputStream decode(Codec codec) throws UnableToGetStreamException {
+        try {
+            Generator<InputStream> generator = new Generator<>(this::getSegmentStream);
             return codec.getDecoder().decode(generator);
+        } catch (DecoderException e) {
+            throw new UnableToGetStreamException("Unable to get decoded stream : decoder exception occurred!", e);
+        }
+    }
+
+    /**
+     * Gets the stream that decodes the coded data of this file, which were already read from the archive
+     * together with the data of other files.
+     * @param coded array that holds the coded data
+     * @param start position of the coded data of this file in the array
+     * @return decoded stream
+     * @throws UnableToGetStreamException
+     */
+    InputStream decodeFrom(byte[] coded, int start) throws UnableToGetStreamException {
+        try {
+            Generator<InputStream> generator =
+                    new Generator<>(() -> new ByteArrayInputStream(coded, start, (int) length));
+            return getCodec().getDecoder().decode(generator);
         } catch (UnknownCodecException e) {
             throw new UnableToGetStreamException("Unable to get decoded stream : unknown codec!", e);
         } catch (DecoderException e) {
             throw new UnableToGetStreamException("Unable to get decoded stream : decoder exception occurred!", e);
         }
     }
-}
 
-/**
- * This class serves as an {@link InputStream} that does not read the stream from beginning, but reads the
- * given segment of stream specified with {@link SegmentInputStream#offset} from beginning of file and
- * {@link SegmentInputStream#length} of the segment that should be read.
- * @author Jan Bryda
- */
-class SegmentInputStream extends InputStream {
-    InputStream input;
-    private long offset, length, remainingBytes;
+    @Override
+    public boolean hasCodedData() {
+        return true;
+    }
+
+    @Override
+    public long transferCodedTo(WritableByteChannel channel) throws UnableToGetStreamException, IOException {
+        if (!rawFraming)
+            return super.transferCodedTo(channel);
+
+        if (archiveChannel != null) {
+            archiveChannel.transferTo(offset, length, channel);
+            return length;
+        }
+
+        try (InputStream input = generateInput()) {
+            if (!(input instanceof FileInputStream))
+                return super.transferCodedTo(channel);
+
+            transfer(((FileInputStream) input).getChannel(), offset, length, channel);
+            return length;
+        }
+    }
+
+    @Override
+    public void extractTo(File target) throws UnableToGetStreamException, IOException {
+        boolean identity;
+        try {
+            identity = getCodec().isIdentity();
+        } catch (UnknownCodecException e) {
+            throw new UnableToGetStreamException("Unable to extract file : unknown codec!", e);
+        }
+
+        if (!rawFraming || !identity) {
+            super.extractTo(target);
+            return;
+        }
+
+        // transfers end with EOFException when the archive ends inside the data, copies return fewer bytes
+        if (archiveChannel != null) {
+            try (FileOutputStream output = new FileOutputStream(target)) {
+                archiveChannel.transferTo(offset, length, output.getChannel());
+            }
+            checkExtractedSize(length);
+            return;
+        }
+
+        long extractedSize;
+        try (InputStream input = generateInput();
+             FileOutputStream output = new FileOutputStream(target)) {
+            if (input instanceof FileInputStream) {
+                transfer(((FileInputStream) input).getChannel(), offset, length, output.getChannel());
+                extractedSize = length;
+            } else {
+                extractedSize = copy(new SegmentInputStream(input, offset, length), output.getChannel());
+            }
+        }
+        checkExtractedSize(extractedSize);
+    }
 
     /**
-     * Creates new SegmentInputStream from given input stream, offset and length value.
-     * @param input input stream
-     * @param offset offset (in bytes) from beginning of stream
-     * @param length length (in bytes) of segment that should be read
+     * Opens the channel of the decoded data. Data stored verbatim are read directly at any position, other
+     * data are decoded from the beginning of the file.
+     * @return channel of decoded data
+     * @throws UnableToGetStreamException
      */
-    public SegmentInputStream(InputStream input, long offset, long length) {
-        this.input = input;
-        this.offset = offset;
-        this.length = length;
-
-        remainingBytes = length;
+    @Override
+    public SeekableByteChannel openChannel() throws UnableToGetStreamException {
+        boolean identity;
         try {
-            input.skip(offset);
-        } catch (IOException e) {
-            remainingBytes = 0;
+            identity = getCodec().isIdentity();
+        } catch (UnknownCodecException e) {
+            throw new UnableToGetStreamException("Unable to open channel : unknown codec!", e);
         }
+        if (!rawFraming || !identity)
+            return super.openChannel();
+
+        return new DecodedByteChannel(size) {
+            @Override
+            long getRestartPoint(long position) {
+                return position;
+            }
+
+            @Override
+            InputStream openAt(long restartPoint) throws IOException {
+                if (archiveChannel != null)
+                    return archiveChannel.openSegment(offset + restartPoint, length - restartPoint);
+                try {
+                    return new SegmentInputStream(generateInput(), offset + restartPoint, length - restartPoint);
+                } catch (UnableToGetStreamException e) {
+                    throw new IOException("Unable to get archive stream!", e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Gets the shared channel of the archive file this file is stored in.
+     * @return channel of archive file, or null if the archive is read through the input generator
+     */
+    ArchiveChannel getArchiveChannel() {
+        return archiveChannel;
+    }
+
+    /**
+     * Tells whether the data of this file are stored verbatim in given archive file and read through the shared
+     * channel, so they can be referenced by their physical position in that file.
+     * @param file archive file
+     * @return true if the data of this file are stored in given archive file
+     * @throws IOException
+     */
+    @Override
+    boolean isStoredIn(File file) throws IOException {
+        return archiveChannel != null && archiveChannel.reads(file);
+    }
+
+    /**
+     * Gets the offset of file data in archive.
+     * @return offset of file data
+     */
+    long getOffset() {
+        return offset;
     }
 
-    public int read() throws IOException {
-        if (remainingBytes == 0)
-            return -1;
+    /**
+     * Gets the length of file data in archive.
+     * @return length of file data (in bytes)
+     */
+    long getLength() {
+        return length;
+    }
 
-        remainingBytes--;
-        return input.read();
+    /**
+     * Generates the input stream of the whole archive.
+     * @return input stream of the archive
+     * @throws UnableToGetStreamException
+     */
+    private InputStream generateInput() throws UnableToGetStreamException {
+        try {
+            return inputGenerator.generate();
+        } catch (UnableToGenerateException e) {
+            throw new UnableToGetStreamException("Unable to get archive stream : could not generate stream!", e);
+        }
     }
 
-}
\ No newline at end of file
+    /**
+     * Gets the stream of the file data segment as it is stored in archive.
+     * @return stream of the coded data
+     * @throws UnableToGenerateException
+     * @throws IOException when the archive stream ends before the file data
+     */
+    private InputStream getSegmentStream() throws UnableToGenerateException, IOException {
+        if (archiveChannel != null)
+            return archiveChannel.openSegment(offset, length);
+
+        InputStream input = new PooledBufferedInputStream(inputGenerator.generate(),
+                BufferPool.sizeFor(rawFraming ? length : -1, BUFFER_SIZE));
+        if (rawFraming)
+            return new SegmentInputStream(input, offset, length);
+        else
+            return new SegmentInputStream(new FlagInputStream(input, START_OF_HEADER, ESCAPE), offset, length);
+    }
+}
@@ -0,0 +1,18 @@
+package huffManager.archive;
+
+/**
+ * Class that describes file that is stored in archive. It captures properties of file in archive like
+ * offset at which it is stored and length of file in archive.
+ * @author Jan Bryda
+ */
+class FileInArchiveInfo {
+    /** physical offset at which the file is stored in the archive (in bytes) */
+    public long offset;
+    /** length of actual file data in archive (in bytes) */
+    public long length;
+
+    public FileInArchiveInfo(long offset, long length) {
+        this.offset = offset;
+        this.length = length;
+    }
+}
@@ -0,0 +1,119 @@
+package huffManager.archive;
+
+import huffManager.archive.exceptions.UnableToGetStreamException;
+import huffManager.codecs.exceptions.*;
+import huffManager.generator.*;
+
+import java.io.*;
+import java.nio.channels.SeekableByteChannel;
+import java.util.*;
+
+/**
+ * Describes file that is saved in an existing archive as a list of chunks from the chunk store of the archive.
+ * Chunks are coded and stored once, even if they are shared by several files or occur several times in one
+ * file. The decoded data of file are the concatenation of decoded chunks.
+ * @author Jan Bryda
+ */
+public class FileInChunks extends ArchiveFile {
+    /** chunks of the file, in their order */
+    private List<FileInArchive> chunks;
+    /** fingerprints of the chunks contents */
+    private List<byte[]> fingerprints;
+
+    /**
+     * Creates new FileInChunks.
+     * @param name file name
+     * @param size size of file
+     * @param codecID codec ID of the chunks
+     * @param chunks chunks of the file, in their order
+     * @param fingerprints fingerprints of the chunks contents
+     */
+    public FileInChunks(String name, long size, long codecID, List<FileInArchive> chunks, List<byte[]> fingerprints) {
+        super(name, size, codecID);
+        this.chunks = chunks;
+        this.fingerprints = fingerprints;
+    }
+
+    /**
+     * Gets the chunks of this file.
+     * @return chunks in their order
+     */
+    List<FileInArchive> getChunks() {
+        return chunks;
+    }
+
+    /**
+     * Gets the fingerprints of chunks of this file.
+     * @return fingerprints in the order of chunks
+     */
+    List<byte[]> getFingerprints() {
+        return fingerprints;
+    }
+
+    @Override
+    boolean isStoredIn(File file) throws IOException {
+        for (FileInArchive chunk : chunks) {
+            if (!chunk.isStoredIn(file))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the coded stream of this file alone. The data of the file are coded again with the codec of
+     * the chunks, because the coded chunks can't be joined.
+     * @return coded stream
+     * @throws UnableToGetStreamException
+     */
+    @Override
+    public InputStream getCodedStream() throws UnableToGetStreamException {
+        try {
+            return getCodec().getCoder().code(new Generator<>(this::getDecodedStream));
+        } catch (UnknownCodecException e) {
+            throw new UnableToGetStreamException("Unable to get coded stream : unknown codec!", e);
+        } catch (CoderException e) {
+            throw new UnableToGetStreamException("Unable to get coded stream : coder exception occurred!", e);
+        }
+    }
+
+    @Override
+    public InputStream getDecodedStream() throws UnableToGetStreamException {
+        return new ChunksInputStream(chunks);
+    }
+
+    /**
+     * Opens the channel of the decoded data, whose restart points are the starts of chunks. Reading at any
+     * position decodes at most one chunk before it.
+     * @return channel of decoded data
+     */
+    @Override
+    public SeekableByteChannel openChannel() {
+        long[] chunkStarts = new long[chunks.size()];
+        for (int i = 1; i < chunkStarts.length; i++)
+            chunkStarts[i] = chunkStarts[i - 1] + chunks.get(i - 1).getSize();
+
+        return new DecodedByteChannel(size) {
+            @Override
+            long getRestartPoint(long position) {
+                return chunkStarts.length == 0 ? 0 : chunkStarts[findChunk(chunkStarts, position)];
+            }
+
+            @Override
+            InputStream openAt(long restartPoint) {
+                int first = findChunk(chunkStarts, restartPoint);
+                return new ChunksInputStream(chunks.subList(first, chunks.size()));
+            }
+        };
+    }
+
+    /**
+     * Finds the last chunk that starts at or before given position.
+     * @param chunkStarts positions of chunks in decoded data
+     * @param position position in decoded data
+     * @return index of chunk
+     */
+    private static int findChunk(long[] chunkStarts, long position) {
+        int index = Arrays.binarySearch(chunkStarts, position);
+        return index < 0 ? -index - 2 : index;
+    }
+}
@@ -0,0 +1,80 @@
+package huffManager.archive;
+
+import huffManager.archive.exceptions.UnableToGetStreamException;
+import huffManager.codecs.exceptions.*;
+import huffManager.generator.*;
+
+import java.io.*;
+
+/**
+ * Describes file that is saved in a solid block of an existing archive. Solid block is a concatenation of data
+ * of several small files, that is coded as a whole with one codec. The decoded data of file are read by decoding
+ * its block up to the end of the file, so the cost of reading is bounded by the size of the block.
+ * @author Jan Bryda
+ */
+public class FileInSolidBlock extends ArchiveFile {
+    /** solid block, stored in archive as one file, which contains the data of this file */
+    private FileInArchive block;
+    /** offset of the file data in the decoded block */
+    private long offsetInBlock;
+
+    /**
+     * Creates new FileInSolidBlock.
+     * @param block solid block containing the file
+     * @param name file name
+     * @param size size of file
+     * @param offsetInBlock offset of the file data in the decoded block
+     */
+    public FileInSolidBlock(FileInArchive block, String name, long size, long offsetInBlock) {
+        super(name, size, block.getCodecID());
+        this.block = block;
+        this.offsetInBlock = offsetInBlock;
+    }
+
+    /**
+     * Gets the solid block containing this file.
+     * @return solid block
+     */
+    FileInArchive getBlock() {
+        return block;
+    }
+
+    /**
+     * Gets the offset of the file data in the decoded block.
+     * @return offset in block
+     */
+    long getOffsetInBlock() {
+        return offsetInBlock;
+    }
+
+    @Override
+    boolean isStoredIn(File file) throws IOException {
+        return block.isStoredIn(file);
+    }
+
+    /**
+     * Gets the coded stream of this file alone. The data of the file are coded again with the codec of the
+     * block, because the coded block can't be split.
+     * @return coded stream
+     * @throws UnableToGetStreamException
+     */
+    @Override
+    public InputStream getCodedStream() throws UnableToGetStreamException {
+        try {
+            return getCodec().getCoder().code(new Generator<>(this::getDecodedStream));
+        } catch (UnknownCodecException e) {
+            throw new UnableToGetStreamException("Unable to get coded stream : unknown codec!", e);
+        } catch (CoderException e) {
+            throw new UnableToGetStreamException("Unable to get coded stream : coder exception occurred!", e);
+        }
+    }
+
+    @Override
+    public InputStream getDecodedStream() throws UnableToGetStreamException {
+        try {
+            return new SegmentInputStream(block.getDecodedStream(), offsetInBlock, size);
+        } catch (IOException e) {
+            throw new UnableToGetStreamException("Unable to get decoded stream : IO exception occurred!", e);
+        }
+    }
+}
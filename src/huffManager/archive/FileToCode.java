@@ -4,9 +4,12 @@ import huffManager.archive.exceptions.*;
 import huffManager.codecs.*;
 import huffManager.codecs.exceptions.*;
 import huffManager.generator.*;
+import huffManager.memory.*;
 import static huffManager.archive.Archive.*;
 
 import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.StandardOpenOption;
 
 /**
  * This class represents file that is not yet stored in an archive but in some external location. It is therefore
@@ -16,6 +19,8 @@ import java.io.*;
  */
 public class FileToCode extends ArchiveFile {
     Generator<InputStream> inputGenerator;
+    /** file on disk that the data are read from, or null if the data are not read from a file */
+    File sourceFile;
 
     /**
      * Creates new FileToCode with specified path to file and codec.
@@ -27,6 +32,8 @@ public class FileToCode extends ArchiveFile {
                 new File(path).getName(),
                 new File(path).length(),
                 codec.getID());
+        this.sourceFile = new File(path);
+        this.modifiedTime = sourceFile.lastModified();
     }
 
     /**
@@ -45,9 +52,9 @@ public class FileToCode extends ArchiveFile {
     public InputStream getCodedStream() throws UnableToGetStreamException {
         try {
             Coder coder = Codecs.getCodecByID(codecID).getCoder();
-            return new BufferedInputStream(
+            return new PooledBufferedInputStream(
                     coder.code(inputGenerator),
-                    BUFFER_SIZE);
+                    BufferPool.sizeFor(size, BUFFER_SIZE));
         } catch (UnknownCodecException e) {
             throw new UnableToGetStreamException("Unable to get coded stream : unknown codec!", e);
         } catch (CoderException e) {
@@ -55,12 +62,58 @@ public class FileToCode extends ArchiveFile {
         }
     }
 
+    @Override
+    public boolean hasCodedData() {
+        try {
+            return sourceFile != null && getCodec().isIdentity();
+        } catch (UnknownCodecException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public long transferCodedTo(WritableByteChannel channel) throws UnableToGetStreamException, IOException {
+        boolean identity;
+        try {
+            identity = getCodec().isIdentity();
+        } catch (UnknownCodecException e) {
+            throw new UnableToGetStreamException("Unable to transfer coded data : unknown codec!", e);
+        }
+
+        if (sourceFile == null || !identity)
+            return super.transferCodedTo(channel);
+
+        try (FileInputStream input = new FileInputStream(sourceFile)) {
+            FileChannel sourceChannel = input.getChannel();
+            long length = sourceChannel.size();
+            transfer(sourceChannel, 0, length, channel);
+            return length;
+        }
+    }
+
+    /**
+     * Opens the channel of the source file, if the file was created from a path.
+     * @return channel of decoded data
+     * @throws UnableToGetStreamException
+     */
+    @Override
+    public SeekableByteChannel openChannel() throws UnableToGetStreamException {
+        if (sourceFile == null)
+            return super.openChannel();
+
+        try {
+            return FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new UnableToGetStreamException("Unable to open channel : failed to open source file!", e);
+        }
+    }
+
     @Override
     public InputStream getDecodedStream() throws UnableToGetStreamException {
         try {
-            return new BufferedInputStream(
+            return new PooledBufferedInputStream(
                     inputGenerator.generate(),
-                    BUFFER_SIZE);
+                    BufferPool.sizeFor(size, BUFFER_SIZE));
         } catch (UnableToGenerateException e) {
             throw new UnableToGetStreamException("Unable to get decoded stream : failed to generate stream!", e);
         }
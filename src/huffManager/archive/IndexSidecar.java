@@ -0,0 +1,155 @@
+package huffManager.archive;
+
+import huffManager.archive.exceptions.BadArchiveFormatException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+
+/**
+ * Sidecar file of archive, which holds the index of files of an archive that has no index stored in it, so the
+ * archive can be reopened without loading its header. Sidecar is stored next to the archive file, its name is
+ * the name of archive followed by {@link IndexSidecar#SUFFIX}. It consists of:
+ * <ul>
+ *     <li>sidecar identifier (long)</li>
+ *     <li>stamp of the archive file: its size, time of last modification and checksum of its last
+ *     {@link IndexSidecar#STAMP_TAIL_SIZE} bytes, which hold the footer and usually the end of the header
+ *     (longs)</li>
+ *     <li>index of files in the layout of {@link PersistedArchiveIndex}</li>
+ * </ul>
+ * The index is read by memory mapping. Sidecar is used only while the stamp matches the archive file, otherwise
+ * it is rebuilt. Taking the stamp reads only the end of the archive, so reopening does not depend on the size of
+ * the header.
+ * <p>
+ * Only archive files with data stored verbatim at physical offsets (indexed archives, see
+ * {@link Archive#FLAG_RAW_FRAMING}) have sidecars, as the records of the index address the data that way. Data
+ * of legacy archives are stored with escaped bytes, and volume sets are not single files, these are always
+ * loaded.
+ * @author Jan Bryda
+ */
+class IndexSidecar {
+    /** suffix of the name of sidecar file */
+    static final String SUFFIX = ".hidx";
+    /** identifier of sidecar file */
+    private static final long IDENTIFIER = 0x48554646494458L;
+    /** size of the identifier and the stamp */
+    private static final int PREAMBLE_SIZE = 4 * 8;
+    /** number of bytes at the end of archive file covered by the checksum of stamp */
+    static final int STAMP_TAIL_SIZE = 64 * 1024;
+
+    /**
+     * Stamp of the archive file, which tells whether the file was changed.
+     */
+    static class Stamp {
+        final long size;
+        final long modifiedTime;
+        final long checksum;
+
+        Stamp(long size, long modifiedTime, long checksum) {
+            this.size = size;
+            this.modifiedTime = modifiedTime;
+            this.checksum = checksum;
+        }
+
+        /**
+         * Creates the stamp of the archive file. Last {@link IndexSidecar#STAMP_TAIL_SIZE} bytes of the archive
+         * are read to compute the checksum, every update of the archive rewrites its header and footer there.
+         * @param archiveFile archive file
+         * @param channel channel of the archive file
+         * @return stamp
+         * @throws IOException
+         */
+        static Stamp of(File archiveFile, ArchiveChannel channel) throws IOException {
+            long modifiedTime = archiveFile.lastModified();
+            long size = channel.size();
+
+            int tailSize = (int) Math.min(size, STAMP_TAIL_SIZE);
+            byte[] tail = new byte[tailSize];
+            try (DataInputStream input = new DataInputStream(channel.openSegment(size - tailSize, tailSize))) {
+                input.readFully(tail);
+            }
+            CRC32 checksum = new CRC32();
+            checksum.update(tail, 0, tailSize);
+            return new Stamp(size, modifiedTime, checksum.getValue());
+        }
+
+        boolean matches(ByteBuffer preamble) {
+            return preamble.getLong(8) == size && preamble.getLong(16) == modifiedTime
+                    && preamble.getLong(24) == checksum;
+        }
+    }
+
+    /**
+     * Gets the sidecar file of the archive file.
+     * @param archiveFile archive file
+     * @return sidecar file, it may not exist
+     */
+    static File getFile(File archiveFile) {
+        return new File(archiveFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * Opens the index in the sidecar file of the archive, if there is one and the archive was not changed since
+     * it was written. Sidecar file is mapped, its channel is closed right away.
+     * @param archiveFile archive file
+     * @param channel channel of the archive file, the index reads the data of files through it
+     * @param stamp current stamp of the archive file
+     * @return opened index, or null if there is no valid sidecar
+     * @throws IOException
+     */
+    static PersistedArchiveIndex open(File archiveFile, ArchiveChannel channel, Stamp stamp) throws IOException {
+        File sidecarFile = getFile(archiveFile);
+        if (!sidecarFile.isFile())
+            return null;
+
+        ByteBuffer sidecar;
+        try (FileChannel sidecarChannel = FileChannel.open(sidecarFile.toPath(), StandardOpenOption.READ)) {
+            if (sidecarChannel.size() < PREAMBLE_SIZE)
+                return null;
+            sidecar = sidecarChannel.map(FileChannel.MapMode.READ_ONLY, 0, sidecarChannel.size());
+        }
+        if (sidecar.getLong(0) != IDENTIFIER || !stamp.matches(sidecar))
+            return null;
+
+        sidecar.position(PREAMBLE_SIZE);
+        try {
+            return PersistedArchiveIndex.open(channel, sidecar.slice());
+        } catch (BadArchiveFormatException e) {
+            // damaged sidecar is rebuilt
+            return null;
+        }
+    }
+
+    /**
+     * Writes the sidecar file of the loaded archive. It is written into a temporary file, which then replaces
+     * the sidecar, so readers never see a partly written sidecar. No sidecar is written when the index would be
+     * too long to be mapped.
+     * @param archiveFile archive file
+     * @param archive archive loaded from the file
+     * @param stamp stamp of the archive file taken before the archive was loaded
+     * @throws IOException
+     */
+    static void write(File archiveFile, Archive archive, Stamp stamp) throws IOException {
+        File sidecarFile = getFile(archiveFile);
+        File temporaryFile =
+                File.createTempFile(sidecarFile.getName(), ".tmp", sidecarFile.getAbsoluteFile().getParentFile());
+        try {
+            try (DataOutputStream dataOutput = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temporaryFile), ArchiveFile.TRANSFER_BUFFER_SIZE))) {
+                dataOutput.writeLong(IDENTIFIER);
+                dataOutput.writeLong(stamp.size);
+                dataOutput.writeLong(stamp.modifiedTime);
+                dataOutput.writeLong(stamp.checksum);
+                if (!PersistedArchiveIndex.write(dataOutput, new MemoryArchiveIndex(archive.getRootDirectory()),
+                        PersistedArchiveIndex.MAX_LENGTH - PREAMBLE_SIZE))
+                    return;
+            }
+            Files.move(temporaryFile.toPath(), sidecarFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temporaryFile.delete();
+        }
+    }
+}
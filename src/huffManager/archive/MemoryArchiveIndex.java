@@ -0,0 +1,53 @@
+package huffManager.archive;
+
+import java.util.*;
+
+/**
+ * Index that is built from the directory structure in memory. It holds the hash map from full paths to files
+ * and the sorted array of paths.
+ * @author Jan Bryda
+ */
+class MemoryArchiveIndex extends ArchiveIndex {
+    private final Map<String, ArchiveFile> files = new HashMap<>();
+    private final String[] sortedPaths;
+
+    /**
+     * Builds the index of all files in given root directory.
+     * @param rootDirectory root directory of the archive
+     */
+    MemoryArchiveIndex(ArchiveDirectory rootDirectory) {
+        addDirectory(rootDirectory, "");
+        sortedPaths = files.keySet().toArray(new String[files.size()]);
+        Arrays.sort(sortedPaths);
+    }
+
+    private void addDirectory(ArchiveDirectory directory, String directoryPath) {
+        for (ArchiveFile file : directory.files)
+            files.put(childPath(directoryPath, file.getName()), file);
+
+        for (ArchiveDirectory subdirectory : directory.subdirectories)
+            addDirectory(subdirectory, childPath(directoryPath, subdirectory.getName()));
+    }
+
+    @Override
+    public ArchiveFile lookup(String path) {
+        return files.get(path);
+    }
+
+    @Override
+    public List<String> list(String prefix) {
+        int position = Arrays.binarySearch(sortedPaths, prefix);
+        if (position < 0)
+            position = -position - 1;
+
+        List<String> result = new ArrayList<>();
+        while (position < sortedPaths.length && sortedPaths[position].startsWith(prefix))
+            result.add(sortedPaths[position++]);
+        return result;
+    }
+
+    @Override
+    public int size() {
+        return sortedPaths.length;
+    }
+}
@@ -0,0 +1,430 @@
+package huffManager.archive;
+
+import huffManager.archive.exceptions.BadArchiveFormatException;
+import static huffManager.archive.Archive.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Index of files that is stored in the archive file right after the header. It is read by memory mapping, so
+ * the directory structure does not have to be loaded to find a file. The index consists of:
+ * <ul>
+ *     <li>layout version (negative int), number of files and size of the hash table (ints)</li>
+ *     <li>positions of file records sorted by their paths (longs)</li>
+ *     <li>hash table of path hashes with linear probing, slot holds number of file in sorted order + 1 (ints)</li>
+ *     <li>file records: length of path, path in UTF-8, kind of record, codec ID, size, offset and length of data;
+ *     records of files in solid blocks describe the data of the block and add the size of the block and
+ *     the offset of the file in the block; records of files stored as chunk lists add the number of chunks
+ *     and the size, offset, length and fingerprint of every chunk</li>
+ * </ul>
+ * Positions of records are relative to the start of the index. The first layout, which had no version, no
+ * kinds of records and no solid blocks, is still read. Index is at most {@link PersistedArchiveIndex#MAX_LENGTH}
+ * bytes long, so it can be mapped as one buffer; bigger index is not written at all.
+ * @author Jan Bryda
+ */
+class PersistedArchiveIndex extends ArchiveIndex {
+    private final ArchiveChannel archiveChannel;
+    private final ByteBuffer index;
+    private final int version;
+    /** size of the part before the positions of records */
+    private final int headerSize;
+    private final int count;
+    private final int tableSize;
+
+    private PersistedArchiveIndex(ArchiveChannel archiveChannel, ByteBuffer index) throws BadArchiveFormatException {
+        this.archiveChannel = archiveChannel;
+        this.index = index;
+        if (index.capacity() < 8)
+            throw new BadArchiveFormatException("Archive index : index is too short!");
+
+        int first = index.getInt(0);
+        this.version = first < 0 ? -first : 1;
+        this.headerSize = first < 0 ? 12 : 8;
+        if (version > VERSION || index.capacity() < headerSize)
+            throw new BadArchiveFormatException("Archive index : unknown index version!");
+
+        this.count = index.getInt(headerSize - 8);
+        this.tableSize = index.getInt(headerSize - 4);
+        if (count < 0 || tableSize <= 0 || Integer.bitCount(tableSize) != 1
+                || headerSize + 8L * count + 4L * tableSize > index.capacity())
+            throw new BadArchiveFormatException("Archive index : index is damaged!");
+    }
+
+    /**
+     * Opens the index stored in given segment of archive file.
+     * @param archiveChannel channel of the archive file
+     * @param offset physical offset of the index
+     * @param length length of the index (in bytes)
+     * @return opened index
+     * @throws IOException
+     * @throws BadArchiveFormatException
+     */
+    static PersistedArchiveIndex open(ArchiveChannel archiveChannel, long offset, long length)
+            throws IOException, BadArchiveFormatException {
+        return new PersistedArchiveIndex(archiveChannel, archiveChannel.map(offset, length));
+    }
+
+    /**
+     * Opens the index held by the buffer, e.g. the mapped sidecar file of the archive, see {@link IndexSidecar}.
+     * @param archiveChannel channel of the archive file, which the data of files are read through
+     * @param index buffer with the index
+     * @return opened index
+     * @throws BadArchiveFormatException
+     */
+    static PersistedArchiveIndex open(ArchiveChannel archiveChannel, ByteBuffer index) throws BadArchiveFormatException {
+        return new PersistedArchiveIndex(archiveChannel, index);
+    }
+
+    /**
+     * Writes the index of files into the output stream.
+     * @param dataOutput output stream
+     * @param memoryIndex index of files in the saved archive
+     * @param saver saver that recorded the positions of files data, solid blocks and chunks in the saved archive
+     * @return true if the index was written, false if it would be longer than
+     * {@link PersistedArchiveIndex#MAX_LENGTH} and nothing was written
+     * @throws IOException
+     */
+    static boolean write(DataOutputStream dataOutput, MemoryArchiveIndex memoryIndex, ArchiveSaver saver)
+            throws IOException {
+        Map<ArchiveFile, FileInArchiveInfo> fileInfos = saver.fileInfos;
+        return write(dataOutput, memoryIndex, MAX_LENGTH, file -> {
+            SolidMember member = saver.solidMembers.get(file);
+            if (member != null) {
+                FileInArchiveInfo info = fileInfos.get(member.block);
+                return IndexRecord.solid(file, info.offset, info.length, member.block.getSize(), member.offsetInBlock);
+            }
+
+            int[] chunkList = saver.chunkedFiles.get(file);
+            if (chunkList != null) {
+                IndexRecord record = IndexRecord.chunked(file);
+                for (int number : chunkList) {
+                    ArchiveFile chunk = saver.chunks.get(number);
+                    FileInArchiveInfo info = fileInfos.get(chunk);
+                    record.addChunk(chunk.getSize(), info.offset, info.length, saver.chunkFingerprints.get(number));
+                }
+                return record;
+            }
+
+            FileInArchiveInfo info = fileInfos.get(file);
+            return IndexRecord.stored(file, info.offset, info.length);
+        });
+    }
+
+    /**
+     * Writes the index of files of loaded archive into the output stream. Positions of the data are taken from
+     * the loaded files.
+     * @param dataOutput output stream
+     * @param memoryIndex index of files in the loaded archive
+     * @param maxLength maximal length of the index (in bytes), at most {@link PersistedArchiveIndex#MAX_LENGTH}
+     * @return true if the index was written, false if it would be longer than given length and nothing was
+     * written
+     * @throws IOException
+     */
+    static boolean write(DataOutputStream dataOutput, MemoryArchiveIndex memoryIndex, long maxLength)
+            throws IOException {
+        return write(dataOutput, memoryIndex, maxLength, file -> {
+            if (file instanceof FileInSolidBlock) {
+                FileInSolidBlock member = (FileInSolidBlock) file;
+                FileInArchive block = member.getBlock();
+                return IndexRecord.solid(file, block.getOffset(), block.getLength(), block.getSize(),
+                        member.getOffsetInBlock());
+            }
+            if (file instanceof FileInChunks) {
+                IndexRecord record = IndexRecord.chunked(file);
+                List<FileInArchive> chunks = ((FileInChunks) file).getChunks();
+                List<byte[]> fingerprints = ((FileInChunks) file).getFingerprints();
+                for (int i = 0; i < chunks.size(); i++) {
+                    FileInArchive chunk = chunks.get(i);
+                    record.addChunk(chunk.getSize(), chunk.getOffset(), chunk.getLength(), fingerprints.get(i));
+                }
+                return record;
+            }
+
+            FileInArchive stored = (FileInArchive) file;
+            return IndexRecord.stored(file, stored.getOffset(), stored.getLength());
+        });
+    }
+
+    /**
+     * Writes the index of files, whose records are described by given function.
+     * @param dataOutput output stream
+     * @param memoryIndex index of files
+     * @param maxLength maximal length of the index (in bytes)
+     * @param records function giving the record of file
+     * @return true if the index was written, false if it would be longer than given length and nothing was
+     * written
+     * @throws IOException
+     */
+    private static boolean write(DataOutputStream dataOutput, MemoryArchiveIndex memoryIndex, long maxLength,
+                                 Function<ArchiveFile, IndexRecord> records) throws IOException {
+        List<String> paths = memoryIndex.list("");
+        int count = paths.size();
+        int tableSize = Integer.highestOneBit(Math.max(1, count) * 2 - 1) * 2;
+
+        int[] table = new int[tableSize];
+        byte[][] encodedPaths = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            encodedPaths[i] = paths.get(i).getBytes(StandardCharsets.UTF_8);
+            int slot = hash(paths.get(i)) & (tableSize - 1);
+            while (table[slot] != 0)
+                slot = (slot + 1) & (tableSize - 1);
+            table[slot] = i + 1;
+        }
+
+        IndexRecord[] fileRecords = new IndexRecord[count];
+        for (int i = 0; i < count; i++)
+            fileRecords[i] = records.apply(memoryIndex.lookup(paths.get(i)));
+
+        long[] recordPositions = new long[count];
+        long recordPosition = 12L + 8L * count + 4L * tableSize;
+        for (int i = 0; i < count; i++) {
+            recordPositions[i] = recordPosition;
+            recordPosition += RECORD_FIXED_SIZE + encodedPaths[i].length;
+            if (fileRecords[i].kind == KIND_SOLID)
+                recordPosition += SOLID_RECORD_EXTRA_SIZE;
+            if (fileRecords[i].kind == KIND_CHUNKED)
+                recordPosition += 4 + (long) CHUNK_ENTRY_SIZE * fileRecords[i].chunks.size();
+        }
+        if (recordPosition > maxLength)
+            return false;
+
+        dataOutput.writeInt(-VERSION);
+        dataOutput.writeInt(count);
+        dataOutput.writeInt(tableSize);
+        for (long position : recordPositions)
+            dataOutput.writeLong(position);
+
+        for (int slot : table)
+            dataOutput.writeInt(slot);
+
+        for (int i = 0; i < count; i++) {
+            IndexRecord record = fileRecords[i];
+            dataOutput.writeInt(encodedPaths[i].length);
+            dataOutput.write(encodedPaths[i]);
+            dataOutput.writeByte(record.kind);
+            dataOutput.writeLong(record.file.getCodecID());
+            dataOutput.writeLong(record.file.getSize());
+            if (record.kind == KIND_CHUNKED) {
+                dataOutput.writeLong(0);
+                dataOutput.writeLong(0);
+                dataOutput.writeInt(record.chunks.size());
+                for (int j = 0; j < record.chunks.size(); j++) {
+                    long[] chunk = record.chunks.get(j);
+                    dataOutput.writeLong(chunk[0]);
+                    dataOutput.writeLong(chunk[1]);
+                    dataOutput.writeLong(chunk[2]);
+                    dataOutput.write(record.fingerprints.get(j));
+                }
+                continue;
+            }
+
+            dataOutput.writeLong(record.offset);
+            dataOutput.writeLong(record.length);
+            if (record.kind == KIND_SOLID) {
+                dataOutput.writeLong(record.blockSize);
+                dataOutput.writeLong(record.offsetInBlock);
+            }
+        }
+        return true;
+    }
+
+    /** current version of the index layout */
+    private static final int VERSION = 2;
+    /** maximal length of the index (in bytes), the longest buffer that can be mapped */
+    static final long MAX_LENGTH = Integer.MAX_VALUE;
+    /** kind of record of file whose data are stored on their own */
+    static final byte KIND_STORED = 0;
+    /** kind of record of file stored in a solid block */
+    static final byte KIND_SOLID = 1;
+    /** kind of record of file stored as a list of chunks */
+    static final byte KIND_CHUNKED = 2;
+    /** size of the file record without the path */
+    private static final int RECORD_FIXED_SIZE = 4 + 1 + 4 * 8;
+    /** size of the part of the record that only files in solid blocks have */
+    private static final int SOLID_RECORD_EXTRA_SIZE = 2 * 8;
+    /** size of the description of one chunk in the record of file stored as a list of chunks */
+    private static final int CHUNK_ENTRY_SIZE = 3 * 8 + FINGERPRINT_LENGTH;
+
+    /**
+     * Hash of the path used in the hash table. It has to be the same in every run of the program, so it is
+     * derived from {@link String#hashCode()} whose value is specified.
+     * @param path full path
+     * @return hash of the path
+     */
+    static int hash(String path) {
+        int h = path.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    @Override
+    public ArchiveFile lookup(String path) {
+        byte[] encodedPath = path.getBytes(StandardCharsets.UTF_8);
+        int slot = hash(path) & (tableSize - 1);
+
+        for (int probes = 0; probes < tableSize; probes++) {
+            int number = index.getInt(slotPosition(slot));
+            if (number == 0)
+                return null;
+
+            long recordPosition = getRecordPosition(number - 1);
+            if (pathEquals(recordPosition, encodedPath))
+                return readFile(recordPosition, path);
+
+            slot = (slot + 1) & (tableSize - 1);
+        }
+        return null;
+    }
+
+    @Override
+    public List<String> list(String prefix) {
+        int low = 0, high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (readPath(getRecordPosition(middle)).compareTo(prefix) < 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        List<String> result = new ArrayList<>();
+        for (int i = low; i < count; i++) {
+            String path = readPath(getRecordPosition(i));
+            if (!path.startsWith(prefix))
+                break;
+            result.add(path);
+        }
+        return result;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    private int slotPosition(int slot) {
+        return headerSize + 8 * count + 4 * slot;
+    }
+
+    private int getRecordPosition(int number) {
+        return (int) index.getLong(headerSize + 8 * number);
+    }
+
+    private boolean pathEquals(long recordPosition, byte[] encodedPath) {
+        int position = (int) recordPosition;
+        if (index.getInt(position) != encodedPath.length)
+            return false;
+
+        for (int i = 0; i < encodedPath.length; i++) {
+            if (index.get(position + 4 + i) != encodedPath[i])
+                return false;
+        }
+        return true;
+    }
+
+    private String readPath(long recordPosition) {
+        int position = (int) recordPosition;
+        byte[] encodedPath = new byte[index.getInt(position)];
+        for (int i = 0; i < encodedPath.length; i++)
+            encodedPath[i] = index.get(position + 4 + i);
+        return new String(encodedPath, StandardCharsets.UTF_8);
+    }
+
+    private ArchiveFile readFile(long recordPosition, String path) {
+        int position = (int) recordPosition + 4 + index.getInt((int) recordPosition);
+        String name = path.substring(path.lastIndexOf(SEPARATOR) + 1);
+        byte kind = KIND_STORED;
+        if (version >= 2)
+            kind = index.get(position++);
+
+        if (kind == KIND_SOLID) {
+            FileInArchive block = new FileInArchive(archiveChannel, "solid block",
+                    index.getLong(position + 32),
+                    index.getLong(position),
+                    index.getLong(position + 16),
+                    index.getLong(position + 24));
+            return new FileInSolidBlock(block, name, index.getLong(position + 8), index.getLong(position + 40));
+        }
+
+        if (kind == KIND_CHUNKED) {
+            long codecID = index.getLong(position);
+            int chunkCount = index.getInt(position + 32);
+            List<FileInArchive> chunks = new ArrayList<>(chunkCount);
+            List<byte[]> fingerprints = new ArrayList<>(chunkCount);
+            for (int i = 0, entry = position + 36; i < chunkCount; i++, entry += CHUNK_ENTRY_SIZE) {
+                chunks.add(new FileInArchive(archiveChannel, "chunk",
+                        index.getLong(entry), codecID, index.getLong(entry + 8), index.getLong(entry + 16)));
+                byte[] fingerprint = new byte[FINGERPRINT_LENGTH];
+                for (int j = 0; j < FINGERPRINT_LENGTH; j++)
+                    fingerprint[j] = index.get(entry + 24 + j);
+                fingerprints.add(fingerprint);
+            }
+            return new FileInChunks(name, index.getLong(position + 8), codecID, chunks, fingerprints);
+        }
+
+        return new FileInArchive(archiveChannel, name,
+                index.getLong(position + 8),
+                index.getLong(position),
+                index.getLong(position + 16),
+                index.getLong(position + 24));
+    }
+
+    @Override
+    public void close() throws IOException {
+        archiveChannel.close();
+    }
+}
+
+/**
+ * Description of the record of one file in {@link PersistedArchiveIndex}: where the data of the file are stored.
+ * @author Jan Bryda
+ */
+class IndexRecord {
+    final ArchiveFile file;
+    final byte kind;
+    /** offset and length of the data of stored file, or of the solid block */
+    long offset, length;
+    /** size of the solid block and offset of the file in it */
+    long blockSize, offsetInBlock;
+    /** size, offset and length of data of the chunks of file stored as a list of chunks, and their fingerprints */
+    final List<long[]> chunks = new ArrayList<>();
+    final List<byte[]> fingerprints = new ArrayList<>();
+
+    private IndexRecord(ArchiveFile file, byte kind) {
+        this.file = file;
+        this.kind = kind;
+    }
+
+    static IndexRecord stored(ArchiveFile file, long offset, long length) {
+        IndexRecord record = new IndexRecord(file, PersistedArchiveIndex.KIND_STORED);
+        record.offset = offset;
+        record.length = length;
+        return record;
+    }
+
+    static IndexRecord solid(ArchiveFile file, long offset, long length, long blockSize, long offsetInBlock) {
+        IndexRecord record = new IndexRecord(file, PersistedArchiveIndex.KIND_SOLID);
+        record.offset = offset;
+        record.length = length;
+        record.blockSize = blockSize;
+        record.offsetInBlock = offsetInBlock;
+        return record;
+    }
+
+    static IndexRecord chunked(ArchiveFile file) {
+        return new IndexRecord(file, PersistedArchiveIndex.KIND_CHUNKED);
+    }
+
+    void addChunk(long size, long offset, long length, byte[] fingerprint) {
+        chunks.add(new long[]{size, offset, length});
+        fingerprints.add(fingerprint);
+    }
+}
@@ -0,0 +1,82 @@
+package huffManager.archive;
+
+import java.io.*;
+
+/**
+ * This class serves as an {@link InputStream} that does not read the stream from beginning, but reads the
+ * given segment of stream specified with {@link SegmentInputStream#offset} from beginning of file and
+ * {@link SegmentInputStream#length} of the segment that should be read.
+ * @author Jan Bryda
+ */
+class SegmentInputStream extends InputStream {
+    InputStream input;
+    private long offset, length, remainingBytes;
+
+    /**
+     * Creates new SegmentInputStream from given input stream, offset and length value.
+     * @param input input stream
+     * @param offset offset (in bytes) from beginning of stream
+     * @param length length (in bytes) of segment that should be read
+     * @throws IOException when the stream can't be skipped to the offset, the input stream is then closed
+     */
+    public SegmentInputStream(InputStream input, long offset, long length) throws IOException {
+        this.input = input;
+        this.offset = offset;
+        this.length = length;
+
+        remainingBytes = length;
+        try {
+            skipFully(input, offset);
+        } catch (IOException e) {
+            try {
+                input.close();
+            } catch (IOException closeException) {
+                e.addSuppressed(closeException);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Skips exactly given number of bytes of the input stream. Streams are allowed to skip less bytes than
+     * requested, so skipping is repeated until all bytes are skipped.
+     * @param input input stream
+     * @param count number of bytes to skip
+     * @throws IOException when the stream ends before all bytes are skipped
+     */
+    static void skipFully(InputStream input, long count) throws IOException {
+        while (count > 0) {
+            long skipped = input.skip(count);
+            if (skipped <= 0) {
+                if (input.read() == -1)
+                    throw new EOFException("Stream ended before the segment start!");
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    public int read() throws IOException {
+        if (remainingBytes == 0)
+            return -1;
+
+        remainingBytes--;
+        return input.read();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (remainingBytes == 0)
+            return -1;
+
+        int read = input.read(buffer, offset, (int) Math.min(length, remainingBytes));
+        if (read > 0)
+            remainingBytes -= read;
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
@@ -0,0 +1,130 @@
+package huffManager.archive;
+
+import huffManager.archive.exceptions.UnableToGetStreamException;
+import huffManager.codecs.exceptions.*;
+import huffManager.generator.Generator;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * New solid block, that concatenates the data of several small files and codes them as a whole. Data of
+ * member files are streamed one after another every time the decoded stream is requested, so the block is
+ * not held in memory, neither between the runs of the coder nor during them.
+ * @author Jan Bryda
+ */
+class SolidBlockToCode extends ArchiveFile {
+    private List<ArchiveFile> members = new ArrayList<>();
+
+    SolidBlockToCode(long codecID) {
+        super("solid block", 0, codecID);
+    }
+
+    /**
+     * Appends the file at the end of the block.
+     * @param file member file
+     */
+    void addMember(ArchiveFile file) {
+        members.add(file);
+        size += file.getSize();
+    }
+
+    @Override
+    public InputStream getCodedStream() throws UnableToGetStreamException {
+        try {
+            return new BufferedInputStream(getCodec().getCoder().code(new Generator<>(this::getDecodedStream)),
+                    ArchiveFile.TRANSFER_BUFFER_SIZE);
+        } catch (UnknownCodecException e) {
+            throw new UnableToGetStreamException("Unable to get coded stream : unknown codec!", e);
+        } catch (CoderException e) {
+            throw new UnableToGetStreamException("Unable to get coded stream : coder exception occurred!", e);
+        }
+    }
+
+    @Override
+    public InputStream getDecodedStream() throws UnableToGetStreamException {
+        return new MembersInputStream(members);
+    }
+
+    /**
+     * Stream that reads the decoded data of member files one after another, so the block is never held in
+     * memory whole. Decoded stream of member is opened when the previous member is read whole, and it has to
+     * have exactly the size of the member.
+     */
+    private static class MembersInputStream extends InputStream {
+        private final List<ArchiveFile> members;
+        private int nextMember = 0;
+        private ArchiveFile currentMember;
+        private InputStream current;
+        private long remainingBytes;
+
+        MembersInputStream(List<ArchiveFile> members) {
+            this.members = members;
+        }
+
+        /**
+         * Makes the stream of the next member the current one.
+         * @return false if there are no more members
+         * @throws IOException
+         */
+        private boolean nextStream() throws IOException {
+            if (current != null)
+                current.close();
+            current = null;
+            if (nextMember == members.size())
+                return false;
+
+            currentMember = members.get(nextMember++);
+            remainingBytes = currentMember.getSize();
+            try {
+                current = currentMember.getDecodedStream();
+            } catch (UnableToGetStreamException e) {
+                throw new IOException("Unable to get decoded stream of file " + currentMember.getName()
+                        + " in solid block!", e);
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] oneByte = new byte[1];
+            return read(oneByte, 0, 1) == -1 ? -1 : oneByte[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0)
+                return 0;
+
+            while (true) {
+                if (current == null && !nextStream())
+                    return -1;
+
+                if (remainingBytes == 0) {
+                    if (current.read() != -1)
+                        throw new IOException("Unable to get decoded stream : file " + currentMember.getName()
+                                + " in solid block is longer than expected!");
+                    if (!nextStream())
+                        return -1;
+                    continue;
+                }
+
+                int read = current.read(buffer, offset, (int) Math.min(length, remainingBytes));
+                if (read == -1)
+                    throw new EOFException("Unable to get decoded stream : file " + currentMember.getName()
+                            + " in solid block is shorter than expected!");
+                remainingBytes -= read;
+                return read;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null)
+                current.close();
+            current = null;
+            nextMember = members.size();
+        }
+    }
+}
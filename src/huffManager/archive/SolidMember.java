@@ -0,0 +1,17 @@
+package huffManager.archive;
+
+/**
+ * Class that describes the position of file in a solid block.
+ * @author Jan Bryda
+ */
+class SolidMember {
+    /** solid block containing the file */
+    public ArchiveFile block;
+    /** offset of the file data in the decoded block */
+    public long offsetInBlock;
+
+    public SolidMember(ArchiveFile block, long offsetInBlock) {
+        this.block = block;
+        this.offsetInBlock = offsetInBlock;
+    }
+}
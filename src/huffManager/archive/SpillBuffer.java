@@ -0,0 +1,171 @@
+package huffManager.archive;
+
+import huffManager.memory.MemoryBudget;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Arrays;
+
+/**
+ * Output stream that keeps written data in memory up to given limit, and writes the rest into a temporary file
+ * (spills). Data written into the buffer can be then written out into a channel. Temporary file is deleted
+ * by {@link SpillBuffer#delete()}.
+ * <p>
+ * Memory of the buffer is reserved from the {@link MemoryBudget} as the buffer grows. When the budget denies
+ * the reservation, the buffer spills early instead of waiting for memory. The memory is released by
+ * {@link SpillBuffer#delete()}.
+ * @author Jan Bryda
+ */
+public class SpillBuffer extends OutputStream {
+    /** initial size of the memory part of the buffer */
+    private static final int INITIAL_SIZE = 8 * 1024;
+    /** name of spill buffers as the consumer of memory budget */
+    static final String BUDGET_CONSUMER = "spill buffers";
+
+    private final long memoryLimit;
+    private final File spillDirectory;
+    private final MemoryBudget budget;
+
+    private byte[] memory = new byte[0];
+    private int memoryLength = 0;
+    private File spillFile;
+    private OutputStream spillOutput;
+    private long size = 0;
+
+    /**
+     * Creates new SpillBuffer, whose memory is reserved from the shared {@link MemoryBudget}.
+     * @param memoryLimit maximal number of bytes kept in memory
+     * @param spillDirectory directory for the temporary file, or null for the default temporary directory
+     */
+    public SpillBuffer(long memoryLimit, File spillDirectory) {
+        this(memoryLimit, spillDirectory, MemoryBudget.getShared());
+    }
+
+    /**
+     * Creates new SpillBuffer.
+     * @param memoryLimit maximal number of bytes kept in memory
+     * @param spillDirectory directory for the temporary file, or null for the default temporary directory
+     * @param budget memory budget the memory of buffer is reserved from
+     */
+    public SpillBuffer(long memoryLimit, File spillDirectory, MemoryBudget budget) {
+        this.memoryLimit = Math.min(memoryLimit, Integer.MAX_VALUE - 8);
+        this.spillDirectory = spillDirectory;
+        this.budget = budget;
+        grow((int) Math.min(INITIAL_SIZE, this.memoryLimit));
+    }
+
+    /**
+     * Grows the memory part of the buffer, if the memory budget allows it.
+     * @param newLength new length of the memory part
+     * @return true if the memory part was grown
+     */
+    private boolean grow(int newLength) {
+        if (!budget.tryReserve(BUDGET_CONSUMER, newLength - memory.length))
+            return false;
+        memory = Arrays.copyOf(memory, newLength);
+        return true;
+    }
+
+    public void write(int myByte) throws IOException {
+        write(new byte[]{(byte) myByte}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        size += length;
+        if (spillOutput == null) {
+            int toMemory = (int) Math.min(length, memoryLimit - memoryLength);
+            if (memoryLength + toMemory > memory.length
+                    && !grow((int) Math.min(memoryLimit, Math.max(memoryLength + toMemory, 2L * memory.length))))
+                toMemory = memory.length - memoryLength;
+
+            System.arraycopy(buffer, offset, memory, memoryLength, toMemory);
+            memoryLength += toMemory;
+            offset += toMemory;
+            length -= toMemory;
+            if (length == 0)
+                return;
+
+            spillFile = File.createTempFile("huffmanager", ".spill", spillDirectory);
+            spillFile.deleteOnExit();
+            spillOutput = new BufferedOutputStream(new FileOutputStream(spillFile), ArchiveFile.TRANSFER_BUFFER_SIZE);
+        }
+
+        spillOutput.write(buffer, offset, length);
+    }
+
+    /**
+     * Gets the number of bytes written into the buffer.
+     * @return number of written bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Tells whether some data were written into the temporary file.
+     * @return true if the buffer spilled
+     */
+    public boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    /**
+     * Writes all data of the buffer into the channel. Data in the temporary file are transferred without
+     * copying them through the user space, if the operating system is able to do so.
+     * @param channel target channel
+     * @throws IOException
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        close();
+
+        ByteBuffer memoryBuffer = ByteBuffer.wrap(memory, 0, memoryLength);
+        while (memoryBuffer.hasRemaining())
+            channel.write(memoryBuffer);
+
+        if (spillFile != null) {
+            try (FileInputStream spillInput = new FileInputStream(spillFile)) {
+                ArchiveFile.transfer(spillInput.getChannel(), 0, size - memoryLength, channel);
+            }
+        }
+    }
+
+    /**
+     * Opens the stream that reads all data of the buffer.
+     * @return stream of buffer data
+     * @throws IOException
+     */
+    public InputStream openInputStream() throws IOException {
+        close();
+
+        InputStream memoryInput = new ByteArrayInputStream(memory, 0, memoryLength);
+        if (spillFile == null)
+            return memoryInput;
+        return new SequenceInputStream(memoryInput,
+                new BufferedInputStream(new FileInputStream(spillFile), ArchiveFile.TRANSFER_BUFFER_SIZE));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (spillOutput != null)
+            spillOutput.close();
+    }
+
+    /**
+     * Releases the memory of the buffer and deletes its temporary file.
+     */
+    public void delete() {
+        try {
+            close();
+        } catch (IOException e) {
+            // data are not needed anymore
+        }
+
+        budget.release(BUDGET_CONSUMER, memory.length);
+        memory = new byte[0];
+        memoryLength = 0;
+        if (spillFile != null)
+            spillFile.delete();
+    }
+}
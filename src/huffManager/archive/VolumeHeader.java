@@ -0,0 +1,57 @@
+package huffManager.archive;
+
+import static huffManager.archive.Archive.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Header at the beginning of every volume of volume set. Number of volumes is written when the set is
+ * finished, so an unfinished set has 0 there.
+ * @author Jan Bryda
+ */
+class VolumeHeader {
+    /** random ID shared by all volumes of one set */
+    long setID;
+    /** number of the volume, starting from 1 */
+    int number;
+    /** number of volumes in the set */
+    int count;
+    /** maximal size of volume, including the volume header (in bytes) */
+    long volumeSize;
+
+    VolumeHeader(long setID, int number, int count, long volumeSize) {
+        this.setID = setID;
+        this.number = number;
+        this.count = count;
+        this.volumeSize = volumeSize;
+    }
+
+    /**
+     * Gets the header as a buffer ready to be written.
+     * @return buffer with the header
+     */
+    ByteBuffer toBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate(VOLUME_HEADER_SIZE);
+        buffer.putLong(VOLUME_IDENTIFIER).putLong(setID).putInt(number).putInt(count).putLong(volumeSize);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Reads the header of volume file.
+     * @param volumeFile volume file
+     * @return read header, or null if the file is not a volume
+     * @throws IOException
+     */
+    static VolumeHeader read(File volumeFile) throws IOException {
+        if (volumeFile.length() < VOLUME_HEADER_SIZE)
+            return null;
+
+        try (DataInputStream dataInput = new DataInputStream(new FileInputStream(volumeFile))) {
+            if (dataInput.readLong() != VOLUME_IDENTIFIER)
+                return null;
+            return new VolumeHeader(dataInput.readLong(), dataInput.readInt(), dataInput.readInt(), dataInput.readLong());
+        }
+    }
+}
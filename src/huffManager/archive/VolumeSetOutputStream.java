@@ -0,0 +1,191 @@
+package huffManager.archive;
+
+import static huffManager.archive.Archive.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Output stream that writes a volume set. Written data fill the volumes one after another, each volume has
+ * at most the volume size bytes including its header. Data are collected into buffers, which are written
+ * by a pool of writer threads with positional writes, so the writing of one volume does not wait for
+ * the previous volume and volumes placed on different disks are written concurrently. Number of buffers is
+ * limited, writing into the stream blocks while all of them are being written.
+ * @author Jan Bryda
+ */
+class VolumeSetOutputStream extends OutputStream {
+    /** size of one write buffer */
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+    private final File archiveFile;
+    private final long volumeSize;
+    private final long setID = new Random().nextLong();
+
+    private final List<FileChannel> channels = new ArrayList<>();
+    private final ExecutorService writers;
+    /** buffers that are not being written */
+    private final BlockingQueue<ByteBuffer> freeBuffers;
+    /** first exception thrown by a writer thread */
+    private volatile IOException writeException;
+
+    private ByteBuffer buffer;
+    /** physical position of the start of current buffer in the current volume */
+    private long bufferPosition;
+    private boolean closed = false;
+
+    /**
+     * Creates new VolumeSetOutputStream. Volumes are created when the first byte is written into them.
+     * @param archiveFile archive file (name of the volume set)
+     * @param volumeSize maximal size of volume (in bytes)
+     * @param writerCount number of writer threads
+     */
+    VolumeSetOutputStream(File archiveFile, long volumeSize, int writerCount) {
+        if (volumeSize <= VOLUME_HEADER_SIZE)
+            throw new IllegalArgumentException("Volume size is too small : " + volumeSize);
+
+        this.archiveFile = archiveFile;
+        this.volumeSize = volumeSize;
+        this.writers = Executors.newFixedThreadPool(Math.max(1, writerCount), runnable -> {
+            Thread thread = new Thread(runnable, "volume-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        int bufferCount = 2 * Math.max(1, writerCount);
+        freeBuffers = new ArrayBlockingQueue<>(bufferCount);
+        for (int i = 0; i < bufferCount; i++)
+            freeBuffers.add(ByteBuffer.allocate(WRITE_BUFFER_SIZE));
+        bufferPosition = volumeSize;
+    }
+
+    /**
+     * Gets the number of volumes created so far.
+     * @return number of volumes
+     */
+    int getVolumeCount() {
+        return channels.size();
+    }
+
+    public void write(int myByte) throws IOException {
+        write(new byte[]{(byte) myByte}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (closed)
+            throw new IOException("Volume set is closed!");
+
+        while (length > 0) {
+            if (buffer == null || !buffer.hasRemaining() || bufferPosition + buffer.position() == volumeSize)
+                nextBuffer();
+
+            int count = (int) Math.min(length,
+                    Math.min(buffer.remaining(), volumeSize - bufferPosition - buffer.position()));
+            buffer.put(bytes, offset, count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Hands the current buffer over to the writers and takes a free one. When the current volume is full,
+     * the next volume is created.
+     * @throws IOException
+     */
+    private void nextBuffer() throws IOException {
+        long position = bufferPosition + (buffer == null ? 0 : buffer.position());
+        submitBuffer();
+
+        if (position == volumeSize) {
+            FileChannel channel = FileChannel.open(ArchiveVolumes.getVolumeFile(archiveFile, channels.size() + 1).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            channels.add(channel);
+            writeFully(channel, new VolumeHeader(setID, channels.size(), 0, volumeSize).toBuffer(), 0);
+            position = VOLUME_HEADER_SIZE;
+        }
+
+        try {
+            buffer = freeBuffers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Volume set : interrupted while waiting for a write buffer!");
+        }
+        bufferPosition = position;
+    }
+
+    /**
+     * Submits the current buffer to be written at its position in the current volume.
+     * @throws IOException when a previous write failed
+     */
+    private void submitBuffer() throws IOException {
+        checkWriteException();
+        if (buffer == null)
+            return;
+
+        ByteBuffer data = buffer;
+        buffer = null;
+        if (data.position() == 0) {
+            freeBuffers.add(data);
+            return;
+        }
+
+        FileChannel channel = channels.get(channels.size() - 1);
+        long position = bufferPosition;
+        data.flip();
+        writers.execute(() -> {
+            try {
+                writeFully(channel, data, position);
+            } catch (IOException e) {
+                if (writeException == null)
+                    writeException = e;
+            } finally {
+                data.clear();
+                freeBuffers.add(data);
+            }
+        });
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining())
+            position += channel.write(data, position);
+    }
+
+    private void checkWriteException() throws IOException {
+        if (writeException != null)
+            throw new IOException("Volume set : writing of volume failed!", writeException);
+    }
+
+    /**
+     * Waits until all buffers are written, writes the number of volumes into the headers of all volumes and
+     * closes them.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+
+        try {
+            submitBuffer();
+            writers.shutdown();
+            if (!writers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS))
+                throw new IOException("Volume set : writers did not finish!");
+            checkWriteException();
+
+            for (int i = 0; i < channels.size(); i++)
+                writeFully(channels.get(i), new VolumeHeader(setID, i + 1, channels.size(), volumeSize).toBuffer(), 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Volume set : interrupted while waiting for writers!");
+        } finally {
+            writers.shutdownNow();
+            for (FileChannel channel : channels)
+                ArchiveLoader.closeQuietly(channel);
+        }
+    }
+}
@@ -0,0 +1,518 @@
+package huffManager.cli;
+
+import huffManager.archive.*;
+import huffManager.archive.exceptions.*;
+import huffManager.codecs.*;
+import huffManager.codecs.exceptions.UnknownCodecException;
+import huffManager.codecs.huffman.HuffmanCodec;
+import huffManager.generator.FileOutputStreamGenerator;
+import huffManager.memory.BufferPool;
+import huffManager.memory.MemoryBudget;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * Command line interface of the program, which works with archives without the graphical interface, so it
+ * can be run on servers and from batch jobs. It never loads AWT. Usage:
+ * <pre>
+ * create &lt;archive&gt; &lt;file or directory&gt;...    creates new archive of the files and directories
+ * add &lt;archive&gt; &lt;file or directory&gt;...       adds the files and directories into the archive
+ * list &lt;archive&gt; [pattern or path]...           lists the files of the archive
+ * extract &lt;archive&gt; &lt;directory&gt; [pattern or path]...  extracts the archive, or the selected files
+ * test &lt;archive&gt; [pattern or path]...           decodes the files and checks their sizes and checksums
+ * update &lt;archive&gt; &lt;directory&gt;                synchronizes the archive with the directory
+ * </pre>
+ * Options, which may be given anywhere before "--":
+ * <pre>
+ * --threads N       number of threads that code, extract and test files at once
+ * --memory SIZE     limit of the shared memory budget
+ * --codec NAME      codec of the added files ("huffman", "none"), or "auto" that stores compressed files
+ *                   (see {@link CodecPolicy#COMPRESSED_EXTENSIONS}) as they are and codes the others by Huffman
+ * --buffer SIZE     memory for coded data waiting to be written, more is spilled into temporary files
+ * --checksum        record the checksums of added files and compare files of the same size by checksum
+ *                   when updating
+ * --index           store the index of files in the archive, so list and extract of selected files do not
+ *                   load the header (the index is bigger than the header and is written by every update)
+ * --dedup           store added files with identical contents only once (their contents are read once more
+ *                   before saving to find them)
+ * </pre>
+ * Sizes are in bytes, with optional suffix K, M or G. Every command prints its summary with the time it took.
+ * Exit code is 0 on success, 1 when the command failed and 2 when the arguments are wrong.
+ * @author Jan Bryda
+ */
+public class CommandLine {
+    /** exit code of successful command */
+    public static final int EXIT_SUCCESS = 0;
+    /** exit code of command that failed */
+    public static final int EXIT_FAILURE = 1;
+    /** exit code of wrong arguments */
+    public static final int EXIT_USAGE = 2;
+
+    private static final String USAGE = "Usage: [options] create|add|list|extract|test|update <archive> ...";
+
+    private final PrintStream out;
+    private final PrintStream err;
+
+    /** number of threads that code, extract and test files at once */
+    private int threads = Runtime.getRuntime().availableProcessors();
+    /** limit of the shared memory budget, 0 to keep the default limit */
+    private long memory = 0;
+    /** policy that chooses the codec of added files */
+    private CodecPolicy codecPolicy = CodecPolicy.always(new HuffmanCodec());
+    /** memory for coded data waiting to be written, 0 to keep the default */
+    private long buffer = 0;
+    /** tells whether the contents of files are compared by checksum when updating */
+    private boolean checksum = false;
+    /** tells whether the index of files is stored in the archive */
+    private boolean pathIndex = false;
+    /** tells whether the added files with identical contents are stored only once */
+    private boolean deduplication = false;
+
+    /**
+     * Creates new CommandLine.
+     * @param out stream the results are printed into
+     * @param err stream the errors are printed into
+     */
+    public CommandLine(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * Runs the command given by the arguments.
+     * @param args options, command and its operands
+     * @return exit code
+     */
+    public int run(String[] args) {
+        List<String> operands = new ArrayList<>();
+        try {
+            parseOptions(args, operands);
+        } catch (IllegalArgumentException | UnknownCodecException e) {
+            err.println("Error : " + e.getMessage());
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        if (operands.size() < 2) {
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        if (memory > 0)
+            MemoryBudget.getShared().setLimit(memory);
+
+        String command = operands.get(0);
+        File archiveFile = new File(operands.get(1));
+        List<String> rest = operands.subList(2, operands.size());
+        long start = System.nanoTime();
+        try {
+            String summary;
+            switch (command) {
+                case "create":
+                    summary = create(archiveFile, rest);
+                    break;
+                case "add":
+                    summary = add(archiveFile, rest);
+                    break;
+                case "list":
+                    summary = list(archiveFile, rest);
+                    break;
+                case "extract":
+                    summary = extract(archiveFile, rest);
+                    break;
+                case "test":
+                    summary = test(archiveFile, rest);
+                    break;
+                case "update":
+                    summary = update(archiveFile, rest);
+                    break;
+                default:
+                    err.println("Error : unknown command " + command + "!");
+                    err.println(USAGE);
+                    return EXIT_USAGE;
+            }
+            if (summary == null)
+                return EXIT_USAGE;
+
+            out.println(command + " : " + summary + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+            return EXIT_SUCCESS;
+        } catch (TestFailedException e) {
+            err.println(command + " : " + e.getMessage() + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+            return EXIT_FAILURE;
+        } catch (Exception e) {
+            err.println("Error : " + describe(e));
+            return EXIT_FAILURE;
+        }
+    }
+
+    /**
+     * Reads the options and collects the command and its operands.
+     * @param args arguments
+     * @param operands list the command and its operands are added into
+     * @throws UnknownCodecException when the codec of option is not known
+     */
+    private void parseOptions(String[] args, List<String> operands) throws UnknownCodecException {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--")) {
+                operands.addAll(Arrays.asList(args).subList(i + 1, args.length));
+                return;
+            }
+            if (!arg.startsWith("--")) {
+                operands.add(arg);
+                continue;
+            }
+
+            if (arg.equals("--checksum")) {
+                checksum = true;
+                continue;
+            }
+            if (arg.equals("--index")) {
+                pathIndex = true;
+                continue;
+            }
+            if (arg.equals("--dedup")) {
+                deduplication = true;
+                continue;
+            }
+            if (i + 1 == args.length)
+                throw new IllegalArgumentException("option " + arg + " needs a value!");
+            String value = args[++i];
+            switch (arg) {
+                case "--threads":
+                    try {
+                        threads = Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("wrong number of threads " + value + "!");
+                    }
+                    if (threads < 1)
+                        throw new IllegalArgumentException("number of threads has to be at least one!");
+                    break;
+                case "--memory":
+                    memory = parseSize(value);
+                    break;
+                case "--codec":
+                    if (value.equalsIgnoreCase("auto"))
+                        codecPolicy = CodecPolicy.skippingCompressed(new HuffmanCodec());
+                    else
+                        codecPolicy = CodecPolicy.always(Codecs.getCodecByName(value));
+                    break;
+                case "--buffer":
+                    buffer = parseSize(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + arg + "!");
+            }
+        }
+    }
+
+    /**
+     * Parses the size with optional suffix K, M or G.
+     * @param value size
+     * @return size (in bytes)
+     */
+    static long parseSize(String value) {
+        long unit = 1;
+        String digits = value;
+        if (!value.isEmpty()) {
+            switch (Character.toUpperCase(value.charAt(value.length() - 1))) {
+                case 'K':
+                    unit = 1024;
+                    break;
+                case 'M':
+                    unit = 1024 * 1024;
+                    break;
+                case 'G':
+                    unit = 1024 * 1024 * 1024;
+                    break;
+            }
+            if (unit > 1)
+                digits = value.substring(0, value.length() - 1);
+        }
+
+        try {
+            long size = Long.parseLong(digits);
+            if (size <= 0)
+                throw new IllegalArgumentException("size " + value + " has to be positive!");
+            if (size > Long.MAX_VALUE / unit)
+                throw new IllegalArgumentException("size " + value + " is too big!");
+            return size * unit;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("wrong size " + value + "!");
+        }
+    }
+
+    private ArchiveSaver createSaver() {
+        ArchiveSaver saver = new ArchiveSaver();
+        saver.setConcurrency(threads);
+        saver.setPathIndex(pathIndex);
+        saver.setDeduplication(deduplication);
+        if (buffer > 0)
+            saver.setMemoryLimit(buffer);
+        return saver;
+    }
+
+    private ArchiveExtractor createExtractor() {
+        ArchiveExtractor extractor = new ArchiveExtractor();
+        extractor.setConcurrency(threads);
+        return extractor;
+    }
+
+    /**
+     * Creates new archive of the files and directories. Archive is saved into a temporary file, which then
+     * replaces the archive file, so a failed saving never leaves a broken archive at its path.
+     * @param archiveFile archive file
+     * @param sources files and directories on disk
+     * @return summary, or null if the operands are wrong
+     * @throws Exception
+     */
+    private String create(File archiveFile, List<String> sources) throws Exception {
+        if (sources.isEmpty())
+            return usage("create needs the files to be archived");
+
+        Archive archive = new Archive();
+        addSources(archive.getRootDirectory(), sources);
+        File temporaryFile =
+                File.createTempFile(archiveFile.getName(), ".tmp", archiveFile.getAbsoluteFile().getParentFile());
+        try {
+            String summary = createSaver().save(archive, new FileOutputStreamGenerator(temporaryFile)).toString();
+            Files.move(temporaryFile.toPath(), archiveFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            return summary;
+        } finally {
+            temporaryFile.delete();
+        }
+    }
+
+    /**
+     * Adds the files and directories into the archive. Archive files of the same name are replaced, directories
+     * are merged, so only the new and changed files are coded.
+     * @param archiveFile archive file
+     * @param sources files and directories on disk
+     * @return summary, or null if the operands are wrong
+     * @throws Exception
+     */
+    private String add(File archiveFile, List<String> sources) throws Exception {
+        if (sources.isEmpty())
+            return usage("add needs the files to be archived");
+
+        try (Archive archive = new ArchiveLoader().load(archiveFile)) {
+            addSources(archive.getRootDirectory(), sources);
+            return createSaver().update(archive, archiveFile).toString();
+        }
+    }
+
+    /**
+     * Adds the files and directories on disk into the archive directory.
+     * @param directory archive directory
+     * @param sources files and directories on disk
+     * @throws IOException when a source does not exist or can't be read
+     */
+    private void addSources(ArchiveDirectory directory, List<String> sources) throws IOException {
+        ArchiveSynchronizer synchronizer = new ArchiveSynchronizer();
+        synchronizer.setChecksumVerification(checksum);
+        synchronizer.setRemovingMissing(false);
+
+        for (String path : sources) {
+            File source = new File(path).getAbsoluteFile();
+            if (source.isFile()) {
+                for (ArchiveFile existing : new ArrayList<>(directory.getFiles())) {
+                    if (existing.getName().equals(source.getName()))
+                        directory.removeFile(existing);
+                }
+                FileToCode file = new FileToCode(source.getPath(), codecPolicy.choose(source));
+                if (checksum)
+                    file.setChecksum(ArchiveSynchronizer.checksum(source));
+                directory.addFile(file);
+            } else if (source.isDirectory()) {
+                ArchiveDirectory target = null;
+                for (ArchiveDirectory subdirectory : directory.getSubdirectories()) {
+                    if (subdirectory.getName().equals(source.getName()))
+                        target = subdirectory;
+                }
+                if (target == null) {
+                    target = new ArchiveDirectory(source.getName());
+                    directory.addSubdirectory(target);
+                }
+                synchronizer.sync(target, source, codecPolicy);
+            } else {
+                throw new FileNotFoundException(path + " does not exist!");
+            }
+        }
+    }
+
+    /**
+     * Lists the selected files of the archive with their sizes and codecs.
+     * @param archiveFile archive file
+     * @param selection glob patterns and paths, all files are listed if it is empty
+     * @return summary
+     * @throws Exception
+     */
+    private String list(File archiveFile, List<String> selection) throws Exception {
+        try (ArchiveIndex index = new ArchiveLoader().loadIndex(archiveFile)) {
+            long size = 0;
+            Collection<String> paths = select(index, selection);
+            for (String path : paths) {
+                ArchiveFile file = index.lookup(path);
+                size += file.getSize();
+                out.println(String.format("%12d  %-10s  %s", file.getSize(), getCodecName(file), path));
+            }
+            return paths.size() + " files, " + size + "B";
+        }
+    }
+
+    /**
+     * Extracts the whole archive, or the selected files, into the directory.
+     * @param archiveFile archive file
+     * @param operands target directory followed by glob patterns and paths
+     * @return summary, or null if the operands are wrong
+     * @throws Exception
+     */
+    private String extract(File archiveFile, List<String> operands) throws Exception {
+        if (operands.isEmpty())
+            return usage("extract needs the target directory");
+
+        File targetDirectory = new File(operands.get(0));
+        List<String> selection = operands.subList(1, operands.size());
+        if (selection.isEmpty()) {
+            try (Archive archive = new ArchiveLoader().load(archiveFile)) {
+                return createExtractor().extract(archive, targetDirectory) + " files extracted";
+            }
+        }
+        try (ArchiveIndex index = new ArchiveLoader().loadIndex(archiveFile)) {
+            return createExtractor().extract(index, selection, targetDirectory) + " files extracted";
+        }
+    }
+
+    /**
+     * Decodes the selected files of the archive in parallel and checks their sizes, and checksums of those
+     * that have them recorded.
+     * @param archiveFile archive file
+     * @param selection glob patterns and paths, all files are tested if it is empty
+     * @return summary
+     * @throws Exception
+     * @throws TestFailedException when some file is damaged
+     */
+    private String test(File archiveFile, List<String> selection) throws Exception {
+        // the archive is loaded whole, the persisted index of files does not hold their checksums
+        try (Archive archive = new ArchiveLoader().load(archiveFile)) {
+            ArchiveIndex index = archive.getIndex();
+            Collection<String> paths = select(index, selection);
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            Map<String, Future<Long>> results = new LinkedHashMap<>();
+            try {
+                for (String path : paths) {
+                    ArchiveFile file = index.lookup(path);
+                    results.put(path, executor.submit(() -> testFile(file)));
+                }
+
+                long size = 0;
+                int failedCount = 0;
+                for (Map.Entry<String, Future<Long>> result : results.entrySet()) {
+                    try {
+                        size += result.getValue().get();
+                    } catch (ExecutionException e) {
+                        failedCount++;
+                        err.println("FAILED " + result.getKey() + " : " + describe(e.getCause()));
+                    }
+                }
+                if (failedCount > 0)
+                    throw new TestFailedException(failedCount + " of " + paths.size() + " files failed");
+                return paths.size() + " files OK, " + size + "B";
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Decodes the file and checks its size and checksum.
+     * @param file archive file
+     * @return size of the file
+     * @throws IOException when the file is damaged
+     * @throws UnableToGetStreamException
+     */
+    private static long testFile(ArchiveFile file) throws IOException, UnableToGetStreamException {
+        CRC32 crc = new CRC32();
+        long size = 0;
+        try (InputStream input = file.getDecodedStream()) {
+            byte[] buffer = new byte[BufferPool.DEFAULT_BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                size += read;
+            }
+        }
+
+        if (size != file.getSize())
+            throw new IOException("decoded " + size + "B instead of " + file.getSize() + "B!");
+        if (file.getChecksum() != ArchiveFile.NO_CHECKSUM && file.getChecksum() != crc.getValue())
+            throw new IOException("checksum does not match!");
+        return size;
+    }
+
+    /**
+     * Synchronizes the archive with the directory: new and changed files are added, missing files are removed.
+     * Archive is created when it does not exist.
+     * @param archiveFile archive file
+     * @param operands source directory
+     * @return summary, or null if the operands are wrong
+     * @throws Exception
+     */
+    private String update(File archiveFile, List<String> operands) throws Exception {
+        if (operands.size() != 1 || !new File(operands.get(0)).isDirectory())
+            return usage("update needs one source directory");
+
+        ArchiveSynchronizer synchronizer = new ArchiveSynchronizer();
+        synchronizer.setChecksumVerification(checksum);
+        return synchronizer.sync(archiveFile, new File(operands.get(0)), codecPolicy, createSaver()).toString();
+    }
+
+    private static Collection<String> select(ArchiveIndex index, List<String> selection) {
+        return selection.isEmpty() ? index.list("") : ArchiveExtractor.select(index, selection);
+    }
+
+    private static String getCodecName(ArchiveFile file) {
+        try {
+            return file.getCodec().getCodecName();
+        } catch (UnknownCodecException e) {
+            return "#" + file.getCodecID();
+        }
+    }
+
+    private String usage(String message) {
+        err.println("Error : " + message + "!");
+        err.println(USAGE);
+        return null;
+    }
+
+    /**
+     * Describes the exception with the messages of its causes.
+     * @param e exception
+     * @return description
+     */
+    private static String describe(Throwable e) {
+        StringBuilder description = new StringBuilder(String.valueOf(e.getMessage()));
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause())
+            description.append(" (").append(cause.getMessage()).append(")");
+        return description.toString();
+    }
+}
+
+/**
+ * Thrown when some files of tested archive are damaged.
+ * @author Jan Bryda
+ */
+class TestFailedException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    TestFailedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * Command line package contains the headless interface of the program ({@link huffManager.cli.CommandLine}), which
+ * creates, lists, extracts, tests and updates archives without loading AWT.
+ */
+package huffManager.cli;
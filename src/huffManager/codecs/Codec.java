@@ -33,6 +33,15 @@ public abstract class Codec {
      */
     public abstract Decoder getDecoder();
 
+    /**
+     * Tells whether the coded data of this codec are the same as the decoded data. Data of such codec can be
+     * copied between files directly, without invoking its coder or decoder.
+     * @return true if coding does not change the data
+     */
+    public boolean isIdentity() {
+        return false;
+    }
+
     /**
      * Gets the unique ID of the Codec.
      * @return unique ID
@@ -0,0 +1,56 @@
+package huffManager.codecs;
+
+import huffManager.codecs.none.NoneCodec;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Policy that chooses the codec of every file added into an archive, so the files of one directory need not
+ * all be coded by the same codec. Policies given by the factory methods store empty files without coding,
+ * as there is nothing to code (see {@link huffManager.archive.ArchiveWriter}, which does the same).
+ * @author Jan Bryda
+ */
+public interface CodecPolicy {
+    /** extensions of names of files, whose data are already compressed */
+    Set<String> COMPRESSED_EXTENSIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "7z", "avi", "bz2", "docx", "flac", "gif", "gz", "jar", "jpeg", "jpg", "lz", "lz4", "mkv", "mov",
+            "mp3", "mp4", "ogg", "pdf", "png", "rar", "tgz", "webm", "webp", "xlsx", "xz", "zip", "zst")));
+
+    /**
+     * Chooses the codec of the source file.
+     * @param source file on disk
+     * @return codec of the file
+     */
+    Codec choose(File source);
+
+    /**
+     * Gets the policy that codes all files by the same codec. Empty files are stored without coding.
+     * @param codec codec of all non-empty files
+     * @return policy
+     */
+    static CodecPolicy always(Codec codec) {
+        Codec none = new NoneCodec();
+        return source -> source.length() == 0 ? none : codec;
+    }
+
+    /**
+     * Gets the policy that stores the files, whose data are already compressed (see
+     * {@link CodecPolicy#COMPRESSED_EXTENSIONS}), as they are and codes the other files by given codec. Coding
+     * of compressed data takes time and saves nothing. Empty files are stored without coding too.
+     * @param codec codec of the files that are not compressed
+     * @return policy
+     */
+    static CodecPolicy skippingCompressed(Codec codec) {
+        Codec none = new NoneCodec();
+        return source -> {
+            if (source.length() == 0)
+                return none;
+            String name = source.getName();
+            int dot = name.lastIndexOf('.');
+            if (dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT)))
+                return none;
+            return codec;
+        };
+    }
+}
@@ -42,6 +42,23 @@ public class Codecs {
             throw new UnknownCodecException("Codec with ID = " + id + " is unknown!");
     }
 
+    /**
+     * This method returns the known codec of given name. Name is either the codec name, or the short name
+     * of the codec class ("huffman" for {@link HuffmanCodec}), case is ignored. In case where name of unknown
+     * codec is given, {@link UnknownCodecException} is thrown.
+     * @param name name of codec
+     * @return the appropriate Codec class
+     * @throws UnknownCodecException
+     */
+    public static Codec getCodecByName(String name) throws UnknownCodecException {
+        for (Codec codec : knownCodecs.values()) {
+            String shortName = codec.getClass().getSimpleName().replaceFirst("Codec$", "");
+            if (codec.getCodecName().equalsIgnoreCase(name) || shortName.equalsIgnoreCase(name))
+                return codec;
+        }
+        throw new UnknownCodecException("Codec with name = " + name + " is unknown!");
+    }
+
     /**
      * Gets the collection of all known codecs.
      * @return collection of known codecs
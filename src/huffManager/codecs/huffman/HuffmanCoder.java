@@ -3,6 +3,7 @@ package huffManager.codecs.huffman;
 import huffManager.codecs.*;
 import huffManager.codecs.exceptions.*;
 import huffManager.generator.*;
+import huffManager.memory.*;
 
 import java.io.*;
 import java.util.PriorityQueue;
@@ -13,7 +14,8 @@ import java.util.Comparator;
  * @author Jan Bryda
  */
 public class HuffmanCoder extends Coder {
-    private int blockSize = 10 * 1024 * 1024;
+    /** maximal size of the buffers of coder, buffers of smaller inputs are smaller */
+    private int maxBlockSize = 1024 * 1024;
 
     /**
      * Thread that takes the input stream codes it using the huffman tree and writes the output to the
@@ -22,6 +24,7 @@ public class HuffmanCoder extends Coder {
     private class HuffmanCodingThread extends Thread {
         InputStream input;
         PipedOutputStream output;
+        PooledPipedInputStream pipe;
         HuffmanTree huffmanTree;
         boolean success;
 
@@ -31,10 +34,14 @@ public class HuffmanCoder extends Coder {
          * @param huffmanTree huffman tree used to code data
          * @param input input to code
          * @param output output, into which coded data are written
+         * @param pipe pipe the output is connected to, it is told when the thread finishes
          */
-        HuffmanCodingThread(HuffmanTree huffmanTree, InputStream input, PipedOutputStream output) {
-            this.input = new BufferedInputStream(input, blockSize);
+        HuffmanCodingThread(HuffmanTree huffmanTree, InputStream input, PipedOutputStream output,
+                            PooledPipedInputStream pipe) {
+            int bufferSize = BufferPool.sizeFor(huffmanTree.frequency, maxBlockSize);
+            this.input = new PooledBufferedInputStream(input, bufferSize);
             this.output = output;
+            this.pipe = pipe;
             this.huffmanTree = huffmanTree;
         }
 
@@ -96,7 +103,8 @@ public class HuffmanCoder extends Coder {
         }
 
         public void run() {
-            try (BitDataOutputStream outputStream = new BitDataOutputStream(output)) {
+            try (InputStream input = this.input;
+                 BitDataOutputStream outputStream = new BitDataOutputStream(output)) {
                 long[] codedTree = codeHuffmanTree(huffmanTree);
                 for (int i = 0; i < codedTree.length; i++)
                     outputStream.writeLong(codedTree[i]);
@@ -114,6 +122,8 @@ public class HuffmanCoder extends Coder {
                 success = true;
             } catch (IOException e) {
                 success = false;
+            } finally {
+                pipe.writerFinished();
             }
         }
     }
@@ -125,19 +135,21 @@ public class HuffmanCoder extends Coder {
             HuffmanTree huffmanTree = null;
 
             try {
-                if (input.available() == 0)
-                    throw new CoderException("Huffman Coder : input stream is empty!");
-
                 huffmanTree = constructHuffmanTree(input);
             } finally {
                 input.close();
             }
 
+            // emptiness is known only after reading, streams like pipes may report no available bytes
+            if (huffmanTree == null)
+                throw new CoderException("Huffman Coder : input stream is empty!");
+
 
             input = inputGenerator.generate();
-            PipedInputStream pipeIn = new PipedInputStream(blockSize);
+            PooledPipedInputStream pipeIn =
+                    new PooledPipedInputStream(BufferPool.sizeFor(huffmanTree.frequency, maxBlockSize));
             PipedOutputStream pipeOut = new PipedOutputStream(pipeIn);
-            HuffmanCodingThread codingThread = new HuffmanCodingThread(huffmanTree, input, pipeOut);
+            HuffmanCodingThread codingThread = new HuffmanCodingThread(huffmanTree, input, pipeOut, pipeIn);
             codingThread.start();
             return pipeIn;
         } catch (IOException e) {
@@ -150,7 +162,7 @@ public class HuffmanCoder extends Coder {
     /**
      * Takes the input stream and constructs appropriate huffman tree.
      * @param input input stream
-     * @return huffman tree for this input stream
+     * @return huffman tree for this input stream, or null if the stream is empty
      * @throws IOException
      */
     private HuffmanTree constructHuffmanTree(InputStream input) throws IOException {
@@ -179,6 +191,9 @@ public class HuffmanCoder extends Coder {
             if (frequencies[i] != 0)
                 trees.add(new HuffmanTree(i, frequencies[i]));
 
+        if (trees.isEmpty())
+            return null;
+
         while (trees.size() != 1) {
             HuffmanTree tree1 = trees.remove();
             HuffmanTree tree2 = trees.remove();
@@ -191,18 +206,19 @@ public class HuffmanCoder extends Coder {
     }
 
     /**
-     * Gets the byte frequencies table for this input.
+     * Gets the byte frequencies table for this input. The input is closed.
      * @param input input stream
      * @return frequencies table
      * @throws IOException
      */
     private long[] getFrequenciesTable(InputStream input) throws IOException {
-        BufferedInputStream bInput = new BufferedInputStream(input, blockSize);
         long[] frequencies = new long[256];
 
-        int b;
-        while ((b = bInput.read()) != -1) {
-            frequencies[b & 0xFF]++;
+        try (BufferedInputStream bInput = new PooledBufferedInputStream(input, BufferPool.DEFAULT_BUFFER_SIZE)) {
+            int b;
+            while ((b = bInput.read()) != -1) {
+                frequencies[b & 0xFF]++;
+            }
         }
 
         return frequencies;
@@ -3,6 +3,7 @@ package huffManager.codecs.huffman;
 import huffManager.codecs.*;
 import huffManager.codecs.exceptions.*;
 import huffManager.generator.*;
+import huffManager.memory.*;
 
 import java.util.Stack;
 import java.lang.Thread;
@@ -15,7 +16,8 @@ import java.util.*;
  * @author Jan Bryda
  */
 public class HuffmanDecoder extends Decoder {
-    private int blockSize = 10 * 1024 * 1024;
+    /** maximal size of the pipe buffer, pipes of smaller outputs are smaller */
+    private int maxBlockSize = 1024 * 1024;
 
     /**
      * Thread that reads the coded data from the input and puts decoded data into piped output stream.
@@ -23,6 +25,7 @@ public class HuffmanDecoder extends Decoder {
     private class HuffmanDecodingThread extends Thread {
         InputStream input;
         PipedOutputStream output;
+        PooledPipedInputStream pipe;
         HuffmanTree huffmanTree;
         HuffmanTree positionInTree;
 
@@ -31,11 +34,14 @@ public class HuffmanDecoder extends Decoder {
          * @param huffmanTree huffman tree to be used while decoding
          * @param input input of coded data
          * @param output piped output stream to which decoded data will be put
+         * @param pipe pipe the output stream is connected to, it is told when the thread finishes
          */
-        public HuffmanDecodingThread(HuffmanTree huffmanTree, InputStream input, PipedOutputStream output) {
+        public HuffmanDecodingThread(HuffmanTree huffmanTree, InputStream input, PipedOutputStream output,
+                                     PooledPipedInputStream pipe) {
             this.huffmanTree = huffmanTree;
             this.input = input;
             this.output = output;
+            this.pipe = pipe;
         }
 
         public void run() {
@@ -65,6 +71,8 @@ public class HuffmanDecoder extends Decoder {
                 outputStream.close();
             } catch (IOException e) {
 
+            } finally {
+                pipe.writerFinished();
             }
         }
     }
@@ -76,8 +84,10 @@ public class HuffmanDecoder extends Decoder {
             HuffmanTree huffmanTree = readHuffmanTree(input);
 
             PipedOutputStream pipedOutputStream = new PipedOutputStream();
-            PipedInputStream pipedInputStream = new PipedInputStream(pipedOutputStream, blockSize);
-            HuffmanDecodingThread decodingThread = new HuffmanDecodingThread(huffmanTree, input, pipedOutputStream);
+            int pipeSize = BufferPool.sizeFor(huffmanTree.frequency, maxBlockSize);
+            PooledPipedInputStream pipedInputStream = new PooledPipedInputStream(pipedOutputStream, pipeSize);
+            HuffmanDecodingThread decodingThread =
+                    new HuffmanDecodingThread(huffmanTree, input, pipedOutputStream, pipedInputStream);
             decodingThread.start();
             return pipedInputStream;
         } catch (IOException e) {
@@ -17,6 +17,11 @@ public class NoneCodec extends Codec {
         super(0x4E6F6E6500000000L, "No codec");
     }
 
+    @Override
+    public boolean isIdentity() {
+        return true;
+    }
+
     @Override
     public Coder getCoder() {
         return new Coder() {
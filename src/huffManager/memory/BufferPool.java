@@ -0,0 +1,326 @@
+package huffManager.memory;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of I/O buffers shared by the streams of archives and codecs. Buffers are sorted into size classes, whose
+ * sizes are powers of two from {@link BufferPool#MIN_BUFFER_SIZE} to {@link BufferPool#MAX_BUFFER_SIZE}. Buffer
+ * of a class is taken from the pool when there is one, otherwise it is allocated, and released buffers are kept
+ * for reuse while the pool holds less than its limit of bytes. Size of buffer should be picked by the expected
+ * length of data (see {@link BufferPool#sizeFor(long, int)}), so small files get small buffers.
+ * <p>
+ * Arrays on the Java heap and direct buffers are pooled separately, each with its own limit.
+ * <p>
+ * Buffers in use and buffers kept in the pool are reserved from the {@link MemoryBudget} of the pool. When the
+ * budget runs out, the pool gives up the buffers it keeps, and then hands out smaller buffers (down to
+ * {@link BufferPool#MIN_BUFFER_SIZE}), so the streams go on with less memory rather than wait for it: the holder
+ * of a buffer may be the one others are waiting for. Released buffers are not kept while someone waits for
+ * memory.
+ * @author Jan Bryda
+ */
+public class BufferPool {
+    /** size of the smallest buffer */
+    public static final int MIN_BUFFER_SIZE = 4 * 1024;
+    /** size of the largest pooled buffer, larger buffers are allocated every time */
+    public static final int MAX_BUFFER_SIZE = 16 * 1024 * 1024;
+    /** size of buffer used when the length of data is not known */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /** number of size classes */
+    private static final int CLASS_COUNT = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE)
+            - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE) + 1;
+
+    /** name of the pool as the consumer of memory budget */
+    private static final String CONSUMER = "buffers";
+
+    private static final BufferPool SHARED =
+            new BufferPool(64L * 1024 * 1024, 32L * 1024 * 1024, MemoryBudget.getShared());
+
+    static {
+        MemoryBudget.getShared().addReclaimer(SHARED::trim);
+    }
+
+    /**
+     * Statistics of the pool since its creation.
+     */
+    public static class Statistics {
+        /** number of buffers requested */
+        public final long acquireCount;
+        /** number of requested buffers that were taken from the pool */
+        public final long reuseCount;
+        /** number of bytes of buffers allocated because the pool had none */
+        public final long allocatedBytes;
+        /** number of released buffers that were not kept, because the pool was full */
+        public final long dropCount;
+        /** number of bytes of heap buffers kept in the pool */
+        public final long pooledBytes;
+        /** number of bytes of direct buffers kept in the pool */
+        public final long pooledDirectBytes;
+        /** number of buffers that were smaller than requested, because the memory budget ran out */
+        public final long shrinkCount;
+
+        Statistics(long acquireCount, long reuseCount, long allocatedBytes, long dropCount, long pooledBytes,
+                   long pooledDirectBytes, long shrinkCount) {
+            this.acquireCount = acquireCount;
+            this.reuseCount = reuseCount;
+            this.allocatedBytes = allocatedBytes;
+            this.dropCount = dropCount;
+            this.pooledBytes = pooledBytes;
+            this.pooledDirectBytes = pooledDirectBytes;
+            this.shrinkCount = shrinkCount;
+        }
+
+        @Override
+        public String toString() {
+            return acquireCount + " acquired, " + reuseCount + " reused, " + allocatedBytes + "B allocated, "
+                    + dropCount + " dropped, " + pooledBytes + "B pooled, " + pooledDirectBytes + "B pooled direct, " + shrinkCount + " shrunk";
+        }
+    }
+
+    private final List<Queue<byte[]>> arrays;
+    private final List<Queue<ByteBuffer>> directBuffers;
+    private final long maxPooledBytes;
+    private final long maxPooledDirectBytes;
+    private final MemoryBudget budget;
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final AtomicLong pooledDirectBytes = new AtomicLong();
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder reuseCount = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder dropCount = new LongAdder();
+    private final LongAdder shrinkCount = new LongAdder();
+
+    /**
+     * Creates new BufferPool, whose buffers are not limited by any memory budget.
+     * @param maxPooledBytes maximal number of bytes of heap buffers kept in the pool
+     * @param maxPooledDirectBytes maximal number of bytes of direct buffers kept in the pool
+     */
+    public BufferPool(long maxPooledBytes, long maxPooledDirectBytes) {
+        this(maxPooledBytes, maxPooledDirectBytes, new MemoryBudget(MemoryBudget.UNLIMITED));
+    }
+
+    /**
+     * Creates new BufferPool.
+     * @param maxPooledBytes maximal number of bytes of heap buffers kept in the pool
+     * @param maxPooledDirectBytes maximal number of bytes of direct buffers kept in the pool
+     * @param budget memory budget the buffers are reserved from
+     */
+    public BufferPool(long maxPooledBytes, long maxPooledDirectBytes, MemoryBudget budget) {
+        this.maxPooledBytes = maxPooledBytes;
+        this.maxPooledDirectBytes = maxPooledDirectBytes;
+        this.budget = budget;
+        arrays = new ArrayList<>(CLASS_COUNT);
+        directBuffers = new ArrayList<>(CLASS_COUNT);
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            arrays.add(new ConcurrentLinkedQueue<>());
+            directBuffers.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * Gets the pool shared by the whole process. It keeps at most 64MB of heap buffers and 32MB of direct
+     * buffers, and its buffers are reserved from the shared {@link MemoryBudget}.
+     * @return shared pool
+     */
+    public static BufferPool getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Picks the size of buffer for data of given length: the smallest size class that holds all the data,
+     * but at most the maximal size.
+     * @param expectedLength expected length of data (in bytes), negative if it is not known
+     * @param maxSize maximal size of buffer
+     * @return size of buffer
+     */
+    public static int sizeFor(long expectedLength, int maxSize) {
+        if (expectedLength < 0)
+            return Math.min(DEFAULT_BUFFER_SIZE, maxSize);
+        if (expectedLength >= maxSize)
+            return maxSize;
+        return Math.min(getClassSize((int) expectedLength), maxSize);
+    }
+
+    /**
+     * Gets the size of the size class of buffer of given size.
+     * @param size requested size
+     * @return size of the class, or the requested size if it is larger than the largest class
+     */
+    private static int getClassSize(int size) {
+        if (size <= MIN_BUFFER_SIZE)
+            return MIN_BUFFER_SIZE;
+        if (size > MAX_BUFFER_SIZE)
+            return size;
+        return Integer.highestOneBit(size - 1) << 1;
+    }
+
+    /**
+     * Gets the index of size class of buffer.
+     * @param classSize size of the class
+     * @return index of the class, or -1 if the size is not a pooled class
+     */
+    private static int getClassIndex(int classSize) {
+        if (classSize < MIN_BUFFER_SIZE || classSize > MAX_BUFFER_SIZE || Integer.bitCount(classSize) != 1)
+            return -1;
+        return Integer.numberOfTrailingZeros(classSize) - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    }
+
+    /**
+     * Takes a heap buffer of at least given size. Its length is the size of its size class, or a smaller
+     * size, when the memory budget ran out.
+     * @param size requested size of buffer
+     * @return buffer, its contents are undefined
+     */
+    public byte[] acquire(int size) {
+        return acquire(size, MIN_BUFFER_SIZE);
+    }
+
+    /**
+     * Takes a heap buffer of at least given size. When the memory budget ran out, a smaller buffer is taken,
+     * but never smaller than the minimal size, which is reserved over the limit if needed.
+     * @param size requested size of buffer
+     * @param minimalSize the smallest size the caller can work with
+     * @return buffer, its contents are undefined
+     */
+    public byte[] acquire(int size, int minimalSize) {
+        acquireCount.increment();
+        int classSize = getClassSize(size);
+        int index = getClassIndex(classSize);
+        if (index >= 0) {
+            byte[] buffer = arrays.get(index).poll();
+            if (buffer != null) {
+                pooledBytes.addAndGet(-buffer.length);
+                reuseCount.increment();
+                return buffer;
+            }
+        }
+
+        classSize = reserve(classSize, getClassSize(Math.min(size, minimalSize)));
+        allocatedBytes.add(classSize);
+        return new byte[classSize];
+    }
+
+    /**
+     * Returns the heap buffer into the pool. Buffer must not be used after it is released.
+     * @param buffer buffer taken by {@link BufferPool#acquire(int)}
+     */
+    public void release(byte[] buffer) {
+        int index = getClassIndex(buffer.length);
+        if (index < 0) {
+            budget.release(CONSUMER, buffer.length);
+            return;
+        }
+
+        if (pooledBytes.addAndGet(buffer.length) > maxPooledBytes || budget.hasWaiters()) {
+            pooledBytes.addAndGet(-buffer.length);
+            budget.release(CONSUMER, buffer.length);
+            dropCount.increment();
+            return;
+        }
+        arrays.get(index).offer(buffer);
+    }
+
+    /**
+     * Takes a direct buffer of at least given size. Its capacity is the size of its size class, or a smaller
+     * size, when the memory budget ran out. It is cleared.
+     * @param size requested size of buffer
+     * @return direct buffer
+     */
+    public ByteBuffer acquireDirect(int size) {
+        acquireCount.increment();
+        int classSize = getClassSize(size);
+        int index = getClassIndex(classSize);
+        if (index >= 0) {
+            ByteBuffer buffer = directBuffers.get(index).poll();
+            if (buffer != null) {
+                pooledDirectBytes.addAndGet(-buffer.capacity());
+                reuseCount.increment();
+                buffer.clear();
+                return buffer;
+            }
+        }
+
+        classSize = reserve(classSize, MIN_BUFFER_SIZE);
+        allocatedBytes.add(classSize);
+        return ByteBuffer.allocateDirect(classSize);
+    }
+
+    /**
+     * Returns the direct buffer into the pool. Buffer must not be used after it is released.
+     * @param buffer buffer taken by {@link BufferPool#acquireDirect(int)}
+     */
+    public void releaseDirect(ByteBuffer buffer) {
+        int index = getClassIndex(buffer.capacity());
+        if (index < 0 || !buffer.isDirect()) {
+            budget.release(CONSUMER, buffer.capacity());
+            return;
+        }
+
+        if (pooledDirectBytes.addAndGet(buffer.capacity()) > maxPooledDirectBytes || budget.hasWaiters()) {
+            pooledDirectBytes.addAndGet(-buffer.capacity());
+            budget.release(CONSUMER, buffer.capacity());
+            dropCount.increment();
+            return;
+        }
+        directBuffers.get(index).offer(buffer);
+    }
+
+    /**
+     * Reserves the memory of new buffer. When the budget ran out, the pooled buffers are given up first, then
+     * smaller sizes are tried, and the minimal size is reserved over the limit.
+     * @param classSize size of the size class of buffer
+     * @param minimalClassSize the smallest size class that may be reserved
+     * @return size of buffer that was reserved
+     */
+    private int reserve(int classSize, int minimalClassSize) {
+        if (budget.tryReserve(CONSUMER, classSize))
+            return classSize;
+        if (trim(classSize) > 0 && budget.tryReserve(CONSUMER, classSize))
+            return classSize;
+
+        shrinkCount.increment();
+        while (classSize > minimalClassSize) {
+            classSize = Math.max(Math.min(classSize / 2, MAX_BUFFER_SIZE), minimalClassSize);
+            if (budget.tryReserve(CONSUMER, classSize))
+                return classSize;
+        }
+        budget.reserveOvercommitting(CONSUMER, classSize);
+        return classSize;
+    }
+
+    /**
+     * Gives up the pooled buffers, the largest first, and releases their memory from the budget.
+     * @param bytes number of bytes that should be freed
+     * @return number of bytes freed
+     */
+    public long trim(long bytes) {
+        long freed = 0;
+        for (int i = CLASS_COUNT - 1; i >= 0 && freed < bytes; i--) {
+            byte[] buffer;
+            while (freed < bytes && (buffer = arrays.get(i).poll()) != null) {
+                pooledBytes.addAndGet(-buffer.length);
+                freed += buffer.length;
+            }
+            ByteBuffer directBuffer;
+            while (freed < bytes && (directBuffer = directBuffers.get(i).poll()) != null) {
+                pooledDirectBytes.addAndGet(-directBuffer.capacity());
+                freed += directBuffer.capacity();
+            }
+        }
+        budget.release(CONSUMER, freed);
+        return freed;
+    }
+
+    /**
+     * Gets the statistics of the pool.
+     * @return statistics
+     */
+    public Statistics getStatistics() {
+        return new Statistics(acquireCount.sum(), reuseCount.sum(), allocatedBytes.sum(), dropCount.sum(),
+                pooledBytes.get(), pooledDirectBytes.get(), shrinkCount.sum());
+    }
+}
@@ -0,0 +1,337 @@
+package huffManager.memory;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Budget of memory shared by the buffers, caches and parallel work of archives and codecs. Memory is reserved
+ * from the budget before it is allocated and released when it is freed, every reservation is recorded under
+ * the name of its consumer, so the current use can be monitored.
+ * <p>
+ * Work that holds no memory yet blocks in {@link MemoryBudget#reserve(String, long)} until there is enough
+ * memory in the budget. Consumers that can do with less memory use {@link MemoryBudget#tryReserve(String, long)}
+ * and spill to disk or shrink when it is denied. Memory kept only to speed things up (pooled buffers, cached
+ * data) is given back by reclaimers, which are asked to free memory before anyone waits.
+ * @author Jan Bryda
+ */
+public class MemoryBudget {
+    /** limit of the budget that never runs out */
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    private static final MemoryBudget SHARED = new MemoryBudget(getDefaultLimit());
+
+    /**
+     * Frees memory it keeps for reuse, when the budget runs out.
+     */
+    public interface Reclaimer {
+        /**
+         * Frees at least given number of bytes, if it can, and releases them from the budget.
+         * @param bytes number of bytes needed
+         * @return number of bytes freed
+         */
+        long reclaim(long bytes);
+    }
+
+    /**
+     * Statistics of the budget since its creation.
+     */
+    public static class Statistics {
+        /** limit of the budget (in bytes) */
+        public final long limit;
+        /** number of bytes reserved */
+        public final long reserved;
+        /** the highest number of bytes reserved at once */
+        public final long peakReserved;
+        /** number of threads waiting for memory */
+        public final int waitingCount;
+        /** number of reservations that had to wait */
+        public final long waitCount;
+        /** number of reservations that were denied */
+        public final long deniedCount;
+        /** number of reservations granted over the limit */
+        public final long overcommitCount;
+        /** number of bytes reserved by the names of consumers */
+        public final Map<String, Long> reservedByConsumer;
+
+        Statistics(long limit, long reserved, long peakReserved, int waitingCount, long waitCount, long deniedCount,
+                   long overcommitCount, Map<String, Long> reservedByConsumer) {
+            this.limit = limit;
+            this.reserved = reserved;
+            this.peakReserved = peakReserved;
+            this.waitingCount = waitingCount;
+            this.waitCount = waitCount;
+            this.deniedCount = deniedCount;
+            this.overcommitCount = overcommitCount;
+            this.reservedByConsumer = reservedByConsumer;
+        }
+
+        @Override
+        public String toString() {
+            return reserved + "B of " + (limit == UNLIMITED ? "unlimited" : limit + "B") + " reserved "
+                    + reservedByConsumer + ", peak " + peakReserved + "B, " + waitingCount + " waiting, "
+                    + waitCount + " waits, " + deniedCount + " denied, " + overcommitCount + " overcommitted";
+        }
+    }
+
+    private final List<Reclaimer> reclaimers = new CopyOnWriteArrayList<>();
+    private final Map<String, Long> reservedByConsumer = new TreeMap<>();
+    /** number of bytes reserved by waiting by the names of consumers */
+    private final Map<String, Long> waitingReservedByConsumer = new HashMap<>();
+    private long limit;
+    private long reserved = 0;
+    private long peakReserved = 0;
+    private int waitingCount = 0;
+    private long waitCount = 0;
+    private long deniedCount = 0;
+    private long overcommitCount = 0;
+
+    /**
+     * Creates new MemoryBudget.
+     * @param limit maximal number of bytes reserved at once, or {@link MemoryBudget#UNLIMITED}
+     */
+    public MemoryBudget(long limit) {
+        setLimit(limit);
+    }
+
+    /**
+     * Gets the budget shared by the whole process. Its limit is a quarter of the maximal heap size at first.
+     * @return shared budget
+     */
+    public static MemoryBudget getShared() {
+        return SHARED;
+    }
+
+    private static long getDefaultLimit() {
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        return maxMemory == Long.MAX_VALUE ? UNLIMITED : maxMemory / 4;
+    }
+
+    /**
+     * Sets the maximal number of bytes reserved at once. Reservations above the new limit are kept, new ones
+     * wait until enough memory is released.
+     * @param limit limit (in bytes), or {@link MemoryBudget#UNLIMITED}
+     */
+    public synchronized void setLimit(long limit) {
+        if (limit <= 0)
+            throw new IllegalArgumentException("Limit of memory budget has to be positive!");
+        this.limit = limit;
+        notifyAll();
+    }
+
+    /**
+     * Gets the maximal number of bytes reserved at once.
+     * @return limit (in bytes)
+     */
+    public synchronized long getLimit() {
+        return limit;
+    }
+
+    /**
+     * Gets the number of reserved bytes.
+     * @return reserved bytes
+     */
+    public synchronized long getReserved() {
+        return reserved;
+    }
+
+    /**
+     * Gets the number of bytes that can be reserved without waiting.
+     * @return available bytes
+     */
+    public synchronized long getAvailable() {
+        return Math.max(0, limit - reserved);
+    }
+
+    /**
+     * Tells whether some thread waits for memory. Memory kept for reuse should be released then.
+     * @return true if a thread waits
+     */
+    public synchronized boolean hasWaiters() {
+        return waitingCount > 0;
+    }
+
+    /**
+     * Adds the reclaimer, which is asked to free memory when the budget runs out.
+     * @param reclaimer reclaimer
+     */
+    public void addReclaimer(Reclaimer reclaimer) {
+        reclaimers.add(reclaimer);
+    }
+
+    /**
+     * Removes the reclaimer.
+     * @param reclaimer reclaimer
+     */
+    public void removeReclaimer(Reclaimer reclaimer) {
+        reclaimers.remove(reclaimer);
+    }
+
+    /**
+     * Reserves the memory, waiting until there is enough of it in the budget. Reservation larger than the whole
+     * limit could never fit, so it waits only until no memory reserved by waiting is held, and then it is
+     * granted over the limit, as the rest of the memory is either reclaimable or held for a short time. Caller
+     * must not hold reservations made by waiting, that others wait for, nor keep memory reserved otherwise
+     * that it would need to get back to fit. Consumer should reserve either always by waiting, or never.
+     * @param consumer name of the consumer
+     * @param bytes number of bytes
+     * @throws InterruptedException when the thread is interrupted while waiting
+     */
+    public void reserve(String consumer, long bytes) throws InterruptedException {
+        reserve(consumer, bytes, false);
+    }
+
+    /**
+     * Reserves the memory needed by the work that has to go on for the consumer to make progress, while the
+     * consumer keeps other memory reserved (buffers, data not written yet). It waits as
+     * {@link MemoryBudget#reserve(String, long)} while memory reserved by waiting is held, but when none is held,
+     * the reservation is granted even over the limit, as the rest of the memory is either reclaimable or held
+     * by the caller itself, so waiting would never end.
+     * @param consumer name of the consumer
+     * @param bytes number of bytes
+     * @throws InterruptedException when the thread is interrupted while waiting
+     */
+    public void reserveForProgress(String consumer, long bytes) throws InterruptedException {
+        reserve(consumer, bytes, true);
+    }
+
+    private void reserve(String consumer, long bytes, boolean progress) throws InterruptedException {
+        checkBytes(bytes);
+        synchronized (this) {
+            if (waitingCount == 0 && fits(bytes, progress)) {
+                addWaiting(consumer, bytes);
+                return;
+            }
+        }
+
+        // reclaimers release memory into the budget, so they are called without holding its lock
+        reclaim(bytes);
+        synchronized (this) {
+            waitingCount++;
+            waitCount++;
+            try {
+                while (!fits(bytes, progress))
+                    wait();
+            } finally {
+                waitingCount--;
+            }
+            addWaiting(consumer, bytes);
+        }
+    }
+
+    /**
+     * Reserves the memory as {@link MemoryBudget#reserve(String, long)} does, but only if it does not have to wait
+     * for it. Consumers that reserve by waiting use it to find out whether they would block.
+     * @param consumer name of the consumer
+     * @param bytes number of bytes
+     * @return true if the memory was reserved
+     */
+    public synchronized boolean reserveIfFits(String consumer, long bytes) {
+        checkBytes(bytes);
+        if (waitingCount > 0 || !fits(bytes, false))
+            return false;
+        addWaiting(consumer, bytes);
+        return true;
+    }
+
+    /**
+     * Reserves the memory, if there is enough of it in the budget and nobody waits for memory.
+     * @param consumer name of the consumer
+     * @param bytes number of bytes
+     * @return true if the memory was reserved
+     */
+    public synchronized boolean tryReserve(String consumer, long bytes) {
+        checkBytes(bytes);
+        if (waitingCount > 0 || bytes > limit - reserved) {
+            deniedCount++;
+            return false;
+        }
+        add(consumer, bytes);
+        return true;
+    }
+
+    /**
+     * Reserves the memory even over the limit. It is meant for the smallest amounts of memory needed to make
+     * progress, which can't wait.
+     * @param consumer name of the consumer
+     * @param bytes number of bytes
+     */
+    public synchronized void reserveOvercommitting(String consumer, long bytes) {
+        checkBytes(bytes);
+        if (bytes > limit - reserved)
+            overcommitCount++;
+        add(consumer, bytes);
+    }
+
+    /**
+     * Releases the memory reserved before.
+     * @param consumer name of the consumer
+     * @param bytes number of bytes
+     */
+    public synchronized void release(String consumer, long bytes) {
+        checkBytes(bytes);
+        if (bytes == 0)
+            return;
+        reserved -= bytes;
+        Long waitingReserved = waitingReservedByConsumer.remove(consumer);
+        if (waitingReserved != null && waitingReserved > bytes)
+            waitingReservedByConsumer.put(consumer, waitingReserved - bytes);
+        long consumerReserved = reservedByConsumer.getOrDefault(consumer, 0L) - bytes;
+        if (consumerReserved == 0)
+            reservedByConsumer.remove(consumer);
+        else
+            reservedByConsumer.put(consumer, consumerReserved);
+        if (waitingCount > 0)
+            notifyAll();
+    }
+
+    /**
+     * Asks the reclaimers to free given number of bytes.
+     * @param bytes number of bytes needed
+     * @return number of bytes freed
+     */
+    public long reclaim(long bytes) {
+        long freed = 0;
+        for (Reclaimer reclaimer : reclaimers) {
+            if (freed >= bytes)
+                break;
+            freed += reclaimer.reclaim(bytes - freed);
+        }
+        return freed;
+    }
+
+    /**
+     * Gets the statistics of the budget.
+     * @return statistics
+     */
+    public synchronized Statistics getStatistics() {
+        return new Statistics(limit, reserved, peakReserved, waitingCount, waitCount, deniedCount, overcommitCount,
+                Collections.unmodifiableMap(new TreeMap<>(reservedByConsumer)));
+    }
+
+    private boolean fits(long bytes, boolean progress) {
+        if (bytes <= limit - reserved)
+            return true;
+        return (progress || bytes > limit) && waitingReservedByConsumer.isEmpty();
+    }
+
+    private void addWaiting(String consumer, long bytes) {
+        if (bytes > limit - reserved)
+            overcommitCount++;
+        add(consumer, bytes);
+        if (bytes > 0)
+            waitingReservedByConsumer.merge(consumer, bytes, Long::sum);
+    }
+
+    private void add(String consumer, long bytes) {
+        if (bytes == 0)
+            return;
+        reserved += bytes;
+        peakReserved = Math.max(peakReserved, reserved);
+        reservedByConsumer.merge(consumer, bytes, Long::sum);
+    }
+
+    private static void checkBytes(long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("Number of bytes can't be negative!");
+    }
+}
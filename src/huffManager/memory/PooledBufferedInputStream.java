@@ -0,0 +1,36 @@
+package huffManager.memory;
+
+import java.io.*;
+
+/**
+ * Buffered input stream, whose buffer is taken from the shared {@link BufferPool} and returned into it when
+ * the stream is closed.
+ * @author Jan Bryda
+ */
+public class PooledBufferedInputStream extends BufferedInputStream {
+    private byte[] pooledBuffer;
+
+    /**
+     * Creates new PooledBufferedInputStream.
+     * @param input underlying input stream
+     * @param size size of buffer, see {@link BufferPool#sizeFor(long, int)}
+     */
+    public PooledBufferedInputStream(InputStream input, int size) {
+        super(input, 1);
+        pooledBuffer = BufferPool.getShared().acquire(size);
+        buf = pooledBuffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            synchronized (this) {
+                if (pooledBuffer != null)
+                    BufferPool.getShared().release(pooledBuffer);
+                pooledBuffer = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package huffManager.memory;
+
+import java.io.*;
+
+/**
+ * Buffered output stream, whose buffer is taken from the shared {@link BufferPool} and returned into it when
+ * the stream is closed.
+ * @author Jan Bryda
+ */
+public class PooledBufferedOutputStream extends BufferedOutputStream {
+    private boolean closed = false;
+
+    /**
+     * Creates new PooledBufferedOutputStream.
+     * @param output underlying output stream
+     * @param size size of buffer, see {@link BufferPool#sizeFor(long, int)}
+     */
+    public PooledBufferedOutputStream(OutputStream output, int size) {
+        super(output, 1);
+        buf = BufferPool.getShared().acquire(size);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+
+        try {
+            super.close();
+        } finally {
+            byte[] pooledBuffer = buf;
+            buf = new byte[1];
+            count = 0;
+            BufferPool.getShared().release(pooledBuffer);
+        }
+    }
+}
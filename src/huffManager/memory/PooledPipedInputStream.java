@@ -0,0 +1,68 @@
+package huffManager.memory;
+
+import java.io.*;
+
+/**
+ * Piped input stream, whose circular buffer is taken from the shared {@link BufferPool}. Closing the reader does
+ * not stop a writer that is already inside {@link PipedInputStream#receive(int)}, which may still write into
+ * the buffer, so the buffer is returned into the pool only when the stream is closed and the writer thread
+ * reported by {@link PooledPipedInputStream#writerFinished()} that it does not write anymore. Buffer of a pipe,
+ * whose writer never finishes, is not returned.
+ * @author Jan Bryda
+ */
+public class PooledPipedInputStream extends PipedInputStream {
+    private byte[] pooledBuffer;
+    /** tells whether the reader closed the stream */
+    private boolean closed = false;
+    /** tells whether the writer thread finished */
+    private boolean writerFinished = false;
+
+    /**
+     * Creates new PooledPipedInputStream, that is not connected yet.
+     * @param size size of the pipe buffer, see {@link BufferPool#sizeFor(long, int)}
+     */
+    public PooledPipedInputStream(int size) {
+        super(1);
+        pooledBuffer = BufferPool.getShared().acquire(size);
+        buffer = pooledBuffer;
+    }
+
+    /**
+     * Creates new PooledPipedInputStream connected to the piped output stream.
+     * @param source piped output stream
+     * @param size size of the pipe buffer, see {@link BufferPool#sizeFor(long, int)}
+     * @throws IOException if the output stream is already connected
+     */
+    public PooledPipedInputStream(PipedOutputStream source, int size) throws IOException {
+        this(size);
+        connect(source);
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        synchronized (this) {
+            closed = true;
+            releaseIfUnused();
+        }
+    }
+
+    /**
+     * Tells the pipe that its writer thread finished and does not write into the pipe anymore. The writer
+     * has to call this method as the last action, even when it failed.
+     */
+    public synchronized void writerFinished() {
+        writerFinished = true;
+        releaseIfUnused();
+    }
+
+    /**
+     * Returns the buffer into the pool, when neither the reader nor the writer use it.
+     */
+    private void releaseIfUnused() {
+        if (closed && writerFinished && pooledBuffer != null) {
+            BufferPool.getShared().release(pooledBuffer);
+            pooledBuffer = null;
+        }
+    }
+}
@@ -0,0 +1,6 @@
+/**
+ * Memory package contains the memory budget shared by the archives and codecs
+ * ({@link huffManager.memory.MemoryBudget}), the shared pool of I/O buffers ({@link huffManager.memory.BufferPool})
+ * and the buffered streams, whose buffers are taken from the pool and returned into it when the streams are closed.
+ */
+package huffManager.memory;
@@ -0,0 +1,32 @@
+package huffManager.nio;
+
+import java.io.IOException;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.attribute.*;
+
+/**
+ * Read-only view of the basic attributes of file or directory of archive.
+ * @author Jan Bryda
+ */
+class HuffFileAttributeView implements BasicFileAttributeView {
+    private final HuffPath path;
+
+    HuffFileAttributeView(HuffPath path) {
+        this.path = path;
+    }
+
+    @Override
+    public String name() {
+        return "basic";
+    }
+
+    @Override
+    public BasicFileAttributes readAttributes() throws IOException {
+        return path.getFileSystem().readAttributes(path);
+    }
+
+    @Override
+    public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) {
+        throw new ReadOnlyFileSystemException();
+    }
+}
@@ -0,0 +1,137 @@
+package huffManager.nio;
+
+import huffManager.archive.*;
+
+import java.nio.file.attribute.*;
+import java.util.*;
+
+/**
+ * Basic attributes of file or directory of archive. All the times of file are the modification time of its
+ * source, which is recorded in the archive (or the epoch, if it is unknown).
+ * @author Jan Bryda
+ */
+public class HuffFileAttributes implements BasicFileAttributes {
+    /** names of the basic attributes */
+    private static final String[] NAMES = { "lastModifiedTime", "lastAccessTime", "creationTime", "size",
+            "isRegularFile", "isDirectory", "isSymbolicLink", "isOther", "fileKey" };
+
+    private final boolean directory;
+    private final long size;
+    private final FileTime modifiedTime;
+
+    /**
+     * Creates the attributes of archive file.
+     * @param file archive file
+     */
+    HuffFileAttributes(ArchiveFile file) {
+        this.directory = false;
+        this.size = file.getSize();
+        this.modifiedTime = FileTime.fromMillis(file.getModifiedTime());
+    }
+
+    /**
+     * Creates the attributes of archive directory.
+     * @param directory archive directory
+     */
+    HuffFileAttributes(ArchiveDirectory directory) {
+        this.directory = true;
+        this.size = 0;
+        this.modifiedTime = FileTime.fromMillis(0);
+    }
+
+    @Override
+    public FileTime lastModifiedTime() {
+        return modifiedTime;
+    }
+
+    @Override
+    public FileTime lastAccessTime() {
+        return modifiedTime;
+    }
+
+    @Override
+    public FileTime creationTime() {
+        return modifiedTime;
+    }
+
+    @Override
+    public boolean isRegularFile() {
+        return !directory;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    @Override
+    public boolean isSymbolicLink() {
+        return false;
+    }
+
+    @Override
+    public boolean isOther() {
+        return false;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public Object fileKey() {
+        return null;
+    }
+
+    /**
+     * Gets the attributes with given names as map, see {@link java.nio.file.Files#readAttributes(java.nio.file.Path,
+     * String, java.nio.file.LinkOption...)}.
+     * @param attributes names of attributes separated by ',', optionally preceded by "basic:", or "*"
+     * @return attributes by their names
+     */
+    Map<String, Object> toMap(String attributes) {
+        int separator = attributes.indexOf(':');
+        if (separator >= 0) {
+            if (!attributes.substring(0, separator).equals("basic"))
+                throw new UnsupportedOperationException("Attribute view is not supported : " + attributes);
+            attributes = attributes.substring(separator + 1);
+        }
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (String name : attributes.split(",")) {
+            if (name.equals("*")) {
+                for (String basicName : NAMES)
+                    map.put(basicName, get(basicName));
+            } else {
+                map.put(name, get(name));
+            }
+        }
+        return map;
+    }
+
+    private Object get(String name) {
+        switch (name) {
+            case "lastModifiedTime":
+                return lastModifiedTime();
+            case "lastAccessTime":
+                return lastAccessTime();
+            case "creationTime":
+                return creationTime();
+            case "size":
+                return size();
+            case "isRegularFile":
+                return isRegularFile();
+            case "isDirectory":
+                return isDirectory();
+            case "isSymbolicLink":
+                return isSymbolicLink();
+            case "isOther":
+                return isOther();
+            case "fileKey":
+                return fileKey();
+            default:
+                throw new IllegalArgumentException("Unknown attribute : " + name);
+        }
+    }
+}
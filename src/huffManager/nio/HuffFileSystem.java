@@ -0,0 +1,327 @@
+package huffManager.nio;
+
+import huffManager.archive.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Read-only file system of one archive. The archive is loaded when the file system is created and the metadata
+ * of its directories (files and subdirectories by their absolute paths, sorted entries of directories) are
+ * cached, so looking up and listing the paths does not touch the archive file. The cache is not changed after
+ * creation, so any number of threads can read the file system at once. Archive is closed with the file system.
+ * @author Jan Bryda
+ */
+public class HuffFileSystem extends FileSystem {
+    private final HuffFileSystemProvider provider;
+    /** path of the archive file */
+    private final Path archivePath;
+    private final Archive archive;
+    private final HuffFileStore fileStore;
+    /** directories by their absolute paths */
+    private final Map<String, ArchiveDirectory> directories = new HashMap<>();
+    /** files by their absolute paths */
+    private final Map<String, ArchiveFile> files = new HashMap<>();
+    /** sorted names of entries of directories by absolute paths of directories */
+    private final Map<String, List<String>> entries = new HashMap<>();
+    private volatile boolean open = true;
+
+    /**
+     * Creates new HuffFileSystem of loaded archive.
+     * @param provider provider of the file system
+     * @param archivePath path of the archive file
+     * @param archive loaded archive, it is closed with the file system
+     */
+    HuffFileSystem(HuffFileSystemProvider provider, Path archivePath, Archive archive) {
+        this.provider = provider;
+        this.archivePath = archivePath;
+        this.archive = archive;
+        this.fileStore = new HuffFileStore(this);
+        addDirectory("/", archive.getRootDirectory());
+    }
+
+    /**
+     * Adds the directory and its contents into the cache of metadata.
+     * @param path absolute path of the directory
+     * @param directory directory of the archive
+     */
+    private void addDirectory(String path, ArchiveDirectory directory) {
+        directories.put(path, directory);
+        String prefix = path.equals("/") ? "/" : path + "/";
+
+        Set<String> names = new TreeSet<>();
+        for (ArchiveDirectory subdirectory : directory.getSubdirectories()) {
+            if (names.add(subdirectory.getName()))
+                addDirectory(prefix + subdirectory.getName(), subdirectory);
+        }
+        for (ArchiveFile file : directory.getFiles()) {
+            if (names.add(file.getName()))
+                files.put(prefix + file.getName(), file);
+        }
+        entries.put(path, Collections.unmodifiableList(new ArrayList<>(names)));
+    }
+
+    /**
+     * Gets the path of the archive file.
+     * @return path of archive file
+     */
+    public Path getArchivePath() {
+        return archivePath;
+    }
+
+    /**
+     * Gets the archive of this file system.
+     * @return archive
+     */
+    public Archive getArchive() {
+        return archive;
+    }
+
+    /**
+     * Gets the key of the path in the cache of metadata.
+     * @param path path
+     * @return absolute normalized path string
+     */
+    private static String getKey(HuffPath path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Finds the archive file with given path.
+     * @param path path
+     * @return archive file, or null if there is no file with that path (it may be a directory)
+     * @throws ClosedFileSystemException if the file system is closed
+     */
+    ArchiveFile getFile(HuffPath path) {
+        ensureOpen();
+        return files.get(getKey(path));
+    }
+
+    /**
+     * Lists the names of entries of the directory with given path.
+     * @param path path of directory
+     * @return sorted names of subdirectories and files
+     * @throws NoSuchFileException if there is no such file or directory
+     * @throws NotDirectoryException if the path is a file
+     */
+    List<String> getEntries(HuffPath path) throws NoSuchFileException, NotDirectoryException {
+        ensureOpen();
+        String key = getKey(path);
+        List<String> names = entries.get(key);
+        if (names != null)
+            return names;
+        if (files.containsKey(key))
+            throw new NotDirectoryException(path.toString());
+        throw new NoSuchFileException(path.toString());
+    }
+
+    /**
+     * Reads the attributes of the file or directory with given path.
+     * @param path path
+     * @return attributes
+     * @throws NoSuchFileException if there is no such file or directory
+     */
+    HuffFileAttributes readAttributes(HuffPath path) throws NoSuchFileException {
+        ensureOpen();
+        String key = getKey(path);
+        ArchiveFile file = files.get(key);
+        if (file != null)
+            return new HuffFileAttributes(file);
+
+        ArchiveDirectory directory = directories.get(key);
+        if (directory != null)
+            return new HuffFileAttributes(directory);
+        throw new NoSuchFileException(path.toString());
+    }
+
+    /**
+     * Checks that the file system is open.
+     * @throws ClosedFileSystemException if it is closed
+     */
+    void ensureOpen() {
+        if (!open)
+            throw new ClosedFileSystemException();
+    }
+
+    @Override
+    public FileSystemProvider provider() {
+        return provider;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!open)
+            return;
+        open = false;
+        provider.removeFileSystem(this);
+        archive.close();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public String getSeparator() {
+        return "/";
+    }
+
+    @Override
+    public Iterable<Path> getRootDirectories() {
+        ensureOpen();
+        return Collections.singletonList(new HuffPath(this, "/"));
+    }
+
+    @Override
+    public Iterable<FileStore> getFileStores() {
+        ensureOpen();
+        return Collections.singletonList(fileStore);
+    }
+
+    /**
+     * Gets the only file store of this file system.
+     * @return file store
+     */
+    HuffFileStore getFileStore() {
+        return fileStore;
+    }
+
+    @Override
+    public Set<String> supportedFileAttributeViews() {
+        return Collections.singleton("basic");
+    }
+
+    @Override
+    public Path getPath(String first, String... more) {
+        StringBuilder path = new StringBuilder(first);
+        for (String name : more) {
+            if (name.isEmpty())
+                continue;
+            if (path.length() > 0)
+                path.append('/');
+            path.append(name);
+        }
+        return new HuffPath(this, path.toString());
+    }
+
+    /**
+     * Gets the matcher of paths. Syntax "glob" uses the patterns of {@link ArchiveIndex#glob(String)}, syntax
+     * "regex" uses {@link Pattern}.
+     * @param syntaxAndPattern syntax and pattern separated by ':'
+     * @return path matcher
+     */
+    @Override
+    public PathMatcher getPathMatcher(String syntaxAndPattern) {
+        int separator = syntaxAndPattern.indexOf(':');
+        if (separator <= 0)
+            throw new IllegalArgumentException("Syntax of pattern is missing : " + syntaxAndPattern);
+
+        String syntax = syntaxAndPattern.substring(0, separator);
+        String pattern = syntaxAndPattern.substring(separator + 1);
+        Pattern regex;
+        if (syntax.equalsIgnoreCase("glob"))
+            regex = ArchiveIndex.globToRegex(pattern);
+        else if (syntax.equalsIgnoreCase("regex"))
+            regex = Pattern.compile(pattern);
+        else
+            throw new UnsupportedOperationException("Syntax of pattern is not supported : " + syntax);
+
+        return path -> regex.matcher(path.toString()).matches();
+    }
+
+    @Override
+    public UserPrincipalLookupService getUserPrincipalLookupService() {
+        throw new UnsupportedOperationException("Archive file system has no users!");
+    }
+
+    @Override
+    public WatchService newWatchService() {
+        throw new UnsupportedOperationException("Archive file system can't be watched!");
+    }
+
+    @Override
+    public String toString() {
+        return archivePath.toString();
+    }
+}
+
+/**
+ * The only file store of the file system of archive. Its total space is the decoded size of all files.
+ * @author Jan Bryda
+ */
+class HuffFileStore extends FileStore {
+    private final HuffFileSystem fileSystem;
+
+    HuffFileStore(HuffFileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+    }
+
+    @Override
+    public String name() {
+        return fileSystem.getArchivePath().toString();
+    }
+
+    @Override
+    public String type() {
+        return HuffFileSystemProvider.SCHEME;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public long getTotalSpace() {
+        return fileSystem.getArchive().getRootDirectory().getSize();
+    }
+
+    @Override
+    public long getUsableSpace() {
+        return 0;
+    }
+
+    @Override
+    public long getUnallocatedSpace() {
+        return 0;
+    }
+
+    @Override
+    public boolean supportsFileAttributeView(Class<? extends FileAttributeView> type) {
+        return type == BasicFileAttributeView.class;
+    }
+
+    @Override
+    public boolean supportsFileAttributeView(String name) {
+        return name.equals("basic");
+    }
+
+    @Override
+    public <V extends FileStoreAttributeView> V getFileStoreAttributeView(Class<V> type) {
+        return null;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws IOException {
+        switch (attribute) {
+            case "totalSpace":
+                return getTotalSpace();
+            case "usableSpace":
+                return getUsableSpace();
+            case "unallocatedSpace":
+                return getUnallocatedSpace();
+            default:
+                throw new UnsupportedOperationException("Attribute of file store is not supported : " + attribute);
+        }
+    }
+}
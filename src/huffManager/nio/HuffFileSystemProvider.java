@@ -0,0 +1,319 @@
+package huffManager.nio;
+
+import huffManager.archive.*;
+import huffManager.archive.exceptions.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Provider of read-only file systems over archives (see {@link HuffFileSystem}). URI of a file in archive has
+ * the scheme "huff", followed by the URI of the archive file, '!' and the absolute path in the archive, e.g.
+ * {@code huff:file:///data/logs.arc!/2020/app.log}. File systems created by URI are registered by the path
+ * of archive file until they are closed, file systems created by path (also through
+ * {@link FileSystems#newFileSystem(Path, ClassLoader)}) are not registered.
+ * <p>
+ * Files are read through {@link ArchiveFile#openChannel()}, so reading at a position decodes only from the
+ * nearest restart point of the file and the data stored verbatim are read at their position.
+ * @author Jan Bryda
+ */
+public class HuffFileSystemProvider extends FileSystemProvider {
+    /** URI scheme of the archive file systems */
+    public static final String SCHEME = "huff";
+
+    /** file systems created by URI, by the absolute paths of their archive files */
+    private final Map<Path, HuffFileSystem> fileSystems = new ConcurrentHashMap<>();
+
+    @Override
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    /**
+     * Gets the path of archive file from the URI of file system or of file in archive.
+     * @param uri URI
+     * @return absolute path of archive file
+     */
+    private Path getArchivePath(URI uri) {
+        if (!SCHEME.equalsIgnoreCase(uri.getScheme()))
+            throw new IllegalArgumentException("URI scheme is not " + SCHEME + " : " + uri);
+
+        String archiveUri = uri.getSchemeSpecificPart();
+        int separator = archiveUri.indexOf("!/");
+        if (separator >= 0)
+            archiveUri = archiveUri.substring(0, separator);
+        else if (archiveUri.endsWith("!"))
+            archiveUri = archiveUri.substring(0, archiveUri.length() - 1);
+
+        try {
+            return Paths.get(new URI(archiveUri)).toAbsolutePath().normalize();
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Bad URI of archive file : " + archiveUri, e);
+        }
+    }
+
+    /**
+     * Loads the archive and creates its file system.
+     * @param archivePath absolute path of archive file
+     * @return file system
+     * @throws IOException when the archive can't be loaded
+     */
+    private HuffFileSystem createFileSystem(Path archivePath) throws IOException {
+        try {
+            return new HuffFileSystem(this, archivePath, new ArchiveLoader().load(archivePath.toFile()));
+        } catch (BadArchiveFormatException e) {
+            throw new IOException("Archive file system : archive has bad format!", e);
+        } catch (ArchiveLoadingException e) {
+            throw new IOException("Archive file system : unable to load archive!", e);
+        }
+    }
+
+    @Override
+    public FileSystem newFileSystem(URI uri, Map<String, ?> env) throws IOException {
+        Path archivePath = getArchivePath(uri);
+        if (!ArchiveLoader.isArchive(archivePath.toFile()))
+            throw new NoSuchFileException(archivePath.toString(), null, "File is not an archive");
+
+        synchronized (fileSystems) {
+            if (fileSystems.containsKey(archivePath))
+                throw new FileSystemAlreadyExistsException(archivePath.toString());
+            HuffFileSystem fileSystem = createFileSystem(archivePath);
+            fileSystems.put(archivePath, fileSystem);
+            return fileSystem;
+        }
+    }
+
+    /**
+     * Creates the file system of the archive file on the default file system.
+     * @param path path of archive file
+     * @param env environment, it is not used
+     * @return file system
+     * @throws UnsupportedOperationException if the file is not an archive, so other providers can be tried
+     * @throws IOException when the archive can't be loaded
+     */
+    @Override
+    public FileSystem newFileSystem(Path path, Map<String, ?> env) throws IOException {
+        if (path.getFileSystem() != FileSystems.getDefault() || !ArchiveLoader.isArchive(path.toFile()))
+            throw new UnsupportedOperationException("File is not an archive : " + path);
+        return createFileSystem(path.toAbsolutePath().normalize());
+    }
+
+    @Override
+    public FileSystem getFileSystem(URI uri) {
+        HuffFileSystem fileSystem = fileSystems.get(getArchivePath(uri));
+        if (fileSystem == null)
+            throw new FileSystemNotFoundException(uri.toString());
+        return fileSystem;
+    }
+
+    /**
+     * Removes the closed file system from the registered ones.
+     * @param fileSystem closed file system
+     */
+    void removeFileSystem(HuffFileSystem fileSystem) {
+        fileSystems.remove(fileSystem.getArchivePath(), fileSystem);
+    }
+
+    @Override
+    public Path getPath(URI uri) {
+        String path = uri.getSchemeSpecificPart();
+        int separator = path.indexOf("!/");
+        if (separator < 0)
+            throw new IllegalArgumentException("URI has no path in archive : " + uri);
+        return getFileSystem(uri).getPath(path.substring(separator + 1));
+    }
+
+    /**
+     * Converts the path into HuffPath.
+     * @param path path
+     * @return HuffPath
+     * @throws ProviderMismatchException if the path is not a path of archive file system
+     */
+    private static HuffPath toHuffPath(Path path) {
+        if (!(path instanceof HuffPath))
+            throw new ProviderMismatchException();
+        return (HuffPath) path;
+    }
+
+    /**
+     * Opens the read-only channel of file in archive.
+     * @param path path of file
+     * @param options open options, only reading is allowed
+     * @param attributes file attributes, they are not used
+     * @return channel of the decoded data of file
+     * @throws IOException
+     */
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options,
+                                              FileAttribute<?>... attributes) throws IOException {
+        if (options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND))
+            throw new ReadOnlyFileSystemException();
+
+        HuffPath huffPath = toHuffPath(path);
+        ArchiveFile file = huffPath.getFileSystem().getFile(huffPath);
+        if (file == null) {
+            huffPath.getFileSystem().readAttributes(huffPath);
+            throw new FileSystemException(path.toString(), null, "Is a directory");
+        }
+
+        try {
+            return file.openChannel();
+        } catch (UnableToGetStreamException e) {
+            throw new IOException("Archive file system : unable to open file " + path + "!", e);
+        }
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path directory, DirectoryStream.Filter<? super Path> filter)
+            throws IOException {
+        HuffPath huffPath = toHuffPath(directory);
+        return new HuffDirectoryStream(huffPath, huffPath.getFileSystem().getEntries(huffPath), filter);
+    }
+
+    @Override
+    public void createDirectory(Path directory, FileAttribute<?>... attributes) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void delete(Path path) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void copy(Path source, Path target, CopyOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void move(Path source, Path target, CopyOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public boolean isSameFile(Path path, Path other) throws IOException {
+        if (path.equals(other))
+            return true;
+        if (!(other instanceof HuffPath) || other.getFileSystem() != path.getFileSystem())
+            return false;
+        return path.toRealPath().equals(other.toRealPath());
+    }
+
+    @Override
+    public boolean isHidden(Path path) {
+        return false;
+    }
+
+    @Override
+    public FileStore getFileStore(Path path) throws IOException {
+        HuffPath huffPath = toHuffPath(path);
+        huffPath.getFileSystem().readAttributes(huffPath);
+        return huffPath.getFileSystem().getFileStore();
+    }
+
+    @Override
+    public void checkAccess(Path path, AccessMode... modes) throws IOException {
+        HuffPath huffPath = toHuffPath(path);
+        huffPath.getFileSystem().readAttributes(huffPath);
+        for (AccessMode mode : modes) {
+            if (mode != AccessMode.READ)
+                throw new AccessDeniedException(path.toString(), null, "Archive file system is read-only");
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+        if (type != BasicFileAttributeView.class)
+            return null;
+        return (V) new HuffFileAttributeView(toHuffPath(path));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options)
+            throws IOException {
+        if (type != BasicFileAttributes.class && type != HuffFileAttributes.class)
+            throw new UnsupportedOperationException("Attributes are not supported : " + type.getName());
+        HuffPath huffPath = toHuffPath(path);
+        return (A) huffPath.getFileSystem().readAttributes(huffPath);
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) throws IOException {
+        HuffPath huffPath = toHuffPath(path);
+        return huffPath.getFileSystem().readAttributes(huffPath).toMap(attributes);
+    }
+
+    @Override
+    public void setAttribute(Path path, String attribute, Object value, LinkOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+}
+
+/**
+ * Stream of entries of directory of archive. Entries are taken from the cached metadata of the file system.
+ * @author Jan Bryda
+ */
+class HuffDirectoryStream implements DirectoryStream<Path> {
+    private final HuffPath directory;
+    private final List<String> names;
+    private final DirectoryStream.Filter<? super Path> filter;
+    private boolean iteratorReturned = false;
+    private volatile boolean open = true;
+
+    HuffDirectoryStream(HuffPath directory, List<String> names, DirectoryStream.Filter<? super Path> filter) {
+        this.directory = directory;
+        this.names = names;
+        this.filter = filter;
+    }
+
+    @Override
+    public Iterator<Path> iterator() {
+        if (!open)
+            throw new IllegalStateException("Directory stream is closed!");
+        if (iteratorReturned)
+            throw new IllegalStateException("Iterator of directory stream was already returned!");
+        iteratorReturned = true;
+
+        return new Iterator<Path>() {
+            private int nextIndex = 0;
+            private Path next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && open && nextIndex < names.size()) {
+                    Path entry = directory.resolve(names.get(nextIndex++));
+                    try {
+                        if (filter == null || filter.accept(entry))
+                            next = entry;
+                    } catch (IOException e) {
+                        throw new DirectoryIteratorException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Path next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Path entry = next;
+                next = null;
+                return entry;
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+}
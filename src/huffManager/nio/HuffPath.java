@@ -0,0 +1,321 @@
+package huffManager.nio;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Path in the file system of archive. Names are separated by '/', absolute paths start with '/'. The path
+ * is kept as a string without repeated and trailing separators, the names are found by their offsets.
+ * @author Jan Bryda
+ */
+public class HuffPath implements Path {
+    private final HuffFileSystem fileSystem;
+    private final String path;
+    /** offsets of names in the path */
+    private final int[] offsets;
+
+    /**
+     * Creates new HuffPath.
+     * @param fileSystem file system of the path
+     * @param path path string, repeated and trailing separators are removed
+     */
+    HuffPath(HuffFileSystem fileSystem, String path) {
+        this.fileSystem = fileSystem;
+        this.path = normalizeSeparators(path);
+        this.offsets = findOffsets(this.path);
+    }
+
+    private static String normalizeSeparators(String path) {
+        StringBuilder builder = new StringBuilder(path.length());
+        char previous = 0;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '\u0000')
+                throw new InvalidPathException(path, "Path contains NUL character");
+            if (c == '/' && previous == '/')
+                continue;
+            builder.append(c);
+            previous = c;
+        }
+
+        if (builder.length() > 1 && builder.charAt(builder.length() - 1) == '/')
+            builder.setLength(builder.length() - 1);
+        return builder.toString();
+    }
+
+    private static int[] findOffsets(String path) {
+        if (path.isEmpty())
+            return new int[] { 0 };
+
+        List<Integer> offsets = new ArrayList<>();
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) != '/' && (i == 0 || path.charAt(i - 1) == '/'))
+                offsets.add(i);
+        }
+
+        int[] result = new int[offsets.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = offsets.get(i);
+        return result;
+    }
+
+    /**
+     * Gets the end of the name with given index.
+     * @param index index of name
+     * @return offset after the name
+     */
+    private int getEnd(int index) {
+        return index + 1 < offsets.length ? offsets[index + 1] - 1 : path.length();
+    }
+
+    /**
+     * Converts the path into HuffPath of the same file system.
+     * @param other path
+     * @return HuffPath
+     * @throws ProviderMismatchException if the path is not a path of archive file system
+     */
+    private HuffPath checkPath(Path other) {
+        if (!(other instanceof HuffPath))
+            throw new ProviderMismatchException();
+        return (HuffPath) other;
+    }
+
+    @Override
+    public HuffFileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    @Override
+    public boolean isAbsolute() {
+        return path.startsWith("/");
+    }
+
+    @Override
+    public Path getRoot() {
+        return isAbsolute() ? new HuffPath(fileSystem, "/") : null;
+    }
+
+    @Override
+    public Path getFileName() {
+        if (offsets.length == 0)
+            return null;
+        if (offsets.length == 1 && !isAbsolute())
+            return this;
+        return new HuffPath(fileSystem, path.substring(offsets[offsets.length - 1]));
+    }
+
+    @Override
+    public Path getParent() {
+        if (offsets.length == 0)
+            return null;
+        if (offsets.length == 1)
+            return getRoot();
+        return new HuffPath(fileSystem, path.substring(0, offsets[offsets.length - 1] - 1));
+    }
+
+    @Override
+    public int getNameCount() {
+        return offsets.length;
+    }
+
+    @Override
+    public Path getName(int index) {
+        if (index < 0 || index >= offsets.length)
+            throw new IllegalArgumentException("Name index out of path : " + index);
+        return new HuffPath(fileSystem, path.substring(offsets[index], getEnd(index)));
+    }
+
+    @Override
+    public Path subpath(int beginIndex, int endIndex) {
+        if (beginIndex < 0 || beginIndex >= endIndex || endIndex > offsets.length)
+            throw new IllegalArgumentException("Bad range of names : " + beginIndex + ", " + endIndex);
+        return new HuffPath(fileSystem, path.substring(offsets[beginIndex], getEnd(endIndex - 1)));
+    }
+
+    @Override
+    public boolean startsWith(Path other) {
+        if (!(other instanceof HuffPath) || other.getFileSystem() != fileSystem)
+            return false;
+
+        HuffPath prefix = (HuffPath) other;
+        if (prefix.isAbsolute() != isAbsolute() || prefix.offsets.length > offsets.length)
+            return false;
+        if (prefix.path.isEmpty())
+            return path.isEmpty();
+
+        for (int i = 0; i < prefix.offsets.length; i++) {
+            if (!prefix.getName(i).toString().equals(getName(i).toString()))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean startsWith(String other) {
+        return startsWith(fileSystem.getPath(other));
+    }
+
+    @Override
+    public boolean endsWith(Path other) {
+        if (!(other instanceof HuffPath) || other.getFileSystem() != fileSystem)
+            return false;
+
+        HuffPath suffix = (HuffPath) other;
+        if (suffix.isAbsolute())
+            return equals(suffix);
+        if (suffix.offsets.length > offsets.length)
+            return false;
+        if (suffix.path.isEmpty())
+            return path.isEmpty();
+
+        int shift = offsets.length - suffix.offsets.length;
+        for (int i = 0; i < suffix.offsets.length; i++) {
+            if (!suffix.getName(i).toString().equals(getName(shift + i).toString()))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean endsWith(String other) {
+        return endsWith(fileSystem.getPath(other));
+    }
+
+    @Override
+    public Path normalize() {
+        Deque<String> names = new ArrayDeque<>();
+        for (int i = 0; i < offsets.length; i++) {
+            String name = path.substring(offsets[i], getEnd(i));
+            if (name.equals("."))
+                continue;
+            if (name.equals("..") && !names.isEmpty() && !names.peekLast().equals("..")) {
+                names.removeLast();
+                continue;
+            }
+            if (name.equals("..") && isAbsolute())
+                continue;
+            names.addLast(name);
+        }
+        return new HuffPath(fileSystem, (isAbsolute() ? "/" : "") + String.join("/", names));
+    }
+
+    @Override
+    public Path resolve(Path other) {
+        HuffPath child = checkPath(other);
+        if (child.isAbsolute() || path.isEmpty())
+            return child;
+        if (child.path.isEmpty())
+            return this;
+        return new HuffPath(fileSystem, path + "/" + child.path);
+    }
+
+    @Override
+    public Path resolve(String other) {
+        return resolve(fileSystem.getPath(other));
+    }
+
+    @Override
+    public Path resolveSibling(Path other) {
+        checkPath(other);
+        Path parent = getParent();
+        return parent == null ? other : parent.resolve(other);
+    }
+
+    @Override
+    public Path resolveSibling(String other) {
+        return resolveSibling(fileSystem.getPath(other));
+    }
+
+    @Override
+    public Path relativize(Path other) {
+        HuffPath target = checkPath(other);
+        if (target.isAbsolute() != isAbsolute())
+            throw new IllegalArgumentException("Only paths of the same type can be relativized!");
+        if (path.isEmpty())
+            return target;
+
+        int thisCount = path.equals("/") ? 0 : offsets.length;
+        int targetCount = target.path.equals("/") || target.path.isEmpty() ? 0 : target.offsets.length;
+        int common = 0;
+        while (common < thisCount && common < targetCount
+                && getName(common).toString().equals(target.getName(common).toString()))
+            common++;
+
+        List<String> names = new ArrayList<>();
+        for (int i = common; i < thisCount; i++)
+            names.add("..");
+        for (int i = common; i < targetCount; i++)
+            names.add(target.getName(i).toString());
+        return new HuffPath(fileSystem, String.join("/", names));
+    }
+
+    @Override
+    public URI toUri() {
+        try {
+            return new URI(HuffFileSystemProvider.SCHEME,
+                    fileSystem.getArchivePath().toUri().toString() + "!" + toAbsolutePath().toString(), null);
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException("Unable to create URI of path " + path, e);
+        }
+    }
+
+    @Override
+    public HuffPath toAbsolutePath() {
+        return isAbsolute() ? this : new HuffPath(fileSystem, "/" + path);
+    }
+
+    @Override
+    public Path toRealPath(LinkOption... options) throws IOException {
+        HuffPath realPath = (HuffPath) toAbsolutePath().normalize();
+        fileSystem.readAttributes(realPath);
+        return realPath;
+    }
+
+    @Override
+    public File toFile() {
+        throw new UnsupportedOperationException("Archive path can't be converted into file!");
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) {
+        throw new UnsupportedOperationException("Archive file system can't be watched!");
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>... events) {
+        throw new UnsupportedOperationException("Archive file system can't be watched!");
+    }
+
+    @Override
+    public Iterator<Path> iterator() {
+        List<Path> names = new ArrayList<>(offsets.length);
+        for (int i = 0; i < offsets.length; i++)
+            names.add(getName(i));
+        return names.iterator();
+    }
+
+    @Override
+    public int compareTo(Path other) {
+        return path.compareTo(checkPath(other).path);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof HuffPath && ((HuffPath) other).fileSystem == fileSystem
+                && ((HuffPath) other).path.equals(path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ * Nio package contains the read-only file system over archives, so the archived files can be read by the standard
+ * {@link java.nio.file.Path} and {@link java.nio.file.Files} API without extracting them. File system is created
+ * by {@link huffManager.nio.HuffFileSystemProvider} for URIs of the form {@code huff:file:///path/archive!/dir/file}
+ * or for the path of archive file.
+ */
+package huffManager.nio;
@@ -10,8 +10,6 @@ import java.io.*;
 import javax.swing.*;
 import javax.swing.table.AbstractTableModel;
 import java.awt.*;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -28,6 +26,8 @@ public class ArchiveExplorerFrame extends JFrame {
 
     ArchiveLoader archiveLoader = new ArchiveLoader();
     ArchiveSaver archiveSaver = new ArchiveSaver();
+    ArchiveExtractor archiveExtractor = new ArchiveExtractor();
+    ArchiveSynchronizer archiveSynchronizer = new ArchiveSynchronizer();
     Collection<Codec> knownCodecs = Codecs.getKnownCodecs();
 
     /**
@@ -71,6 +71,14 @@ public class ArchiveExplorerFrame extends JFrame {
          * Resets the opened archive so no archive is opened.
          */
         private void reset() {
+            if (archive != null) {
+                try {
+                    archive.close();
+                } catch (IOException e) {
+                    // archive file was opened for reading only, nothing is lost
+                }
+            }
+
             archive = null;
             archivePath = null;
             currentDirectory = null;
@@ -415,7 +423,7 @@ public class ArchiveExplorerFrame extends JFrame {
         @Override
         protected Archive doInBackground() throws Exception {
             statusBar.statusLabel.setText("loading...");
-            return archiveLoader.load(new FileInputStreamGenerator(fileToLoad));
+            return archiveLoader.load(fileToLoad);
         }
 
         @Override
@@ -433,34 +441,49 @@ public class ArchiveExplorerFrame extends JFrame {
     }
 
     /**
-     * Is used to save the current archive to file.
+     * Is used to save the current archive to file. When the archive is saved into the file it was opened from,
+     * the file is updated by appending only the new files, and the archive is opened again from it.
      */
-    class ArchiveSaverWorker extends SwingWorker<Void, Integer> {
+    class ArchiveSaverWorker extends SwingWorker<Archive, Integer> {
         File fileToSave;
         Archive archive;
+        boolean update;
+        ArchiveSaver.SaveSummary summary;
 
-        public ArchiveSaverWorker(String filePath, Archive archive) {
+        public ArchiveSaverWorker(String filePath, Archive archive, boolean update) {
             openedArchive.disableAllArchiveOperations();
             this.fileToSave = new File(filePath);
             this.archive = archive;
+            this.update = update;
         }
 
         @Override
-        protected Void doInBackground() throws Exception {
+        protected Archive doInBackground() throws Exception {
             statusBar.statusLabel.setText("saving...");
-            archiveSaver.save(archive, new FileOutputStreamGenerator(fileToSave));
-            return null;
+            if (!update) {
+                summary = archiveSaver.save(archive, new FileOutputStreamGenerator(fileToSave));
+                return null;
+            }
+
+            summary = archiveSaver.update(archive, fileToSave);
+            return archiveLoader.load(fileToSave);
         }
 
         @Override
         protected void done() {
             try {
-                Void v = get();
+                Archive savedArchive = get();
+                if (savedArchive != null) {
+                    openedArchive.reset();
+                    openedArchive.set(savedArchive, fileToSave.getPath());
+                }
             } catch (Exception e) {
                 JOptionPane.showMessageDialog(thisFrame, "Error while saving archive");
             }
             openedArchive.enableAllArchiveOperations();
             statusBar.reset();
+            if (summary != null)
+                statusBar.statusLabel.setText("saved : " + summary);
         }
     }
 
@@ -483,11 +506,7 @@ public class ArchiveExplorerFrame extends JFrame {
         protected Void doInBackground() throws Exception {
             statusBar.statusLabel.setText("extracting...");
             try {
-                for (ArchiveDirectory subdir : directoriesToExtract)
-                    extractDirectory(subdir, extractTo);
-
-                for (ArchiveFile file : filesToExtract)
-                    extractFile(file, extractTo);
+                archiveExtractor.extract(directoriesToExtract, filesToExtract, extractTo);
             } catch (IOException | UnableToGetStreamException e) {
                 JOptionPane.showMessageDialog(thisFrame, "Error : Unable to extract the selection!");
             }
@@ -501,6 +520,51 @@ public class ArchiveExplorerFrame extends JFrame {
         }
     }
 
+    /**
+     * Is used to add a directory from disk into the archive, synchronizing it with the archive directory of the
+     * same name. Walking and hashing large trees takes long, so it is not done on the event dispatch thread.
+     */
+    class SynchronizeWorker extends SwingWorker<ArchiveSynchronizer.SyncSummary, Integer> {
+        File directory;
+        ArchiveDirectory archiveDirectory;
+        Codec codec;
+
+        public SynchronizeWorker(File directory, ArchiveDirectory archiveDirectory, Codec codec) {
+            openedArchive.disableAllArchiveOperations();
+            this.directory = directory;
+            this.archiveDirectory = archiveDirectory;
+            this.codec = codec;
+        }
+
+        @Override
+        protected ArchiveSynchronizer.SyncSummary doInBackground() throws Exception {
+            statusBar.statusLabel.setText("adding...");
+            ArchiveDirectory targetDirectory = null;
+            for (ArchiveDirectory subdirectory : archiveDirectory.getSubdirectories()) {
+                if (subdirectory.getName().equals(directory.getName()))
+                    targetDirectory = subdirectory;
+            }
+            if (targetDirectory == null) {
+                targetDirectory = new ArchiveDirectory(directory.getName());
+                archiveDirectory.addSubdirectory(targetDirectory);
+            }
+
+            return archiveSynchronizer.sync(targetDirectory, directory, codec);
+        }
+
+        @Override
+        protected void done() {
+            openedArchive.enableAllArchiveOperations();
+            statusBar.reset();
+            try {
+                statusBar.statusLabel.setText("synchronized : " + get());
+            } catch (Exception e) {
+                JOptionPane.showMessageDialog(thisFrame, "Error : Unable to add the directory!");
+            }
+            archivePanel.repaint();
+        }
+    }
+
     // file choosers
 
     /** Regular file chooser used for choosing files/directories when opening/saving/exctracting. */
@@ -572,7 +636,7 @@ public class ArchiveExplorerFrame extends JFrame {
      */
     private void saveArchive() {
         ArchiveSaverWorker worker = new ArchiveSaverWorker(
-                openedArchive.archivePath, openedArchive.archive);
+                openedArchive.archivePath, openedArchive.archive, true);
         worker.execute();
     }
 
@@ -583,9 +647,13 @@ public class ArchiveExplorerFrame extends JFrame {
         myFileChooser.setApproveButtonText("Save as");
         int result = myFileChooser.showSaveDialog(thisFrame);
         if (result == JFileChooser.APPROVE_OPTION) {
+            String filePath = myFileChooser.getSelectedFile().getAbsolutePath();
+            boolean update = openedArchive.archivePath != null
+                    && new File(openedArchive.archivePath).getAbsoluteFile().equals(new File(filePath));
             ArchiveSaverWorker worker = new ArchiveSaverWorker(
-                    myFileChooser.getSelectedFile().getAbsolutePath(),
-                    openedArchive.archive
+                    filePath,
+                    openedArchive.archive,
+                    update
             );
             worker.execute();
         }
@@ -638,23 +706,17 @@ public class ArchiveExplorerFrame extends JFrame {
     }
 
     /**
-     * Adds the directory from the disk (and all its subdirectories and files) to the archive.
+     * Adds the directory from the disk (and all its subdirectories and files) to the archive in the background.
+     * If the archive directory already has a subdirectory of the same name, the directory on disk is merged into
+     * it instead of adding another subdirectory of that name: the new and changed files are added, so only they
+     * will be coded when the archive is saved, and the archive files missing on disk are kept.
      * @param directory directory to be added
      * @param archiveDirectory directory in archive it will be put in
      * @param codec codec that will be used on that directory
      */
     private void addDirectoryToArchive(File directory, ArchiveDirectory archiveDirectory, Codec codec) {
-        ArchiveDirectory newDirectory = new ArchiveDirectory(directory.getName());
-
-        for (File file : directory.listFiles()) {
-            if (file.isDirectory()) {
-                addDirectoryToArchive(file, newDirectory, codec);
-            } else if (file.isFile()) {
-                addFileToArchive(file, newDirectory, codec);
-            }
-        }
-
-        archiveDirectory.addSubdirectory(newDirectory);
+        SynchronizeWorker worker = new SynchronizeWorker(directory, archiveDirectory, codec);
+        worker.execute();
     }
 
     /**
@@ -764,36 +826,6 @@ public class ArchiveExplorerFrame extends JFrame {
         }
     }
 
-    /**
-     * Extracts the given archive directory into given directory on the disk.
-     * @param directory archive directory to be extracted
-     * @param extractTo where to extract into
-     * @throws IOException
-     * @throws UnableToGetStreamException
-     */
-    private void extractDirectory(ArchiveDirectory directory, File extractTo) throws IOException, UnableToGetStreamException {
-        File newDirectory = new File(extractTo, directory.getName());
-        newDirectory.mkdir();
-
-        for (ArchiveDirectory subdirectory : directory.getSubdirectories())
-            extractDirectory(subdirectory, newDirectory);
-
-        for (ArchiveFile file : directory.getFiles())
-            extractFile(file, newDirectory);
-    }
-
-    /**
-     * Extracts the given archive file into given directory on the disk.
-     * @param file archive file to be extracted
-     * @param extractTo where to extract into
-     * @throws UnableToGetStreamException
-     * @throws IOException
-     */
-    private void extractFile(ArchiveFile file, File extractTo) throws UnableToGetStreamException, IOException {
-        File target = new File(extractTo, file.getName());
-        Files.copy(file.getDecodedStream(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
-    }
-
     public ArchiveExplorerFrame() {
         super("HuffManager");
 
@@ -801,6 +833,8 @@ public class ArchiveExplorerFrame extends JFrame {
         Container contentPane = getContentPane();
         thisFrame = this;
         openedArchive.reset();
+        // adding a directory only adds and updates files, it never removes any from the archive
+        archiveSynchronizer.setRemovingMissing(false);
         setJMenuBar(menuBar);
 
         contentPane.setLayout(new BorderLayout());
@@ -0,0 +1,115 @@
+package huffManager.archive;
+
+import huffManager.generator.FileOutputStreamGenerator;
+import static huffManager.archive.TestArchives.*;
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Reads segments of archive files by positional reads of the shared archive channel, also from many threads
+ * at once.
+ * @author Jan Bryda
+ */
+public class ArchiveChannelTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[] data = data(1, 300000);
+
+    private File writeData() throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    @Test
+    public void segmentsAreReadAtTheirPositions() throws Exception {
+        try (ArchiveChannel channel = new ArchiveChannel(writeData())) {
+            assertEquals(data.length, channel.size());
+            assertFalse(channel.isVolumeSet());
+
+            // streams of the same channel are independent of each other
+            InputStream first = channel.openSegment(1000, 200000);
+            InputStream second = channel.openSegment(150000, 100);
+            assertEquals(data[1000] & 0xff, first.read());
+            assertArrayEquals(Arrays.copyOfRange(data, 150000, 150100), readAll(second));
+            assertEquals(100000, first.skip(100000));
+            assertEquals(data[101001] & 0xff, first.read());
+            assertEquals(200000 - 100002, first.available());
+            assertArrayEquals(Arrays.copyOfRange(data, 101002, 201000), readAll(first));
+            assertEquals(-1, first.read());
+
+            assertArrayEquals(Arrays.copyOfRange(data, 5, 70005), channel.readSegment(5, 70000));
+            ByteBuffer mapped = channel.map(299000, 1000);
+            byte[] mappedData = new byte[1000];
+            mapped.get(mappedData);
+            assertArrayEquals(Arrays.copyOfRange(data, 299000, 300000), mappedData);
+
+            ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+            channel.transferTo(10, 250000, Channels.newChannel(transferred));
+            assertArrayEquals(Arrays.copyOfRange(data, 10, 250010), transferred.toByteArray());
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void segmentBeyondEndIsReported() throws Exception {
+        try (ArchiveChannel channel = new ArchiveChannel(writeData())) {
+            readAll(channel.openSegment(data.length - 10, 20));
+        }
+    }
+
+    @Test
+    public void filesAreReadFromManyThreads() throws Exception {
+        Map<String, byte[]> contents = new TreeMap<>();
+        for (int i = 0; i < 30; i++)
+            contents.put("file" + i, data(10 + i, 5000 + 3000 * i));
+        File archiveFile = folder.newFile();
+        new ArchiveSaver().save(build(contents), new FileOutputStreamGenerator(archiveFile));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (Archive archive = new ArchiveLoader().load(archiveFile)) {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int round = 0; round < 4; round++) {
+                for (String path : contents.keySet()) {
+                    ArchiveFile file = archive.lookup(path);
+                    results.add(executor.submit(() -> {
+                        try (InputStream input = file.getDecodedStream()) {
+                            return readAll(input);
+                        }
+                    }));
+                }
+            }
+
+            Iterator<Future<byte[]>> result = results.iterator();
+            for (int round = 0; round < 4; round++) {
+                for (byte[] expected : contents.values())
+                    assertArrayEquals(expected, result.next().get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void closedArchiveClosesChannel() throws Exception {
+        File archiveFile = folder.newFile();
+        new ArchiveSaver().save(build(sampleContents()), new FileOutputStreamGenerator(archiveFile));
+
+        Archive archive = new ArchiveLoader().load(archiveFile);
+        ArchiveChannel channel = ((FileInArchive) archive.lookup("readme.txt")).getArchiveChannel();
+        assertTrue(channel.isOpen());
+        assertTrue(channel.reads(archiveFile));
+        archive.close();
+        assertFalse(channel.isOpen());
+    }
+}
@@ -0,0 +1,250 @@
+package huffManager.archive;
+
+import huffManager.archive.exceptions.ArchiveSavingException;
+import huffManager.codecs.huffman.HuffmanCodec;
+import huffManager.generator.FileOutputStreamGenerator;
+import static huffManager.archive.Archive.*;
+import static huffManager.archive.TestArchives.*;
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Map;
+
+/**
+ * Compacts archives with dead space and checks their contents are kept, also when the compaction in place is
+ * interrupted.
+ * @author Jan Bryda
+ */
+public class ArchiveCompactorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, byte[]> contents = sampleContents();
+
+    /**
+     * Saves the archive with the sample contents and updates it without the file, so the data of the file and
+     * the old trailer become dead space.
+     * @param saver saver of the archive
+     * @param path full path of the removed file
+     * @return archive file
+     * @throws Exception
+     */
+    private File saveWithDeadSpace(ArchiveSaver saver, String path) throws Exception {
+        File archiveFile = folder.newFile("archive.huff");
+        saver.save(build(contents), new FileOutputStreamGenerator(archiveFile));
+
+        try (Archive archive = new ArchiveLoader().load(archiveFile)) {
+            remove(archive, path);
+            saver.update(archive, archiveFile);
+        }
+        contents.remove(path);
+        return archiveFile;
+    }
+
+    private File saveWithDeadSpace(ArchiveSaver saver) throws Exception {
+        return saveWithDeadSpace(saver, "docs/deep/c.bin");
+    }
+
+    private static void remove(Archive archive, String path) {
+        String[] names = path.split("/");
+        ArchiveDirectory directory = archive.getRootDirectory();
+        for (int i = 0; i < names.length - 1; i++) {
+            for (ArchiveDirectory subdirectory : directory.getSubdirectories()) {
+                if (subdirectory.getName().equals(names[i]))
+                    directory = subdirectory;
+            }
+        }
+        for (ArchiveFile file : directory.getFiles()) {
+            if (file.getName().equals(names[names.length - 1])) {
+                directory.removeFile(file);
+                return;
+            }
+        }
+        fail("no file " + path);
+    }
+
+    private void assertContents(File archiveFile) throws Exception {
+        try (Archive archive = new ArchiveLoader().load(archiveFile)) {
+            assertSameContents(contents, read(archive));
+        }
+    }
+
+    @Test
+    public void analyze() throws Exception {
+        File archiveFile = saveWithDeadSpace(new ArchiveSaver());
+
+        ArchiveSpaceMap spaceMap = new ArchiveCompactor().analyze(archiveFile);
+        assertEquals(archiveFile.length(), spaceMap.getArchiveSize());
+        assertTrue(spaceMap.getDeadBytes() > 0);
+        assertEquals(spaceMap.getArchiveSize(), 8 + spaceMap.getLiveBytes() + spaceMap.getDeadBytes());
+    }
+
+    @Test
+    public void compactIntoTarget() throws Exception {
+        File archiveFile = saveWithDeadSpace(new ArchiveSaver());
+        byte[] original = Files.readAllBytes(archiveFile.toPath());
+        File targetFile = new File(folder.getRoot(), "compacted.huff");
+
+        ArchiveCompactor.Result result = new ArchiveCompactor().compact(archiveFile, targetFile);
+        assertEquals(original.length, result.originalSize);
+        assertEquals(targetFile.length(), result.compactedSize);
+        assertTrue(result.getReclaimedBytes() > 0);
+
+        assertArrayEquals(original, Files.readAllBytes(archiveFile.toPath()));
+        assertContents(targetFile);
+        assertFalse(new File(folder.getRoot(), "compacted.huff.tmp").exists());
+    }
+
+    @Test
+    public void compactInPlace() throws Exception {
+        ArchiveSaver saver = new ArchiveSaver();
+        saver.setPathIndex(true);
+        saver.setHeaderCodec(new HuffmanCodec());
+        File archiveFile = saveWithDeadSpace(saver);
+        long originalSize = archiveFile.length();
+        long liveBytes = new ArchiveCompactor().analyze(archiveFile).getLiveBytes();
+
+        ArchiveCompactor.Result result = new ArchiveCompactor().compactInPlace(archiveFile, 4096);
+        assertEquals(originalSize, result.originalSize);
+        assertEquals(archiveFile.length(), result.compactedSize);
+        assertEquals(liveBytes, result.liveBytes);
+        assertTrue(result.compactedSize < originalSize);
+        assertFalse(CompactionJournal.getFile(archiveFile).exists());
+        assertContents(archiveFile);
+
+        try (ArchiveChannel channel = new ArchiveChannel(archiveFile)) {
+            ArchiveFooter footer = ArchiveFooter.read(channel);
+            assertTrue(footer.hasFlag(FLAG_PATH_INDEX));
+            assertTrue(footer.hasFlag(FLAG_COMPACT_HEADER));
+            assertEquals(new HuffmanCodec().getID(), CompactHeader.readCodec(channel, footer).getID());
+        }
+        try (ArchiveIndex index = new ArchiveLoader().loadIndex(archiveFile)) {
+            assertTrue(index instanceof PersistedArchiveIndex);
+            assertNull(index.lookup("docs/deep/c.bin"));
+            assertNotNull(index.lookup("docs/a.txt"));
+        }
+    }
+
+    @Test
+    public void compactInPlaceMatchesCompactedCopy() throws Exception {
+        File archiveFile = saveWithDeadSpace(new ArchiveSaver(), "docs/b.txt");
+        File targetFile = new File(folder.getRoot(), "compacted.huff");
+        new ArchiveCompactor().compact(archiveFile, targetFile);
+
+        new ArchiveCompactor().compactInPlace(archiveFile, ArchiveCompactor.MIN_BUFFER_SIZE);
+        assertArrayEquals(Files.readAllBytes(targetFile.toPath()), Files.readAllBytes(archiveFile.toPath()));
+    }
+
+    @Test
+    public void compactingTwiceReclaimsNothing() throws Exception {
+        File archiveFile = saveWithDeadSpace(new ArchiveSaver());
+        ArchiveCompactor compactor = new ArchiveCompactor();
+        long liveBytes = compactor.analyze(archiveFile).getLiveBytes();
+        compactor.compactInPlace(archiveFile, 64 * 1024);
+
+        ArchiveSpaceMap spaceMap = compactor.analyze(archiveFile);
+        assertEquals(liveBytes, spaceMap.getLiveBytes());
+        assertEquals(1, spaceMap.getRangeCount());
+        assertEquals(0, compactor.compactInPlace(archiveFile, 64 * 1024).getReclaimedBytes());
+        assertContents(archiveFile);
+    }
+
+    /**
+     * Interrupts the compaction in place at every step, and checks that loading finishes it. Removing a small
+     * file makes the moves overlap their sources, so the data of these steps are restored from the journal.
+     * @param removedPath full path of the removed file
+     * @throws Exception
+     */
+    private void assertInterruptedCompactionIsFinished(String removedPath) throws Exception {
+        File originalFile = saveWithDeadSpace(new ArchiveSaver(), removedPath);
+        File compactedFile = new File(folder.getRoot(), "compacted.huff");
+        new ArchiveCompactor().compact(originalFile, compactedFile);
+        byte[] compacted = Files.readAllBytes(compactedFile.toPath());
+
+        File archiveFile = new File(folder.getRoot(), "interrupted.huff");
+        for (int crashStep = 0; ; crashStep++) {
+            Files.copy(originalFile.toPath(), archiveFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            CompactionJournal journal = new ArchiveCompactor().plan(archiveFile, ArchiveCompactor.MIN_BUFFER_SIZE);
+            boolean crashed = false;
+            try {
+                ArchiveCompactor.finish(archiveFile, journal, crashStep);
+            } catch (IOException e) {
+                crashed = true;
+            } finally {
+                journal.close();
+            }
+
+            if (crashed)
+                assertTrue(CompactionJournal.getFile(archiveFile).exists());
+            assertContents(archiveFile);
+            assertFalse(CompactionJournal.getFile(archiveFile).exists());
+            assertArrayEquals("crash at step " + crashStep, compacted, Files.readAllBytes(archiveFile.toPath()));
+            if (!crashed)
+                return;
+        }
+    }
+
+    @Test
+    public void interruptedCompactionIsFinished() throws Exception {
+        assertInterruptedCompactionIsFinished("docs/deep/c.bin");
+    }
+
+    @Test
+    public void interruptedOverlappingCompactionIsFinished() throws Exception {
+        assertInterruptedCompactionIsFinished("docs/b.txt");
+    }
+
+    @Test
+    public void damagedJournalIsIgnored() throws Exception {
+        File archiveFile = saveWithDeadSpace(new ArchiveSaver());
+        byte[] original = Files.readAllBytes(archiveFile.toPath());
+        Files.write(CompactionJournal.getFile(archiveFile).toPath(), new byte[] { 1, 2, 3 });
+
+        assertFalse(ArchiveCompactor.recover(archiveFile));
+        assertFalse(CompactionJournal.getFile(archiveFile).exists());
+        assertArrayEquals(original, Files.readAllBytes(archiveFile.toPath()));
+    }
+
+    @Test
+    public void legacyArchiveIsNotCompactedInPlace() throws Exception {
+        File archiveFile = folder.newFile("legacy.huff");
+        saveVersion1(build(contents), archiveFile);
+        byte[] original = Files.readAllBytes(archiveFile.toPath());
+
+        try {
+            new ArchiveCompactor().compactInPlace(archiveFile, 64 * 1024);
+            fail("legacy archive has to be compacted into another file");
+        } catch (ArchiveSavingException e) {
+            // expected
+        }
+        assertArrayEquals(original, Files.readAllBytes(archiveFile.toPath()));
+        assertFalse(CompactionJournal.getFile(archiveFile).exists());
+    }
+
+    @Test(expected = ArchiveSavingException.class)
+    public void volumeSetIsNotCompactedInPlace() throws Exception {
+        File archiveFile = new File(folder.getRoot(), "volumes.huff");
+        ArchiveSaver saver = new ArchiveSaver();
+        saver.setVolumeSize(64 * 1024);
+        saver.update(build(contents), archiveFile);
+
+        new ArchiveCompactor().compactInPlace(archiveFile, 64 * 1024);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bufferBudgetIsChecked() throws Exception {
+        new ArchiveCompactor().compactInPlace(saveWithDeadSpace(new ArchiveSaver()), 100);
+    }
+
+    @Test(expected = ArchiveSavingException.class)
+    public void targetMustNotBeArchiveFile() throws Exception {
+        File archiveFile = saveWithDeadSpace(new ArchiveSaver());
+        new ArchiveCompactor().compact(archiveFile, new File(folder.getRoot(), "./archive.huff"));
+    }
+}
@@ -0,0 +1,101 @@
+package huffManager.archive;
+
+import huffManager.generator.FileOutputStreamGenerator;
+import static huffManager.archive.TestArchives.*;
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Saves archives with files of identical contents and checks that the duplicates share the stored data of
+ * the first such file.
+ * @author Jan Bryda
+ */
+public class ArchiveDeduplicationTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, byte[]> contents = new LinkedHashMap<>();
+
+    /**
+     * Saves the archive with three identical files, a different file of the same size and a stored copy of
+     * the identical files, which has another codec.
+     * @param saver saver of the archive
+     * @return saved archive file
+     * @throws Exception
+     */
+    private File save(ArchiveSaver saver) throws Exception {
+        byte[] data = data(1, 30000);
+        contents.put("a.txt", data);
+        contents.put("b.txt", data.clone());
+        contents.put("other.txt", data(2, 30000));
+        contents.put("c.txt", data.clone());
+        contents.put("stored.txt", data.clone());
+
+        Archive archive = new Archive();
+        for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+            boolean huffman = !entry.getKey().equals("stored.txt");
+            archive.getRootDirectory().addFile(file(entry.getKey(), entry.getValue(), huffman));
+        }
+
+        File archiveFile = folder.newFile();
+        ArchiveSaver.SaveSummary summary = saver.save(archive, new FileOutputStreamGenerator(archiveFile));
+        assertEquals(contents.size(), summary.fileCount);
+        return archiveFile;
+    }
+
+    private static FileInArchive stored(Archive archive, String path) {
+        return (FileInArchive) archive.lookup(path);
+    }
+
+    @Test
+    public void duplicatesShareOffsetAndLength() throws Exception {
+        ArchiveSaver saver = new ArchiveSaver();
+        saver.setDeduplication(true);
+        File archiveFile = save(saver);
+
+        try (Archive archive = new ArchiveLoader().load(archiveFile)) {
+            assertSameContents(contents, read(archive));
+
+            FileInArchive first = stored(archive, "a.txt");
+            for (String path : new String[] { "b.txt", "c.txt" }) {
+                assertEquals(first.getOffset(), stored(archive, path).getOffset());
+                assertEquals(first.getLength(), stored(archive, path).getLength());
+            }
+            assertNotEquals(first.getOffset(), stored(archive, "other.txt").getOffset());
+            assertNotEquals(first.getOffset(), stored(archive, "stored.txt").getOffset());
+        }
+    }
+
+    @Test
+    public void summaryCountsDuplicates() throws Exception {
+        ArchiveSaver saver = new ArchiveSaver();
+        saver.setDeduplication(true);
+        byte[] data = data(3, 10000);
+        Archive archive = new Archive();
+        archive.getRootDirectory().addFile(file("a.txt", data, true));
+        archive.getRootDirectory().addFile(file("b.txt", data, true));
+        ArchiveSaver.SaveSummary summary = saver.save(archive, new FileOutputStreamGenerator(folder.newFile()));
+        assertEquals(1, summary.duplicateCount);
+        assertEquals(data.length, summary.duplicateBytes);
+        assertTrue(summary.savedBytes > 0);
+    }
+
+    @Test
+    public void deduplicationIsOffByDefault() throws Exception {
+        File archiveFile = save(new ArchiveSaver());
+
+        try (Archive archive = new ArchiveLoader().load(archiveFile)) {
+            assertSameContents(contents, read(archive));
+            Set<Long> offsets = new HashSet<>();
+            for (String path : contents.keySet())
+                offsets.add(stored(archive, path).getOffset());
+            assertEquals(contents.size(), offsets.size());
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package huffManager.archive;
+
+import huffManager.codecs.none.NoneCodec;
+import huffManager.generator.FileOutputStreamGenerator;
+import huffManager.generator.Generator;
+import huffManager.memory.MemoryBudget;
+import static huffManager.archive.TestArchives.*;
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Extracts archives by the parallel extraction jobs, including files split into parts written at their
+ * positions, and checks that parts of wrong size are reported.
+ * @author Jan Bryda
+ */
+public class ArchiveExtractorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** size of chunks of the chunked file built in memory */
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * Creates a chunk stored verbatim, whose data are read from the byte array.
+     * @param data data of the chunk
+     * @param size declared size of the chunk
+     * @return chunk
+     */
+    private static FileInArchive chunk(byte[] data, long size) {
+        return new FileInArchive(new Generator<>(() -> new ByteArrayInputStream(data)), "chunk", size,
+                new NoneCodec().getID(), 0, data.length, true);
+    }
+
+    /**
+     * Creates the chunked file of given data, larger than {@link ArchiveExtractor#SPLIT_SIZE}, whose chunk of
+     * given number has the declared size changed.
+     * @param data data of the file
+     * @param damagedChunk number of the damaged chunk, or -1
+     * @param sizeChange change of the declared size of the damaged chunk
+     * @return chunked file
+     */
+    private static FileInChunks chunkedFile(byte[] data, int damagedChunk, int sizeChange) {
+        List<FileInArchive> chunks = new ArrayList<>();
+        for (int start = 0; start < data.length; start += CHUNK_SIZE) {
+            byte[] chunkData = Arrays.copyOfRange(data, start, Math.min(data.length, start + CHUNK_SIZE));
+            chunks.add(chunk(chunkData, chunkData.length + (chunks.size() == damagedChunk ? sizeChange : 0)));
+        }
+        return new FileInChunks("big.bin", data.length, new NoneCodec().getID(), chunks, null);
+    }
+
+    private long extract(ArchiveFile file, File targetDirectory, int concurrency) throws Exception {
+        ArchiveExtractor extractor = new ArchiveExtractor();
+        extractor.setConcurrency(concurrency);
+        return extractor.extract(Collections.emptyList(), Collections.singletonList(file), targetDirectory);
+    }
+
+    @Test
+    public void splitChunkedFile() throws Exception {
+        byte[] data = data(1, (int) ArchiveExtractor.SPLIT_SIZE * 2 + 12345);
+        File targetDirectory = folder.newFolder();
+
+        assertEquals(1, extract(chunkedFile(data, -1, 0), targetDirectory, 4));
+        assertArrayEquals(data, Files.readAllBytes(new File(targetDirectory, "big.bin").toPath()));
+    }
+
+    @Test
+    public void splitStoredFile() throws Exception {
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        contents.put("big.bin", data(2, (int) ArchiveExtractor.SPLIT_SIZE + 54321));
+        File archiveFile = folder.newFile();
+        Archive archive = new Archive();
+        archive.getRootDirectory().addFile(file("big.bin", contents.get("big.bin"), false));
+        new ArchiveSaver().save(archive, new FileOutputStreamGenerator(archiveFile));
+
+        File targetDirectory = folder.newFolder();
+        try (Archive loaded = new ArchiveLoader().load(archiveFile)) {
+            ArchiveExtractor extractor = new ArchiveExtractor();
+            extractor.setConcurrency(4);
+            extractor.extract(loaded, targetDirectory);
+        }
+        assertSameContents(contents, readDirectory(targetDirectory));
+    }
+
+    @Test
+    public void shortChunkIsReported() throws Exception {
+        byte[] data = data(3, (int) ArchiveExtractor.SPLIT_SIZE * 2);
+        try {
+            extract(chunkedFile(data, 3, 100), folder.newFolder(), 4);
+            fail("short part has to be reported");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("big.bin"));
+        }
+    }
+
+    @Test
+    public void longChunkIsReported() throws Exception {
+        byte[] data = data(4, (int) ArchiveExtractor.SPLIT_SIZE * 2);
+        try {
+            extract(chunkedFile(data, 12, -100), folder.newFolder(), 4);
+            fail("long part has to be reported");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("big.bin"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void missingPartIsReported() throws Exception {
+        byte[] data = data(5, (int) ArchiveExtractor.SPLIT_SIZE * 2);
+        FileInChunks file = chunkedFile(data, -1, 0);
+        FileInChunks truncated = new FileInChunks("big.bin", data.length, file.getCodecID(),
+                file.getChunks().subList(0, file.getChunks().size() - 1), null);
+
+        extract(truncated, folder.newFolder(), 4);
+    }
+
+    @Test
+    public void extractionWithinSmallBudget() throws Exception {
+        Map<String, byte[]> contents = new TreeMap<>();
+        for (int i = 0; i < 40; i++)
+            contents.put("file" + i + ".txt", data(10 + i, 3000 + 1000 * i));
+        File archiveFile = folder.newFile();
+        new ArchiveSaver().save(build(contents), new FileOutputStreamGenerator(archiveFile));
+
+        MemoryBudget budget = new MemoryBudget(64 * 1024);
+        File targetDirectory = folder.newFolder();
+        try (Archive archive = new ArchiveLoader().load(archiveFile)) {
+            ArchiveExtractor extractor = new ArchiveExtractor();
+            extractor.setConcurrency(8);
+            extractor.setMemoryBudget(budget);
+            assertEquals(contents.size(), extractor.extract(archive, targetDirectory));
+        }
+        assertSameContents(contents, readDirectory(targetDirectory));
+        assertEquals(0, budget.getReserved());
+    }
+}
@@ -0,0 +1,83 @@
+package huffManager.archive;
+
+import huffManager.archive.exceptions.BadArchiveFormatException;
+import static huffManager.archive.TestArchives.*;
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.util.*;
+
+/**
+ * Reads archives in one pass by the streaming reader, from the local entry headers.
+ * @author Jan Bryda
+ */
+public class ArchiveReaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, byte[]> contents = sampleContents();
+
+    private byte[] write() throws Exception {
+        return ArchiveWriterTest.write(contents, Long.MAX_VALUE, folder.getRoot());
+    }
+
+    private static Map<String, byte[]> readEntries(ArchiveReader reader) throws Exception {
+        Map<String, byte[]> entries = new TreeMap<>();
+        ArchiveReader.Entry entry;
+        while ((entry = reader.nextEntry()) != null) {
+            try (InputStream input = entry.getDecodedStream()) {
+                entries.put(entry.getPath(), readAll(input));
+            }
+        }
+        assertNull(reader.nextEntry());
+        return entries;
+    }
+
+    @Test
+    public void entriesAreRead() throws Exception {
+        try (ArchiveReader reader = new ArchiveReader(new ByteArrayInputStream(write()))) {
+            assertSameContents(contents, readEntries(reader));
+        }
+    }
+
+    @Test
+    public void entriesAreReadFromChannel() throws Exception {
+        try (ArchiveReader reader = new ArchiveReader(Channels.newChannel(new ByteArrayInputStream(write())))) {
+            assertSameContents(contents, readEntries(reader));
+        }
+    }
+
+    @Test
+    public void skippedEntriesAreSkipped() throws Exception {
+        List<String> paths = new ArrayList<>();
+        try (ArchiveReader reader = new ArchiveReader(new ByteArrayInputStream(write()))) {
+            ArchiveReader.Entry entry;
+            while ((entry = reader.nextEntry()) != null)
+                paths.add(entry.getPath());
+        }
+        assertEquals(new ArrayList<>(contents.keySet()), paths);
+    }
+
+    @Test
+    public void extractAll() throws Exception {
+        File targetDirectory = folder.newFolder();
+        try (ArchiveReader reader = new ArchiveReader(new ByteArrayInputStream(write()))) {
+            assertEquals(contents.size(), reader.extractAll(targetDirectory));
+        }
+        assertSameContents(contents, readDirectory(targetDirectory));
+    }
+
+    @Test(expected = BadArchiveFormatException.class)
+    public void truncatedArchiveIsRejected() throws Exception {
+        byte[] archive = write();
+        byte[] truncated = Arrays.copyOf(archive, archive.length / 2);
+        try (ArchiveReader reader = new ArchiveReader(new ByteArrayInputStream(truncated))) {
+            readEntries(reader);
+        }
+    }
+}
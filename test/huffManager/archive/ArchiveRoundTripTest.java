@@ -0,0 +1,196 @@
+package huffManager.archive;
+
+import huffManager.archive.exceptions.ArchiveSavingException;
+import huffManager.codecs.none.NoneCodec;
+import huffManager.generator.Generator;
+import huffManager.generator.FileOutputStreamGenerator;
+import huffManager.memory.MemoryBudget;
+import static huffManager.archive.TestArchives.*;
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Saves legacy, indexed and chunked archives, loads them back and extracts them.
+ * @author Jan Bryda
+ */
+public class ArchiveRoundTripTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, byte[]> contents = sampleContents();
+
+    /**
+     * Loads the archive file, checks the decoded data of its files and extracts it.
+     * @param archiveFile archive file, or any volume of volume set
+     * @throws Exception
+     */
+    private void assertLoadsAndExtracts(File archiveFile) throws Exception {
+        try (Archive archive = new ArchiveLoader().load(archiveFile)) {
+            assertSameContents(contents, read(archive));
+            assertNotNull(archive.lookup("docs/deep/c.bin"));
+            assertNull(archive.lookup("docs/missing"));
+
+            File targetDirectory = folder.newFolder();
+            ArchiveExtractor extractor = new ArchiveExtractor();
+            extractor.setConcurrency(3);
+            assertEquals(contents.size(), extractor.extract(archive, targetDirectory));
+            assertSameContents(contents, readDirectory(targetDirectory));
+        }
+    }
+
+    @Test
+    public void legacyArchive() throws Exception {
+        File archiveFile = folder.newFile("legacy.huff");
+        saveVersion1(build(contents), archiveFile);
+
+        assertTrue(ArchiveLoader.isArchive(archiveFile));
+        assertLoadsAndExtracts(archiveFile);
+    }
+
+    @Test
+    public void indexedArchive() throws Exception {
+        File archiveFile = folder.newFile("indexed.huff");
+        ArchiveSaver.SaveSummary summary = new ArchiveSaver().save(build(contents),
+                new FileOutputStreamGenerator(archiveFile));
+
+        assertEquals(contents.size(), summary.fileCount);
+        assertEquals(archiveFile.length(), summary.writtenBytes);
+        assertLoadsAndExtracts(archiveFile);
+    }
+
+    @Test
+    public void indexedArchiveWithFixedHeader() throws Exception {
+        File archiveFile = folder.newFile("fixed.huff");
+        ArchiveSaver saver = new ArchiveSaver();
+        saver.setCompactHeader(false);
+        saver.setConcurrency(1);
+        saver.save(build(contents), new FileOutputStreamGenerator(archiveFile));
+
+        assertLoadsAndExtracts(archiveFile);
+    }
+
+    @Test
+    public void legacyArchiveUpdatedToIndexed() throws Exception {
+        File archiveFile = folder.newFile("updated.huff");
+        saveVersion1(build(contents), archiveFile);
+
+        try (Archive archive = new ArchiveLoader().load(archiveFile)) {
+            new ArchiveSaver().update(archive, archiveFile);
+        }
+        assertLoadsAndExtracts(archiveFile);
+    }
+
+    @Test
+    public void solidAndChunkedArchive() throws Exception {
+        File archiveFile = folder.newFile("solid.huff");
+        ArchiveSaver saver = new ArchiveSaver();
+        saver.setSolidBlockSize(64 * 1024);
+        saver.setChunkSize(16 * 1024);
+        saver.save(build(contents), new FileOutputStreamGenerator(archiveFile));
+
+        assertLoadsAndExtracts(archiveFile);
+    }
+
+    @Test
+    public void chunksOfEditedFileAreReused() throws Exception {
+        byte[] data = new byte[2000000];
+        new Random(1).nextBytes(data);
+        File sourceFile = folder.newFile("big.bin");
+        Files.write(sourceFile.toPath(), data);
+        File archiveFile = folder.newFile("chunked.huff");
+        ArchiveSaver saver = new ArchiveSaver();
+        saver.setChunkSize(16 * 1024);
+
+        Archive archive = new Archive();
+        archive.getRootDirectory().addFile(new FileToCode(sourceFile.getPath(), new NoneCodec()));
+        saver.save(archive, new FileOutputStreamGenerator(archiveFile));
+
+        // the edited file is stored next to the original one, only the chunks around the insertion are new
+        byte[] edited = new byte[data.length + 1000];
+        System.arraycopy(data, 0, edited, 0, 1000000);
+        System.arraycopy(data, 1000000, edited, 1001000, data.length - 1000000);
+        File editedFile = folder.newFile("edited.bin");
+        Files.write(editedFile.toPath(), edited);
+        try (Archive loaded = new ArchiveLoader().load(archiveFile)) {
+            loaded.getRootDirectory().addFile(new FileToCode(editedFile.getPath(), new NoneCodec()));
+            ArchiveSaver.SaveSummary summary = saver.update(loaded, archiveFile);
+            assertTrue(summary.writtenBytes < 200000);
+        }
+
+        Map<String, byte[]> expected = new TreeMap<>();
+        expected.put("big.bin", data);
+        expected.put("edited.bin", edited);
+        try (Archive loaded = new ArchiveLoader().load(archiveFile)) {
+            assertSameContents(expected, read(loaded));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void chunkSizeIsLimited() {
+        new ArchiveSaver().setChunkSize(ArchiveSaver.MAX_CHUNK_SIZE + 1);
+    }
+
+    @Test
+    public void savingWithinSmallBudget() throws Exception {
+        // coded data that do not fit the budget are spilled, the budget is released when the saving ends
+        MemoryBudget budget = new MemoryBudget(64 * 1024);
+        File archiveFile = folder.newFile("budget.huff");
+        ArchiveSaver saver = new ArchiveSaver();
+        saver.setConcurrency(4);
+        saver.setMemoryBudget(budget);
+        saver.setSpillDirectory(folder.newFolder());
+        saver.save(build(contents), new FileOutputStreamGenerator(archiveFile));
+
+        assertEquals(0, budget.getReserved());
+        assertTrue(budget.getStatistics().peakReserved > 0);
+        assertLoadsAndExtracts(archiveFile);
+    }
+
+    @Test
+    public void appendedFilesAreLoaded() throws Exception {
+        File archiveFile = folder.newFile("appended.huff");
+        new ArchiveSaver().save(build(contents), new FileOutputStreamGenerator(archiveFile));
+        byte[] original = Files.readAllBytes(archiveFile.toPath());
+
+        byte[] added = data(6, 4000);
+        try (Archive archive = new ArchiveLoader().load(archiveFile)) {
+            archive.getRootDirectory().addFile(file("added.txt", added, true));
+            ArchiveSaver.SaveSummary summary = new ArchiveSaver().update(archive, archiveFile);
+            assertEquals(archiveFile.length() - original.length, summary.writtenBytes);
+            assertTrue(summary.writtenBytes < original.length / 10);
+        }
+
+        // the original archive is not rewritten, the new data and trailer are appended after it
+        byte[] updated = Files.readAllBytes(archiveFile.toPath());
+        assertArrayEquals(original, Arrays.copyOf(updated, original.length));
+        contents.put("added.txt", added);
+        assertLoadsAndExtracts(archiveFile);
+    }
+
+    @Test
+    public void failedAppendLeavesArchiveUnchanged() throws Exception {
+        File archiveFile = folder.newFile("failed.huff");
+        new ArchiveSaver().save(build(contents), new FileOutputStreamGenerator(archiveFile));
+        byte[] original = Files.readAllBytes(archiveFile.toPath());
+
+        try (Archive archive = new ArchiveLoader().load(archiveFile)) {
+            archive.getRootDirectory().addFile(file("added.txt", data(6, 4000), true));
+            archive.getRootDirectory().addFile(new FileToCode(new Generator<>(() -> {
+                throw new IOException("unreadable");
+            }), "unreadable.txt", 4000, new NoneCodec().getID()));
+            new ArchiveSaver().update(archive, archiveFile);
+            fail("update of unreadable file has to fail");
+        } catch (ArchiveSavingException e) {
+            // expected
+        }
+        assertArrayEquals(original, Files.readAllBytes(archiveFile.toPath()));
+        assertLoadsAndExtracts(archiveFile);
+    }
+}
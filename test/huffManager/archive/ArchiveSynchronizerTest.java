@@ -0,0 +1,140 @@
+package huffManager.archive;
+
+import huffManager.codecs.huffman.HuffmanCodec;
+import static huffManager.archive.TestArchives.*;
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+
+/**
+ * Synchronizes archives with source directories and checks which files are found added, changed, unchanged
+ * and removed.
+ * @author Jan Bryda
+ */
+public class ArchiveSynchronizerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, byte[]> contents = sampleContents();
+    private File sourceDirectory;
+    private File archiveFile;
+
+    @Before
+    public void setUp() throws Exception {
+        // all files are coded by Huffman coding, which can't code data of a single repeated byte
+        contents.remove("docs/b.txt");
+        sourceDirectory = folder.newFolder("source");
+        for (Map.Entry<String, byte[]> entry : contents.entrySet())
+            write(entry.getKey(), entry.getValue());
+        archiveFile = new File(folder.getRoot(), "synced.huff");
+    }
+
+    private void write(String path, byte[] data) throws IOException {
+        File file = new File(sourceDirectory, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), data);
+    }
+
+    private ArchiveSynchronizer.SyncSummary sync(ArchiveSynchronizer synchronizer) throws Exception {
+        return synchronizer.sync(archiveFile, sourceDirectory, new HuffmanCodec(), new ArchiveSaver());
+    }
+
+    private static void assertSummary(ArchiveSynchronizer.SyncSummary summary, int added, int changed,
+                                      int unchanged, int removed) {
+        assertEquals("added", added, summary.addedCount);
+        assertEquals("changed", changed, summary.changedCount);
+        assertEquals("unchanged", unchanged, summary.unchangedCount);
+        assertEquals("removed", removed, summary.removedCount);
+    }
+
+    private void assertArchiveContents() throws Exception {
+        try (Archive archive = new ArchiveLoader().load(archiveFile)) {
+            assertSameContents(contents, read(archive));
+        }
+    }
+
+    @Test
+    public void unchangedDirectoryIsNotSavedAgain() throws Exception {
+        assertSummary(sync(new ArchiveSynchronizer()), contents.size(), 0, 0, 0);
+        assertArchiveContents();
+        long length = archiveFile.length();
+
+        ArchiveSynchronizer.SyncSummary summary = sync(new ArchiveSynchronizer());
+        assertFalse(summary.hasChanges());
+        assertSummary(summary, 0, 0, contents.size(), 0);
+        assertEquals(length, archiveFile.length());
+    }
+
+    @Test
+    public void changedAndAddedFilesAreFound() throws Exception {
+        sync(new ArchiveSynchronizer());
+
+        contents.put("docs/a.txt", data(10, 25000));
+        write("docs/a.txt", contents.get("docs/a.txt"));
+        contents.put("new/added.txt", data(11, 3000));
+        write("new/added.txt", contents.get("new/added.txt"));
+
+        assertSummary(sync(new ArchiveSynchronizer()), 1, 1, contents.size() - 2, 0);
+        assertArchiveContents();
+    }
+
+    @Test
+    public void sameSizeWithNewTimeIsChanged() throws Exception {
+        sync(new ArchiveSynchronizer());
+
+        File source = new File(sourceDirectory, "src/Main.java");
+        contents.put("src/Main.java", data(12, 5000));
+        write("src/Main.java", contents.get("src/Main.java"));
+        assertTrue(source.setLastModified(source.lastModified() + 10000));
+
+        assertSummary(sync(new ArchiveSynchronizer()), 0, 1, contents.size() - 1, 0);
+        assertArchiveContents();
+    }
+
+    @Test
+    public void touchedFileIsUnchangedByChecksum() throws Exception {
+        ArchiveSynchronizer synchronizer = new ArchiveSynchronizer();
+        synchronizer.setChecksumVerification(true);
+        sync(synchronizer);
+        long length = archiveFile.length();
+
+        File source = new File(sourceDirectory, "docs/deep/c.bin");
+        assertTrue(source.setLastModified(source.lastModified() + 10000));
+        assertSummary(sync(synchronizer), 0, 0, contents.size(), 0);
+        assertEquals(length, archiveFile.length());
+
+        // the same size and a new time, but other contents
+        write("docs/deep/c.bin", data(13, 300000));
+        assertTrue(source.setLastModified(source.lastModified() + 20000));
+        contents.put("docs/deep/c.bin", data(13, 300000));
+        assertSummary(sync(synchronizer), 0, 1, contents.size() - 1, 0);
+        assertArchiveContents();
+    }
+
+    @Test
+    public void missingFilesAreRemoved() throws Exception {
+        sync(new ArchiveSynchronizer());
+        assertTrue(new File(sourceDirectory, "readme.txt").delete());
+        assertTrue(new File(sourceDirectory, "docs/deep/c.bin").delete());
+        assertTrue(new File(sourceDirectory, "docs/deep").delete());
+
+        ArchiveSynchronizer keeping = new ArchiveSynchronizer();
+        keeping.setRemovingMissing(false);
+        assertSummary(sync(keeping), 0, 0, contents.size() - 2, 0);
+        assertArchiveContents();
+
+        // the file and the whole directory are removed
+        assertSummary(sync(new ArchiveSynchronizer()), 0, 0, contents.size() - 2, 2);
+        contents.remove("readme.txt");
+        contents.remove("docs/deep/c.bin");
+        assertArchiveContents();
+    }
+}
@@ -0,0 +1,93 @@
+package huffManager.archive;
+
+import huffManager.archive.exceptions.ArchiveLoadingException;
+import static huffManager.archive.TestArchives.*;
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Saves archives as volume sets of limited size, updates them and loads them from any volume.
+ * @author Jan Bryda
+ */
+public class ArchiveVolumesTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final long VOLUME_SIZE = 64 * 1024;
+
+    private final Map<String, byte[]> contents = sampleContents();
+
+    private File saveVolumes() throws Exception {
+        File archiveFile = new File(folder.getRoot(), "volumes.huff");
+        ArchiveSaver saver = new ArchiveSaver();
+        saver.setVolumeSize(VOLUME_SIZE);
+        saver.update(build(contents), archiveFile);
+        return archiveFile;
+    }
+
+    private void assertLoads(File file) throws Exception {
+        try (Archive archive = new ArchiveLoader().load(file)) {
+            assertSameContents(contents, read(archive));
+        }
+    }
+
+    @Test
+    public void volumeSet() throws Exception {
+        File archiveFile = saveVolumes();
+        assertFalse(archiveFile.exists());
+
+        File[] volumes = ArchiveVolumes.find(archiveFile);
+        assertNotNull(volumes);
+        assertTrue(volumes.length > 1);
+        for (File volume : volumes)
+            assertTrue(volume.length() <= VOLUME_SIZE);
+
+        assertLoads(archiveFile);
+        assertLoads(volumes[volumes.length - 1]);
+
+        File targetDirectory = folder.newFolder();
+        try (Archive archive = new ArchiveLoader().load(volumes[0])) {
+            ArchiveExtractor extractor = new ArchiveExtractor();
+            extractor.setConcurrency(3);
+            assertEquals(contents.size(), extractor.extract(archive, targetDirectory));
+        }
+        assertSameContents(contents, readDirectory(targetDirectory));
+    }
+
+    @Test
+    public void updateKeepsVolumeSizeAndRemovesStaleVolumes() throws Exception {
+        File archiveFile = saveVolumes();
+        int volumeCount = ArchiveVolumes.find(archiveFile).length;
+
+        try (Archive archive = new ArchiveLoader().load(archiveFile)) {
+            ArchiveDirectory docs = null;
+            for (ArchiveDirectory directory : archive.getRootDirectory().getSubdirectories()) {
+                if (directory.getName().equals("docs"))
+                    docs = directory;
+            }
+            archive.getRootDirectory().removeSubdirectory(docs);
+            new ArchiveSaver().update(archive, archiveFile);
+        }
+        contents.keySet().removeIf(path -> path.startsWith("docs/"));
+
+        File[] volumes = ArchiveVolumes.find(archiveFile);
+        assertTrue(volumes.length < volumeCount);
+        assertEquals(VOLUME_SIZE, ArchiveVolumes.getVolumeSize(archiveFile));
+        assertFalse(ArchiveVolumes.getVolumeFile(archiveFile, volumes.length + 1).exists());
+        assertLoads(archiveFile);
+    }
+
+    @Test(expected = ArchiveLoadingException.class)
+    public void missingVolumeIsReported() throws Exception {
+        File archiveFile = saveVolumes();
+        assertTrue(ArchiveVolumes.getVolumeFile(archiveFile, 2).delete());
+
+        new ArchiveLoader().load(archiveFile).close();
+    }
+}
@@ -0,0 +1,85 @@
+package huffManager.archive;
+
+import huffManager.codecs.huffman.HuffmanCodec;
+import huffManager.codecs.none.NoneCodec;
+import static huffManager.archive.TestArchives.*;
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes archives by the streaming writer into a non-seekable output and loads them back.
+ * @author Jan Bryda
+ */
+public class ArchiveWriterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, byte[]> contents = sampleContents();
+
+    /**
+     * Writes the entries by the streaming writer, coded by Huffman coding or stored, by turns.
+     * @param contents data of entries by their paths
+     * @param memoryLimit memory limit of the writer, larger entries are spilled into the spill directory
+     * @param spillDirectory directory of the spilled entries
+     * @return written archive
+     * @throws Exception
+     */
+    static byte[] write(Map<String, byte[]> contents, long memoryLimit, File spillDirectory) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ArchiveWriter writer = new ArchiveWriter(output)) {
+            writer.setMemoryLimit(memoryLimit);
+            writer.setSpillDirectory(spillDirectory);
+            boolean huffman = true;
+            for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                boolean coded = huffman && entry.getValue().length > 0;
+                writer.putEntry(entry.getKey(), new ByteArrayInputStream(entry.getValue()),
+                        coded ? new HuffmanCodec() : new NoneCodec());
+                huffman = !huffman;
+            }
+            assertEquals(contents.size(), writer.getEntryCount());
+        }
+        return output.toByteArray();
+    }
+
+    private Map<String, byte[]> load(byte[] archive) throws Exception {
+        File archiveFile = folder.newFile();
+        try (FileOutputStream output = new FileOutputStream(archiveFile)) {
+            output.write(archive);
+        }
+        try (Archive loaded = new ArchiveLoader().load(archiveFile)) {
+            return read(loaded);
+        }
+    }
+
+    @Test
+    public void writtenArchiveIsLoaded() throws Exception {
+        assertSameContents(contents, load(write(contents, Long.MAX_VALUE, folder.getRoot())));
+    }
+
+    @Test
+    public void spilledEntriesAreLoaded() throws Exception {
+        File spillDirectory = folder.newFolder();
+        assertSameContents(contents, load(write(contents, 4096, spillDirectory)));
+        assertEquals(0, spillDirectory.list().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyNameIsRejected() throws Exception {
+        try (ArchiveWriter writer = new ArchiveWriter(new ByteArrayOutputStream())) {
+            writer.putEntry("docs//a.txt", new ByteArrayInputStream(data(1, 10)), new NoneCodec());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedWriterRejectsEntries() throws Exception {
+        ArchiveWriter writer = new ArchiveWriter(new ByteArrayOutputStream());
+        writer.close();
+        writer.putEntry("a.txt", new ByteArrayInputStream(data(1, 10)), new NoneCodec());
+    }
+}
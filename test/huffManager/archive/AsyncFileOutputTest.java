@@ -0,0 +1,85 @@
+package huffManager.archive;
+
+import static huffManager.archive.TestArchives.*;
+import static org.junit.Assert.*;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.file.Files;
+
+/**
+ * Writes data into files asynchronously and checks that failed reads and writes are reported without
+ * leaving writes outstanding.
+ * @author Jan Bryda
+ */
+public class AsyncFileOutputTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[] data = data(1, 5 * AsyncFileOutput.BUFFER_SIZE + 12345);
+
+    @Test
+    public void wholeInputIsWritten() throws Exception {
+        File target = folder.newFile();
+        Files.write(target.toPath(), new byte[data.length + 1000]);
+
+        assertEquals(data.length, AsyncFileOutput.copy(new ByteArrayInputStream(data), target));
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void emptyInputMakesEmptyFile() throws Exception {
+        File target = folder.newFile();
+        Files.write(target.toPath(), data);
+
+        assertEquals(0, AsyncFileOutput.copy(new ByteArrayInputStream(new byte[0]), target));
+        assertEquals(0, target.length());
+    }
+
+    @Test(timeout = 10000)
+    public void failedInputIsReported() throws Exception {
+        InputStream failing = new SequenceInputStream(new ByteArrayInputStream(data), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("input failed");
+            }
+        });
+
+        try {
+            AsyncFileOutput.copy(failing, folder.newFile());
+            fail("failed input has to be reported");
+        } catch (IOException e) {
+            assertEquals("input failed", e.getMessage());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void failedWriteIsReported() throws Exception {
+        // every write into the full device fails, and has to give back its permit
+        File fullDevice = new File("/dev/full");
+        Assume.assumeTrue(fullDevice.exists());
+
+        try {
+            AsyncFileOutput output = new AsyncFileOutput(fullDevice, 1);
+            try {
+                output.writeAll(new ByteArrayInputStream(data));
+            } finally {
+                output.close();
+            }
+            fail("failed write has to be reported");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test(timeout = 10000, expected = IOException.class)
+    public void closedOutputIsReported() throws Exception {
+        AsyncFileOutput output = new AsyncFileOutput(folder.newFile(), 1);
+        output.close();
+        output.writeAll(new ByteArrayInputStream(data));
+    }
+}
@@ -0,0 +1,75 @@
+package huffManager.archive;
+
+import static huffManager.archive.Archive.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Adds fingerprints into the index of chunks, also fingerprints that fall into the same slot and more
+ * fingerprints than the initial capacity.
+ * @author Jan Bryda
+ */
+public class ChunkFingerprintIndexTest {
+
+    private static byte[] fingerprint(Random random) {
+        byte[] fingerprint = new byte[FINGERPRINT_LENGTH];
+        random.nextBytes(fingerprint);
+        return fingerprint;
+    }
+
+    @Test
+    public void emptyIndexHasNoChunk() {
+        ChunkFingerprintIndex index = new ChunkFingerprintIndex();
+        assertEquals(-1, index.get(new byte[FINGERPRINT_LENGTH]));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void collidingFingerprintsAreKeptApart() {
+        // fingerprints with the same first bytes are hashed to the same slot
+        ChunkFingerprintIndex index = new ChunkFingerprintIndex();
+        byte[][] fingerprints = new byte[50][FINGERPRINT_LENGTH];
+        for (int i = 0; i < fingerprints.length; i++) {
+            fingerprints[i][FINGERPRINT_LENGTH - 1] = (byte) i;
+            index.put(fingerprints[i], i);
+        }
+
+        assertEquals(fingerprints.length, index.size());
+        for (int i = 0; i < fingerprints.length; i++)
+            assertEquals(i, index.get(fingerprints[i]));
+        byte[] missing = new byte[FINGERPRINT_LENGTH];
+        missing[FINGERPRINT_LENGTH - 1] = (byte) 200;
+        assertEquals(-1, index.get(missing));
+    }
+
+    @Test
+    public void firstChunkIsKept() {
+        ChunkFingerprintIndex index = new ChunkFingerprintIndex();
+        byte[] fingerprint = fingerprint(new Random(1));
+        index.put(fingerprint, 7);
+        index.put(fingerprint.clone(), 8);
+
+        assertEquals(1, index.size());
+        assertEquals(7, index.get(fingerprint));
+    }
+
+    @Test
+    public void indexGrows() {
+        ChunkFingerprintIndex index = new ChunkFingerprintIndex();
+        Random random = new Random(2);
+        byte[][] fingerprints = new byte[20000][];
+        for (int i = 0; i < fingerprints.length; i++) {
+            fingerprints[i] = fingerprint(random);
+            index.put(fingerprints[i], i);
+        }
+
+        assertEquals(fingerprints.length, index.size());
+        for (int i = 0; i < fingerprints.length; i++)
+            assertEquals(i, index.get(fingerprints[i]));
+        for (int i = 0; i < 1000; i++)
+            assertEquals(-1, index.get(fingerprint(random)));
+    }
+}
@@ -0,0 +1,96 @@
+package huffManager.archive;
+
+import huffManager.archive.exceptions.BadArchiveFormatException;
+import huffManager.codecs.huffman.HuffmanCodec;
+import huffManager.generator.FileOutputStreamGenerator;
+import static huffManager.archive.Archive.*;
+import static huffManager.archive.TestArchives.*;
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Encodes archive descriptions by the compact header and decodes them back.
+ * @author Jan Bryda
+ */
+public class CompactHeaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, byte[]> contents = sampleContents();
+
+    private File save(ArchiveSaver saver) throws Exception {
+        File archiveFile = folder.newFile();
+        saver.save(build(contents), new FileOutputStreamGenerator(archiveFile));
+        return archiveFile;
+    }
+
+    private static ArchiveFooter readFooter(File archiveFile) throws Exception {
+        try (ArchiveChannel channel = new ArchiveChannel(archiveFile)) {
+            return ArchiveFooter.read(channel);
+        }
+    }
+
+    @Test
+    public void storedDescription() throws Exception {
+        File archiveFile = save(new ArchiveSaver());
+
+        assertTrue(readFooter(archiveFile).hasFlag(FLAG_COMPACT_HEADER));
+        try (Archive archive = new ArchiveLoader().load(archiveFile)) {
+            assertSameContents(contents, read(archive));
+        }
+    }
+
+    @Test
+    public void codedDescription() throws Exception {
+        ArchiveSaver saver = new ArchiveSaver();
+        saver.setHeaderCodec(new HuffmanCodec());
+        File archiveFile = save(saver);
+
+        ArchiveFooter footer = readFooter(archiveFile);
+        assertTrue(footer.hasFlag(FLAG_COMPACT_HEADER));
+        try (ArchiveChannel channel = new ArchiveChannel(archiveFile)) {
+            assertEquals(new HuffmanCodec().getID(), CompactHeader.readCodec(channel, footer).getID());
+        }
+        try (Archive archive = new ArchiveLoader().load(archiveFile)) {
+            assertSameContents(contents, read(archive));
+        }
+    }
+
+    @Test
+    public void smallerThanFixedHeader() throws Exception {
+        File compactFile = save(new ArchiveSaver());
+        ArchiveSaver saver = new ArchiveSaver();
+        saver.setCompactHeader(false);
+        File fixedFile = save(saver);
+
+        assertFalse(readFooter(fixedFile).hasFlag(FLAG_COMPACT_HEADER));
+        assertTrue(readFooter(compactFile).headerLength < readFooter(fixedFile).headerLength);
+    }
+
+    @Test(expected = BadArchiveFormatException.class)
+    public void shortHeaderIsRejected() throws Exception {
+        CompactHeader.read(new byte[10], new ArchiveLoader());
+    }
+
+    @Test(expected = BadArchiveFormatException.class)
+    public void badLengthIsRejected() throws Exception {
+        File archiveFile = save(new ArchiveSaver());
+        ArchiveFooter footer = readFooter(archiveFile);
+        byte[] header = new byte[(int) footer.headerLength];
+        try (ArchiveChannel channel = new ArchiveChannel(archiveFile);
+             DataInputStream input = new DataInputStream(
+                     channel.openSegment(footer.headerOffset, footer.headerLength))) {
+            input.readFully(header);
+        }
+
+        CompactHeader.read(Arrays.copyOf(header, header.length - 1), new ArchiveLoader());
+    }
+}
@@ -0,0 +1,128 @@
+package huffManager.archive;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Splits data into content defined chunks and checks that the chunks cover the data, keep their size limits
+ * and stay the same around an insertion.
+ * @author Jan Bryda
+ */
+public class ContentChunkerTest {
+
+    /**
+     * Chunk found by the chunker.
+     */
+    private static class Chunk {
+        final long offset;
+        final int length;
+        final String fingerprint;
+
+        Chunk(long offset, int length, byte[] fingerprint) {
+            this.offset = offset;
+            this.length = length;
+            this.fingerprint = Arrays.toString(fingerprint);
+        }
+    }
+
+    private static byte[] randomData(long seed, int size) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static List<Chunk> split(ContentChunker chunker, byte[] data) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        long length = chunker.split(new ByteArrayInputStream(data), 42,
+                (offset, chunkLength, fingerprint) -> chunks.add(new Chunk(offset, chunkLength, fingerprint)));
+        assertEquals(data.length, length);
+        return chunks;
+    }
+
+    private static Set<String> fingerprints(List<Chunk> chunks) {
+        Set<String> fingerprints = new HashSet<>();
+        for (Chunk chunk : chunks)
+            fingerprints.add(chunk.fingerprint);
+        return fingerprints;
+    }
+
+    @Test
+    public void chunksCoverDataWithinSizeLimits() throws Exception {
+        ContentChunker chunker = new ContentChunker(5000);
+        assertEquals(4096, chunker.getAverageSize());
+
+        List<Chunk> chunks = split(chunker, randomData(1, 1000000));
+        long offset = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+            assertEquals(offset, chunk.offset);
+            assertTrue(chunk.length <= 4 * 4096);
+            if (i < chunks.size() - 1)
+                assertTrue(chunk.length >= 4096 / 4);
+            offset += chunk.length;
+        }
+        assertEquals(1000000, offset);
+        assertTrue(chunks.size() > 1000000 / (4 * 4096));
+    }
+
+    @Test
+    public void boundariesAreStableAfterInsert() throws Exception {
+        ContentChunker chunker = new ContentChunker(4096);
+        byte[] data = randomData(2, 500000);
+        byte[] edited = new byte[data.length + 100];
+        System.arraycopy(data, 0, edited, 0, 250000);
+        System.arraycopy(randomData(3, 100), 0, edited, 250000, 100);
+        System.arraycopy(data, 250000, edited, 250100, data.length - 250000);
+
+        List<Chunk> chunks = split(chunker, data);
+        List<Chunk> editedChunks = split(chunker, edited);
+
+        // chunks before the insertion are the same, the chunks after it are only shifted once the boundaries
+        // are found again, a few chunks behind the insertion
+        for (int i = 0; chunks.get(i).offset + chunks.get(i).length <= 250000; i++)
+            assertEquals(chunks.get(i).fingerprint, editedChunks.get(i).fingerprint);
+        for (int i = 1; i <= chunks.size() / 2 - 5; i++) {
+            Chunk chunk = chunks.get(chunks.size() - i);
+            Chunk editedChunk = editedChunks.get(editedChunks.size() - i);
+            assertEquals(chunk.fingerprint, editedChunk.fingerprint);
+            assertEquals(chunk.offset + 100, editedChunk.offset);
+        }
+        Set<String> changed = fingerprints(editedChunks);
+        changed.removeAll(fingerprints(chunks));
+        assertTrue("changed chunks: " + changed.size(), changed.size() <= 5);
+        assertTrue(chunks.size() > 100);
+    }
+
+    @Test
+    public void sameDataHaveSameFingerprintsOnlyWithSameSalt() throws Exception {
+        ContentChunker chunker = new ContentChunker(1024);
+        byte[] data = randomData(4, 3000);
+        List<byte[]> fingerprints = new ArrayList<>();
+        for (long salt : new long[] { 1, 1, 2 })
+            chunker.split(new ByteArrayInputStream(data), salt, (offset, length, fingerprint) -> {
+                if (offset == 0)
+                    fingerprints.add(fingerprint);
+            });
+
+        assertArrayEquals(fingerprints.get(0), fingerprints.get(1));
+        assertFalse(Arrays.equals(fingerprints.get(0), fingerprints.get(2)));
+    }
+
+    @Test
+    public void fixedSizeChunks() throws Exception {
+        List<Chunk> chunks = split(ContentChunker.fixedSize(100000), randomData(5, 250000));
+        assertEquals(3, chunks.size());
+        assertEquals(100000, chunks.get(0).length);
+        assertEquals(100000, chunks.get(1).length);
+        assertEquals(50000, chunks.get(2).length);
+    }
+
+    @Test
+    public void emptyInputHasNoChunks() throws Exception {
+        assertTrue(split(new ContentChunker(4096), new byte[0]).isEmpty());
+    }
+}
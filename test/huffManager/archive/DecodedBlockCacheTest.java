@@ -0,0 +1,227 @@
+package huffManager.archive;
+
+import huffManager.generator.FileOutputStreamGenerator;
+import huffManager.memory.MemoryBudget;
+import static huffManager.archive.TestArchives.*;
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Caches decoded data by the channel and offset, and checks the eviction of least recently used entries, the
+ * limits of entries, the memory budget and the invalidation of closed channels.
+ * @author Jan Bryda
+ */
+public class DecodedBlockCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** capacity of one stripe of the tested caches */
+    private static final int STRIPE_CAPACITY = 1000;
+
+    private File file;
+    /** offsets that were loaded, in the order of loading */
+    private final List<Long> loaded = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        file = folder.newFile();
+    }
+
+    private static DecodedBlockCache cache(MemoryBudget budget) {
+        return new DecodedBlockCache(16 * STRIPE_CAPACITY, STRIPE_CAPACITY, budget);
+    }
+
+    /**
+     * Reads the entry through the cache, the loader records the offset and returns its data.
+     * @param cache cache
+     * @param channel channel of the archive
+     * @param offset offset of the entry
+     * @param size size of the decoded data
+     * @return read data
+     * @throws Exception
+     */
+    private byte[] readCached(DecodedBlockCache cache, ArchiveChannel channel, long offset, int size)
+            throws Exception {
+        try (InputStream input = cache.getStream(channel, offset, () -> {
+            loaded.add(offset);
+            return data(offset, size);
+        })) {
+            byte[] data = readAll(input);
+            assertArrayEquals(data(offset, size), data);
+            return data;
+        }
+    }
+
+    /**
+     * Finds the offsets whose entries of the channel fall into the same stripe.
+     * @param channel channel of the archive
+     * @param count number of offsets
+     * @return offsets
+     */
+    private static long[] sameStripe(ArchiveChannel channel, int count) {
+        long[] offsets = new long[count];
+        int stripe = new BlockKey(channel, 0).hashCode() & 15;
+        for (int found = 1, offset = 1; found < count; offset++) {
+            if ((new BlockKey(channel, offset).hashCode() & 15) == stripe)
+                offsets[found++] = offset;
+        }
+        return offsets;
+    }
+
+    @Test
+    public void decodedDataAreCached() throws Exception {
+        DecodedBlockCache cache = cache(new MemoryBudget(MemoryBudget.UNLIMITED));
+        try (ArchiveChannel channel = new ArchiveChannel(file)) {
+            readCached(cache, channel, 8, 500);
+            readCached(cache, channel, 8, 500);
+            readCached(cache, channel, 700, 300);
+        }
+        assertEquals(Arrays.asList(8L, 700L), loaded);
+    }
+
+    @Test
+    public void statisticsCountHitsAndMisses() throws Exception {
+        DecodedBlockCache cache = cache(new MemoryBudget(MemoryBudget.UNLIMITED));
+        try (ArchiveChannel channel = new ArchiveChannel(file)) {
+            readCached(cache, channel, 8, 500);
+            readCached(cache, channel, 8, 500);
+            readCached(cache, channel, 8, 500);
+
+            DecodedBlockCache.Statistics statistics = cache.getStatistics();
+            assertEquals(2, statistics.hitCount);
+            assertEquals(1, statistics.missCount);
+            assertEquals(1, statistics.entryCount);
+            assertEquals(500, statistics.size);
+            assertEquals(2.0 / 3, statistics.getHitRate(), 1e-9);
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() throws Exception {
+        DecodedBlockCache cache = cache(new MemoryBudget(MemoryBudget.UNLIMITED));
+        try (ArchiveChannel channel = new ArchiveChannel(file)) {
+            long[] offsets = sameStripe(channel, 3);
+            readCached(cache, channel, offsets[0], 400);
+            readCached(cache, channel, offsets[1], 400);
+            readCached(cache, channel, offsets[0], 400);
+            readCached(cache, channel, offsets[2], 400);
+            assertEquals(1, cache.getStatistics().evictionCount);
+
+            loaded.clear();
+            readCached(cache, channel, offsets[0], 400);
+            readCached(cache, channel, offsets[2], 400);
+            assertTrue(loaded.isEmpty());
+            readCached(cache, channel, offsets[1], 400);
+            assertEquals(Collections.singletonList(offsets[1]), loaded);
+        }
+    }
+
+    @Test
+    public void largeEntryIsNotCached() throws Exception {
+        DecodedBlockCache cache = cache(new MemoryBudget(MemoryBudget.UNLIMITED));
+        cache.setMaxEntrySize(100);
+        try (ArchiveChannel channel = new ArchiveChannel(file)) {
+            readCached(cache, channel, 8, 101);
+            readCached(cache, channel, 8, 101);
+            readCached(cache, channel, 200, 100);
+            readCached(cache, channel, 200, 100);
+        }
+        assertEquals(Arrays.asList(8L, 8L, 200L), loaded);
+        assertFalse(cache.accepts(STRIPE_CAPACITY + 1));
+    }
+
+    @Test
+    public void smallerCapacityEvictsEntries() throws Exception {
+        DecodedBlockCache cache = cache(new MemoryBudget(MemoryBudget.UNLIMITED));
+        try (ArchiveChannel channel = new ArchiveChannel(file)) {
+            for (long offset = 0; offset < 10; offset++)
+                readCached(cache, channel, offset, 100);
+            assertEquals(1000, cache.getStatistics().size);
+
+            cache.setCapacity(0);
+            assertEquals(0, cache.getStatistics().entryCount);
+            readCached(cache, channel, 0, 100);
+            assertEquals(0, cache.getStatistics().entryCount);
+        }
+    }
+
+    @Test
+    public void entriesOfClosedChannelAreDropped() throws Exception {
+        MemoryBudget budget = new MemoryBudget(MemoryBudget.UNLIMITED);
+        DecodedBlockCache cache = cache(budget);
+        try (ArchiveChannel channel = new ArchiveChannel(file); ArchiveChannel other = new ArchiveChannel(file)) {
+            readCached(cache, channel, 8, 300);
+            readCached(cache, other, 8, 200);
+            assertEquals(2, loaded.size());
+
+            cache.invalidate(channel);
+            channel.close();
+            assertEquals(1, cache.getStatistics().entryCount);
+            assertEquals(200, budget.getReserved());
+
+            readCached(cache, channel, 8, 300);
+            assertEquals("closed channel is not cached", 1, cache.getStatistics().entryCount);
+        }
+    }
+
+    @Test
+    public void budgetLimitsCachedData() throws Exception {
+        MemoryBudget budget = new MemoryBudget(500);
+        DecodedBlockCache cache = cache(budget);
+        try (ArchiveChannel channel = new ArchiveChannel(file)) {
+            long[] offsets = sameStripe(channel, 2);
+            readCached(cache, channel, offsets[0], 400);
+            assertEquals(400, budget.getReserved());
+
+            // the budget holds only one entry, so the older entry of the stripe makes space for the new one
+            readCached(cache, channel, offsets[1], 300);
+            assertEquals(300, budget.getReserved());
+            assertEquals(1, cache.getStatistics().entryCount);
+
+            // entry larger than the whole budget is not cached
+            readCached(cache, channel, 5000, 600);
+            assertEquals(300, budget.getReserved());
+
+            cache.clear();
+            assertEquals(0, budget.getReserved());
+        }
+    }
+
+    @Test
+    public void offHeapDataAreRead() throws Exception {
+        DecodedBlockCache cache = cache(new MemoryBudget(MemoryBudget.UNLIMITED));
+        cache.setOffHeap(true);
+        try (ArchiveChannel channel = new ArchiveChannel(file)) {
+            readCached(cache, channel, 8, 900);
+            readCached(cache, channel, 8, 900);
+        }
+        assertEquals(1, loaded.size());
+    }
+
+    @Test
+    public void filesOfLoadedArchiveAreCached() throws Exception {
+        Map<String, byte[]> contents = sampleContents();
+        File archiveFile = folder.newFile("archive.huff");
+        new ArchiveSaver().save(build(contents), new FileOutputStreamGenerator(archiveFile));
+
+        DecodedBlockCache.Statistics before = DecodedBlockCache.getShared().getStatistics();
+        try (Archive archive = new ArchiveLoader().load(archiveFile)) {
+            assertSameContents(contents, read(archive));
+            DecodedBlockCache.Statistics afterFirst = DecodedBlockCache.getShared().getStatistics();
+            assertTrue(afterFirst.missCount > before.missCount);
+
+            assertSameContents(contents, read(archive));
+            DecodedBlockCache.Statistics afterSecond = DecodedBlockCache.getShared().getStatistics();
+            assertEquals(afterFirst.missCount, afterSecond.missCount);
+            assertTrue(afterSecond.hitCount > afterFirst.hitCount);
+        }
+        assertEquals(before.entryCount, DecodedBlockCache.getShared().getStatistics().entryCount);
+    }
+}
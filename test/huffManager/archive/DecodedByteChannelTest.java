@@ -0,0 +1,200 @@
+package huffManager.archive;
+
+import huffManager.codecs.huffman.HuffmanCodec;
+import huffManager.generator.FileOutputStreamGenerator;
+import static huffManager.archive.TestArchives.*;
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Reads the files of archives by their seekable channels at random positions, and checks that decoding starts
+ * at the nearest restart point.
+ * @author Jan Bryda
+ */
+public class DecodedByteChannelTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final int RESTART_INTERVAL = 64 * 1024;
+
+    /**
+     * Saves the archive with one Huffman coded file and one stored file, and loads it.
+     * @param data data of both files
+     * @param restartInterval distance of restart points, 0 for none
+     * @return loaded archive
+     * @throws Exception
+     */
+    private Archive saveAndLoad(byte[] data, int restartInterval) throws Exception {
+        Archive archive = new Archive();
+        archive.getRootDirectory().addFile(file("coded.bin", data, true));
+        archive.getRootDirectory().addFile(file("stored.bin", data, false));
+        File archiveFile = folder.newFile();
+        ArchiveSaver saver = new ArchiveSaver();
+        saver.setRestartInterval(restartInterval);
+        saver.save(archive, new FileOutputStreamGenerator(archiveFile));
+        return new ArchiveLoader().load(archiveFile);
+    }
+
+    private static ArchiveFile getFile(Archive archive, String name) {
+        for (ArchiveFile file : archive.getRootDirectory().getFiles()) {
+            if (file.getName().equals(name))
+                return file;
+        }
+        fail("no file " + name);
+        return null;
+    }
+
+    /**
+     * Reads the channel at random positions, backwards and forwards, and compares the data.
+     * @param channel channel of the file
+     * @param data expected data of the file
+     * @param direct true to read into direct buffers
+     * @throws IOException
+     */
+    private static void assertRandomReads(SeekableByteChannel channel, byte[] data, boolean direct) throws IOException {
+        assertEquals(data.length, channel.size());
+        Random random = new Random(data.length);
+        for (int i = 0; i < 30; i++) {
+            int position = random.nextInt(data.length);
+            int length = Math.min(data.length - position, 1 + random.nextInt(10000));
+            ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+            channel.position(position);
+            while (buffer.hasRemaining())
+                assertTrue(channel.read(buffer) > 0);
+            assertEquals(position + length, channel.position());
+
+            buffer.flip();
+            byte[] read = new byte[length];
+            buffer.get(read);
+            assertArrayEquals("data at " + position, Arrays.copyOfRange(data, position, position + length), read);
+        }
+
+        channel.position(data.length);
+        assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+    }
+
+    @Test
+    public void readsAtRestartPoints() throws Exception {
+        byte[] data = data(1, 5 * RESTART_INTERVAL + 1234);
+        try (Archive archive = saveAndLoad(data, RESTART_INTERVAL)) {
+            ArchiveFile coded = getFile(archive, "coded.bin");
+            assertTrue(coded instanceof FileInChunks);
+            assertEquals(6, ((FileInChunks) coded).getChunks().size());
+
+            try (SeekableByteChannel channel = coded.openChannel()) {
+                assertRandomReads(channel, data, false);
+            }
+            try (SeekableByteChannel channel = coded.openChannel()) {
+                assertRandomReads(channel, data, true);
+            }
+        }
+    }
+
+    @Test
+    public void readsWithoutRestartPoints() throws Exception {
+        byte[] data = data(2, 3 * RESTART_INTERVAL);
+        try (Archive archive = saveAndLoad(data, 0)) {
+            ArchiveFile coded = getFile(archive, "coded.bin");
+            assertFalse(coded instanceof FileInChunks);
+            try (SeekableByteChannel channel = coded.openChannel()) {
+                assertRandomReads(channel, data, false);
+            }
+        }
+    }
+
+    @Test
+    public void readsStoredFileAtAnyPosition() throws Exception {
+        byte[] data = data(3, 3 * RESTART_INTERVAL);
+        try (Archive archive = saveAndLoad(data, RESTART_INTERVAL)) {
+            ArchiveFile stored = getFile(archive, "stored.bin");
+            assertFalse(stored instanceof FileInChunks);
+            try (SeekableByteChannel channel = stored.openChannel()) {
+                assertRandomReads(channel, data, true);
+            }
+        }
+    }
+
+    @Test
+    public void readsFileOnDisk() throws Exception {
+        byte[] data = data(4, 100000);
+        File sourceFile = folder.newFile("source.bin");
+        Files.write(sourceFile.toPath(), data);
+        try (SeekableByteChannel channel = new FileToCode(sourceFile.getPath(), new HuffmanCodec()).openChannel()) {
+            assertRandomReads(channel, data, false);
+        }
+    }
+
+    /**
+     * Channel over the data in memory with restart points at every 100 bytes, which counts the opened streams.
+     */
+    private static class CountingChannel extends DecodedByteChannel {
+        private final byte[] data;
+        private final List<Long> openedAt = new ArrayList<>();
+
+        CountingChannel(byte[] data) {
+            super(data.length);
+            this.data = data;
+        }
+
+        @Override
+        long getRestartPoint(long position) {
+            return position - position % 100;
+        }
+
+        @Override
+        InputStream openAt(long restartPoint) {
+            openedAt.add(restartPoint);
+            return new ByteArrayInputStream(data, (int) restartPoint, data.length - (int) restartPoint);
+        }
+    }
+
+    @Test
+    public void decodingStartsAtNearestRestartPoint() throws Exception {
+        CountingChannel channel = new CountingChannel(data(5, 1000));
+        ByteBuffer buffer = ByteBuffer.allocate(10);
+
+        channel.position(250).read(buffer);
+        assertEquals(Collections.singletonList(200L), channel.openedAt);
+
+        buffer.clear();
+        channel.position(290).read(buffer);
+        assertEquals("forward read within the block keeps the stream", 1, channel.openedAt.size());
+
+        buffer.clear();
+        channel.position(720).read(buffer);
+        assertEquals("read past a restart point restarts there", Arrays.asList(200L, 700L), channel.openedAt);
+
+        buffer.clear();
+        channel.position(710).read(buffer);
+        assertEquals("backward read restarts", Arrays.asList(200L, 700L, 700L), channel.openedAt);
+    }
+
+    @Test
+    public void channelIsReadOnly() throws Exception {
+        CountingChannel channel = new CountingChannel(data(6, 100));
+        try {
+            channel.write(ByteBuffer.allocate(1));
+            fail("channel has to be read-only");
+        } catch (NonWritableChannelException e) {
+            // expected
+        }
+
+        channel.close();
+        assertFalse(channel.isOpen());
+        try {
+            channel.read(ByteBuffer.allocate(1));
+            fail("closed channel can't be read");
+        } catch (ClosedChannelException e) {
+            // expected
+        }
+    }
+}
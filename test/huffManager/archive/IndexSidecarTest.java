@@ -0,0 +1,127 @@
+package huffManager.archive;
+
+import huffManager.generator.FileOutputStreamGenerator;
+import static huffManager.archive.TestArchives.*;
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Opens the index of archives without a stored index through the sidecar files, and checks that the sidecar
+ * is rebuilt when the archive changes or the sidecar is damaged.
+ * @author Jan Bryda
+ */
+public class IndexSidecarTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, byte[]> contents = sampleContents();
+    private File archiveFile;
+    private ArchiveLoader loader;
+
+    @Before
+    public void setUp() throws Exception {
+        archiveFile = folder.newFile("archive.huff");
+        new ArchiveSaver().save(build(contents), new FileOutputStreamGenerator(archiveFile));
+        loader = new ArchiveLoader();
+        loader.setIndexSidecar(true);
+    }
+
+    /**
+     * Opens the index, checks its files and tells whether it was read from the sidecar.
+     * @return true if the index was mapped from the sidecar
+     * @throws Exception
+     */
+    private boolean openIndex() throws Exception {
+        try (ArchiveIndex index = loader.loadIndex(archiveFile)) {
+            assertEquals(contents.size(), index.size());
+            for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                ArchiveFile file = index.lookup(entry.getKey());
+                assertNotNull(entry.getKey(), file);
+                try (InputStream input = file.getDecodedStream()) {
+                    assertArrayEquals(entry.getKey(), entry.getValue(), readAll(input));
+                }
+            }
+            return index instanceof PersistedArchiveIndex;
+        }
+    }
+
+    @Test
+    public void sidecarIsWrittenAndReused() throws Exception {
+        assertFalse(openIndex());
+        assertTrue(IndexSidecar.getFile(archiveFile).isFile());
+        assertTrue(openIndex());
+        assertTrue(openIndex());
+    }
+
+    @Test
+    public void noSidecarWhenTurnedOff() throws Exception {
+        loader.setIndexSidecar(false);
+        assertFalse(openIndex());
+        assertFalse(openIndex());
+        assertFalse(IndexSidecar.getFile(archiveFile).exists());
+    }
+
+    @Test
+    public void changedArchiveRebuildsSidecar() throws Exception {
+        assertFalse(openIndex());
+
+        try (Archive archive = new ArchiveLoader().load(archiveFile)) {
+            byte[] data = data(10, 7000);
+            archive.getRootDirectory().addFile(file("added.txt", data, true));
+            contents.put("added.txt", data);
+            new ArchiveSaver().update(archive, archiveFile);
+        }
+
+        assertFalse("sidecar of the old archive is not used", openIndex());
+        assertTrue(openIndex());
+    }
+
+    @Test
+    public void damagedSidecarIsRebuilt() throws Exception {
+        assertFalse(openIndex());
+        File sidecarFile = IndexSidecar.getFile(archiveFile);
+        byte[] sidecar = Files.readAllBytes(sidecarFile.toPath());
+        byte[] damaged = Arrays.copyOf(sidecar, sidecar.length);
+        for (int i = 4 * 8; i < damaged.length; i++)
+            damaged[i] = (byte) 0xFF;
+        Files.write(sidecarFile.toPath(), damaged);
+
+        assertFalse(openIndex());
+        assertArrayEquals(sidecar, Files.readAllBytes(sidecarFile.toPath()));
+        assertTrue(openIndex());
+    }
+
+    @Test
+    public void foreignSidecarIsIgnored() throws Exception {
+        Files.write(IndexSidecar.getFile(archiveFile).toPath(), data(11, 100));
+        assertFalse(openIndex());
+        assertTrue(openIndex());
+    }
+
+    @Test
+    public void storedIndexNeedsNoSidecar() throws Exception {
+        ArchiveSaver saver = new ArchiveSaver();
+        saver.setPathIndex(true);
+        saver.save(build(contents), new FileOutputStreamGenerator(archiveFile));
+
+        assertTrue(openIndex());
+        assertFalse(IndexSidecar.getFile(archiveFile).exists());
+    }
+
+    @Test
+    public void legacyArchiveHasNoSidecar() throws Exception {
+        saveVersion1(build(contents), archiveFile);
+
+        assertFalse(openIndex());
+        assertFalse(openIndex());
+        assertFalse(IndexSidecar.getFile(archiveFile).exists());
+    }
+}
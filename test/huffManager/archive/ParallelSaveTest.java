@@ -0,0 +1,77 @@
+package huffManager.archive;
+
+import huffManager.archive.exceptions.ArchiveSavingException;
+import huffManager.codecs.huffman.HuffmanCodec;
+import huffManager.generator.*;
+import static huffManager.archive.TestArchives.*;
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Saves archives by coding files in parallel and checks that the output is the same as the output of
+ * sequential saving.
+ * @author Jan Bryda
+ */
+public class ParallelSaveTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, byte[]> contents = new TreeMap<>();
+
+    {
+        for (int i = 0; i < 40; i++)
+            contents.put("dir" + (i % 3) + "/file" + i, data(i, 1000 + 7000 * i));
+    }
+
+    private byte[] save(int concurrency, long memoryLimit, File spillDirectory) throws Exception {
+        File archiveFile = folder.newFile();
+        ArchiveSaver saver = new ArchiveSaver();
+        saver.setConcurrency(concurrency);
+        saver.setMemoryLimit(memoryLimit);
+        saver.setSpillDirectory(spillDirectory);
+        saver.save(build(contents), new FileOutputStreamGenerator(archiveFile));
+        return Files.readAllBytes(archiveFile.toPath());
+    }
+
+    @Test
+    public void parallelOutputEqualsSequentialOutput() throws Exception {
+        byte[] sequential = save(1, 64 * 1024 * 1024, null);
+        assertArrayEquals(sequential, save(4, 64 * 1024 * 1024, null));
+    }
+
+    @Test
+    public void spilledOutputEqualsSequentialOutput() throws Exception {
+        File spillDirectory = folder.newFolder();
+        byte[] sequential = save(1, 64 * 1024 * 1024, null);
+        assertArrayEquals(sequential, save(4, 1024, spillDirectory));
+        assertEquals(0, spillDirectory.list().length);
+    }
+
+    @Test
+    public void failedCodingIsReported() throws Exception {
+        File spillDirectory = folder.newFolder();
+        Archive archive = build(contents);
+        archive.getRootDirectory().addFile(new FileToCode(new Generator<>(() -> {
+            throw new IOException("unreadable");
+        }), "unreadable", 5000, new HuffmanCodec().getID()));
+        ArchiveSaver saver = new ArchiveSaver();
+        saver.setConcurrency(4);
+        saver.setMemoryLimit(1024);
+        saver.setSpillDirectory(spillDirectory);
+
+        try {
+            saver.save(archive, new FileOutputStreamGenerator(folder.newFile()));
+            fail("unreadable file has to be reported");
+        } catch (ArchiveSavingException e) {
+            // expected
+        }
+        assertEquals(0, spillDirectory.list().length);
+    }
+}
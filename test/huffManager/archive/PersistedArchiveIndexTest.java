@@ -0,0 +1,122 @@
+package huffManager.archive;
+
+import huffManager.generator.FileOutputStreamGenerator;
+import static huffManager.archive.TestArchives.*;
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Looks up, lists and globs the paths of the index of files stored in the archive.
+ * @author Jan Bryda
+ */
+public class PersistedArchiveIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, byte[]> contents = sampleContents();
+
+    private ArchiveIndex openIndex() throws Exception {
+        File archiveFile = folder.newFile();
+        ArchiveSaver saver = new ArchiveSaver();
+        saver.setPathIndex(true);
+        saver.save(build(contents), new FileOutputStreamGenerator(archiveFile));
+        return new ArchiveLoader().loadIndex(archiveFile);
+    }
+
+    @Test
+    public void indexIsStored() throws Exception {
+        try (ArchiveIndex index = openIndex()) {
+            assertTrue(index instanceof PersistedArchiveIndex);
+            assertEquals(contents.size(), index.size());
+        }
+    }
+
+    @Test
+    public void lookup() throws Exception {
+        try (ArchiveIndex index = openIndex()) {
+            for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                ArchiveFile file = index.lookup(entry.getKey());
+                assertNotNull(entry.getKey(), file);
+                assertEquals(entry.getValue().length, file.getSize());
+                try (InputStream input = file.getDecodedStream()) {
+                    assertArrayEquals(entry.getValue(), readAll(input));
+                }
+            }
+            assertNull(index.lookup("docs"));
+            assertNull(index.lookup("docs/deep/c.bi"));
+            assertNull(index.lookup("missing.txt"));
+        }
+    }
+
+    @Test
+    public void list() throws Exception {
+        try (ArchiveIndex index = openIndex()) {
+            assertEquals(Arrays.asList("docs/a.txt", "docs/b.txt", "docs/deep/c.bin"), index.list("docs/"));
+            assertEquals(Collections.singletonList("docs/deep/c.bin"), index.list("docs/deep/"));
+            assertEquals(new ArrayList<>(new TreeSet<>(contents.keySet())), index.list(""));
+            assertTrue(index.list("zzz").isEmpty());
+        }
+    }
+
+    @Test
+    public void glob() throws Exception {
+        try (ArchiveIndex index = openIndex()) {
+            assertEquals(Arrays.asList("docs/a.txt", "docs/b.txt"), index.glob("docs/*.txt"));
+            assertEquals(Arrays.asList("docs/a.txt", "docs/b.txt", "readme.txt"), index.glob("**/*.txt"));
+            assertEquals(Arrays.asList("docs/a.txt", "docs/b.txt", "docs/deep/c.bin"), index.glob("docs/**"));
+            assertEquals(Collections.singletonList("docs/deep/c.bin"), index.glob("docs/**/c.bin"));
+            assertEquals(Collections.singletonList("src/Main.java"), index.glob("src/M?in.*"));
+            assertTrue(index.glob("*.bin").isEmpty());
+        }
+    }
+
+    @Test
+    public void globToRegex() {
+        assertTrue(ArchiveIndex.globToRegex("**/a.txt").matcher("a.txt").matches());
+        assertTrue(ArchiveIndex.globToRegex("**/a.txt").matcher("x/y/a.txt").matches());
+        assertFalse(ArchiveIndex.globToRegex("*/a.txt").matcher("x/y/a.txt").matches());
+        assertTrue(ArchiveIndex.globToRegex("a.(txt)").matcher("a.(txt)").matches());
+        assertFalse(ArchiveIndex.globToRegex("a.txt").matcher("aXtxt").matches());
+    }
+
+    @Test
+    public void manyPathsOfAllKinds() throws Exception {
+        // thousands of paths share the hash slots, solid and chunked files have their own kinds of records
+        Map<String, byte[]> manyContents = new TreeMap<>();
+        for (int i = 0; i < 3000; i++)
+            manyContents.put("dir" + (i % 7) + "/file" + i + ".txt", data(i, 10 + i % 50));
+        manyContents.put("big.bin", data(1, 200000));
+        File archiveFile = folder.newFile();
+        ArchiveSaver saver = new ArchiveSaver();
+        saver.setPathIndex(true);
+        saver.setSolidBlockSize(64 * 1024);
+        saver.setChunkSize(16 * 1024);
+        saver.save(build(manyContents), new FileOutputStreamGenerator(archiveFile));
+
+        try (ArchiveIndex index = new ArchiveLoader().loadIndex(archiveFile)) {
+            assertTrue(index instanceof PersistedArchiveIndex);
+            assertEquals(manyContents.size(), index.size());
+            int solidCount = 0;
+            for (Map.Entry<String, byte[]> entry : manyContents.entrySet()) {
+                ArchiveFile file = index.lookup(entry.getKey());
+                assertNotNull(entry.getKey(), file);
+                if (file instanceof FileInSolidBlock)
+                    solidCount++;
+                try (InputStream input = file.getDecodedStream()) {
+                    assertArrayEquals(entry.getKey(), entry.getValue(), readAll(input));
+                }
+            }
+            assertEquals(manyContents.size() / 2, solidCount);
+            assertTrue(index.lookup("big.bin") instanceof FileInChunks);
+            assertNull(index.lookup("dir0/file1.txt"));
+            assertNull(index.lookup("dir1/file3000.txt"));
+        }
+    }
+}
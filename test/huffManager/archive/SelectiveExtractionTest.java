@@ -0,0 +1,154 @@
+package huffManager.archive;
+
+import huffManager.generator.FileOutputStreamGenerator;
+import static huffManager.archive.TestArchives.*;
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Selects files of archives by glob patterns and paths, extracts them under their full paths, and checks that
+ * files leading out of the target directory are refused.
+ * @author Jan Bryda
+ */
+public class SelectiveExtractionTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, byte[]> contents = sampleContents();
+
+    private File save(ArchiveSaver saver) throws Exception {
+        File archiveFile = folder.newFile();
+        saver.save(build(contents), new FileOutputStreamGenerator(archiveFile));
+        return archiveFile;
+    }
+
+    private Map<String, byte[]> selected(String... paths) {
+        Map<String, byte[]> selected = new TreeMap<>();
+        for (String path : paths)
+            selected.put(path, contents.get(path));
+        return selected;
+    }
+
+    @Test
+    public void selectByGlobsAndPaths() throws Exception {
+        try (Archive archive = new ArchiveLoader().load(save(new ArchiveSaver()))) {
+            ArchiveIndex index = archive.getIndex();
+            assertEquals(new TreeSet<>(Arrays.asList("docs/a.txt", "docs/b.txt")),
+                    ArchiveExtractor.select(index, Collections.singletonList("docs/*.txt")));
+            assertEquals(new TreeSet<>(Arrays.asList("docs/deep/c.bin", "src/Main.java")),
+                    ArchiveExtractor.select(index, Arrays.asList("**.bin", "src/Main.java")));
+            assertEquals(new TreeSet<>(Arrays.asList("docs/a.txt", "docs/b.txt", "docs/deep/c.bin")),
+                    ArchiveExtractor.select(index, Arrays.asList("docs/", "docs/a.txt")));
+            assertEquals(new TreeSet<>(Arrays.asList("docs/a.txt", "docs/b.txt")),
+                    ArchiveExtractor.select(index, Collections.singletonList("**/?.txt")));
+            assertEquals(new TreeSet<>(contents.keySet()),
+                    ArchiveExtractor.select(index, Collections.singletonList("")));
+            assertTrue(ArchiveExtractor.select(index, Arrays.asList("missing", "do", "*.java")).isEmpty());
+        }
+    }
+
+    @Test
+    public void selectedFilesKeepTheirPaths() throws Exception {
+        File targetDirectory = folder.newFolder();
+        try (Archive archive = new ArchiveLoader().load(save(new ArchiveSaver()))) {
+            long extracted = new ArchiveExtractor().extract(archive, Arrays.asList("docs/deep", "*.txt"),
+                    targetDirectory);
+            assertEquals(2, extracted);
+        }
+        assertSameContents(selected("docs/deep/c.bin", "readme.txt"), readDirectory(targetDirectory));
+    }
+
+    @Test
+    public void extractFromStoredIndex() throws Exception {
+        ArchiveSaver saver = new ArchiveSaver();
+        saver.setPathIndex(true);
+        File archiveFile = save(saver);
+
+        File targetDirectory = folder.newFolder();
+        try (ArchiveIndex index = new ArchiveLoader().loadIndex(archiveFile)) {
+            assertTrue(index instanceof PersistedArchiveIndex);
+            new ArchiveExtractor().extract(index, Arrays.asList("src", "docs/**", "empty"), targetDirectory);
+        }
+        Map<String, byte[]> expected = new TreeMap<>(contents);
+        expected.remove("readme.txt");
+        assertSameContents(expected, readDirectory(targetDirectory));
+    }
+
+    @Test
+    public void extractMembersOfSolidBlocks() throws Exception {
+        ArchiveSaver saver = new ArchiveSaver();
+        saver.setSolidBlockSize(1024 * 1024);
+        saver.setPathIndex(true);
+        File archiveFile = save(saver);
+
+        File targetDirectory = folder.newFolder();
+        try (ArchiveIndex index = new ArchiveLoader().loadIndex(archiveFile)) {
+            ArchiveExtractor extractor = new ArchiveExtractor();
+            extractor.setConcurrency(4);
+            extractor.extract(index, Arrays.asList("readme.txt", "docs/a.txt", "docs/deep/c.bin"), targetDirectory);
+        }
+        assertSameContents(selected("readme.txt", "docs/a.txt", "docs/deep/c.bin"), readDirectory(targetDirectory));
+    }
+
+    @Test
+    public void extractAdjacentSmallFiles() throws Exception {
+        contents.clear();
+        for (int i = 0; i < 200; i++)
+            contents.put("small/file" + i + ".txt", data(100 + i, 100 + 37 * i));
+        File archiveFile = save(new ArchiveSaver());
+
+        File targetDirectory = folder.newFolder();
+        try (Archive archive = new ArchiveLoader().load(archiveFile)) {
+            ArchiveExtractor extractor = new ArchiveExtractor();
+            extractor.setConcurrency(3);
+            assertEquals(contents.size(), extractor.extract(archive, Collections.singletonList("small"),
+                    targetDirectory));
+        }
+        assertSameContents(contents, readDirectory(targetDirectory));
+    }
+
+    /**
+     * Creates the archive in memory, whose file leads out of the target directory by its directory "..".
+     * @return archive
+     */
+    private static Archive escapingArchive() {
+        Archive archive = new Archive();
+        archive.getRootDirectory().addFile(file("inside.txt", data(1, 100), true));
+        ArchiveDirectory parent = new ArchiveDirectory("..");
+        parent.addFile(file("outside.txt", data(2, 100), false));
+        archive.getRootDirectory().addSubdirectory(parent);
+        return archive;
+    }
+
+    @Test
+    public void fileOutOfTargetIsRefused() throws Exception {
+        File targetDirectory = new File(folder.newFolder("parent"), "target");
+        try {
+            new ArchiveExtractor().extract(escapingArchive(), targetDirectory);
+            fail("file out of target directory has to be refused");
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse("nothing is written", targetDirectory.exists());
+        assertFalse(new File(targetDirectory.getParentFile(), "outside.txt").exists());
+    }
+
+    @Test
+    public void selectedFileOutOfTargetIsRefused() throws Exception {
+        File targetDirectory = new File(folder.newFolder("parent"), "target");
+        try {
+            new ArchiveExtractor().extract(escapingArchive(), Collections.singletonList("**"), targetDirectory);
+            fail("file out of target directory has to be refused");
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse(targetDirectory.exists());
+        assertFalse(new File(targetDirectory.getParentFile(), "outside.txt").exists());
+    }
+}
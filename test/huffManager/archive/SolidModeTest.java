@@ -0,0 +1,124 @@
+package huffManager.archive;
+
+import huffManager.codecs.huffman.HuffmanCodec;
+import huffManager.generator.*;
+import static huffManager.archive.TestArchives.*;
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Saves small files in solid blocks, which are coded as a whole, and reads them back.
+ * @author Jan Bryda
+ */
+public class SolidModeTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final long BLOCK_SIZE = 64 * 1024;
+
+    private final Map<String, byte[]> contents = new TreeMap<>();
+
+    {
+        for (int i = 0; i < 60; i++)
+            contents.put("small/file" + i + ".txt", data(i, 500 + 100 * i));
+        contents.put("large.bin", data(100, 300000));
+    }
+
+    private File save(long solidBlockSize) throws Exception {
+        File archiveFile = folder.newFile();
+        ArchiveSaver saver = new ArchiveSaver();
+        saver.setSolidBlockSize(solidBlockSize);
+        saver.save(build(contents), new FileOutputStreamGenerator(archiveFile));
+        return archiveFile;
+    }
+
+    @Test
+    public void smallCodedFilesShareBlocks() throws Exception {
+        try (Archive archive = new ArchiveLoader().load(save(BLOCK_SIZE))) {
+            assertSameContents(contents, read(archive));
+
+            Set<FileInArchive> blocks = new HashSet<>();
+            int solidCount = 0;
+            for (ArchiveFile file : archive.getAllFiles()) {
+                if (file instanceof FileInSolidBlock) {
+                    assertEquals(new HuffmanCodec().getID(), file.getCodecID());
+                    blocks.add(((FileInSolidBlock) file).getBlock());
+                    solidCount++;
+                }
+            }
+            // stored files and the file larger than the block are not solid
+            assertEquals(30, solidCount);
+            assertFalse(archive.lookup("large.bin") instanceof FileInSolidBlock);
+            assertTrue(blocks.size() > 1);
+            for (FileInArchive block : blocks)
+                assertTrue(block.getSize() <= BLOCK_SIZE);
+        }
+    }
+
+    @Test
+    public void solidArchiveIsSmaller() throws Exception {
+        assertTrue(save(BLOCK_SIZE).length() < save(0).length());
+    }
+
+    @Test
+    public void updateKeepsBlocks() throws Exception {
+        File archiveFile = save(BLOCK_SIZE);
+        byte[] added = data(200, 700);
+        try (Archive archive = new ArchiveLoader().load(archiveFile)) {
+            archive.getRootDirectory().addFile(file("added.txt", added, true));
+            ArchiveSaver saver = new ArchiveSaver();
+            saver.setSolidBlockSize(BLOCK_SIZE);
+            ArchiveSaver.SaveSummary summary = saver.update(archive, archiveFile);
+            assertTrue(summary.writtenBytes < 10000);
+        }
+
+        contents.put("added.txt", added);
+        try (Archive archive = new ArchiveLoader().load(archiveFile)) {
+            assertSameContents(contents, read(archive));
+        }
+    }
+
+    /**
+     * Reads the decoded stream of the solid block with a member whose data differ from its declared size.
+     * @param sizeChange change of the declared size of the member
+     * @throws Exception
+     */
+    private static void readBlockWithWrongMember(int sizeChange) throws Exception {
+        byte[] data = data(1, 1000);
+        SolidBlockToCode block = new SolidBlockToCode(new HuffmanCodec().getID());
+        block.addMember(file("first.txt", data, true));
+        block.addMember(new FileToCode(new Generator<>(() -> new ByteArrayInputStream(data)), "wrong.txt",
+                data.length + sizeChange, new HuffmanCodec().getID()));
+        block.addMember(file("last.txt", data, true));
+
+        try (InputStream input = block.getDecodedStream()) {
+            readAll(input);
+        }
+    }
+
+    @Test
+    public void shorterMemberIsReported() throws Exception {
+        try {
+            readBlockWithWrongMember(1);
+            fail("shorter member has to be reported");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("wrong.txt"));
+        }
+    }
+
+    @Test
+    public void longerMemberIsReported() throws Exception {
+        try {
+            readBlockWithWrongMember(-1);
+            fail("longer member has to be reported");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("wrong.txt"));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package huffManager.archive;
+
+import huffManager.memory.MemoryBudget;
+import static huffManager.archive.TestArchives.*;
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.channels.Channels;
+
+/**
+ * Writes data into spill buffers, which keep their memory part within the limit and the budget and spill
+ * the rest into a temporary file.
+ * @author Jan Bryda
+ */
+public class SpillBufferTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[] data = data(1, 100000);
+
+    private static byte[] writeTo(SpillBuffer buffer) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        buffer.writeTo(Channels.newChannel(output));
+        return output.toByteArray();
+    }
+
+    private static void writeInParts(SpillBuffer buffer, byte[] data) throws IOException {
+        for (int start = 0; start < data.length; start += 7000)
+            buffer.write(data, start, Math.min(7000, data.length - start));
+    }
+
+    @Test
+    public void smallDataStayInMemory() throws Exception {
+        MemoryBudget budget = new MemoryBudget(1024 * 1024);
+        SpillBuffer buffer = new SpillBuffer(1024 * 1024, folder.getRoot(), budget);
+        writeInParts(buffer, data);
+
+        assertFalse(buffer.isSpilled());
+        assertEquals(data.length, buffer.size());
+        assertArrayEquals(data, writeTo(buffer));
+        assertArrayEquals(data, readAll(buffer.openInputStream()));
+        buffer.delete();
+        assertEquals(0, budget.getReserved());
+    }
+
+    @Test
+    public void dataOverLimitAreSpilled() throws Exception {
+        MemoryBudget budget = new MemoryBudget(1024 * 1024);
+        SpillBuffer buffer = new SpillBuffer(10000, folder.getRoot(), budget);
+        writeInParts(buffer, data);
+
+        assertTrue(buffer.isSpilled());
+        assertTrue(budget.getReserved() <= 10000);
+        assertEquals(1, folder.getRoot().list().length);
+        assertArrayEquals(data, writeTo(buffer));
+        try (InputStream input = buffer.openInputStream()) {
+            assertArrayEquals(data, readAll(input));
+        }
+
+        buffer.delete();
+        assertEquals(0, budget.getReserved());
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void deniedMemorySpillsEarly() throws Exception {
+        MemoryBudget budget = new MemoryBudget(16 * 1024);
+        SpillBuffer buffer = new SpillBuffer(1024 * 1024, folder.getRoot(), budget);
+        writeInParts(buffer, data);
+
+        assertTrue(buffer.isSpilled());
+        assertTrue(budget.getReserved() <= 16 * 1024);
+        assertArrayEquals(data, writeTo(buffer));
+        buffer.delete();
+        assertEquals(0, budget.getReserved());
+    }
+}
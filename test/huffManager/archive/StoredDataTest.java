@@ -0,0 +1,107 @@
+package huffManager.archive;
+
+import huffManager.codecs.none.NoneCodec;
+import huffManager.generator.*;
+import static huffManager.archive.Archive.*;
+import static huffManager.archive.TestArchives.*;
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Stores the data of files verbatim in indexed archives, transfers them into other archives and extracts
+ * them, and checks that data cut short are reported.
+ * @author Jan Bryda
+ */
+public class StoredDataTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, byte[]> contents = sampleContents();
+
+    private File save(Archive archive) throws Exception {
+        File archiveFile = folder.newFile();
+        new ArchiveSaver().save(archive, new FileOutputStreamGenerator(archiveFile));
+        return archiveFile;
+    }
+
+    @Test
+    public void dataAreStoredVerbatim() throws Exception {
+        byte[] data = data(1, 100000);
+        File sourceFile = folder.newFile("source.bin");
+        Files.write(sourceFile.toPath(), data);
+        Archive archive = new Archive();
+        archive.getRootDirectory().addFile(new FileToCode(sourceFile.getPath(), new NoneCodec()));
+        File archiveFile = save(archive);
+
+        try (ArchiveChannel channel = new ArchiveChannel(archiveFile)) {
+            assertTrue(ArchiveFooter.read(channel).hasFlag(FLAG_RAW_FRAMING));
+        }
+        try (Archive loaded = new ArchiveLoader().load(archiveFile)) {
+            FileInArchive file = (FileInArchive) loaded.lookup("source.bin");
+            assertEquals(data.length, file.getLength());
+            byte[] stored = Arrays.copyOfRange(Files.readAllBytes(archiveFile.toPath()),
+                    (int) file.getOffset(), (int) (file.getOffset() + file.getLength()));
+            assertArrayEquals(data, stored);
+        }
+    }
+
+    @Test
+    public void codedDataAreTransferred() throws Exception {
+        try (Archive archive = new ArchiveLoader().load(save(build(contents)))) {
+            for (String path : contents.keySet()) {
+                ArchiveFile file = archive.lookup(path);
+                assertTrue(file.hasCodedData());
+                ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+                long length = file.transferCodedTo(Channels.newChannel(transferred));
+                assertEquals(((FileInArchive) file).getLength(), length);
+                try (InputStream coded = file.getCodedStream()) {
+                    assertArrayEquals(path, readAll(coded), transferred.toByteArray());
+                }
+            }
+
+            // the loaded files are transferred into a new archive without being coded again
+            File copyFile = save(archive);
+            try (Archive copy = new ArchiveLoader().load(copyFile)) {
+                assertSameContents(contents, read(copy));
+            }
+        }
+    }
+
+    @Test
+    public void filesAreExtracted() throws Exception {
+        try (Archive archive = new ArchiveLoader().load(save(build(contents)))) {
+            for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                File target = new File(folder.getRoot(), "extracted");
+                archive.lookup(entry.getKey()).extractTo(target);
+                assertArrayEquals(entry.getKey(), entry.getValue(), Files.readAllBytes(target.toPath()));
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void dataCutShortInFileAreReported() throws Exception {
+        File archiveFile = folder.newFile();
+        Files.write(archiveFile.toPath(), data(2, 1000));
+        FileInArchive file = new FileInArchive(new FileInputStreamGenerator(archiveFile.getPath()), "cut.bin", 2000,
+                new NoneCodec().getID(), 500, 2000, true);
+
+        file.extractTo(new File(folder.getRoot(), "cut.bin"));
+    }
+
+    @Test(expected = IOException.class)
+    public void dataCutShortInStreamAreReported() throws Exception {
+        byte[] data = data(3, 1000);
+        FileInArchive file = new FileInArchive(new Generator<>(() -> new ByteArrayInputStream(data)), "cut.bin", 2000,
+                new NoneCodec().getID(), 500, 2000, true);
+
+        file.extractTo(new File(folder.getRoot(), "cut.bin"));
+    }
+}
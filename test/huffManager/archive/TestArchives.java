@@ -0,0 +1,209 @@
+package huffManager.archive;
+
+import huffManager.codecs.Codec;
+import huffManager.codecs.huffman.HuffmanCodec;
+import huffManager.codecs.none.NoneCodec;
+import huffManager.generator.Generator;
+import static huffManager.archive.Archive.*;
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Archives with known contents, shared by the tests of the archive package.
+ * @author Jan Bryda
+ */
+class TestArchives {
+
+    private TestArchives() {
+    }
+
+    /**
+     * Creates data of given size from a small alphabet, so they can be coded. They contain the marker and
+     * escape bytes of the legacy format.
+     * @param seed seed of the data
+     * @param size size of the data (in bytes)
+     * @return data
+     */
+    static byte[] data(long seed, int size) {
+        Random random = new Random(seed);
+        byte[] alphabet = { 'a', 'b', 'c', ' ', '\n', START_OF_HEADER, ESCAPE, (byte) 0xFF };
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++)
+            data[i] = alphabet[Math.min(alphabet.length - 1, (int) Math.abs(random.nextGaussian() * 2))];
+        return data;
+    }
+
+    /**
+     * Gets the sample contents of archive: files in the root and in nested directories, of various sizes,
+     * including an empty one.
+     * @return data of files by their full paths
+     */
+    static Map<String, byte[]> sampleContents() {
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        contents.put("readme.txt", data(1, 1000));
+        contents.put("empty", new byte[0]);
+        contents.put("docs/a.txt", data(2, 20000));
+        contents.put("docs/b.txt", data(3, 1));
+        contents.put("docs/deep/c.bin", data(4, 300000));
+        contents.put("src/Main.java", data(5, 5000));
+        return contents;
+    }
+
+    /**
+     * Creates the file to code from the data. Empty files are not coded, other files are coded by Huffman
+     * coding or stored, by turns.
+     * @param name name of the file
+     * @param data data of the file
+     * @param huffman true to code the file by Huffman coding
+     * @return file to code
+     */
+    static FileToCode file(String name, byte[] data, boolean huffman) {
+        Codec codec = huffman && data.length > 0 ? new HuffmanCodec() : new NoneCodec();
+        return new FileToCode(new Generator<>(() -> new ByteArrayInputStream(data)), name, data.length, codec.getID());
+    }
+
+    /**
+     * Builds the archive with given contents. Directories of the paths are created.
+     * @param contents data of files by their full paths
+     * @return archive
+     */
+    static Archive build(Map<String, byte[]> contents) {
+        Archive archive = new Archive();
+        boolean huffman = true;
+        for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+            String[] names = entry.getKey().split("/");
+            ArchiveDirectory directory = archive.getRootDirectory();
+            for (int i = 0; i < names.length - 1; i++)
+                directory = subdirectory(directory, names[i]);
+            directory.addFile(file(names[names.length - 1], entry.getValue(), huffman));
+            huffman = !huffman;
+        }
+        return archive;
+    }
+
+    private static ArchiveDirectory subdirectory(ArchiveDirectory directory, String name) {
+        for (ArchiveDirectory subdirectory : directory.getSubdirectories()) {
+            if (subdirectory.getName().equals(name))
+                return subdirectory;
+        }
+        ArchiveDirectory subdirectory = new ArchiveDirectory(name);
+        directory.addSubdirectory(subdirectory);
+        return subdirectory;
+    }
+
+    /**
+     * Reads the decoded data of all files of the archive.
+     * @param archive archive
+     * @return data of files by their full paths
+     * @throws Exception
+     */
+    static Map<String, byte[]> read(Archive archive) throws Exception {
+        Map<String, byte[]> contents = new TreeMap<>();
+        read(archive.getRootDirectory(), "", contents);
+        return contents;
+    }
+
+    private static void read(ArchiveDirectory directory, String path, Map<String, byte[]> contents) throws Exception {
+        for (ArchiveDirectory subdirectory : directory.getSubdirectories())
+            read(subdirectory, ArchiveIndex.childPath(path, subdirectory.getName()), contents);
+        for (ArchiveFile file : directory.getFiles()) {
+            try (InputStream input = file.getDecodedStream()) {
+                contents.put(ArchiveIndex.childPath(path, file.getName()), readAll(input));
+            }
+        }
+    }
+
+    /**
+     * Reads all files under the directory on disk.
+     * @param directory directory
+     * @return data of files by their paths relative to the directory
+     * @throws IOException
+     */
+    static Map<String, byte[]> readDirectory(File directory) throws IOException {
+        Map<String, byte[]> contents = new TreeMap<>();
+        readDirectory(directory, "", contents);
+        return contents;
+    }
+
+    private static void readDirectory(File directory, String path, Map<String, byte[]> contents) throws IOException {
+        for (File file : directory.listFiles()) {
+            String filePath = ArchiveIndex.childPath(path, file.getName());
+            if (file.isDirectory())
+                readDirectory(file, filePath, contents);
+            else
+                contents.put(filePath, Files.readAllBytes(file.toPath()));
+        }
+    }
+
+    static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) != -1)
+            output.write(buffer, 0, read);
+        return output.toByteArray();
+    }
+
+    /**
+     * Checks that both contents have the same paths with the same data.
+     * @param expected expected contents
+     * @param actual actual contents
+     */
+    static void assertSameContents(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        assertEquals(new TreeSet<>(expected.keySet()), new TreeSet<>(actual.keySet()));
+        for (Map.Entry<String, byte[]> entry : expected.entrySet())
+            assertArrayEquals("data of " + entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+    }
+
+    /**
+     * Saves the archive in the legacy (version 1) format: escaped data of files, the header marker and the
+     * header with offsets in the unescaped data.
+     * @param archive archive
+     * @param archiveFile target file
+     * @throws Exception
+     */
+    static void saveVersion1(Archive archive, File archiveFile) throws Exception {
+        Map<ArchiveFile, long[]> positions = new HashMap<>();
+        try (FlagOutputStream output = new FlagOutputStream(
+                new BufferedOutputStream(new FileOutputStream(archiveFile)), START_OF_HEADER, ESCAPE)) {
+            new DataOutputStream(output).writeLong(ARCHIVE_IDENTIFIER);
+            long position = 8;
+            for (ArchiveFile file : archive.getAllFiles()) {
+                byte[] coded;
+                try (InputStream input = file.getCodedStream()) {
+                    coded = readAll(input);
+                }
+                output.write(coded);
+                positions.put(file, new long[] { position, coded.length });
+                position += coded.length;
+            }
+            output.writeMarker();
+
+            DataOutputStream dataOutput = new DataOutputStream(output);
+            writeVersion1Directory(dataOutput, archive.getRootDirectory(), positions, true);
+        }
+    }
+
+    private static void writeVersion1Directory(DataOutputStream dataOutput, ArchiveDirectory directory,
+                                               Map<ArchiveFile, long[]> positions, boolean root) throws IOException {
+        if (!root) {
+            dataOutput.writeByte(DIR_START);
+            dataOutput.writeUTF(directory.getName());
+        }
+        for (ArchiveDirectory subdirectory : directory.getSubdirectories())
+            writeVersion1Directory(dataOutput, subdirectory, positions, false);
+        for (ArchiveFile file : directory.getFiles()) {
+            dataOutput.writeByte(FILE);
+            dataOutput.writeLong(file.getCodecID());
+            dataOutput.writeLong(file.getSize());
+            dataOutput.writeLong(positions.get(file)[0]);
+            dataOutput.writeLong(positions.get(file)[1]);
+            dataOutput.writeUTF(file.getName());
+        }
+        if (!root)
+            dataOutput.writeByte(DIR_END);
+    }
+}
@@ -0,0 +1,272 @@
+package huffManager.cli;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Runs the commands of the command line interface on files in a temporary folder, and checks their output,
+ * exit codes and the parsing of options.
+ * @author Jan Bryda
+ */
+public class CommandLineTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+    private final Map<String, byte[]> contents = new TreeMap<>();
+    private File sourceDirectory;
+    private File archiveFile;
+
+    private static byte[] data(long seed, int size) {
+        Random random = new Random(seed);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++)
+            data[i] = (byte) ('a' + Math.min(7, (int) Math.abs(random.nextGaussian() * 2)));
+        return data;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        contents.put("readme.txt", data(1, 1000));
+        contents.put("docs/a.txt", data(2, 20000));
+        contents.put("docs/deep/c.bin", data(3, 300000));
+        contents.put("src/Main.java", data(4, 5000));
+
+        sourceDirectory = folder.newFolder("source");
+        for (Map.Entry<String, byte[]> entry : contents.entrySet())
+            write(entry.getKey(), entry.getValue());
+        archiveFile = new File(folder.getRoot(), "archive.huff");
+    }
+
+    private void write(String path, byte[] data) throws IOException {
+        File file = new File(sourceDirectory, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), data);
+    }
+
+    /**
+     * Runs the command line with given arguments. Output of previous runs is dropped.
+     * @param args arguments
+     * @return exit code
+     */
+    private int run(String... args) {
+        out.reset();
+        err.reset();
+        return new CommandLine(new PrintStream(out, true), new PrintStream(err, true)).run(args);
+    }
+
+    private String output() {
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private String errors() {
+        return new String(err.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads all files under the directory on disk.
+     * @param directory directory
+     * @param path path of the directory relative to the root of reading
+     * @param files data of files by their relative paths
+     * @return data of files by their relative paths
+     * @throws IOException
+     */
+    private static Map<String, byte[]> readDirectory(File directory, String path, Map<String, byte[]> files)
+            throws IOException {
+        for (File file : directory.listFiles()) {
+            String filePath = path.isEmpty() ? file.getName() : path + "/" + file.getName();
+            if (file.isDirectory())
+                readDirectory(file, filePath, files);
+            else
+                files.put(filePath, Files.readAllBytes(file.toPath()));
+        }
+        return files;
+    }
+
+    private static void assertSameContents(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet())
+            assertArrayEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+    }
+
+    private String[] sources() {
+        File[] files = sourceDirectory.listFiles();
+        String[] sources = new String[files.length];
+        for (int i = 0; i < files.length; i++)
+            sources[i] = files[i].getPath();
+        return sources;
+    }
+
+    private String[] arguments(String[] first, String... rest) {
+        List<String> arguments = new ArrayList<>(Arrays.asList(first));
+        arguments.addAll(Arrays.asList(rest));
+        return arguments.toArray(new String[0]);
+    }
+
+    @Test
+    public void createAndExtract() throws Exception {
+        assertEquals(CommandLine.EXIT_SUCCESS,
+                run(arguments(new String[] { "--threads", "2", "create", archiveFile.getPath() }, sources())));
+        assertTrue(output(), output().startsWith("create : "));
+        assertFalse(new File(folder.getRoot(), "archive.huff.tmp").exists());
+
+        File targetDirectory = folder.newFolder("target");
+        assertEquals(CommandLine.EXIT_SUCCESS, run("extract", archiveFile.getPath(), targetDirectory.getPath()));
+        assertTrue(output(), output().startsWith("extract : 4 files extracted"));
+        assertSameContents(contents, readDirectory(targetDirectory, "", new TreeMap<>()));
+    }
+
+    @Test
+    public void listSelectedFiles() throws Exception {
+        run(arguments(new String[] { "--index", "create", archiveFile.getPath() }, sources()));
+
+        assertEquals(CommandLine.EXIT_SUCCESS, run("list", archiveFile.getPath(), "docs/**"));
+        String[] lines = output().split("\\R");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0], lines[0].trim().matches("20000\\s+\\S+\\s+docs/a.txt"));
+        assertTrue(lines[1], lines[1].trim().matches("300000\\s+\\S+\\s+docs/deep/c.bin"));
+        assertTrue(lines[2], lines[2].startsWith("list : 2 files, 320000B"));
+    }
+
+    @Test
+    public void extractSelectedFiles() throws Exception {
+        run(arguments(new String[] { "create", archiveFile.getPath() }, sources()));
+
+        File targetDirectory = folder.newFolder("target");
+        assertEquals(CommandLine.EXIT_SUCCESS,
+                run("extract", archiveFile.getPath(), targetDirectory.getPath(), "src", "*.txt"));
+        Map<String, byte[]> expected = new TreeMap<>(contents);
+        expected.remove("docs/a.txt");
+        expected.remove("docs/deep/c.bin");
+        assertSameContents(expected, readDirectory(targetDirectory, "", new TreeMap<>()));
+    }
+
+    @Test
+    public void addReplacesFiles() throws Exception {
+        run("create", archiveFile.getPath(), new File(sourceDirectory, "readme.txt").getPath());
+        contents.put("readme.txt", data(5, 1500));
+        write("readme.txt", contents.get("readme.txt"));
+
+        assertEquals(CommandLine.EXIT_SUCCESS,
+                run(arguments(new String[] { "add", archiveFile.getPath() }, sources())));
+        File targetDirectory = folder.newFolder("target");
+        run("extract", archiveFile.getPath(), targetDirectory.getPath());
+        assertSameContents(contents, readDirectory(targetDirectory, "", new TreeMap<>()));
+    }
+
+    @Test
+    public void updateSynchronizesDirectory() throws Exception {
+        assertEquals(CommandLine.EXIT_SUCCESS, run("update", archiveFile.getPath(), sourceDirectory.getPath()));
+        assertTrue(output(), output().startsWith("update : 4 added, 0 changed, 0 unchanged, 0 removed"));
+
+        new File(sourceDirectory, "readme.txt").delete();
+        contents.remove("readme.txt");
+        assertEquals(CommandLine.EXIT_SUCCESS, run("update", archiveFile.getPath(), sourceDirectory.getPath()));
+        assertTrue(output(), output().startsWith("update : 0 added, 0 changed, 3 unchanged, 1 removed"));
+    }
+
+    @Test
+    public void testFindsDamagedFile() throws Exception {
+        run(arguments(new String[] { "--codec", "none", "--checksum", "create", archiveFile.getPath() }, sources()));
+        assertEquals(CommandLine.EXIT_SUCCESS, run("test", archiveFile.getPath()));
+        assertTrue(output(), output().startsWith("test : 4 files OK, 326000B"));
+
+        // data are stored verbatim, so the first byte of the data of the file is found in the archive
+        byte[] archive = Files.readAllBytes(archiveFile.toPath());
+        byte[] data = contents.get("docs/a.txt");
+        int offset = indexOf(archive, Arrays.copyOf(data, 64));
+        assertTrue(offset > 0);
+        archive[offset] ^= 1;
+        Files.write(archiveFile.toPath(), archive);
+
+        assertEquals(CommandLine.EXIT_FAILURE, run("test", archiveFile.getPath()));
+        assertTrue(errors(), errors().contains("FAILED docs/a.txt"));
+        assertTrue(errors(), errors().contains("1 of 4 files failed"));
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        for (int i = 0; i + pattern.length <= data.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(data, i, i + pattern.length), pattern))
+                return i;
+        }
+        return -1;
+    }
+
+    @Test
+    public void dedupStoresIdenticalFilesOnce() throws Exception {
+        write("docs/copy.bin", contents.get("docs/deep/c.bin"));
+        File dedupFile = new File(folder.getRoot(), "dedup.huff");
+
+        assertEquals(CommandLine.EXIT_SUCCESS,
+                run(arguments(new String[] { "create", archiveFile.getPath() }, sources())));
+        assertEquals(CommandLine.EXIT_SUCCESS,
+                run(arguments(new String[] { "--dedup", "create", dedupFile.getPath() }, sources())));
+        // the copy is not coded again, so the archive is smaller by about the coded size of the copy
+        assertTrue(dedupFile.length() + " < " + archiveFile.length(),
+                dedupFile.length() < archiveFile.length() - 50000);
+
+        contents.put("docs/copy.bin", contents.get("docs/deep/c.bin"));
+        File targetDirectory = folder.newFolder("target");
+        run("extract", dedupFile.getPath(), targetDirectory.getPath());
+        assertSameContents(contents, readDirectory(targetDirectory, "", new TreeMap<>()));
+    }
+
+    @Test
+    public void wrongArgumentsPrintUsage() {
+        assertEquals(CommandLine.EXIT_USAGE, run());
+        assertTrue(errors(), errors().contains("Usage:"));
+        assertEquals(CommandLine.EXIT_USAGE, run("create", archiveFile.getPath()));
+        assertEquals(CommandLine.EXIT_USAGE, run("unknown", archiveFile.getPath()));
+        assertEquals(CommandLine.EXIT_USAGE, run("--threads", "0", "list", archiveFile.getPath()));
+        assertEquals(CommandLine.EXIT_USAGE, run("--threads", "many", "list", archiveFile.getPath()));
+        assertEquals(CommandLine.EXIT_USAGE, run("--codec", "zip", "list", archiveFile.getPath()));
+        assertEquals(CommandLine.EXIT_USAGE, run("--unknown", "x", "list", archiveFile.getPath()));
+        assertEquals(CommandLine.EXIT_USAGE, run("list", archiveFile.getPath(), "--buffer"));
+        assertEquals(CommandLine.EXIT_USAGE, run("update", archiveFile.getPath()));
+        assertFalse(archiveFile.exists());
+    }
+
+    @Test
+    public void missingArchiveFails() {
+        assertEquals(CommandLine.EXIT_FAILURE, run("list", archiveFile.getPath()));
+        assertTrue(errors(), errors().startsWith("Error : "));
+        assertEquals(CommandLine.EXIT_FAILURE, run("create", archiveFile.getPath(), "missing-file"));
+        assertFalse(archiveFile.exists());
+    }
+
+    @Test
+    public void operandsAfterDoubleDash() throws Exception {
+        File dashed = new File(sourceDirectory, "--index");
+        Files.write(dashed.toPath(), data(6, 300));
+        assertEquals(CommandLine.EXIT_SUCCESS, run("create", archiveFile.getPath(), "--", dashed.getPath()));
+
+        run("list", archiveFile.getPath());
+        assertTrue(output(), output().contains("--index"));
+    }
+
+    @Test
+    public void sizesAreParsed() {
+        assertEquals(100, CommandLine.parseSize("100"));
+        assertEquals(2048, CommandLine.parseSize("2k"));
+        assertEquals(3L * 1024 * 1024, CommandLine.parseSize("3M"));
+        assertEquals(4L * 1024 * 1024 * 1024, CommandLine.parseSize("4G"));
+        for (String size : new String[] { "", "0", "-5", "K", "1.5M", "x", "9223372036854775807G" }) {
+            try {
+                CommandLine.parseSize(size);
+                fail("size " + size + " has to be refused");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package huffManager.memory;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Takes and returns buffers of the pool, and checks their size classes, their reuse, the limits of the pool
+ * and the shrinking of buffers when the memory budget runs out.
+ * @author Jan Bryda
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void sizeIsPickedByLengthOfData() {
+        assertEquals(BufferPool.MIN_BUFFER_SIZE, BufferPool.sizeFor(0, 64 * 1024));
+        assertEquals(BufferPool.MIN_BUFFER_SIZE, BufferPool.sizeFor(100, 64 * 1024));
+        assertEquals(8 * 1024, BufferPool.sizeFor(5000, 64 * 1024));
+        assertEquals(8 * 1024, BufferPool.sizeFor(8 * 1024, 64 * 1024));
+        assertEquals(64 * 1024, BufferPool.sizeFor(1000000, 64 * 1024));
+        assertEquals(BufferPool.DEFAULT_BUFFER_SIZE, BufferPool.sizeFor(-1, Integer.MAX_VALUE));
+        assertEquals(1000, BufferPool.sizeFor(-1, 1000));
+    }
+
+    @Test
+    public void buffersHaveSizesOfTheirClasses() {
+        BufferPool pool = new BufferPool(1024 * 1024, 1024 * 1024);
+        assertEquals(BufferPool.MIN_BUFFER_SIZE, pool.acquire(1).length);
+        assertEquals(16 * 1024, pool.acquire(16 * 1024).length);
+        assertEquals(32 * 1024, pool.acquire(16 * 1024 + 1).length);
+        assertEquals(32 * 1024, pool.acquireDirect(20000).capacity());
+
+        int oversized = BufferPool.MAX_BUFFER_SIZE + 1;
+        assertEquals(oversized, pool.acquire(oversized).length);
+    }
+
+    @Test
+    public void releasedBuffersAreReused() {
+        BufferPool pool = new BufferPool(1024 * 1024, 1024 * 1024);
+        byte[] buffer = pool.acquire(10000);
+        pool.release(buffer);
+        assertEquals(buffer.length, pool.getStatistics().pooledBytes);
+        assertSame(buffer, pool.acquire(9000));
+        assertNotSame(buffer, pool.acquire(9000));
+
+        ByteBuffer directBuffer = pool.acquireDirect(10000);
+        directBuffer.position(100);
+        pool.releaseDirect(directBuffer);
+        assertEquals(directBuffer.capacity(), pool.getStatistics().pooledDirectBytes);
+        ByteBuffer reused = pool.acquireDirect(10000);
+        assertSame(directBuffer, reused);
+        assertEquals(0, reused.position());
+
+        BufferPool.Statistics statistics = pool.getStatistics();
+        assertEquals(5, statistics.acquireCount);
+        assertEquals(2, statistics.reuseCount);
+        assertEquals(0, statistics.pooledBytes);
+    }
+
+    @Test
+    public void fullPoolDropsReleasedBuffers() {
+        BufferPool pool = new BufferPool(16 * 1024, 0);
+        byte[] first = pool.acquire(16 * 1024);
+        byte[] second = pool.acquire(16 * 1024);
+        pool.release(first);
+        pool.release(second);
+        pool.releaseDirect(pool.acquireDirect(4096));
+
+        BufferPool.Statistics statistics = pool.getStatistics();
+        assertEquals(16 * 1024, statistics.pooledBytes);
+        assertEquals(0, statistics.pooledDirectBytes);
+        assertEquals(2, statistics.dropCount);
+    }
+
+    @Test
+    public void buffersAreReservedFromBudget() {
+        MemoryBudget budget = new MemoryBudget(1024 * 1024);
+        BufferPool pool = new BufferPool(1024 * 1024, 1024 * 1024, budget);
+        byte[] buffer = pool.acquire(64 * 1024);
+        ByteBuffer directBuffer = pool.acquireDirect(64 * 1024);
+        assertEquals(128 * 1024, budget.getReserved());
+
+        pool.release(buffer);
+        pool.releaseDirect(directBuffer);
+        assertEquals("pooled buffers stay reserved", 128 * 1024, budget.getReserved());
+        assertEquals(128 * 1024, pool.trim(Long.MAX_VALUE));
+        assertEquals(0, budget.getReserved());
+    }
+
+    @Test
+    public void trimGivesUpLargestBuffersFirst() {
+        MemoryBudget budget = new MemoryBudget(MemoryBudget.UNLIMITED);
+        BufferPool pool = new BufferPool(1024 * 1024, 1024 * 1024, budget);
+        List<byte[]> buffers = Arrays.asList(pool.acquire(4096), pool.acquire(8192), pool.acquire(64 * 1024));
+        for (byte[] buffer : buffers)
+            pool.release(buffer);
+
+        assertEquals(64 * 1024, pool.trim(1));
+        assertEquals(4096 + 8192, pool.getStatistics().pooledBytes);
+        assertEquals(4096 + 8192, budget.getReserved());
+    }
+
+    @Test
+    public void buffersShrinkWhenBudgetRunsOut() {
+        MemoryBudget budget = new MemoryBudget(40 * 1024);
+        BufferPool pool = new BufferPool(1024 * 1024, 1024 * 1024, budget);
+        byte[] pooled = pool.acquire(16 * 1024);
+        pool.release(pooled);
+
+        // the pooled buffer is given up first, then the largest size that fits is taken
+        byte[] buffer = pool.acquire(64 * 1024);
+        assertEquals(32 * 1024, buffer.length);
+        assertEquals(1, pool.getStatistics().shrinkCount);
+        assertEquals(0, pool.getStatistics().pooledBytes);
+
+        byte[] rest = pool.acquire(64 * 1024);
+        assertEquals(8 * 1024, rest.length);
+        assertEquals(40 * 1024, budget.getReserved());
+        assertEquals(0, budget.getStatistics().overcommitCount);
+
+        // nothing fits, the smallest size is reserved over the limit
+        byte[] overcommitted = pool.acquire(64 * 1024);
+        assertEquals(BufferPool.MIN_BUFFER_SIZE, overcommitted.length);
+        assertEquals(1, budget.getStatistics().overcommitCount);
+        assertEquals(44 * 1024, budget.getReserved());
+    }
+
+    @Test
+    public void buffersShrinkOnlyToMinimalSize() {
+        MemoryBudget budget = new MemoryBudget(20 * 1024);
+        BufferPool pool = new BufferPool(1024 * 1024, 1024 * 1024, budget);
+
+        byte[] buffer = pool.acquire(64 * 1024, 32 * 1024);
+        assertEquals(32 * 1024, buffer.length);
+        assertEquals(1, budget.getStatistics().overcommitCount);
+
+        pool.release(buffer);
+        pool.trim(Long.MAX_VALUE);
+        assertEquals(16 * 1024, pool.acquire(64 * 1024, 8 * 1024).length);
+    }
+
+    @Test
+    public void streamsReturnTheirBuffers() throws IOException {
+        BufferPool pool = BufferPool.getShared();
+        byte[] data = new byte[100000];
+        new Random(1).nextBytes(data);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (PooledBufferedOutputStream bufferedOutput = new PooledBufferedOutputStream(output, 8192)) {
+            bufferedOutput.write(data);
+        }
+        assertArrayEquals(data, output.toByteArray());
+
+        long reused = pool.getStatistics().reuseCount;
+        PooledBufferedInputStream input = new PooledBufferedInputStream(new ByteArrayInputStream(data), 8192);
+        byte[] read = new byte[data.length];
+        new DataInputStream(input).readFully(read);
+        input.close();
+        input.close();
+        assertArrayEquals(data, read);
+        assertEquals("buffer of the output is reused by the input", reused + 1, pool.getStatistics().reuseCount);
+
+        pool.release(pool.acquire(8192));
+        assertEquals(reused + 2, pool.getStatistics().reuseCount);
+    }
+}
@@ -0,0 +1,101 @@
+package huffManager.memory;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Reserves memory of the budget by all its ways of reservation.
+ * @author Jan Bryda
+ */
+public class MemoryBudgetTest {
+
+    @Test
+    public void reservationWithinLimit() throws Exception {
+        MemoryBudget budget = new MemoryBudget(1000);
+        budget.reserve("a", 600);
+        assertEquals(600, budget.getReserved());
+        assertEquals(400, budget.getAvailable());
+
+        assertFalse(budget.tryReserve("b", 500));
+        assertTrue(budget.tryReserve("b", 400));
+        budget.release("a", 600);
+        budget.release("b", 400);
+        assertEquals(0, budget.getReserved());
+    }
+
+    @Test
+    public void reservationWithinLimitWaitsUntilItFits() throws Exception {
+        MemoryBudget budget = new MemoryBudget(1000);
+        budget.reserveOvercommitting("buffers", 800);
+
+        Thread waiting = new Thread(() -> {
+            try {
+                budget.reserve("a", 500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiting.start();
+        while (!budget.hasWaiters())
+            Thread.sleep(1);
+        assertEquals(800, budget.getReserved());
+
+        budget.release("buffers", 800);
+        waiting.join(10000);
+        assertFalse(waiting.isAlive());
+        assertEquals(500, budget.getReserved());
+    }
+
+    @Test
+    public void reservationOverLimitIsGranted() throws Exception {
+        MemoryBudget budget = new MemoryBudget(1000);
+        budget.reserveOvercommitting("buffers", 100);
+        budget.reserve("a", 5000);
+        assertEquals(5100, budget.getReserved());
+    }
+
+    @Test
+    public void reservationForProgressIsGranted() throws Exception {
+        MemoryBudget budget = new MemoryBudget(1000);
+        budget.reserveOvercommitting("buffers", 800);
+        assertFalse(budget.reserveIfFits("a", 500));
+
+        budget.reserveForProgress("a", 500);
+        assertEquals(1300, budget.getReserved());
+        assertFalse(budget.reserveIfFits("b", 1));
+    }
+
+    @Test
+    public void reclaimersAreCalled() throws Exception {
+        MemoryBudget budget = new MemoryBudget(1000);
+        budget.reserveOvercommitting("cache", 900);
+        budget.addReclaimer(bytes -> {
+            budget.release("cache", 900);
+            return 900;
+        });
+
+        budget.reserve("a", 500);
+        assertEquals(500, budget.getReserved());
+    }
+
+    @Test
+    public void statisticsRecordConsumers() throws Exception {
+        MemoryBudget budget = new MemoryBudget(1000);
+        budget.reserve("a", 300);
+        budget.reserve("b", 200);
+        budget.release("a", 300);
+        assertFalse(budget.tryReserve("a", 900));
+        budget.reserveOvercommitting("c", 900);
+
+        MemoryBudget.Statistics statistics = budget.getStatistics();
+        assertEquals(1000, statistics.limit);
+        assertEquals(1100, statistics.reserved);
+        assertEquals(1100, statistics.peakReserved);
+        assertEquals(1, statistics.deniedCount);
+        assertEquals(1, statistics.overcommitCount);
+        assertEquals(Long.valueOf(200), statistics.reservedByConsumer.get("b"));
+        assertEquals(Long.valueOf(900), statistics.reservedByConsumer.get("c"));
+        assertFalse(statistics.reservedByConsumer.containsKey("a"));
+    }
+}
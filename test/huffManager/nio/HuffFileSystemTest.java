@@ -0,0 +1,215 @@
+package huffManager.nio;
+
+import huffManager.archive.*;
+import huffManager.codecs.huffman.HuffmanCodec;
+import huffManager.codecs.none.NoneCodec;
+import huffManager.generator.FileOutputStreamGenerator;
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.stream.*;
+
+/**
+ * Reads archives through the file systems of {@link HuffFileSystemProvider}: by URI and by path, listing,
+ * attributes, reading at positions, and rejected writes.
+ * @author Jan Bryda
+ */
+public class HuffFileSystemTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, byte[]> contents = new TreeMap<>();
+    private File archiveFile;
+    private FileSystem fileSystem;
+
+    private static byte[] data(long seed, int size) {
+        Random random = new Random(seed);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++)
+            data[i] = (byte) ('a' + Math.min(7, (int) Math.abs(random.nextGaussian() * 2)));
+        return data;
+    }
+
+    /**
+     * Writes the files on disk and saves them into the archive, coded by Huffman coding or stored, by turns.
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        contents.put("readme.txt", data(1, 1000));
+        contents.put("docs/a.txt", data(2, 20000));
+        contents.put("docs/deep/c.bin", data(3, 300000));
+        contents.put("src/Main.java", data(4, 5000));
+
+        File sourceDirectory = folder.newFolder("source");
+        Archive archive = new Archive();
+        boolean huffman = true;
+        for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+            File file = new File(sourceDirectory, entry.getKey());
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), entry.getValue());
+
+            ArchiveDirectory directory = archive.getRootDirectory();
+            String[] names = entry.getKey().split("/");
+            for (int i = 0; i < names.length - 1; i++)
+                directory = subdirectory(directory, names[i]);
+            directory.addFile(new FileToCode(file.getPath(), huffman ? new HuffmanCodec() : new NoneCodec()));
+            huffman = !huffman;
+        }
+
+        archiveFile = new File(folder.getRoot(), "archive.huff");
+        new ArchiveSaver().save(archive, new FileOutputStreamGenerator(archiveFile));
+        fileSystem = FileSystems.newFileSystem(archiveFile.toPath(), (ClassLoader) null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        fileSystem.close();
+    }
+
+    private static ArchiveDirectory subdirectory(ArchiveDirectory directory, String name) {
+        for (ArchiveDirectory subdirectory : directory.getSubdirectories()) {
+            if (subdirectory.getName().equals(name))
+                return subdirectory;
+        }
+        ArchiveDirectory subdirectory = new ArchiveDirectory(name);
+        directory.addSubdirectory(subdirectory);
+        return subdirectory;
+    }
+
+    @Test
+    public void fileSystemIsFoundByPath() {
+        assertTrue(fileSystem instanceof HuffFileSystem);
+        assertEquals(HuffFileSystemProvider.SCHEME, fileSystem.provider().getScheme());
+        assertTrue(fileSystem.isReadOnly());
+    }
+
+    @Test
+    public void filesAreRead() throws Exception {
+        for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+            Path path = fileSystem.getPath("/" + entry.getKey());
+            assertArrayEquals(entry.getKey(), entry.getValue(), Files.readAllBytes(path));
+        }
+    }
+
+    @Test
+    public void filesAreWalked() throws Exception {
+        try (Stream<Path> paths = Files.walk(fileSystem.getPath("/"))) {
+            Set<String> files = paths.filter(Files::isRegularFile)
+                    .map(path -> path.toString().substring(1))
+                    .collect(Collectors.toCollection(TreeSet::new));
+            assertEquals(contents.keySet(), files);
+        }
+
+        List<String> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(fileSystem.getPath("/docs"))) {
+            for (Path entry : stream)
+                entries.add(entry.getFileName().toString());
+        }
+        assertEquals(Arrays.asList("a.txt", "deep"), entries);
+    }
+
+    @Test
+    public void attributesAreRead() throws Exception {
+        BasicFileAttributes attributes =
+                Files.readAttributes(fileSystem.getPath("/docs/deep/c.bin"), BasicFileAttributes.class);
+        assertTrue(attributes.isRegularFile());
+        assertEquals(300000, attributes.size());
+
+        assertTrue(Files.isDirectory(fileSystem.getPath("/docs/deep")));
+        assertFalse(Files.exists(fileSystem.getPath("/docs/missing.txt")));
+        try {
+            Files.size(fileSystem.getPath("/missing"));
+            fail("missing file has no size");
+        } catch (NoSuchFileException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void fileIsReadAtPosition() throws Exception {
+        byte[] data = contents.get("docs/deep/c.bin");
+        try (SeekableByteChannel channel = Files.newByteChannel(fileSystem.getPath("/docs/deep/c.bin"))) {
+            assertEquals(data.length, channel.size());
+            ByteBuffer buffer = ByteBuffer.allocate(1000);
+            channel.position(250000);
+            while (buffer.hasRemaining())
+                channel.read(buffer);
+            assertArrayEquals(Arrays.copyOfRange(data, 250000, 251000), buffer.array());
+        }
+    }
+
+    @Test
+    public void globMatchesPaths() {
+        PathMatcher matcher = fileSystem.getPathMatcher("glob:/docs/**");
+        assertTrue(matcher.matches(fileSystem.getPath("/docs/deep/c.bin")));
+        assertFalse(matcher.matches(fileSystem.getPath("/src/Main.java")));
+    }
+
+    @Test
+    public void writesAreRejected() throws Exception {
+        Path path = fileSystem.getPath("/readme.txt");
+        try {
+            Files.write(path, new byte[] { 1 });
+            fail("file system has to be read-only");
+        } catch (ReadOnlyFileSystemException e) {
+            // expected
+        }
+        try {
+            Files.delete(path);
+            fail("file system has to be read-only");
+        } catch (ReadOnlyFileSystemException e) {
+            // expected
+        }
+        try {
+            Files.createDirectory(fileSystem.getPath("/new"));
+            fail("file system has to be read-only");
+        } catch (ReadOnlyFileSystemException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void fileSystemIsRegisteredByUri() throws Exception {
+        URI uri = URI.create(HuffFileSystemProvider.SCHEME + ":" + archiveFile.toURI());
+        try (FileSystem registered = FileSystems.newFileSystem(uri, Collections.emptyMap())) {
+            assertSame(registered, FileSystems.getFileSystem(uri));
+            try {
+                FileSystems.newFileSystem(uri, Collections.emptyMap());
+                fail("file system of the archive is already registered");
+            } catch (FileSystemAlreadyExistsException e) {
+                // expected
+            }
+
+            Path path = registered.getPath("/src/Main.java");
+            assertEquals(path, Paths.get(path.toUri()));
+            assertArrayEquals(contents.get("src/Main.java"), Files.readAllBytes(Paths.get(path.toUri())));
+        }
+
+        try {
+            FileSystems.getFileSystem(uri);
+            fail("closed file system has to be unregistered");
+        } catch (FileSystemNotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = ClosedFileSystemException.class)
+    public void closedFileSystemIsNotRead() throws Exception {
+        Path path = fileSystem.getPath("/readme.txt");
+        fileSystem.close();
+        Files.readAllBytes(path);
+    }
+}